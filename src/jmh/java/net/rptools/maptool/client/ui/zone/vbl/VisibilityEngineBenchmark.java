@@ -0,0 +1,80 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone.vbl;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the visibility engines on random topology. Each block is a rectangle, so the number of
+ * wall segments is about four times the number of blocks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class VisibilityEngineBenchmark {
+
+  private static final int MAP_SIZE = 10000;
+
+  @Param({"AREA", "SWEEP"})
+  public VisibilityEngine.Type engineType;
+
+  @Param({"250", "1000", "2500"})
+  public int blocks;
+
+  @Param({"1000", "5000"})
+  public int visionRadius;
+
+  private VisibilityEngine engine;
+  private AreaTree tree;
+  private Area vision;
+
+  @Setup
+  public void setup() {
+    engine = engineType.getEngine();
+
+    Area topology = new Area();
+    Random random = new Random(12345);
+    for (int i = 0; i < blocks; i++) {
+      int x = random.nextInt(MAP_SIZE);
+      int y = random.nextInt(MAP_SIZE);
+      topology.add(
+          new Area(new Rectangle(x, y, random.nextInt(100) + 10, random.nextInt(100) + 10)));
+    }
+    // Keep the origin out of the VBL
+    topology.subtract(new Area(new Rectangle(MAP_SIZE / 2 - 200, MAP_SIZE / 2 - 200, 400, 400)));
+    tree = new AreaTree(topology);
+
+    vision =
+        new Area(
+            new Ellipse2D.Double(-visionRadius, -visionRadius, visionRadius * 2, visionRadius * 2));
+  }
+
+  @Benchmark
+  public Area calculateVisibility() {
+    return engine.calculateVisibility(MAP_SIZE / 2, MAP_SIZE / 2, vision, tree);
+  }
+}
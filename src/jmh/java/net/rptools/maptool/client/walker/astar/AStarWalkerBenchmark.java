@@ -0,0 +1,120 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import net.rptools.maptool.client.walker.WalkerMetric;
+import net.rptools.maptool.model.CellPoint;
+import net.rptools.maptool.model.Grid;
+import net.rptools.maptool.model.HexGridHorizontal;
+import net.rptools.maptool.model.SquareGrid;
+import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.model.Zone.TopologyMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Times the A* walkers across a map with random walls in the movement blocking layer. The cached
+ * benchmark reuses the navigation mesh of the zone the way dragging a token does, the cold one
+ * starts every path with an empty mesh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AStarWalkerBenchmark {
+
+  private static final int GRID_SIZE = 50;
+  private static final int CELLS = 80;
+
+  public enum GridType {
+    SQUARE,
+    HEX
+  }
+
+  @Param({"SQUARE", "HEX"})
+  public GridType gridType;
+
+  @Param({"50", "250"})
+  public int walls;
+
+  private Zone zone;
+  private AbstractAStarWalker walker;
+  private NavigationMesh mesh;
+  private CellPoint start;
+  private CellPoint goal;
+
+  @Setup
+  public void setup() {
+    zone = new Zone();
+    Grid grid =
+        gridType == GridType.SQUARE
+            ? new SquareGrid(false, false)
+            : new HexGridHorizontal(false, false);
+    zone.setGrid(grid);
+    grid.setSize(GRID_SIZE);
+
+    Random random = new Random(12345);
+    int mapSize = GRID_SIZE * CELLS;
+    for (int i = 0; i < walls; i++) {
+      int x = random.nextInt(mapSize);
+      int y = random.nextInt(mapSize);
+      Rectangle wall =
+          random.nextBoolean()
+              ? new Rectangle(x, y, random.nextInt(GRID_SIZE * 8) + GRID_SIZE, 4)
+              : new Rectangle(x, y, 4, random.nextInt(GRID_SIZE * 8) + GRID_SIZE);
+      zone.addTopology(new Area(wall), TopologyMode.MBL);
+    }
+    // Keep the ends of the path clear
+    int clear = GRID_SIZE * 3;
+    zone.removeTopology(new Area(new Rectangle(0, 0, clear, clear)), TopologyMode.MBL);
+    zone.removeTopology(
+        new Area(new Rectangle(mapSize - clear, mapSize - clear, clear, clear)), TopologyMode.MBL);
+
+    walker =
+        gridType == GridType.SQUARE
+            ? new AStarSquareEuclideanWalker(zone, WalkerMetric.ONE_TWO_ONE)
+            : new AStarHorizHexEuclideanWalker(zone);
+    start = new CellPoint(1, 1);
+    goal = new CellPoint(CELLS - 2, CELLS - 2);
+
+    mesh = newMesh();
+  }
+
+  private NavigationMesh newMesh() {
+    NavigationMesh mesh = new NavigationMesh();
+    mesh.update(zone.getGrid(), null, zone.getTopologyTerrain(), null);
+    return mesh;
+  }
+
+  @Benchmark
+  public List<CellPoint> cachedMesh() {
+    return walker.calculatePath(start, goal, mesh);
+  }
+
+  @Benchmark
+  public List<CellPoint> coldMesh() {
+    return walker.calculatePath(start, goal, newMesh());
+  }
+}
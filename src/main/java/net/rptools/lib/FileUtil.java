@@ -42,6 +42,7 @@
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
+import net.rptools.maptool.util.converter.AreaConverter;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
@@ -503,6 +504,8 @@ public static XStream getConfiguredXStream() {
     XStream xStream = new XStream();
     XStream.setupDefaultSecurity(xStream);
     xStream.allowTypesByWildcard(new String[] {"net.rptools.**", "java.awt.**", "sun.awt.**"});
+    xStream.registerConverter(
+        new AreaConverter(xStream.getMapper(), xStream.getReflectionProvider(), false));
     return xStream;
   }
 }
@@ -41,7 +41,9 @@
  * <p>The current implementation is less-than-ideal as it requires:
  *
  * <ul>
- *   <li>the entire XML passed in as a String
+ *   <li>the entire XML of an entry passed in as a String; {@link PackedFile} converts binary
+ *       entries to XML first. Campaigns keep each zone in an entry of its own, so this is one
+ *       zone at a time rather than the whole campaign
  *   <li>all XML is processed with transforms even if the version numbers indicate that it's not
  *       necessary
  * </ul>
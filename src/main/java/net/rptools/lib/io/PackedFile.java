@@ -15,6 +15,10 @@
 package net.rptools.lib.io;
 
 import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.io.binary.BinaryStreamDriver;
+import com.thoughtworks.xstream.io.copy.HierarchicalStreamCopier;
+import com.thoughtworks.xstream.io.xml.PrettyPrintWriter;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
@@ -29,6 +33,7 @@
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.StringWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.Charset;
@@ -39,6 +44,7 @@
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.CRC32;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -90,18 +96,40 @@
  * this is that all character data should be written to the packed file as POJOs in order to obtain
  * the automatic character set encoding. (Otherwise, strings can be converted to UTF-8 using the
  * {@link String#getBytes(String)} method.
+ *
+ * <p>Objects put in paths ending with {@link #BINARY_EXTENSION} are written with the binary form of
+ * the XStream stream instead of XML. It holds the same elements and attributes, but element names
+ * are written once and then referred to by number, and nothing is escaped, so it is smaller and
+ * faster to read and write.
+ *
+ * <p>Entries of data that is already compressed, such as PNG and JPEG images, are stored rather
+ * than deflated again.
  */
 public class PackedFile implements AutoCloseable {
 
-  private static final String PROPERTY_FILE = "properties.xml";
-  private static final String CONTENT_FILE = "content.xml";
+  public static final String PROPERTY_FILE = "properties.xml";
+  public static final String CONTENT_FILE = "content.xml";
+  public static final String BINARY_CONTENT_FILE = "content.bin";
+
+  /** Objects in paths with this extension are written in binary form. */
+  public static final String BINARY_EXTENSION = ".bin";
+
+  /** Extensions of data that is already compressed, so its entries are stored as they are. */
+  private static final Set<String> COMPRESSED_EXTENSIONS =
+      Set.of("png", "jpg", "jpeg", "gif", "webp", "mp3", "ogg", "m4a", "mp4", "zip", "pdf");
+
+  private static final BinaryStreamDriver binaryDriver = new BinaryStreamDriver();
 
   private static final Logger log = LogManager.getLogger(PackedFile.class);
 
   private static File tmpDir =
       new File(System.getProperty("java.io.tmpdir")); // Shared temporary directory
 
-  private final XStream xstream = FileUtil.getConfiguredXStream();
+  /** Shared by all packed files that don't configure their own. */
+  private static XStream sharedXStream;
+
+  /** Made when the XStream is configured through {@link #getXStream()}, until then null. */
+  private XStream xstream;
 
   private final File file; // Original zip file
   private final File tmpFile; // Temporary directory where changes are kept
@@ -131,11 +159,78 @@ public void setModelVersionManager(ModelVersionManager versionManager) {
     this.versionManager = versionManager;
   }
 
-  /** Useful for configuring the xstream for object serialization */
+  /**
+   * Useful for configuring the xstream for object serialization. The packed file gets an XStream
+   * of its own the first time this is called; until then a shared one is used.
+   */
   public XStream getXStream() {
+    if (xstream == null) {
+      xstream = newXStream();
+    }
     return xstream;
   }
 
+  /** @return the XStream used to read and write the objects */
+  private XStream xstream() {
+    if (xstream != null) {
+      return xstream;
+    }
+    synchronized (PackedFile.class) {
+      if (sharedXStream == null) {
+        sharedXStream = newXStream();
+      }
+      return sharedXStream;
+    }
+  }
+
+  private static XStream newXStream() {
+    XStream xs = FileUtil.getConfiguredXStream();
+    // Jamz: Should we use this? This will ignore new classes/fields added.
+    xs.ignoreUnknownElements();
+    return xs;
+  }
+
+  /**
+   * @param path a path in the packed file
+   * @return true if objects in the path are written in binary form
+   */
+  public static boolean isBinary(String path) {
+    return path.endsWith(BINARY_EXTENSION);
+  }
+
+  /**
+   * @param path a path in the packed file
+   * @return true if the extension of the path is that of data that is already compressed
+   */
+  public static boolean isCompressedFormat(String path) {
+    int dot = path.lastIndexOf('.');
+    return dot >= 0 && COMPRESSED_EXTENSIONS.contains(path.substring(dot + 1).toLowerCase());
+  }
+
+  /**
+   * Write the object in binary form.
+   *
+   * @param xs the XStream to serialize the object with
+   * @param obj the object
+   * @param out the stream to write to; it is flushed but not closed
+   */
+  public static void toBinary(XStream xs, Object obj, OutputStream out) {
+    HierarchicalStreamWriter writer = binaryDriver.createWriter(out);
+    xs.marshal(obj, writer);
+    writer.flush();
+  }
+
+  /**
+   * Read an object written by {@link #toBinary(XStream, Object, OutputStream)}.
+   *
+   * @param xs the XStream to deserialize the object with
+   * @param in the stream to read from
+   * @return the object
+   */
+  public static Object fromBinary(XStream xs, InputStream in) {
+    return xs.unmarshal(binaryDriver.createReader(in));
+  }
+
   public PackedFile(File file) {
     this.file = file;
     dirty = !file.exists();
@@ -202,6 +297,11 @@ public Object getContent() throws IOException {
     return getContent(versionManager, (String) getProperty("version"));
   }
 
+  /** @return the path of the content, binary if the file has binary content */
+  private String getContentPath() throws IOException {
+    return hasFile(BINARY_CONTENT_FILE) ? BINARY_CONTENT_FILE : CONTENT_FILE;
+  }
+
   /**
    * Same as {@link #getContent()} except that the version can be specified. This allows a newer
    * release of an application to provide automatic transformation information that will be applied
@@ -227,15 +327,13 @@ public Object getContent(String fileVersion) throws IOException {
    */
   public Object getContent(ModelVersionManager versionManager, String fileVersion)
       throws IOException {
-    try (Reader r = getFileAsReader(CONTENT_FILE)) {
+    String path = getContentPath();
+    try {
       if (versionManager != null && versionManager.isTransformationRequired(fileVersion)) {
-        String xml = IOUtils.toString(r);
-        xml = versionManager.transform(xml, fileVersion);
-        xstream.ignoreUnknownElements(); // Jamz: Should we use this? This will ignore new
-        // classes/fields added.
-        return xstream.fromXML(xml);
+        String xml = versionManager.transform(getFileAsXml(path), fileVersion);
+        return xstream().fromXML(xml);
       } else {
-        return getFileObject(CONTENT_FILE);
+        return getFileObject(path);
       }
     } catch (NullPointerException npe) {
       log.error("Problem finding/converting content file", npe);
@@ -243,6 +341,47 @@ public Object getContent(ModelVersionManager versionManager, String fileVersion)
     }
   }
 
+  /**
+   * Same as {@link #getFileObject(String)}, except that the transformations of the version manager
+   * for files older than <code>fileVersion</code> are applied to the XML first. A binary entry is
+   * turned into XML for that; the transformations work on one entry at a time, so only the XML of
+   * that entry is held in memory.
+   *
+   * @param path zip file archive path entry
+   * @param fileVersion such as "1.3.70"
+   * @return Object created by translating the XML
+   * @throws IOException
+   */
+  public Object getFileObject(String path, String fileVersion) throws IOException {
+    if (versionManager != null && versionManager.isTransformationRequired(fileVersion)) {
+      String xml = versionManager.transform(getFileAsXml(path), fileVersion);
+      return xstream().fromXML(xml);
+    }
+    return getFileObject(path);
+  }
+
+  /**
+   * Return the XML of an object entry. Binary entries are converted to XML.
+   *
+   * @param path zip file archive path entry
+   * @return the XML
+   * @throws IOException if the entry can't be read
+   */
+  private String getFileAsXml(String path) throws IOException {
+    if (!isBinary(path)) {
+      try (Reader r = getFileAsReader(path)) {
+        return IOUtils.toString(r);
+      }
+    }
+    try (InputStream is = new BufferedInputStream(getFileAsInputStream(path))) {
+      StringWriter xml = new StringWriter();
+      PrettyPrintWriter writer = new PrettyPrintWriter(xml);
+      new HierarchicalStreamCopier().copy(binaryDriver.createReader(is), writer);
+      writer.flush();
+      return xml.toString();
+    }
+  }
+
   @SuppressWarnings("unchecked")
   protected Map<String, Object> getPropertyMap() throws IOException {
     if (hasFile(PROPERTY_FILE) && !propsLoaded) {
@@ -278,7 +417,7 @@ public void save() throws IOException {
     File newFile = new File(tmpDir, new GUID() + ".pak");
     ZipOutputStream zout =
         new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(newFile)));
-    zout.setLevel(Deflater.BEST_COMPRESSION); // fast compression
+    zout.setLevel(Deflater.DEFAULT_COMPRESSION);
     try {
       saveTimer.start(CONTENT_FILE);
       if (hasFile(CONTENT_FILE)) {
@@ -291,7 +430,7 @@ public void save() throws IOException {
         removeFile(PROPERTY_FILE);
       } else {
         zout.putNextEntry(new ZipEntry(PROPERTY_FILE));
-        xstream.toXML(getPropertyMap(), zout);
+        xstream().toXML(getPropertyMap(), zout);
         zout.closeEntry();
       }
       saveTimer.stop(PROPERTY_FILE);
@@ -315,14 +454,7 @@ public void save() throws IOException {
               && !removedFileSet.contains(entry.getName())
               && !CONTENT_FILE.equals(entry.getName())
               && !PROPERTY_FILE.equals(entry.getName())) {
-            // if (entry.getName().endsWith(".png") ||
-            // entry.getName().endsWith(".gif") ||
-            // entry.getName().endsWith(".jpeg"))
-            // zout.setLevel(Deflater.NO_COMPRESSION); // none needed for images as they are already
-            // compressed
-            // else
-            // zout.setLevel(Deflater.BEST_COMPRESSION); // fast compression
-            zout.putNextEntry(entry);
+            zout.putNextEntry(copyEntry(entry));
             try (InputStream is = getFileAsInputStream(entry.getName())) {
               // When copying, always use an InputStream
               IOUtils.copy(is, zout);
@@ -389,8 +521,40 @@ public void save() throws IOException {
     }
   }
 
+  /**
+   * Make the entry to copy an entry of the original file with. Already compressed data is stored,
+   * the rest deflated.
+   */
+  private static ZipEntry copyEntry(ZipEntry entry) {
+    ZipEntry copy = new ZipEntry(entry.getName());
+    copy.setTime(entry.getTime());
+    if (isCompressedFormat(entry.getName()) && entry.getSize() >= 0 && entry.getCrc() >= 0) {
+      copy.setMethod(ZipEntry.STORED);
+      copy.setSize(entry.getSize());
+      copy.setCompressedSize(entry.getSize());
+      copy.setCrc(entry.getCrc());
+    }
+    return copy;
+  }
+
   private void saveEntry(ZipOutputStream zout, String path) throws IOException {
-    zout.putNextEntry(new ZipEntry(path));
+    ZipEntry entry = new ZipEntry(path);
+    File explodedFile = getExplodedFile(path);
+    if (isCompressedFormat(path) && explodedFile.exists()) {
+      // Stored entries need their size and CRC up front
+      CRC32 crc = new CRC32();
+      try (InputStream is = FileUtil.getFileAsInputStream(explodedFile)) {
+        byte[] buffer = new byte[8192];
+        for (int n = is.read(buffer); n >= 0; n = is.read(buffer)) {
+          crc.update(buffer, 0, n);
+        }
+      }
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(explodedFile.length());
+      entry.setCompressedSize(explodedFile.length());
+      entry.setCrc(crc.getValue());
+    }
+    zout.putNextEntry(entry);
     try (InputStream is = getFileAsInputStream(path)) {
       // When copying, always use an InputStream
       IOUtils.copy(is, zout);
@@ -467,7 +631,8 @@ public void putFile(String path, InputStream is) throws IOException {
   /**
    * Write the serialized object to the given path in the ZIP file; as the data is an object it is
    * first converted to XML and character set encoding will take place as the data is written to the
-   * (temporary) file.
+   * (temporary) file. Objects in binary paths, see {@link #isBinary(String)}, are written in binary
+   * form instead.
    *
    * @param path location within the ZIP file
    * @param obj the object to be written
@@ -475,10 +640,16 @@ public void putFile(String path, InputStream is) throws IOException {
    */
   public void putFile(String path, Object obj) throws IOException {
     File explodedFile = putFileImpl(path);
+    if (isBinary(path)) {
+      try (OutputStream os = new BufferedOutputStream(new FileOutputStream(explodedFile))) {
+        toBinary(xstream(), obj, os);
+      }
+      return;
+    }
     FileOutputStream fos = new FileOutputStream(explodedFile);
     OutputStreamWriter osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
     try (BufferedWriter bw = new BufferedWriter(osw)) {
-      xstream.toXML(obj, bw);
+      xstream().toXML(obj, bw);
 
       bw.newLine(); // Not necessary but editing the file looks nicer. ;-)
     }
@@ -525,7 +696,8 @@ private ZipFile getZipFile() throws IOException {
   /**
    * Returns a POJO by reading the contents of the zip archive path specified and converting the XML
    * via the associated XStream object. (Because the XML is character data, this routine calls
-   * {@link #getFileAsReader(String)} to handle character encoding.)
+   * {@link #getFileAsReader(String)} to handle character encoding.) Binary entries are read with
+   * {@link #fromBinary(XStream, InputStream)}.
    *
    * <p><b>TODO:</b> add {@link ModelVersionManager} support
    *
@@ -539,12 +711,14 @@ public Object getFileObject(String path) throws IOException {
     // never marshalls the image data, but *does* unmarshall it. This allows
     // older pre-1.3.b64 campaigns to be loaded but only the newer format
     // (with a separate image file) works on output.
+    if (isBinary(path)) {
+      try (InputStream is = new BufferedInputStream(getFileAsInputStream(path))) {
+        return fromBinary(xstream(), is);
+      }
+    }
     LineNumberReader r = getFileAsReader(path);
     try (r) {
-      xstream
-          .ignoreUnknownElements(); // Jamz: Should we use this? This will ignore new classes/fields
-      // added.
-      return xstream.fromXML(r);
+      return xstream().fromXML(r);
     } catch (InstantiationError ie) {
       log.error("Found at line number " + r.getLineNumber());
       log.error("Cannot convert XML to Object", ie);
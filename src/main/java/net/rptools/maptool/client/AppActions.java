@@ -113,6 +113,7 @@
 import net.rptools.maptool.model.drawing.DrawableTexturePaint;
 import net.rptools.maptool.server.ServerConfig;
 import net.rptools.maptool.server.ServerPolicy;
+import net.rptools.maptool.util.CampaignZoneLoader;
 import net.rptools.maptool.util.ImageManager;
 import net.rptools.maptool.util.PersistenceUtil;
 import net.rptools.maptool.util.PersistenceUtil.PersistedCampaign;
@@ -2377,6 +2378,7 @@ public void run() {
         }
         MapTool.getAutoSaveManager().pause(); // Pause auto-save while loading
         AppState.setIsLoading(true);
+        CampaignZoneLoader zoneLoader = null;
         try {
           StaticMessageDialog progressDialog =
               new StaticMessageDialog(I18N.getText("msg.info.campaignLoading"));
@@ -2389,7 +2391,9 @@ public void run() {
               MapTool.getBackupManager().backup(campaignFile);
             }
             // Load
-            final PersistedCampaign campaign = PersistenceUtil.loadCampaign(campaignFile);
+            final PersistedCampaign campaign =
+                PersistenceUtil.loadCampaign(
+                    campaignFile, AppPreferences.getLoadZonesInBackground());
             if (campaign != null) {
               // current = MapTool.getFrame().getCurrentZoneRenderer();
               // MapTool.getFrame().setCurrentZoneRenderer(null);
@@ -2417,7 +2421,13 @@ public void run() {
               {
                 MapTool.serverCommand().setCampaign(campaign.campaign);
               }
-              MapTool.setCampaign(campaign.campaign, campaign.currentZoneId);
+              MapTool.setCampaign(
+                  campaign.campaign, campaign.currentZoneId, campaign.zoneLoader == null);
+              if (campaign.zoneLoader != null) {
+                // Keeps autosave paused until the rest of the zones are in
+                zoneLoader = campaign.zoneLoader;
+                zoneLoader.start();
+              }
               ZoneRenderer current = MapTool.getFrame().getCurrentZoneRenderer();
               if (campaign.currentView != null && current != null)
                 current.setZoneScale(campaign.currentView);
@@ -2430,8 +2440,10 @@ public void run() {
             }
           } finally {
             MapTool.getFrame().hideGlassPane();
-            AppState.setIsLoading(false);
-            MapTool.getAutoSaveManager().restart();
+            if (zoneLoader == null) {
+              AppState.setIsLoading(false);
+              MapTool.getAutoSaveManager().restart();
+            }
           }
         } catch (Throwable t) {
           MapTool.showError("msg.error.failedLoadCampaign", t);
@@ -2477,10 +2489,16 @@ protected void executeAction(final ActionEvent ae) {
             callback = (Observer) ae.getSource();
             log.debug("Callback being used in doSaveCampaign(): " + ae.paramString());
           }
+          if (!checkCampaignSavable()) {
+            return;
+          }
           if (AppState.getCampaignFile() == null) {
             doSaveCampaignAs(callback);
             return;
           }
+          if (!confirmLayoutUpgrade(AppState.getCampaignFile())) {
+            return;
+          }
           doSaveCampaign(MapTool.getCampaign(), AppState.getCampaignFile(), callback);
         }
       };
@@ -2569,6 +2587,9 @@ protected void done() {
   }
 
   public static void doSaveCampaignAs(final Observer callback) {
+    if (!checkCampaignSavable()) {
+      return;
+    }
     Campaign campaign = MapTool.getCampaign();
     JFileChooser chooser = MapTool.getFrame().getSaveCmpgnFileChooser();
 
@@ -2579,6 +2600,9 @@ public static void doSaveCampaignAs(final Observer callback) {
   }
 
   public static void doCampaignExport() {
+    if (!checkCampaignSavable()) {
+      return;
+    }
     CampaignExportDialog dialog = MapTool.getCampaign().getExportCampaignDialog();
     dialog.setVisible(true);
     MapTool.getCampaign().setExportCampaignDialog(dialog);
@@ -2595,6 +2619,9 @@ private static void saveAndUpdateCampaignName(
     if (campaignFile.exists() && !MapTool.confirm("msg.confirm.overwriteExistingCampaign")) {
       return;
     }
+    if (campaignVersion == null && !confirmLayoutUpgrade(campaignFile)) {
+      return;
+    }
     doSaveCampaign(campaign, campaignFile, callback, campaignVersion);
     AppState.setCampaignFile(campaignFile);
     AppPreferences.setSaveDir(campaignFile.getParentFile());
@@ -2604,6 +2631,37 @@ private static void saveAndUpdateCampaignName(
     }
   }
 
+  /**
+   * A campaign can't be saved while its zones are still being read in the background, the EDT
+   * can't wait for them; nor once some of them failed to load, that would drop them from the file.
+   *
+   * @return true if the current campaign can be saved, otherwise the user has been told why not
+   */
+  private static boolean checkCampaignSavable() {
+    if (CampaignZoneLoader.isIncomplete()) {
+      MapTool.showError("msg.error.campaignIncomplete");
+      return false;
+    }
+    if (CampaignZoneLoader.isLoading()) {
+      MapTool.showInformation("msg.info.campaignStillLoading");
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * With the new campaign format turned on in the preferences, a normal save of a campaign file
+   * from an older version upgrades it for good, so ask first; the export is the way to keep a file
+   * older versions can open.
+   *
+   * @return true if the file can be saved in the chosen format
+   */
+  private static boolean confirmLayoutUpgrade(File campaignFile) {
+    return !AppPreferences.getNewCampaignFormat()
+        || !PersistenceUtil.isOlderLayout(campaignFile)
+        || MapTool.confirm("msg.confirm.upgradeCampaignLayout", campaignFile.getName());
+  }
+
   private static File getFileWithExtension(File file, String extension) {
     if (!file.getName().toLowerCase().endsWith(extension)) {
       file = new File(file.getAbsolutePath() + extension);
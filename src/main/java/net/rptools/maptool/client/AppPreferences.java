@@ -23,6 +23,7 @@
 import java.util.ListIterator;
 import java.util.Set;
 import java.util.prefs.Preferences;
+import net.rptools.maptool.client.ui.zone.vbl.VisibilityEngine;
 import net.rptools.maptool.client.walker.WalkerMetric;
 import net.rptools.maptool.model.GridFactory;
 import net.rptools.maptool.model.Token;
@@ -45,6 +46,9 @@ public class AppPreferences {
   private static final String KEY_SAVE_REMINDER = "autoSaveReminder";
   private static final boolean DEFAULT_SAVE_REMINDER = true;
 
+  private static final String KEY_NEW_CAMPAIGN_FORMAT = "newCampaignFormat";
+  private static final boolean DEFAULT_NEW_CAMPAIGN_FORMAT = false;
+
   private static final String KEY_TOKEN_NUMBER_DISPLAY = "tokenNumberDisplayg";
   private static final String DEFAULT_TOKEN_NUMBER_DISPLAY = Token.NUM_ON_NAME;
 
@@ -206,6 +210,18 @@ public static boolean getSaveReminder() {
     return prefs.getBoolean(KEY_SAVE_REMINDER, DEFAULT_SAVE_REMINDER);
   }
 
+  public static void setNewCampaignFormat(boolean flag) {
+    prefs.putBoolean(KEY_NEW_CAMPAIGN_FORMAT, flag);
+  }
+
+  /**
+   * @return true if campaigns are saved with the zones in their own binary entries, which older
+   *     versions of MapTool can't open; false to save them with all the zones in content.xml
+   */
+  public static boolean getNewCampaignFormat() {
+    return prefs.getBoolean(KEY_NEW_CAMPAIGN_FORMAT, DEFAULT_NEW_CAMPAIGN_FORMAT);
+  }
+
   // public static void setEnabledMapExportImport(boolean reminder) {
   // prefs.putBoolean(KEY_ENABLE_MAP_EXPORT_IMPORT, reminder);
   // AppActions.updateActions();
@@ -356,6 +372,22 @@ public static int getFogOverlayOpacity() {
   private static final String KEY_DEFAULT_VISION_TYPE = "defaultVisionType";
   private static final Zone.VisionType DEFAULT_VISION_TYPE = Zone.VisionType.OFF;
 
+  private static final String KEY_VISIBILITY_ENGINE = "visibilityEngine";
+  private static final VisibilityEngine.Type DEFAULT_VISIBILITY_ENGINE = VisibilityEngine.Type.AREA;
+
+  private static final String KEY_LOAD_ZONES_IN_BACKGROUND = "loadZonesInBackground";
+  private static final boolean DEFAULT_LOAD_ZONES_IN_BACKGROUND = false;
+
+  private static final String KEY_ASSET_CACHE_SIZE = "assetCacheSize";
+  // In megabytes, an eighth of the heap for raw asset data
+  private static final int DEFAULT_ASSET_CACHE_SIZE =
+      (int) (Runtime.getRuntime().maxMemory() / (8 * 1024 * 1024));
+
+  private static final String KEY_IMAGE_CACHE_SIZE = "imageCacheSize";
+  // In megabytes, a quarter of the heap for decoded images
+  private static final int DEFAULT_IMAGE_CACHE_SIZE =
+      (int) (Runtime.getRuntime().maxMemory() / (4 * 1024 * 1024));
+
   private static final String KEY_FONT_SIZE = "fontSize";
   private static final int DEFAULT_FONT_SIZE = 12;
 
@@ -623,6 +655,26 @@ public static void setChatColor(Color color) {
     prefs.putInt(KEY_CHAT_COLOR, color.getRGB());
   }
 
+  /** @param size the memory budget for raw asset data, in megabytes */
+  public static void setAssetCacheSize(int size) {
+    prefs.putInt(KEY_ASSET_CACHE_SIZE, size);
+  }
+
+  /** @return the memory budget for raw asset data, in megabytes */
+  public static int getAssetCacheSize() {
+    return prefs.getInt(KEY_ASSET_CACHE_SIZE, DEFAULT_ASSET_CACHE_SIZE);
+  }
+
+  /** @param size the memory budget for decoded images, in megabytes */
+  public static void setImageCacheSize(int size) {
+    prefs.putInt(KEY_IMAGE_CACHE_SIZE, size);
+  }
+
+  /** @return the memory budget for decoded images, in megabytes */
+  public static int getImageCacheSize() {
+    return prefs.getInt(KEY_IMAGE_CACHE_SIZE, DEFAULT_IMAGE_CACHE_SIZE);
+  }
+
   public static void setFontSize(int size) {
     prefs.putInt(KEY_FONT_SIZE, size);
   }
@@ -700,6 +752,28 @@ public static Zone.VisionType getDefaultVisionType() {
     }
   }
 
+  public static void setVisibilityEngine(VisibilityEngine.Type engine) {
+    prefs.put(KEY_VISIBILITY_ENGINE, engine.toString());
+  }
+
+  public static VisibilityEngine.Type getVisibilityEngine() {
+    try {
+      return VisibilityEngine.Type.valueOf(
+          prefs.get(KEY_VISIBILITY_ENGINE, DEFAULT_VISIBILITY_ENGINE.toString()));
+    } catch (Exception e) {
+      return DEFAULT_VISIBILITY_ENGINE;
+    }
+  }
+
+  public static void setLoadZonesInBackground(boolean flag) {
+    prefs.putBoolean(KEY_LOAD_ZONES_IN_BACKGROUND, flag);
+  }
+
+  /** @return true to show the current zone of a campaign first and load the others after it */
+  public static boolean getLoadZonesInBackground() {
+    return prefs.getBoolean(KEY_LOAD_ZONES_IN_BACKGROUND, DEFAULT_LOAD_ZONES_IN_BACKGROUND);
+  }
+
   public static void setUseSoftFogEdges(boolean flag) {
     prefs.putBoolean(KEY_USE_SOFT_FOG_EDGES, flag);
   }
@@ -18,9 +18,16 @@
 import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import javax.swing.Timer;
 import net.rptools.maptool.language.I18N;
 import net.rptools.maptool.model.Campaign;
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.util.CampaignZoneLoader;
 import net.rptools.maptool.util.PersistenceUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -37,6 +44,36 @@ public class AutoSaveManager implements ActionListener {
           AppUtil.getAppHome("autosave"), // $NON-NLS-1$
           "AutoSave" + AppConstants.CAMPAIGN_FILE_EXTENSION);
 
+  /**
+   * Every this many autosaves all zones are copied and written again, in case a change got past
+   * {@link Zone#getVersion()}, such as a token changed without being put back in its zone.
+   */
+  private static final int FULL_SNAPSHOT_INTERVAL = 5;
+
+  /**
+   * The copies of the zones made for the last autosave, keyed on the zone id. Guarded by itself,
+   * the campaign can be replaced from a loader thread.
+   */
+  private final Map<GUID, ZoneSnapshot> snapshots = new HashMap<GUID, ZoneSnapshot>();
+
+  private int autosavesSinceFull;
+
+  /** Set when an autosave did not make it to the file, so its snapshots can't be trusted. */
+  private volatile boolean lastSaveFailed;
+
+  /** A copy of a zone and the version of the zone it was made from. */
+  private static class ZoneSnapshot {
+    final Zone source;
+    final long version;
+    final Zone copy;
+
+    ZoneSnapshot(Zone source, Zone copy) {
+      this.source = source;
+      this.version = source.getVersion();
+      this.copy = copy;
+    }
+  }
+
   public void start() {
     restart();
   }
@@ -108,6 +145,11 @@ public void actionPerformed(ActionEvent e) {
         log.info("Canceling autosave because user initiated LOAD operation"); // $NON-NLS-1$
         return;
       }
+      if (CampaignZoneLoader.isIncomplete()) {
+        // Would overwrite the last autosave with a campaign missing the zones that failed to load
+        log.info("Skipping autosave because the campaign did not load completely"); // $NON-NLS-1$
+        return;
+      }
       AppState.setIsSaving(true);
       pause();
     }
@@ -124,10 +166,17 @@ public void actionPerformed(ActionEvent e) {
       //
       // NOTE: This is a cheesy way to clone the campaign, but it makes it so that I
       // don't have to keep all the various models' clone methods updated on each change.
-      final Campaign campaign = new Campaign(MapTool.getCampaign());
+      // Zones that haven't changed since the last autosave keep their previous copy, and
+      // are copied from the last autosave file instead of being written again.
+      final Set<GUID> unchangedZones = new HashSet<GUID>();
+      final Campaign campaign = snapshotCampaign(MapTool.getCampaign(), unchangedZones);
       log.info(
           "Time to copy Campaign object (ms): "
-              + (System.currentTimeMillis() - startCopy)); // $NON-NLS-1$
+              + (System.currentTimeMillis() - startCopy)
+              + ", zones unchanged: "
+              + unchangedZones.size()
+              + "/"
+              + campaign.getZones().size()); // $NON-NLS-1$
 
       // Now that we have a copy of the model, save that one
       // TODO: Replace this with a swing worker
@@ -139,12 +188,16 @@ public void run() {
                   long startSave = System.currentTimeMillis();
                   try {
                     log.info("Starting autosave..."); // $NON-NLS-1$
-                    PersistenceUtil.saveCampaign(campaign, AUTOSAVE_FILE, null);
+                    // Always the new format, only this version reads the autosave back
+                    PersistenceUtil.saveCampaign(
+                        campaign, AUTOSAVE_FILE, null, true, unchangedZones);
                     return;
                   } catch (IOException ioe) {
+                    lastSaveFailed = true;
                     log.debug("IOException during autosave: " + ioe);
                     MapTool.showError("AutoSaveManager.failed", ioe);
                   } catch (Throwable t) {
+                    lastSaveFailed = true;
                     log.debug("Throwable during autosave: " + t);
                     MapTool.showError("AutoSaveManager.failed", t);
                   } finally {
@@ -179,6 +232,56 @@ public void run() {
     }
   }
 
+  /**
+   * Copy the campaign for saving, reusing the copy made for the last autosave of every zone that
+   * hasn't changed since. Must be called on the EDT, like any other access to the model.
+   *
+   * @param source the campaign to copy
+   * @param unchangedZones receives the ids of the zones whose previous copy was reused
+   * @return the copy
+   */
+  private Campaign snapshotCampaign(Campaign source, Set<GUID> unchangedZones) {
+    synchronized (snapshots) {
+      boolean full = lastSaveFailed || ++autosavesSinceFull >= FULL_SNAPSHOT_INTERVAL;
+      if (full) {
+        snapshots.clear();
+        autosavesSinceFull = 0;
+        lastSaveFailed = false;
+      }
+      Map<GUID, ZoneSnapshot> current = new HashMap<GUID, ZoneSnapshot>();
+      Campaign campaign =
+          new Campaign(
+              source,
+              zone -> {
+                ZoneSnapshot snapshot = snapshots.get(zone.getId());
+                if (snapshot != null
+                    && snapshot.source == zone
+                    && snapshot.version == zone.getVersion()) {
+                  unchangedZones.add(zone.getId());
+                } else {
+                  snapshot = new ZoneSnapshot(zone, new Zone(zone, true));
+                }
+                current.put(zone.getId(), snapshot);
+                return snapshot.copy;
+              });
+      // Drops the zones that are gone
+      snapshots.clear();
+      snapshots.putAll(current);
+      return campaign;
+    }
+  }
+
+  /**
+   * Forget the zone copies of the previous campaign, so they don't hold on to its zones. Called
+   * when the campaign is replaced.
+   */
+  public void clearSnapshots() {
+    synchronized (snapshots) {
+      snapshots.clear();
+      autosavesSinceFull = 0;
+    }
+  }
+
   /** Removes any autosaved files */
   public void purge() {
     if (AUTOSAVE_FILE.exists()) {
@@ -23,12 +23,14 @@ public static enum COMMAND {
     bootPlayer,
     setCampaign,
     putZone,
+    zoneCopied, // The zone that follows was copied now; the commands for it after this apply on top
     removeZone,
     putAsset,
     getAsset,
     removeAsset,
     putToken,
     updateTokenProperty,
+    updateTokenDelta,
     removeToken,
     draw,
     clearAllDrawings,
@@ -0,0 +1,220 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import net.rptools.maptool.client.ClientCommand.COMMAND;
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.Label;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
+
+/**
+ * The server commands waiting to be applied to the model. Commands are received on the connection
+ * thread and applied in batches on the EDT: one task drains whatever arrived since the last batch,
+ * so a burst of commands costs one task and one repaint rather than one of each per command.
+ *
+ * <p>Commands made useless by a later one are dropped before they are applied. A full copy of a
+ * token supersedes the pending copies, deltas and property updates of that token, since the server
+ * sent it after applying them, and a label supersedes the pending copies of that label. The
+ * acknowledgements of our own token changes are always applied.
+ */
+public class ClientCommandQueue {
+  /** The most commands applied in one batch, so that the EDT gets to paint between batches. */
+  static final int MAX_BATCH = 500;
+
+  /** A command received from the server. */
+  public static class Command {
+    private final COMMAND cmd;
+    private final Object[] parameters;
+    private final long received;
+    private boolean superseded;
+
+    private Command(COMMAND cmd, Object[] parameters, long received) {
+      this.cmd = cmd;
+      this.parameters = parameters;
+      this.received = received;
+    }
+
+    public COMMAND getCommand() {
+      return cmd;
+    }
+
+    public Object[] getParameters() {
+      return parameters;
+    }
+  }
+
+  private final Consumer<List<Command>> applier;
+  private final Executor executor;
+
+  private final ArrayDeque<Command> queue = new ArrayDeque<Command>();
+
+  /** The pending commands that a later command could supersede, by what they update. */
+  private final Map<List<Object>, List<Command>> supersedable =
+      new HashMap<List<Object>, List<Command>>();
+
+  private boolean drainScheduled;
+
+  // Statistics, guarded by the queue
+  private int depth;
+  private int maxDepth;
+  private long receivedCount;
+  private long appliedCount;
+  private long supersededCount;
+  private long batchCount;
+  private long totalLatency;
+  private long maxLatency;
+
+  /**
+   * @param applier applies a batch of commands, in the order they were received
+   * @param executor runs the batches, normally on the EDT
+   */
+  public ClientCommandQueue(Consumer<List<Command>> applier, Executor executor) {
+    this.applier = applier;
+    this.executor = executor;
+  }
+
+  /**
+   * Queue a command, superseding the pending commands it makes useless, and make sure a batch is
+   * on its way.
+   *
+   * @param cmd the command
+   * @param parameters the parameters of the command
+   */
+  public void add(COMMAND cmd, Object[] parameters) {
+    Command command = new Command(cmd, parameters, System.nanoTime());
+    synchronized (this) {
+      List<Object> key = getSupersedeKey(cmd, parameters);
+      if (key != null) {
+        List<Command> pending = supersedable.computeIfAbsent(key, k -> new ArrayList<Command>());
+        if (cmd == COMMAND.putToken || cmd == COMMAND.putLabel) {
+          for (Command old : pending) {
+            old.superseded = true;
+            supersededCount++;
+            depth--;
+          }
+          pending.clear();
+        }
+        pending.add(command);
+      }
+      queue.add(command);
+      receivedCount++;
+      depth++;
+      maxDepth = Math.max(maxDepth, depth);
+      if (drainScheduled) {
+        return;
+      }
+      drainScheduled = true;
+    }
+    executor.execute(this::drain);
+  }
+
+  /** Apply the next batch of commands, and schedule another if more are waiting. */
+  private void drain() {
+    List<Command> batch = new ArrayList<Command>();
+    synchronized (this) {
+      while (batch.size() < MAX_BATCH && !queue.isEmpty()) {
+        Command command = queue.poll();
+        if (command.superseded) {
+          continue;
+        }
+        List<Object> key = getSupersedeKey(command.cmd, command.parameters);
+        if (key != null) {
+          List<Command> pending = supersedable.get(key);
+          pending.remove(command);
+          if (pending.isEmpty()) {
+            supersedable.remove(key);
+          }
+        }
+        batch.add(command);
+      }
+      depth -= batch.size();
+    }
+    try {
+      if (!batch.isEmpty()) {
+        applier.accept(batch);
+      }
+    } finally {
+      long now = System.nanoTime();
+      boolean more;
+      synchronized (this) {
+        for (Command command : batch) {
+          long latency = now - command.received;
+          totalLatency += latency;
+          maxLatency = Math.max(maxLatency, latency);
+        }
+        appliedCount += batch.size();
+        batchCount++;
+        more = !queue.isEmpty();
+        drainScheduled = more;
+      }
+      if (more) {
+        executor.execute(this::drain);
+      }
+    }
+  }
+
+  /**
+   * @return what the command updates if a later command could supersede it or be superseded by it,
+   *     otherwise null
+   */
+  private static List<Object> getSupersedeKey(COMMAND cmd, Object[] parameters) {
+    switch (cmd) {
+      case putToken:
+        return Arrays.asList(Token.class, parameters[0], ((Token) parameters[1]).getId());
+      case updateTokenDelta:
+        TokenDelta delta = (TokenDelta) parameters[1];
+        // An acknowledgement is never superseded, the tracker needs every one of them
+        return delta.isAcknowledgement()
+            ? null
+            : Arrays.asList(Token.class, parameters[0], delta.getTokenId());
+      case updateTokenProperty:
+        return Arrays.asList(Token.class, parameters[0], (GUID) parameters[1]);
+      case putLabel:
+        return Arrays.asList(Label.class, parameters[0], ((Label) parameters[1]).getId());
+      default:
+        return null;
+    }
+  }
+
+  /** @return the number of commands waiting to be applied */
+  public synchronized int getDepth() {
+    return depth;
+  }
+
+  /** @return the queue depth, counts and apply latency so far */
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "Server commands: %d waiting (%d max), %d received, %d applied in %d batches,"
+            + " %d superseded, latency %.1fms avg %.1fms max",
+        depth,
+        maxDepth,
+        receivedCount,
+        appliedCount,
+        batchCount,
+        supersededCount,
+        appliedCount > 0 ? totalLatency / 1e6 / appliedCount : 0.0,
+        maxLatency / 1e6);
+  }
+}
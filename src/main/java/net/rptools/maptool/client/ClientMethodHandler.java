@@ -19,12 +19,16 @@
 import java.awt.geom.Area;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import net.rptools.clientserver.hessian.AbstractMethodHandler;
 import net.rptools.lib.MD5Key;
 import net.rptools.maptool.client.functions.ExecFunction;
 import net.rptools.maptool.client.functions.MacroLinkFunction;
+import net.rptools.maptool.client.functions.UserDefinedMacroFunctions;
 import net.rptools.maptool.client.ui.MapToolFrame;
 import net.rptools.maptool.client.ui.tokenpanel.InitiativePanel;
 import net.rptools.maptool.client.ui.zone.FogUtil;
@@ -46,6 +50,7 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.TopologyMode;
 import net.rptools.maptool.model.Zone.VisionType;
@@ -58,6 +63,9 @@
 import net.rptools.maptool.transfer.AssetChunk;
 import net.rptools.maptool.transfer.AssetConsumer;
 import net.rptools.maptool.transfer.AssetHeader;
+import net.rptools.maptool.util.AreaCodec;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 /**
  * This class is used by the clients to receive server commands sent through {@link
@@ -66,10 +74,35 @@
  * @author drice
  */
 public class ClientMethodHandler extends AbstractMethodHandler {
+  private static final Logger log = LogManager.getLogger(ClientMethodHandler.class);
+
+  private final ClientCommandQueue commandQueue =
+      new ClientCommandQueue(this::applyCommands, EventQueue::invokeLater);
+
+  /** Set by the commands that change what is drawn; the batch repaints once at the end. */
+  private boolean refreshNeeded;
+
+  /**
+   * The zones of the campaign that the server hasn't sent yet. Commands for them are skipped until
+   * the server says it copied the zone: the copy brings the earlier changes along.
+   */
+  private final Set<GUID> pendingZones = new HashSet<GUID>();
+
+  /**
+   * The commands for pending zones received since the server copied them, applied on top of the
+   * copy once it arrives.
+   */
+  private final Map<GUID, List<ClientCommandQueue.Command>> heldCommands =
+      new HashMap<GUID, List<ClientCommandQueue.Command>>();
+
+  /** The zone the server asked to show before it arrived. */
+  private GUID pendingEnforcedZone;
+
   public ClientMethodHandler() {}
 
-  public void handleMethod(final String id, final String method, final Object... parameters) {
+  public void handleMethod(final String id, final String method, final Object... rawParameters) {
     final ClientCommand.COMMAND cmd = Enum.valueOf(ClientCommand.COMMAND.class, method);
+    final Object[] parameters = AreaCodec.unpackParameters(rawParameters);
 
     // System.out.println("ClientMethodHandler#handleMethod: " + cmd.name());
 
@@ -100,568 +133,747 @@ public void handleMethod(final String id, final String method, final Object... p
           // manager, and clear the "we're waiting for" flag so that it
           // gets requested again
           ioe.printStackTrace();
+        } finally {
+          // Always acknowledge, the server waits for it before sending more
+          MapTool.serverCommand().assetChunkReceived(chunk.getSequence());
         }
         return;
     }
 
     // Model events need to update on the EDT
-    EventQueue.invokeLater(
-        new Runnable() {
-          @SuppressWarnings("unchecked")
-          public void run() {
-            GUID zoneGUID;
-            GUID tokenGUID;
-            Zone zone;
-            Token token;
-            Set<GUID> selectedToks = null;
-
-            switch (cmd) {
-              case bootPlayer:
-                String playerName = (String) parameters[0];
-                if (MapTool.getPlayer().getName().equals(playerName)) {
-                  ServerDisconnectHandler.disconnectExpected = true;
-                  AppActions.disconnectFromServer();
-                  MapTool.showInformation("You have been booted from the server.");
-                }
-                return;
-
-              case enforceZone:
-                zoneGUID = (GUID) parameters[0];
-                ZoneRenderer renderer = MapTool.getFrame().getZoneRenderer(zoneGUID);
-
-                if (renderer != null
-                    && renderer != MapTool.getFrame().getCurrentZoneRenderer()
-                    && (renderer.getZone().isVisible() || MapTool.getPlayer().isGM())) {
-                  MapTool.getFrame().setCurrentZoneRenderer(renderer);
-                }
-                return;
-
-              case clearAllDrawings:
-                zoneGUID = (GUID) parameters[0];
-                Zone.Layer layer = (Zone.Layer) parameters[1];
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-                zone.clearDrawables(zone.getDrawnElements(layer));
-                MapTool.getFrame().refresh();
-                return;
-
-              case setZoneHasFoW:
-                zoneGUID = (GUID) parameters[0];
-                boolean hasFog = (Boolean) parameters[1];
-
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-                zone.setHasFog(hasFog);
-
-                // In case we're looking at the zone
-                MapTool.getFrame().refresh();
-                return;
-
-              case exposeFoW:
-                zoneGUID = (GUID) parameters[0];
-                Area area = (Area) parameters[1];
-
-                if (parameters.length > 2) {
-                  if (parameters[2] != null) {
-                    selectedToks = (Set<GUID>) parameters[2];
-                  }
-                }
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-                zone.exposeArea(area, selectedToks);
-                MapTool.getFrame().refresh();
-                return;
-
-              case setFoW:
-                zoneGUID = (GUID) parameters[0];
-                area = (Area) parameters[1];
-
-                if (parameters.length > 2) {
-                  if (parameters[2] != null) {
-                    selectedToks = (Set<GUID>) parameters[2];
-                  }
-                }
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-                zone.setFogArea(area, selectedToks);
-                MapTool.getFrame().refresh();
-                return;
-
-              case hideFoW:
-                zoneGUID = (GUID) parameters[0];
-                area = (Area) parameters[1];
-
-                if (parameters.length > 2) {
-                  if (parameters[2] != null) {
-                    selectedToks = (Set<GUID>) parameters[2];
-                  }
-                }
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-                zone.hideArea(area, selectedToks);
-                MapTool.getFrame().refresh();
-                return;
-
-              case setCampaign:
-                Campaign campaign = (Campaign) parameters[0];
-                MapTool.setCampaign(campaign);
-
-                // Hide the "Connecting" overlay
-                MapTool.getFrame().hideGlassPane();
-                return;
-
-              case setCampaignName:
-                MapTool.getCampaign().setName((String) parameters[0]);
-                MapTool.getFrame().setTitle();
-                return;
-
-              case putZone:
-                zone = (Zone) parameters[0];
-                MapTool.getCampaign().putZone(zone);
-
-                // TODO: combine this with MapTool.addZone()
-                renderer = ZoneRendererFactory.newRenderer(zone);
-                MapTool.getFrame().addZoneRenderer(renderer);
-                if (MapTool.getFrame().getCurrentZoneRenderer() == null && zone.isVisible()) {
-                  MapTool.getFrame().setCurrentZoneRenderer(renderer);
-                }
-                MapTool.getEventDispatcher()
-                    .fireEvent(MapTool.ZoneEvent.Added, MapTool.getCampaign(), null, zone);
-                return;
-
-              case removeZone:
-                zoneGUID = (GUID) parameters[0];
-                MapTool.getCampaign().removeZone(zoneGUID);
-                MapTool.getFrame().removeZoneRenderer(MapTool.getFrame().getZoneRenderer(zoneGUID));
-                return;
-
-              case putToken:
-                zoneGUID = (GUID) parameters[0];
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-                token = (Token) parameters[1];
-                zone.putToken(token);
-                MapTool.getFrame().refresh();
-                return;
-
-              case putLabel:
-                zoneGUID = (GUID) parameters[0];
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-                Label label = (Label) parameters[1];
-                zone.putLabel(label);
-                MapTool.getFrame().refresh();
-                return;
-
-              case updateTokenProperty: // get token and update its property
-                zoneGUID = (GUID) parameters[0];
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-                tokenGUID = (GUID) parameters[1];
-                token = zone.getToken(tokenGUID);
-                if (token != null) {
-                  Token.Update update = (Token.Update) parameters[2];
-                  token.updateProperty(zone, update, (Object[]) parameters[3]);
-                }
-                return;
-
-              case removeToken:
-                zoneGUID = (GUID) parameters[0];
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-                tokenGUID = (GUID) parameters[1];
-                zone.removeToken(tokenGUID);
-                MapTool.getFrame().refresh();
-                return;
-
-              case removeLabel:
-                zoneGUID = (GUID) parameters[0];
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-                GUID labelGUID = (GUID) parameters[1];
-                zone.removeLabel(labelGUID);
-                MapTool.getFrame().refresh();
-                return;
-
-              case enforceZoneView:
-                zoneGUID = (GUID) parameters[0];
-                int x = (Integer) parameters[1];
-                int y = (Integer) parameters[2];
-                double scale = (Double) parameters[3];
-                int gmWidth = (Integer) parameters[4];
-                int gmHeight = (Integer) parameters[5];
-
-                renderer = MapTool.getFrame().getZoneRenderer(zoneGUID);
-                if (renderer == null) {
-                  return;
-                }
-                if (AppPreferences.getFitGMView()) {
-                  renderer.enforceView(x, y, scale, gmWidth, gmHeight);
-                } else {
-                  renderer.setScale(scale);
-                  renderer.centerOn(new ZonePoint(x, y));
-                }
-                return;
-
-              case restoreZoneView:
-                zoneGUID = (GUID) parameters[0];
-                MapTool.getFrame().getZoneRenderer(zoneGUID).restoreView();
-                return;
-
-              case draw:
-                zoneGUID = (GUID) parameters[0];
-                Pen pen = (Pen) parameters[1];
-                Drawable drawable = (Drawable) parameters[2];
-
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-                zone.addDrawable(new DrawnElement(drawable, pen));
-                MapTool.getFrame().refresh();
-                return;
-
-              case updateDrawing:
-                zoneGUID = (GUID) parameters[0];
-                Pen p = (Pen) parameters[1];
-                DrawnElement de = (DrawnElement) parameters[2];
-
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-                zone.updateDrawable(de, p);
-                MapTool.getFrame().refresh();
-                return;
-
-              case undoDraw:
-                zoneGUID = (GUID) parameters[0];
-                GUID drawableId = (GUID) parameters[1];
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-                if (zone == null) {
-                  return;
-                }
-                zone.removeDrawable(drawableId);
-                if (MapTool.getFrame().getCurrentZoneRenderer().getZone().getId().equals(zoneGUID)
-                    && zoneGUID != null) {
-                  MapTool.getFrame().refresh();
-                }
-                return;
-
-              case setZoneVisibility:
-                zoneGUID = (GUID) parameters[0];
-                boolean visible = (Boolean) parameters[1];
-
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-                zone.setVisible(visible);
-
-                ZoneRenderer currentRenderer = MapTool.getFrame().getCurrentZoneRenderer();
-                if (!visible
-                    && !MapTool.getPlayer().isGM()
-                    && currentRenderer != null
-                    && currentRenderer.getZone().getId().equals(zoneGUID)) {
-                  MapTool.getFrame().setCurrentZoneRenderer(null);
-                }
-                if (visible && currentRenderer == null) {
-                  currentRenderer = MapTool.getFrame().getZoneRenderer(zoneGUID);
-                  MapTool.getFrame().setCurrentZoneRenderer(currentRenderer);
-                }
-                MapTool.getFrame().getZoneMiniMapPanel().flush();
-                MapTool.getFrame().refresh();
-                return;
-
-              case setZoneGridSize:
-                zoneGUID = (GUID) parameters[0];
-                int xOffset = ((Integer) parameters[1]).intValue();
-                int yOffset = ((Integer) parameters[2]).intValue();
-                int size = ((Integer) parameters[3]).intValue();
-                int color = ((Integer) parameters[4]).intValue();
-
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-                zone.getGrid().setSize(size);
-                zone.getGrid().setOffset(xOffset, yOffset);
-                zone.setGridColor(color);
-
-                MapTool.getFrame().refresh();
-                return;
-
-              case playerConnected:
-                MapTool.addPlayer((Player) parameters[0]);
-                MapTool.getFrame().refresh();
-                return;
-
-              case playerDisconnected:
-                MapTool.removePlayer((Player) parameters[0]);
-                MapTool.getFrame().refresh();
-                return;
-
-              case message:
-                TextMessage message = (TextMessage) parameters[0];
-                MapTool.addServerMessage(message);
-                return;
-
-              case execFunction:
-                ExecFunction.receiveExecFunction(
-                    (String) parameters[0],
-                    (String) parameters[1],
-                    (String) parameters[2],
-                    (List<Object>) parameters[3]);
-                return;
-
-              case execLink:
-                MacroLinkFunction.receiveExecLink(
-                    (String) parameters[0], (String) parameters[1], (String) parameters[2]);
-                return;
-
-              case showPointer:
-                MapTool.getFrame()
-                    .getPointerOverlay()
-                    .addPointer((String) parameters[0], (Pointer) parameters[1]);
-                MapTool.getFrame().refresh();
-                return;
-
-              case hidePointer:
-                MapTool.getFrame().getPointerOverlay().removePointer((String) parameters[0]);
-                MapTool.getFrame().refresh();
-                return;
-
-              case startTokenMove:
-                String playerId = (String) parameters[0];
-                zoneGUID = (GUID) parameters[1];
-                GUID keyToken = (GUID) parameters[2];
-                Set<GUID> selectedSet = (Set<GUID>) parameters[3];
-
-                renderer = MapTool.getFrame().getZoneRenderer(zoneGUID);
-                renderer.addMoveSelectionSet(playerId, keyToken, selectedSet, true);
-                return;
-
-              case stopTokenMove:
-                zoneGUID = (GUID) parameters[0];
-                keyToken = (GUID) parameters[1];
-
-                renderer = MapTool.getFrame().getZoneRenderer(zoneGUID);
-                renderer.removeMoveSelectionSet(keyToken);
-                return;
-
-              case updateTokenMove:
-                zoneGUID = (GUID) parameters[0];
-                keyToken = (GUID) parameters[1];
-
-                x = ((Integer) parameters[2]).intValue();
-                y = ((Integer) parameters[3]).intValue();
-
-                renderer = MapTool.getFrame().getZoneRenderer(zoneGUID);
-                renderer.updateMoveSelectionSet(keyToken, new ZonePoint(x, y));
-                return;
-
-              case setTokenLocation:
-                // Only the table should process this
-                if (MapTool.getPlayer().getName().equalsIgnoreCase("Table")) {
-                  zoneGUID = (GUID) parameters[0];
-                  keyToken = (GUID) parameters[1];
-
-                  // This X,Y is the where the center of the token needs to be placed in
-                  // relation to the screen. So 0,0 would be top left which means only 1/4
-                  // of token would be drawn. 1024,768 would be lower right (on my table).
-                  x = ((Integer) parameters[2]).intValue();
-                  y = ((Integer) parameters[3]).intValue();
-
-                  // Get the zone
-                  zone = MapTool.getCampaign().getZone(zoneGUID);
-                  // Get the token
-                  token = zone.getToken(keyToken);
-
-                  Grid grid = zone.getGrid();
-                  // Convert the X/Y to the screen point
-                  renderer = MapTool.getFrame().getZoneRenderer(zone);
-                  CellPoint newPoint = renderer.getCellAt(new ScreenPoint(x, y));
-                  ZonePoint zp2 = grid.convert(newPoint);
-
-                  token.setX(zp2.x);
-                  token.setY(zp2.y);
-
-                  MapTool.serverCommand().putToken(zoneGUID, token);
-                }
-                return;
-
-              case toggleTokenMoveWaypoint:
-                zoneGUID = (GUID) parameters[0];
-                keyToken = (GUID) parameters[1];
-                ZonePoint zp = (ZonePoint) parameters[2];
-
-                renderer = MapTool.getFrame().getZoneRenderer(zoneGUID);
-                renderer.toggleMoveSelectionSetWaypoint(keyToken, zp);
-                return;
-
-              case setServerPolicy:
-                ServerPolicy policy = (ServerPolicy) parameters[0];
-                MapTool.setServerPolicy(policy);
-                MapTool.getFrame().getToolbox().updateTools();
-                return;
-
-              case addTopology:
-                zoneGUID = (GUID) parameters[0];
-                area = (Area) parameters[1];
-                TopologyMode topologyMode = (TopologyMode) parameters[2];
-
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-                zone.addTopology(area, topologyMode);
-
-                MapTool.getFrame().getZoneRenderer(zoneGUID).repaint();
-                return;
-
-              case removeTopology:
-                zoneGUID = (GUID) parameters[0];
-                area = (Area) parameters[1];
-                topologyMode = (TopologyMode) parameters[2];
-
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-                zone.removeTopology(area, topologyMode);
-
-                MapTool.getFrame().getZoneRenderer(zoneGUID).repaint();
-                return;
-
-              case renameZone:
-                zoneGUID = (GUID) parameters[0];
-                String name = (String) parameters[1];
-
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-                if (zone != null) {
-                  zone.setName(name);
-                }
-                return;
-
-              case updateCampaign:
-                CampaignProperties properties = (CampaignProperties) parameters[0];
-
-                MapTool.getCampaign().replaceCampaignProperties(properties);
-                MapToolFrame frame = MapTool.getFrame();
-                ZoneRenderer zr = frame.getCurrentZoneRenderer();
-                if (zr != null) {
-                  zr.getZoneView().flush();
-                  zr.repaint();
-                }
-                AssetManager.updateRepositoryList();
-
-                InitiativePanel ip = frame.getInitiativePanel();
-                ip.setOwnerPermissions(properties.isInitiativeOwnerPermissions());
-                ip.setMovementLock(properties.isInitiativeMovementLock());
-                MapTool.getFrame().getLookupTablePanel().updateView();
-                return;
-
-              case movePointer:
-                String player = (String) parameters[0];
-                x = (Integer) parameters[1];
-                y = (Integer) parameters[2];
-
-                Pointer pointer = MapTool.getFrame().getPointerOverlay().getPointer(player);
-                if (pointer == null) {
-                  return;
-                }
-                pointer.setX(x);
-                pointer.setY(y);
-
-                MapTool.getFrame().refresh();
-                return;
-
-              case updateInitiative:
-                InitiativeList list = (InitiativeList) parameters[0];
-                Boolean ownerPermission = (Boolean) parameters[1];
-                if (list != null) {
-                  zone = list.getZone();
-                  if (zone == null) return;
-                  zone.setInitiativeList(list);
-                }
-                if (ownerPermission != null) {
-                  MapTool.getFrame()
-                      .getInitiativePanel()
-                      .setOwnerPermissions(ownerPermission.booleanValue());
-                }
-                return;
-
-              case updateTokenInitiative:
-                zoneGUID = (GUID) parameters[0];
-                tokenGUID = (GUID) parameters[1];
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-                list = zone.getInitiativeList();
-                TokenInitiative ti = list.getTokenInitiative((Integer) parameters[4]);
-                if (!ti.getId().equals(tokenGUID)) {
-                  // Index doesn't point to same token, try to find it
-                  token = zone.getToken(tokenGUID);
-                  List<Integer> tokenIndex = list.indexOf(token);
-
-                  // If token in list more than one time, punt
-                  if (tokenIndex.size() != 1) return;
-                  ti = list.getTokenInitiative(tokenIndex.get(0));
-                } // endif
-                ti.update((Boolean) parameters[2], (String) parameters[3]);
-                return;
-
-              case setUseVision:
-                zoneGUID = (GUID) parameters[0];
-                VisionType visionType = (VisionType) parameters[1];
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-                if (zone != null) {
-                  zone.setVisionType(visionType);
-                  if (MapTool.getFrame().getCurrentZoneRenderer() != null) {
-                    MapTool.getFrame().getCurrentZoneRenderer().flushFog();
-                    MapTool.getFrame().getCurrentZoneRenderer().getZoneView().flush();
-                  }
-                  MapTool.getFrame().refresh();
-                }
-                return;
-
-              case setBoard:
-                zoneGUID = (GUID) parameters[0];
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-
-                Point boardXY = new Point((Integer) parameters[2], (Integer) parameters[3]);
-                zone.setBoard(boardXY, (MD5Key) parameters[1]);
-                return;
-
-              case updateCampaignMacros:
-                MapTool.getCampaign()
-                    .setMacroButtonPropertiesArray(
-                        new ArrayList<MacroButtonProperties>(
-                            (ArrayList<MacroButtonProperties>) parameters[0]));
-                MapTool.getFrame().getCampaignPanel().reset();
-                return;
-
-              case updateGmMacros:
-                MapTool.getCampaign()
-                    .setGmMacroButtonPropertiesArray(
-                        new ArrayList<MacroButtonProperties>(
-                            (ArrayList<MacroButtonProperties>) parameters[0]));
-                MapTool.getFrame().getGmPanel().reset();
-                return;
-
-              case setLiveTypingLabel:
-                if ((Boolean) parameters[1]) {
-                  // add a typer
-                  MapTool.getFrame()
-                      .getChatNotificationTimers()
-                      .setChatTyper(parameters[0].toString());
-                  return;
-                } else {
-                  // remove typer from list
-                  MapTool.getFrame()
-                      .getChatNotificationTimers()
-                      .removeChatTyper(parameters[0].toString());
-                  return;
-                }
-
-              case exposePCArea:
-                if (parameters[0] != null && parameters[0] instanceof GUID) {
-                  ZoneRenderer currentRenderer1 =
-                      MapTool.getFrame().getZoneRenderer((GUID) parameters[0]);
-                  FogUtil.exposePCArea(currentRenderer1);
-                }
-                return;
-
-              case enforceNotification:
-                Boolean enforce = (Boolean) parameters[0];
-                MapTool.getFrame().getCommandPanel().disableNotifyButton(enforce);
-                return;
-
-              case clearExposedArea:
-                zoneGUID = (GUID) parameters[0];
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-                zone.clearExposedArea((boolean) parameters[1]);
-                return;
-
-              case updateExposedAreaMeta:
-                zoneGUID = (GUID) parameters[0];
-                tokenGUID = (GUID) parameters[1];
-                ExposedAreaMetaData meta = (ExposedAreaMetaData) parameters[2];
-                zone = MapTool.getCampaign().getZone(zoneGUID);
-                zone.setExposedAreaMetaData(tokenGUID, meta);
-                return;
+    commandQueue.add(cmd, parameters);
+  }
+
+  /** @return the queue depth, counts and apply latency of the server commands */
+  public String getCommandStatistics() {
+    return commandQueue.toString();
+  }
+
+  /**
+   * Apply a batch of server commands, then repaint once if any of them asked for it.
+   *
+   * @param batch the commands, in the order they were received
+   */
+  private void applyCommands(List<ClientCommandQueue.Command> batch) {
+    refreshNeeded = false;
+    int i = 0;
+    while (i < batch.size()) {
+      ClientCommandQueue.Command command = batch.get(i);
+      if (isForPendingZone(command)) {
+        List<ClientCommandQueue.Command> held = heldCommands.get(command.getParameters()[0]);
+        if (held != null) {
+          held.add(command);
+        }
+        i++;
+        continue;
+      }
+      // Tokens put on the same map in a row go in together, so listeners get one event for them
+      int end = i + 1;
+      while (command.getCommand() == ClientCommand.COMMAND.putToken
+          && end < batch.size()
+          && batch.get(end).getCommand() == ClientCommand.COMMAND.putToken
+          && batch.get(end).getParameters()[0].equals(command.getParameters()[0])) {
+        end++;
+      }
+      try {
+        if (end - i > 1) {
+          putTokens(batch.subList(i, end));
+        } else {
+          applyCommand(command.getCommand(), command.getParameters());
+        }
+      } catch (RuntimeException e) {
+        log.error("Could not apply server command " + command.getCommand(), e);
+      }
+      i = end;
+    }
+    if (refreshNeeded) {
+      MapTool.getFrame().refresh();
+    }
+  }
+
+  private boolean isForPendingZone(ClientCommandQueue.Command command) {
+    switch (command.getCommand()) {
+      case putZone:
+      case zoneCopied:
+      case removeZone:
+      case enforceZone:
+        return false;
+      default:
+        Object[] parameters = command.getParameters();
+        return !pendingZones.isEmpty()
+            && parameters.length > 0
+            && pendingZones.contains(parameters[0]);
+    }
+  }
+
+  /** @return the server version of the token of a putToken, null if it came without one */
+  private static Long getTokenVersion(Object[] parameters) {
+    return parameters.length > 2 ? (Long) parameters[2] : null;
+  }
+
+  private void putTokens(List<ClientCommandQueue.Command> commands) {
+    Zone zone = MapTool.getCampaign().getZone((GUID) commands.get(0).getParameters()[0]);
+    List<Token> tokens = new ArrayList<Token>(commands.size());
+    for (ClientCommandQueue.Command command : commands) {
+      Token token = (Token) command.getParameters()[1];
+      TokenSyncTracker.getInstance()
+          .tokenSynced(zone.getId(), token, getTokenVersion(command.getParameters()));
+      tokens.add(token);
+    }
+    zone.putTokens(tokens);
+    refreshNeeded = true;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void applyCommand(ClientCommand.COMMAND cmd, Object[] parameters) {
+    GUID zoneGUID;
+    GUID tokenGUID;
+    Zone zone;
+    Token token;
+    Set<GUID> selectedToks = null;
+
+    switch (cmd) {
+      case bootPlayer:
+        String playerName = (String) parameters[0];
+        if (MapTool.getPlayer().getName().equals(playerName)) {
+          ServerDisconnectHandler.disconnectExpected = true;
+          AppActions.disconnectFromServer();
+          MapTool.showInformation("You have been booted from the server.");
+        }
+        return;
+
+      case enforceZone:
+        zoneGUID = (GUID) parameters[0];
+        if (pendingZones.contains(zoneGUID)) {
+          // Ask for it ahead of the others, and show it once it's here
+          pendingEnforcedZone = zoneGUID;
+          MapTool.serverCommand().getZone(zoneGUID);
+          return;
+        }
+        ZoneRenderer renderer = MapTool.getFrame().getZoneRenderer(zoneGUID);
+
+        if (renderer != null
+            && renderer != MapTool.getFrame().getCurrentZoneRenderer()
+            && (renderer.getZone().isVisible() || MapTool.getPlayer().isGM())) {
+          MapTool.getFrame().setCurrentZoneRenderer(renderer);
+        }
+        return;
+
+      case clearAllDrawings:
+        zoneGUID = (GUID) parameters[0];
+        Zone.Layer layer = (Zone.Layer) parameters[1];
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        zone.clearDrawables(zone.getDrawnElements(layer));
+        refreshNeeded = true;
+        return;
+
+      case setZoneHasFoW:
+        zoneGUID = (GUID) parameters[0];
+        boolean hasFog = (Boolean) parameters[1];
+
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        zone.setHasFog(hasFog);
+
+        // In case we're looking at the zone
+        refreshNeeded = true;
+        return;
+
+      case exposeFoW:
+        zoneGUID = (GUID) parameters[0];
+        Area area = (Area) parameters[1];
+
+        if (parameters.length > 2) {
+          if (parameters[2] != null) {
+            selectedToks = (Set<GUID>) parameters[2];
+          }
+        }
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        zone.exposeArea(area, selectedToks);
+        refreshNeeded = true;
+        return;
+
+      case setFoW:
+        zoneGUID = (GUID) parameters[0];
+        area = (Area) parameters[1];
+
+        if (parameters.length > 2) {
+          if (parameters[2] != null) {
+            selectedToks = (Set<GUID>) parameters[2];
+          }
+        }
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        zone.setFogArea(area, selectedToks);
+        refreshNeeded = true;
+        return;
+
+      case hideFoW:
+        zoneGUID = (GUID) parameters[0];
+        area = (Area) parameters[1];
+
+        if (parameters.length > 2) {
+          if (parameters[2] != null) {
+            selectedToks = (Set<GUID>) parameters[2];
+          }
+        }
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        zone.hideArea(area, selectedToks);
+        refreshNeeded = true;
+        return;
+
+      case setCampaign:
+        Campaign campaign = (Campaign) parameters[0];
+        pendingZones.clear();
+        heldCommands.clear();
+        pendingEnforcedZone = null;
+        if (parameters.length > 1) {
+          // The zones come separately: use the ones we still have, and ask for the rest
+          Map<GUID, String> stamps = (Map<GUID, String>) parameters[1];
+          List<GUID> missing = ZoneCache.getInstance().restore(campaign, stamps);
+          pendingZones.addAll(missing);
+          MapTool.setCampaign(campaign, null, missing.isEmpty());
+          if (!missing.isEmpty()) {
+            MapTool.serverCommand().requestZones(missing);
+          }
+        } else {
+          ZoneCache.getInstance().clear();
+          MapTool.setCampaign(campaign);
+        }
+
+        // Hide the "Connecting" overlay
+        MapTool.getFrame().hideGlassPane();
+        return;
+
+      case setCampaignName:
+        MapTool.getCampaign().setName((String) parameters[0]);
+        MapTool.getFrame().setTitle();
+        return;
+
+      case zoneCopied:
+        zoneGUID = (GUID) parameters[0];
+        if (pendingZones.contains(zoneGUID)) {
+          // Whatever was held came before the copy, the copy has it
+          heldCommands.put(zoneGUID, new ArrayList<ClientCommandQueue.Command>());
+        }
+        return;
+
+      case putZone:
+        zone = (Zone) parameters[0];
+        if (parameters.length > 1) {
+          ZoneCache.getInstance().put(zone, (String) parameters[1]);
+        } else {
+          ZoneCache.getInstance().remove(zone.getId());
+        }
+        MapTool.getCampaign().putZone(zone);
+
+        // A zone sent again replaces the one we have
+        ZoneRenderer oldRenderer = MapTool.getFrame().getZoneRenderer(zone.getId());
+        boolean wasCurrent =
+            oldRenderer != null && oldRenderer == MapTool.getFrame().getCurrentZoneRenderer();
+        if (oldRenderer != null) {
+          MapTool.getFrame().removeZoneRenderer(oldRenderer);
+        }
+
+        // TODO: combine this with MapTool.addZone()
+        renderer = ZoneRendererFactory.newRenderer(zone);
+        MapTool.getFrame().addZoneRenderer(renderer);
+        boolean enforced = zone.getId().equals(pendingEnforcedZone);
+        if (wasCurrent
+            || (MapTool.getFrame().getCurrentZoneRenderer() == null && zone.isVisible())
+            || (enforced && (zone.isVisible() || MapTool.getPlayer().isGM()))) {
+          MapTool.getFrame().setCurrentZoneRenderer(renderer);
+        }
+        if (enforced) {
+          pendingEnforcedZone = null;
+        }
+        // The changes made on the server after it copied the zone
+        List<ClientCommandQueue.Command> held = heldCommands.remove(zone.getId());
+        if (held != null) {
+          for (ClientCommandQueue.Command command : held) {
+            try {
+              applyCommand(command.getCommand(), command.getParameters());
+            } catch (RuntimeException e) {
+              log.error("Could not apply server command " + command.getCommand(), e);
             }
           }
-        });
+        }
+        MapTool.getEventDispatcher()
+            .fireEvent(MapTool.ZoneEvent.Added, MapTool.getCampaign(), null, zone);
+        if (pendingZones.remove(zone.getId()) && pendingZones.isEmpty()) {
+          // The lib: tokens may be on any map, so wait for all of them
+          UserDefinedMacroFunctions.getInstance().loadCampaignLibFunctions();
+        }
+        return;
+
+      case removeZone:
+        zoneGUID = (GUID) parameters[0];
+        ZoneCache.getInstance().remove(zoneGUID);
+        heldCommands.remove(zoneGUID);
+        if (pendingZones.remove(zoneGUID) && pendingZones.isEmpty()) {
+          UserDefinedMacroFunctions.getInstance().loadCampaignLibFunctions();
+        }
+        MapTool.getCampaign().removeZone(zoneGUID);
+        MapTool.getFrame().removeZoneRenderer(MapTool.getFrame().getZoneRenderer(zoneGUID));
+        return;
+
+      case putToken:
+        zoneGUID = (GUID) parameters[0];
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        token = (Token) parameters[1];
+        TokenSyncTracker.getInstance().tokenSynced(zoneGUID, token, getTokenVersion(parameters));
+        zone.putToken(token);
+        refreshNeeded = true;
+        return;
+
+      case updateTokenDelta:
+        zoneGUID = (GUID) parameters[0];
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        TokenDelta delta = (TokenDelta) parameters[1];
+        if (delta.isRejection()) {
+          // The server doesn't have the token in that zone, send it whole if we still do
+          TokenSyncTracker.getInstance().forget(delta.getTokenId());
+          token = zone != null ? zone.getToken(delta.getTokenId()) : null;
+          if (token != null) {
+            MapTool.serverCommand().putToken(zoneGUID, token);
+          }
+          return;
+        }
+        if (delta.isAcknowledgement()) {
+          // Our own change, already applied here
+          if (!TokenSyncTracker.getInstance().acknowledged(delta)) {
+            MapTool.serverCommand().syncToken(zoneGUID, delta.getTokenId());
+          }
+          return;
+        }
+        token = zone != null ? zone.getToken(delta.getTokenId()) : null;
+        if (token == null || !TokenSyncTracker.getInstance().accept(zoneGUID, delta)) {
+          // Missed an update, start over from the server's copy
+          MapTool.serverCommand().syncToken(zoneGUID, delta.getTokenId());
+          return;
+        }
+        TokenSyncTracker.getInstance().apply(delta, token);
+        zone.putToken(token);
+        refreshNeeded = true;
+        return;
+
+      case putLabel:
+        zoneGUID = (GUID) parameters[0];
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        Label label = (Label) parameters[1];
+        zone.putLabel(label);
+        refreshNeeded = true;
+        return;
+
+      case updateTokenProperty: // get token and update its property
+        zoneGUID = (GUID) parameters[0];
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        tokenGUID = (GUID) parameters[1];
+        token = zone.getToken(tokenGUID);
+        TokenSyncTracker.getInstance().forget(tokenGUID);
+        if (token != null) {
+          Token.Update update = (Token.Update) parameters[2];
+          token.updateProperty(zone, update, (Object[]) parameters[3]);
+        }
+        return;
+
+      case removeToken:
+        zoneGUID = (GUID) parameters[0];
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        tokenGUID = (GUID) parameters[1];
+        zone.removeToken(tokenGUID);
+        TokenSyncTracker.getInstance().forget(zoneGUID, tokenGUID);
+        refreshNeeded = true;
+        return;
+
+      case removeLabel:
+        zoneGUID = (GUID) parameters[0];
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        GUID labelGUID = (GUID) parameters[1];
+        zone.removeLabel(labelGUID);
+        refreshNeeded = true;
+        return;
+
+      case enforceZoneView:
+        zoneGUID = (GUID) parameters[0];
+        int x = (Integer) parameters[1];
+        int y = (Integer) parameters[2];
+        double scale = (Double) parameters[3];
+        int gmWidth = (Integer) parameters[4];
+        int gmHeight = (Integer) parameters[5];
+
+        renderer = MapTool.getFrame().getZoneRenderer(zoneGUID);
+        if (renderer == null) {
+          return;
+        }
+        if (AppPreferences.getFitGMView()) {
+          renderer.enforceView(x, y, scale, gmWidth, gmHeight);
+        } else {
+          renderer.setScale(scale);
+          renderer.centerOn(new ZonePoint(x, y));
+        }
+        return;
+
+      case restoreZoneView:
+        zoneGUID = (GUID) parameters[0];
+        MapTool.getFrame().getZoneRenderer(zoneGUID).restoreView();
+        return;
+
+      case draw:
+        zoneGUID = (GUID) parameters[0];
+        Pen pen = (Pen) parameters[1];
+        Drawable drawable = (Drawable) parameters[2];
+
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        zone.addDrawable(new DrawnElement(drawable, pen));
+        refreshNeeded = true;
+        return;
+
+      case updateDrawing:
+        zoneGUID = (GUID) parameters[0];
+        Pen p = (Pen) parameters[1];
+        DrawnElement de = (DrawnElement) parameters[2];
+
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        zone.updateDrawable(de, p);
+        refreshNeeded = true;
+        return;
+
+      case undoDraw:
+        zoneGUID = (GUID) parameters[0];
+        GUID drawableId = (GUID) parameters[1];
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        if (zone == null) {
+          return;
+        }
+        zone.removeDrawable(drawableId);
+        if (MapTool.getFrame().getCurrentZoneRenderer().getZone().getId().equals(zoneGUID)
+            && zoneGUID != null) {
+          refreshNeeded = true;
+        }
+        return;
+
+      case setZoneVisibility:
+        zoneGUID = (GUID) parameters[0];
+        boolean visible = (Boolean) parameters[1];
+
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        zone.setVisible(visible);
+
+        ZoneRenderer currentRenderer = MapTool.getFrame().getCurrentZoneRenderer();
+        if (!visible
+            && !MapTool.getPlayer().isGM()
+            && currentRenderer != null
+            && currentRenderer.getZone().getId().equals(zoneGUID)) {
+          MapTool.getFrame().setCurrentZoneRenderer(null);
+        }
+        if (visible && currentRenderer == null) {
+          currentRenderer = MapTool.getFrame().getZoneRenderer(zoneGUID);
+          MapTool.getFrame().setCurrentZoneRenderer(currentRenderer);
+        }
+        MapTool.getFrame().getZoneMiniMapPanel().flush();
+        refreshNeeded = true;
+        return;
+
+      case setZoneGridSize:
+        zoneGUID = (GUID) parameters[0];
+        int xOffset = ((Integer) parameters[1]).intValue();
+        int yOffset = ((Integer) parameters[2]).intValue();
+        int size = ((Integer) parameters[3]).intValue();
+        int color = ((Integer) parameters[4]).intValue();
+
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        zone.getGrid().setSize(size);
+        zone.getGrid().setOffset(xOffset, yOffset);
+        zone.setGridColor(color);
+
+        refreshNeeded = true;
+        return;
+
+      case playerConnected:
+        MapTool.addPlayer((Player) parameters[0]);
+        refreshNeeded = true;
+        return;
+
+      case playerDisconnected:
+        MapTool.removePlayer((Player) parameters[0]);
+        refreshNeeded = true;
+        return;
+
+      case message:
+        TextMessage message = (TextMessage) parameters[0];
+        MapTool.addServerMessage(message);
+        return;
+
+      case execFunction:
+        ExecFunction.receiveExecFunction(
+            (String) parameters[0],
+            (String) parameters[1],
+            (String) parameters[2],
+            (List<Object>) parameters[3]);
+        return;
+
+      case execLink:
+        MacroLinkFunction.receiveExecLink(
+            (String) parameters[0], (String) parameters[1], (String) parameters[2]);
+        return;
+
+      case showPointer:
+        MapTool.getFrame()
+            .getPointerOverlay()
+            .addPointer((String) parameters[0], (Pointer) parameters[1]);
+        refreshNeeded = true;
+        return;
+
+      case hidePointer:
+        MapTool.getFrame().getPointerOverlay().removePointer((String) parameters[0]);
+        refreshNeeded = true;
+        return;
+
+      case startTokenMove:
+        String playerId = (String) parameters[0];
+        zoneGUID = (GUID) parameters[1];
+        GUID keyToken = (GUID) parameters[2];
+        Set<GUID> selectedSet = (Set<GUID>) parameters[3];
+
+        renderer = MapTool.getFrame().getZoneRenderer(zoneGUID);
+        renderer.addMoveSelectionSet(playerId, keyToken, selectedSet, true);
+        return;
+
+      case stopTokenMove:
+        zoneGUID = (GUID) parameters[0];
+        keyToken = (GUID) parameters[1];
+
+        renderer = MapTool.getFrame().getZoneRenderer(zoneGUID);
+        renderer.removeMoveSelectionSet(keyToken);
+        return;
+
+      case updateTokenMove:
+        zoneGUID = (GUID) parameters[0];
+        keyToken = (GUID) parameters[1];
+
+        x = ((Integer) parameters[2]).intValue();
+        y = ((Integer) parameters[3]).intValue();
+
+        renderer = MapTool.getFrame().getZoneRenderer(zoneGUID);
+        renderer.updateMoveSelectionSet(keyToken, new ZonePoint(x, y));
+        return;
+
+      case setTokenLocation:
+        // Only the table should process this
+        if (MapTool.getPlayer().getName().equalsIgnoreCase("Table")) {
+          zoneGUID = (GUID) parameters[0];
+          keyToken = (GUID) parameters[1];
+
+          // This X,Y is the where the center of the token needs to be placed in
+          // relation to the screen. So 0,0 would be top left which means only 1/4
+          // of token would be drawn. 1024,768 would be lower right (on my table).
+          x = ((Integer) parameters[2]).intValue();
+          y = ((Integer) parameters[3]).intValue();
+
+          // Get the zone
+          zone = MapTool.getCampaign().getZone(zoneGUID);
+          // Get the token
+          token = zone.getToken(keyToken);
+
+          Grid grid = zone.getGrid();
+          // Convert the X/Y to the screen point
+          renderer = MapTool.getFrame().getZoneRenderer(zone);
+          CellPoint newPoint = renderer.getCellAt(new ScreenPoint(x, y));
+          ZonePoint zp2 = grid.convert(newPoint);
+
+          token.setX(zp2.x);
+          token.setY(zp2.y);
+
+          MapTool.serverCommand().putToken(zoneGUID, token);
+        }
+        return;
+
+      case toggleTokenMoveWaypoint:
+        zoneGUID = (GUID) parameters[0];
+        keyToken = (GUID) parameters[1];
+        ZonePoint zp = (ZonePoint) parameters[2];
+
+        renderer = MapTool.getFrame().getZoneRenderer(zoneGUID);
+        renderer.toggleMoveSelectionSetWaypoint(keyToken, zp);
+        return;
+
+      case setServerPolicy:
+        ServerPolicy policy = (ServerPolicy) parameters[0];
+        MapTool.setServerPolicy(policy);
+        MapTool.getFrame().getToolbox().updateTools();
+        return;
+
+      case addTopology:
+        zoneGUID = (GUID) parameters[0];
+        area = (Area) parameters[1];
+        TopologyMode topologyMode = (TopologyMode) parameters[2];
+
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        zone.addTopology(area, topologyMode);
+
+        MapTool.getFrame().getZoneRenderer(zoneGUID).repaint();
+        return;
+
+      case removeTopology:
+        zoneGUID = (GUID) parameters[0];
+        area = (Area) parameters[1];
+        topologyMode = (TopologyMode) parameters[2];
+
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        zone.removeTopology(area, topologyMode);
+
+        MapTool.getFrame().getZoneRenderer(zoneGUID).repaint();
+        return;
+
+      case renameZone:
+        zoneGUID = (GUID) parameters[0];
+        String name = (String) parameters[1];
+
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        if (zone != null) {
+          zone.setName(name);
+        }
+        return;
+
+      case updateCampaign:
+        CampaignProperties properties = (CampaignProperties) parameters[0];
+
+        MapTool.getCampaign().replaceCampaignProperties(properties);
+        MapToolFrame frame = MapTool.getFrame();
+        ZoneRenderer zr = frame.getCurrentZoneRenderer();
+        if (zr != null) {
+          zr.getZoneView().flush();
+          zr.repaint();
+        }
+        AssetManager.updateRepositoryList();
+
+        InitiativePanel ip = frame.getInitiativePanel();
+        ip.setOwnerPermissions(properties.isInitiativeOwnerPermissions());
+        ip.setMovementLock(properties.isInitiativeMovementLock());
+        MapTool.getFrame().getLookupTablePanel().updateView();
+        return;
+
+      case movePointer:
+        String player = (String) parameters[0];
+        x = (Integer) parameters[1];
+        y = (Integer) parameters[2];
+
+        Pointer pointer = MapTool.getFrame().getPointerOverlay().getPointer(player);
+        if (pointer == null) {
+          return;
+        }
+        pointer.setX(x);
+        pointer.setY(y);
+
+        refreshNeeded = true;
+        return;
+
+      case updateInitiative:
+        InitiativeList list = (InitiativeList) parameters[0];
+        Boolean ownerPermission = (Boolean) parameters[1];
+        if (list != null) {
+          zone = list.getZone();
+          if (zone == null) return;
+          zone.setInitiativeList(list);
+        }
+        if (ownerPermission != null) {
+          MapTool.getFrame()
+              .getInitiativePanel()
+              .setOwnerPermissions(ownerPermission.booleanValue());
+        }
+        return;
+
+      case updateTokenInitiative:
+        zoneGUID = (GUID) parameters[0];
+        tokenGUID = (GUID) parameters[1];
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        list = zone.getInitiativeList();
+        TokenInitiative ti = list.getTokenInitiative((Integer) parameters[4]);
+        if (!ti.getId().equals(tokenGUID)) {
+          // Index doesn't point to same token, try to find it
+          token = zone.getToken(tokenGUID);
+          List<Integer> tokenIndex = list.indexOf(token);
+
+          // If token in list more than one time, punt
+          if (tokenIndex.size() != 1) return;
+          ti = list.getTokenInitiative(tokenIndex.get(0));
+        } // endif
+        ti.update((Boolean) parameters[2], (String) parameters[3]);
+        return;
+
+      case setUseVision:
+        zoneGUID = (GUID) parameters[0];
+        VisionType visionType = (VisionType) parameters[1];
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        if (zone != null) {
+          zone.setVisionType(visionType);
+          if (MapTool.getFrame().getCurrentZoneRenderer() != null) {
+            MapTool.getFrame().getCurrentZoneRenderer().flushFog();
+            MapTool.getFrame().getCurrentZoneRenderer().getZoneView().flush();
+          }
+          refreshNeeded = true;
+        }
+        return;
+
+      case setBoard:
+        zoneGUID = (GUID) parameters[0];
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+
+        Point boardXY = new Point((Integer) parameters[2], (Integer) parameters[3]);
+        zone.setBoard(boardXY, (MD5Key) parameters[1]);
+        return;
+
+      case updateCampaignMacros:
+        MapTool.getCampaign()
+            .setMacroButtonPropertiesArray(
+                new ArrayList<MacroButtonProperties>(
+                    (ArrayList<MacroButtonProperties>) parameters[0]));
+        MapTool.getFrame().getCampaignPanel().reset();
+        return;
+
+      case updateGmMacros:
+        MapTool.getCampaign()
+            .setGmMacroButtonPropertiesArray(
+                new ArrayList<MacroButtonProperties>(
+                    (ArrayList<MacroButtonProperties>) parameters[0]));
+        MapTool.getFrame().getGmPanel().reset();
+        return;
+
+      case setLiveTypingLabel:
+        if ((Boolean) parameters[1]) {
+          // add a typer
+          MapTool.getFrame().getChatNotificationTimers().setChatTyper(parameters[0].toString());
+          return;
+        } else {
+          // remove typer from list
+          MapTool.getFrame().getChatNotificationTimers().removeChatTyper(parameters[0].toString());
+          return;
+        }
+
+      case exposePCArea:
+        if (parameters[0] != null && parameters[0] instanceof GUID) {
+          ZoneRenderer currentRenderer1 = MapTool.getFrame().getZoneRenderer((GUID) parameters[0]);
+          FogUtil.exposePCArea(currentRenderer1);
+        }
+        return;
+
+      case enforceNotification:
+        Boolean enforce = (Boolean) parameters[0];
+        MapTool.getFrame().getCommandPanel().disableNotifyButton(enforce);
+        return;
+
+      case clearExposedArea:
+        zoneGUID = (GUID) parameters[0];
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        zone.clearExposedArea((boolean) parameters[1]);
+        return;
+
+      case updateExposedAreaMeta:
+        zoneGUID = (GUID) parameters[0];
+        tokenGUID = (GUID) parameters[1];
+        ExposedAreaMetaData meta = (ExposedAreaMetaData) parameters[2];
+        zone = MapTool.getCampaign().getZone(zoneGUID);
+        zone.setExposedAreaMetaData(tokenGUID, meta);
+        return;
+    }
   }
 }
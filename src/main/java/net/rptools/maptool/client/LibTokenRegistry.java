@@ -0,0 +1,227 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Supplier;
+import net.rptools.maptool.client.ui.zone.ZoneRenderer;
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.ModelChangeEvent;
+import net.rptools.maptool.model.ModelChangeListener;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+
+/**
+ * An index of the lib: tokens of every map, by name, so that running a library macro doesn't have
+ * to look at every token of the campaign.
+ *
+ * <p>The index is kept current from the token events of each zone. A change in the list of maps
+ * (a zone added, removed or the campaign replaced) is noticed on the next lookup and rebuilds the
+ * index, as does finding a token that was renamed without an event, or not finding a lib: name
+ * at all, since a token may have been renamed to it without an event.
+ */
+public class LibTokenRegistry {
+
+  private static final LibTokenRegistry instance =
+      new LibTokenRegistry(
+          () -> {
+            List<Zone> zones = new ArrayList<Zone>();
+            for (ZoneRenderer zr : MapTool.getFrame().getZoneRenderers()) {
+              zones.add(zr.getZone());
+            }
+            return zones;
+          });
+
+  /** A lib: token and the zone it is on. */
+  public static class LibToken {
+    private final Zone zone;
+    private final Token token;
+
+    LibToken(Zone zone, Token token) {
+      this.zone = zone;
+      this.token = token;
+    }
+
+    public Zone getZone() {
+      return zone;
+    }
+
+    public Token getToken() {
+      return token;
+    }
+  }
+
+  private final Supplier<List<Zone>> zoneSupplier;
+
+  /** The lib: tokens, keyed on their lower case name, in map then token order. */
+  private final Map<String, List<LibToken>> libTokens = new LinkedHashMap<String, List<LibToken>>();
+
+  /** The key each indexed token is under. */
+  private final Map<GUID, String> indexedNames = new HashMap<GUID, String>();
+
+  /** The zones the index was built from, in order. */
+  private List<Zone> indexedZones = Collections.emptyList();
+
+  /** The zones we are listening to. */
+  private final Map<Zone, Boolean> listenedZones = new WeakHashMap<Zone, Boolean>();
+
+  private final ModelChangeListener tokenListener =
+      new ModelChangeListener() {
+        @Override
+        public void modelChanged(ModelChangeEvent event) {
+          if (event.getEvent() == Zone.Event.TOKEN_ADDED
+              || event.getEvent() == Zone.Event.TOKEN_CHANGED
+              || event.getEvent() == Zone.Event.TOKEN_REMOVED) {
+            boolean removed = event.getEvent() == Zone.Event.TOKEN_REMOVED;
+            tokensChanged((Zone) event.getModel(), event.getArg(), removed);
+          }
+        }
+      };
+
+  private boolean stale = true;
+
+  /** @param zoneSupplier the maps to search, in the order they should be searched */
+  LibTokenRegistry(Supplier<List<Zone>> zoneSupplier) {
+    this.zoneSupplier = zoneSupplier;
+  }
+
+  public static LibTokenRegistry getInstance() {
+    return instance;
+  }
+
+  /**
+   * Returns every token with the given name, ignoring case. The caller is in charge of checking for
+   * duplicates and visibility.
+   *
+   * @param name the name of the lib: token
+   * @return the tokens with that name, in map order
+   */
+  public synchronized List<LibToken> getLibTokens(String name) {
+    String key = name.toLowerCase();
+    boolean rebuilt = refresh();
+    List<LibToken> result = libTokens.get(key);
+    if (!rebuilt && (result == null ? key.startsWith("lib:") : !isCurrent(result, key))) {
+      rebuild(zoneSupplier.get());
+      result = libTokens.get(key);
+    }
+    return result == null ? Collections.emptyList() : new ArrayList<LibToken>(result);
+  }
+
+  /** @return every lib: token of the campaign, in map order */
+  public synchronized List<LibToken> getAllLibTokens() {
+    refresh();
+    List<LibToken> result = new ArrayList<LibToken>();
+    for (List<LibToken> tokens : libTokens.values()) {
+      result.addAll(tokens);
+    }
+    return result;
+  }
+
+  /** Forces the index to be rebuilt on the next lookup. */
+  public synchronized void invalidate() {
+    stale = true;
+  }
+
+  /** @return whether the index was rebuilt */
+  private boolean refresh() {
+    List<Zone> zones = zoneSupplier.get();
+    if (stale || !sameZones(zones)) {
+      rebuild(zones);
+      return true;
+    }
+    return false;
+  }
+
+  private boolean sameZones(List<Zone> zones) {
+    if (zones.size() != indexedZones.size()) {
+      return false;
+    }
+    for (int i = 0; i < zones.size(); i++) {
+      if (zones.get(i) != indexedZones.get(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Whether the indexed tokens still have the name they were indexed under. */
+  private boolean isCurrent(List<LibToken> tokens, String key) {
+    for (LibToken lib : tokens) {
+      if (!key.equals(lib.getToken().getName().toLowerCase())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void rebuild(List<Zone> zones) {
+    libTokens.clear();
+    indexedNames.clear();
+    for (Zone zone : zones) {
+      if (listenedZones.put(zone, Boolean.TRUE) == null) {
+        zone.addModelChangeListener(tokenListener);
+      }
+      for (Token token : zone.getTokensFiltered(LibTokenRegistry::isLibToken)) {
+        add(zone, token);
+      }
+    }
+    indexedZones = new ArrayList<Zone>(zones);
+    stale = false;
+  }
+
+  private synchronized void tokensChanged(Zone zone, Object arg, boolean removed) {
+    if (stale || !indexedZones.contains(zone)) {
+      // Picked up by the next rebuild
+      return;
+    }
+    Collection<?> tokens = arg instanceof Collection ? (Collection<?>) arg : List.of(arg);
+    for (Object o : tokens) {
+      Token token = (Token) o;
+      remove(token.getId());
+      if (!removed && isLibToken(token)) {
+        add(zone, token);
+      }
+    }
+  }
+
+  private void add(Zone zone, Token token) {
+    String key = token.getName().toLowerCase();
+    libTokens.computeIfAbsent(key, k -> new ArrayList<LibToken>()).add(new LibToken(zone, token));
+    indexedNames.put(token.getId(), key);
+  }
+
+  private void remove(GUID id) {
+    String key = indexedNames.remove(id);
+    if (key == null) {
+      return;
+    }
+    List<LibToken> tokens = libTokens.get(key);
+    tokens.removeIf(lib -> lib.getToken().getId().equals(id));
+    if (tokens.isEmpty()) {
+      libTokens.remove(key);
+    }
+  }
+
+  private static boolean isLibToken(Token token) {
+    return token.getName().toLowerCase().startsWith("lib:");
+  }
+}
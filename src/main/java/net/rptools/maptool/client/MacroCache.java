@@ -0,0 +1,130 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of the compiled form of macro text, keyed on the text itself. The
+ * cache is bounded by the total length of the cached text rather than the number of entries, as
+ * macros range from a few characters to the hundreds of kilobytes of a framework library.
+ *
+ * <p>Since the key is the text of the macro, editing a macro can never give a stale result; {@link
+ * #invalidate(String)} only frees the entry of the old text early.
+ *
+ * @param <V> the type of the compiled macro
+ */
+public class MacroCache<V> {
+
+  /** The default total length of the cached macro text. */
+  public static final int DEFAULT_MAX_CHARACTERS = 4 * 1024 * 1024;
+
+  private final int maxCharacters;
+  private final Map<String, V> cache = new LinkedHashMap<String, V>(64, 0.75f, true);
+  private long characters;
+  private long hits;
+  private long misses;
+
+  public MacroCache() {
+    this(DEFAULT_MAX_CHARACTERS);
+  }
+
+  /** @param maxCharacters the maximum total length of the cached macro text */
+  public MacroCache(int maxCharacters) {
+    this.maxCharacters = maxCharacters;
+  }
+
+  /**
+   * @param text the text of the macro
+   * @return the compiled macro, or <code>null</code> if it isn't in the cache
+   */
+  public synchronized V get(String text) {
+    V value = cache.get(text);
+    if (value != null) {
+      hits++;
+    } else {
+      misses++;
+    }
+    return value;
+  }
+
+  /**
+   * Adds a compiled macro to the cache, evicting the least recently used entries if needed. Text
+   * longer than the whole cache is not kept.
+   *
+   * @param text the text of the macro
+   * @param value the compiled macro
+   */
+  public synchronized void put(String text, V value) {
+    if (text.length() > maxCharacters) {
+      return;
+    }
+    if (cache.put(text, value) == null) {
+      characters += text.length();
+    }
+    Iterator<String> iter = cache.keySet().iterator();
+    while (characters > maxCharacters && iter.hasNext()) {
+      String eldest = iter.next();
+      if (eldest.equals(text)) {
+        continue;
+      }
+      iter.remove();
+      characters -= eldest.length();
+    }
+  }
+
+  /**
+   * Removes the compiled form of a macro, e.g. when the command of a macro button changes.
+   *
+   * @param text the text of the macro
+   */
+  public synchronized void invalidate(String text) {
+    if (text != null && cache.remove(text) != null) {
+      characters -= text.length();
+    }
+  }
+
+  /** Removes every entry and resets the statistics. */
+  public synchronized void clear() {
+    cache.clear();
+    characters = 0;
+    hits = 0;
+    misses = 0;
+  }
+
+  /** @return the number of lookups that found their macro */
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  /** @return the number of lookups that had to compile the macro */
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+  /** @return the number of cached macros */
+  public synchronized int size() {
+    return cache.size();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "MacroCache[%d macros, %d characters, %d hits, %d misses]",
+        cache.size(), characters, hits, misses);
+  }
+}
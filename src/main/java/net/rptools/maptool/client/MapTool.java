@@ -779,6 +779,11 @@ public static ServerCommand serverCommand() {
     return serverCommand;
   }
 
+  /** @return the queue depth, counts and apply latency of the commands received from the server */
+  public static String getServerCommandStatistics() {
+    return handler != null ? handler.getCommandStatistics() : "Server commands: none";
+  }
+
   public static MapToolServer getServer() {
     return server;
   }
@@ -970,8 +975,24 @@ public static void setCampaign(Campaign campaign) {
   }
 
   public static void setCampaign(Campaign campaign, GUID defaultRendererId) {
+    setCampaign(campaign, defaultRendererId, true);
+  }
+
+  /**
+   * Install the campaign.
+   *
+   * @param campaign the campaign
+   * @param defaultRendererId the zone to show, if the player can see it
+   * @param loadLibFunctions false to hold off loading the lib: token functions, when the campaign
+   *     is still missing zones
+   */
+  public static void setCampaign(
+      Campaign campaign, GUID defaultRendererId, boolean loadLibFunctions) {
     // Load up the new
     MapTool.campaign = campaign;
+    TokenSyncTracker.getInstance().clear();
+    getAutoSaveManager().clearSnapshots();
+    ZoneCache.getInstance().retain(campaign);
     ZoneRenderer currRenderer = null;
 
     // Clean up
@@ -999,7 +1020,9 @@ public static void setCampaign(Campaign campaign, GUID defaultRendererId) {
     AssetManager.updateRepositoryList();
     MapTool.getFrame().getCampaignPanel().reset();
     MapTool.getFrame().getGmPanel().reset();
-    UserDefinedMacroFunctions.getInstance().loadCampaignLibFunctions();
+    if (loadLibFunctions) {
+      UserDefinedMacroFunctions.getInstance().loadCampaignLibFunctions();
+    }
   }
 
   public static void setServerPolicy(ServerPolicy policy) {
@@ -22,11 +22,13 @@
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -40,7 +42,6 @@
 import net.rptools.maptool.client.functions.json.JSONMacroFunctions;
 import net.rptools.maptool.client.ui.htmlframe.HTMLFrameFactory;
 import net.rptools.maptool.client.ui.macrobuttons.buttons.MacroButtonPrefs;
-import net.rptools.maptool.client.ui.zone.ZoneRenderer;
 import net.rptools.maptool.language.I18N;
 import net.rptools.maptool.model.MacroButtonProperties;
 import net.rptools.maptool.model.Player;
@@ -178,6 +179,35 @@ public class MapToolLineParser {
    */
   private List<Integer> newRolls = new LinkedList<>();
 
+  /** The inline rolls and roll options of recently parsed lines, keyed on the text of the line. */
+  private final MacroCache<CompiledLine> macroCache = new MacroCache<CompiledLine>();
+
+  /**
+   * Parsers not currently evaluating anything, keyed on their resolver. A parser is only reused for
+   * the same resolver, i.e. within the same line, and is taken out of this map while it is in use
+   * so that nested evaluations get a parser of their own.
+   */
+  private final Map<VariableResolver, ExpressionParser> idleParsers =
+      new IdentityHashMap<VariableResolver, ExpressionParser>();
+
+  /** The most idle parsers kept, to not hold on to the resolvers of old lines. */
+  private static final int MAX_IDLE_PARSERS = 8;
+
+  /** The branch regexes only depend on the roll options used, so there are only a few of them. */
+  private static final Map<String, Pattern> branchPatterns =
+      new ConcurrentHashMap<String, Pattern>();
+
+  private static final Pattern OPTION_NAME_PATTERN =
+      Pattern.compile("^\\s*(?:(\\w+)\\s*\\(|(\\w+))"); // matches "abcd(" or "abcd"
+
+  private static final Pattern OPTION_PARAM_PATTERN =
+      Pattern.compile(
+          "^(?:((?:[^()\"',]|\"[^\"]*\"|'[^']*'|\\((?:[^()\"']|\"[^\"]*\"|'[^']*')*\\))+)(,|\\))){1}?");
+
+  private static final Pattern OPTION_COMMA_PATTERN = Pattern.compile("^\\s*,\\s*(?!$)");
+
+  private static final Pattern LIB_TOKEN_PATTERN = Pattern.compile("(?i)^lib:.*");
+
   private enum Output { // Mutually exclusive output formats
     NONE,
     RESULT,
@@ -299,6 +329,40 @@ public String getRoll() {
     }
   }
 
+  /**
+   * The parts of a line that don't depend on the variables: where the inline rolls are and their
+   * parsed roll options. Shared by every run of the same line.
+   */
+  private class CompiledLine {
+    private final List<InlineRollMatch> matches;
+    private final List<?>[] optionLists;
+
+    CompiledLine(String line) {
+      matches = locateInlineRolls(line);
+      optionLists = new List<?>[matches.size()];
+    }
+
+    List<InlineRollMatch> getMatches() {
+      return matches;
+    }
+
+    /**
+     * Returns the roll options of an inline roll, parsing them the first time.
+     *
+     * @param index the index of the roll in {@link #getMatches()}
+     * @throws RollOptionException if the options can't be parsed; errors are not cached
+     */
+    @SuppressWarnings("unchecked")
+    List<OptionInfo> getOptions(int index) throws RollOptionException {
+      List<OptionInfo> options = (List<OptionInfo>) optionLists[index];
+      if (options == null) {
+        options = getRollOptionList(matches.get(index).getOpt());
+        optionLists[index] = options;
+      }
+      return options;
+    }
+  }
+
   /**
    * *************************************************************************** OptionType -
    * defines roll options, including values for default parameters.
@@ -363,9 +427,11 @@ private enum OptionType {
     protected final String nameRegex;
     protected final int minParams, maxParams;
     protected final Object[] defaultParams;
+    private final Pattern namePattern;
 
     OptionType(String nameRegex, int minParams, int maxParams, Object... defaultParams) {
       this.nameRegex = nameRegex;
+      this.namePattern = Pattern.compile("^\\s*" + nameRegex + "\\s*$", Pattern.CASE_INSENSITIVE);
       this.minParams = minParams;
       this.maxParams = maxParams;
       if (defaultParams == null) {
@@ -390,9 +456,7 @@ private enum OptionType {
     /** Obtain one of the enum values, or null if <code>strName</code> doesn't match any of them. */
     protected static OptionType optionTypeFromName(String strName) {
       for (OptionType rot : OptionType.values()) {
-        if (Pattern.compile("^\\s*" + rot.getNameRegex() + "\\s*$", Pattern.CASE_INSENSITIVE)
-            .matcher(strName)
-            .matches()) {
+        if (rot.namePattern.matcher(strName).matches()) {
           return rot;
         }
       }
@@ -478,9 +542,7 @@ private void parseOptionString(String optionString, int start) throws RollOption
       int endOfString = optionString.length();
 
       // Find the name
-      Pattern pattern =
-          Pattern.compile("^\\s*(?:(\\w+)\\s*\\(|(\\w+))"); // matches "abcd(" or "abcd"
-      Matcher matcher = pattern.matcher(optionString);
+      Matcher matcher = OPTION_NAME_PATTERN.matcher(optionString);
       matcher.region(start, endOfString);
       if (!matcher.find()) {
         throw new RollOptionException(I18N.getText("lineParser.badRollOpt", optionString));
@@ -510,10 +572,7 @@ private void parseOptionString(String optionString, int start) throws RollOption
       }
 
       // Otherwise, match the individual parameters one at a time
-      pattern =
-          Pattern.compile(
-              "^(?:((?:[^()\"',]|\"[^\"]*\"|'[^']*'|\\((?:[^()\"']|\"[^\"]*\"|'[^']*')*\\))+)(,|\\))){1}?");
-      matcher = pattern.matcher(optionString);
+      matcher = OPTION_PARAM_PATTERN.matcher(optionString);
       matcher.region(start, endOfString);
       List<String> paramList = new ArrayList<String>();
       boolean lastItem = false; // true if last match ended in ")"
@@ -681,7 +740,6 @@ private List<OptionInfo> getRollOptionList(String optionString) throws RollOptio
     int start = 0;
     int endOfString = optionString.length();
     boolean atEnd = false;
-    Pattern commaPattern = Pattern.compile("^\\s*,\\s*(?!$)");
 
     while (start < endOfString) {
       OptionInfo roi;
@@ -694,7 +752,7 @@ private List<OptionInfo> getRollOptionList(String optionString) throws RollOptio
       list.add(roi);
       start = roi.getEnd();
       // Eat any "," sitting between options
-      Matcher matcher = commaPattern.matcher(optionString);
+      Matcher matcher = OPTION_COMMA_PATTERN.matcher(optionString);
       matcher.region(start, endOfString);
       if (matcher.find()) {
         start = matcher.end();
@@ -756,9 +814,15 @@ public String parseLine(
       resolverInitialized = resolver.initialize();
       StringBuilder builder = new StringBuilder();
       int start = 0;
-      List<InlineRollMatch> matches = this.locateInlineRolls(line);
+      CompiledLine compiled = macroCache.get(line);
+      if (compiled == null) {
+        compiled = new CompiledLine(line);
+        macroCache.put(line, compiled);
+      }
+      List<InlineRollMatch> matches = compiled.getMatches();
 
-      for (InlineRollMatch match : matches) {
+      for (int matchIndex = 0; matchIndex < matches.size(); matchIndex++) {
+        InlineRollMatch match = matches.get(matchIndex);
         builder.append(line.substring(start, match.getStart())); // add everything before the roll
 
         start = match.getEnd() + 1;
@@ -796,7 +860,7 @@ public String parseLine(
             // Turn the opts string into a list of OptionInfo objects.
             List<OptionInfo> optionList = null;
             try {
-              optionList = getRollOptionList(opts);
+              optionList = compiled.getOptions(matchIndex);
             } catch (RollOptionException roe) {
               throw doError(roe.msg, opts, roll);
             }
@@ -1213,7 +1277,7 @@ public String parseLine(
                 {
                   // There's only one branch, so our regex is very simple
                   String testRegex = String.format("^\\s*%s\\s*$", branchRegex);
-                  Matcher testMatcher = Pattern.compile(testRegex).matcher(roll);
+                  Matcher testMatcher = branchPattern(testRegex).matcher(roll);
                   if (testMatcher.find()) {
                     rollBranch = testMatcher.group(1);
                   } else {
@@ -1239,7 +1303,7 @@ public String parseLine(
                       String.format(
                           "^\\s*%s\\s*(?:%s\\s*%s\\s*%s)?\\s*$",
                           branchRegex, branchSepRegex, branchRegex, branchLastSepRegex);
-                  Matcher testMatcher = Pattern.compile(testRegex).matcher(roll);
+                  Matcher testMatcher = branchPattern(testRegex).matcher(roll);
                   if (testMatcher.find()) { // verifies that roll body is well-formed
                     rollBranch = testMatcher.group(1 + whichBranch);
                     if (rollBranch == null)
@@ -1265,11 +1329,11 @@ public String parseLine(
                       String.format(
                           "^(?:\\s*%s\\s*%s\\s*)*\\s*%s\\s*%s\\s*$",
                           branchRegex, branchSepRegex, branchRegex, branchLastSepRegex);
-                  Matcher testMatcher = Pattern.compile(testRegex).matcher(roll);
+                  Matcher testMatcher = branchPattern(testRegex).matcher(roll);
                   if (testMatcher.find()) { // verifies that roll body is well-formed
                     String scanRegex =
                         String.format("\\s*%s\\s*(?:%s)?", branchRegex, branchSepRegex);
-                    Matcher scanMatcher = Pattern.compile(scanRegex).matcher(roll);
+                    Matcher scanMatcher = branchPattern(scanRegex).matcher(roll);
                     boolean foundMatch = false;
                     while (!foundMatch && scanMatcher.find()) {
                       String caseLabel = scanMatcher.group(1); // "case (xxx):"
@@ -1515,7 +1579,24 @@ public Result parseExpression(VariableResolver resolver, Token tokenInContext, S
         b.append(expression);
         log.debug(b.toString());
       }
-      Result res = createParser(resolver, tokenInContext != null).evaluate(expression);
+      ExpressionParser parser;
+      synchronized (idleParsers) {
+        parser = idleParsers.remove(resolver);
+      }
+      if (parser == null) {
+        parser = createParser(resolver, tokenInContext != null);
+      }
+      Result res;
+      try {
+        res = parser.evaluate(expression);
+      } finally {
+        synchronized (idleParsers) {
+          if (idleParsers.size() >= MAX_IDLE_PARSERS) {
+            idleParsers.clear();
+          }
+          idleParsers.put(resolver, parser);
+        }
+      }
       rolled.addAll(res.getRolled());
       newRolls.addAll(res.getRolled());
 
@@ -1692,8 +1773,8 @@ public String runMacro(
       }
       macroBody = mbp.getCommand();
     } else { // Search for a token called macroLocation (must start with "Lib:")
-      macroBody = getTokenLibMacro(macroName, macroLocation);
       Token token = getTokenMacroLib(macroLocation);
+      macroBody = getTokenLibMacro(token, macroName, macroLocation);
 
       if (macroBody == null || token == null) {
         throw new ParserException(I18N.getText("lineParser.unknownMacro", macroName));
@@ -1863,7 +1944,11 @@ String runMacroBlock(
    *     the caller doesn't have access to the token.
    */
   public String getTokenLibMacro(String macro, String location) throws ParserException {
-    Token token = getTokenMacroLib(location);
+    return getTokenLibMacro(getTokenMacroLib(location), macro, location);
+  }
+
+  private String getTokenLibMacro(Token token, String macro, String location)
+      throws ParserException {
     if (token == null) {
       throw new ParserException(I18N.getText("lineParser.unknownLibToken", location));
     }
@@ -1887,39 +1972,8 @@ public String getTokenLibMacro(String macro, String location) throws ParserExcep
    *     the caller doesn't have access to the token.
    */
   public Token getTokenMacroLib(String location) throws ParserException {
-    if (!location.matches("(?i)^lib:.*")) {
-      throw new ParserException(I18N.getText("lineParser.notALibToken"));
-    }
-    final String libTokenName = location;
-    Token libToken = null;
-    if (libTokenName != null && libTokenName.length() > 0) {
-      List<ZoneRenderer> zrenderers = MapTool.getFrame().getZoneRenderers();
-      for (ZoneRenderer zr : zrenderers) {
-        List<Token> tokenList =
-            zr.getZone()
-                .getTokensFiltered(
-                    new Zone.Filter() {
-                      public boolean matchToken(Token t) {
-                        return t.getName().equalsIgnoreCase(libTokenName);
-                      }
-                    });
-
-        for (Token token : tokenList) {
-          // If we are not the GM and the token is not visible to players then we don't
-          // let them get functions from it.
-          if (!MapTool.getPlayer().isGM() && !token.isVisible()) {
-            throw new ParserException(I18N.getText("lineParser.libUnableToExec", libTokenName));
-          }
-          if (libToken != null) {
-            throw new ParserException(I18N.getText("lineParser.duplicateLibTokens", libTokenName));
-          }
-
-          libToken = token;
-        }
-      }
-      return libToken;
-    }
-    return null;
+    LibTokenRegistry.LibToken libToken = findLibToken(location);
+    return libToken != null ? libToken.getToken() : null;
   }
 
   /**
@@ -1931,40 +1985,27 @@ public boolean matchToken(Token t) {
    *     the caller doesn't have access to the token.
    */
   public Zone getTokenMacroLibZone(String location) throws ParserException {
-    if (!location.matches("(?i)^lib:.*")) {
+    LibTokenRegistry.LibToken libToken = findLibToken(location);
+    return libToken != null ? libToken.getZone() : null;
+  }
+
+  private LibTokenRegistry.LibToken findLibToken(String location) throws ParserException {
+    if (!LIB_TOKEN_PATTERN.matcher(location).matches()) {
       throw new ParserException(I18N.getText("lineParser.notALibToken"));
     }
-    final String libTokenName = location;
-    Zone libTokenZone = null;
-    if (libTokenName != null && libTokenName.length() > 0) {
-      List<ZoneRenderer> zrenderers = MapTool.getFrame().getZoneRenderers();
-      for (ZoneRenderer zr : zrenderers) {
-        List<Token> tokenList =
-            zr.getZone()
-                .getTokensFiltered(
-                    new Zone.Filter() {
-                      public boolean matchToken(Token t) {
-                        return t.getName().equalsIgnoreCase(libTokenName);
-                      }
-                    });
-
-        for (Token token : tokenList) {
-          // If we are not the GM and the token is not visible to players then we don't
-          // let them get functions from it.
-          if (!MapTool.getPlayer().isGM() && !token.isVisible()) {
-            throw new ParserException(I18N.getText("lineParser.libUnableToExec", libTokenName));
-          }
-
-          if (libTokenZone != null) {
-            throw new ParserException(I18N.getText("lineParser.duplicateLibTokens", libTokenName));
-          }
-
-          libTokenZone = zr.getZone();
-        }
+    LibTokenRegistry.LibToken libToken = null;
+    for (LibTokenRegistry.LibToken lib : LibTokenRegistry.getInstance().getLibTokens(location)) {
+      // If we are not the GM and the token is not visible to players then we don't
+      // let them get functions from it.
+      if (!MapTool.getPlayer().isGM() && !lib.getToken().isVisible()) {
+        throw new ParserException(I18N.getText("lineParser.libUnableToExec", location));
+      }
+      if (libToken != null) {
+        throw new ParserException(I18N.getText("lineParser.duplicateLibTokens", location));
       }
-      return libTokenZone;
+      libToken = lib;
     }
-    return null;
+    return libToken;
   }
 
   /**
@@ -2002,6 +2043,25 @@ String errorString(String msg, String opts, String roll) {
     return retval;
   }
 
+  /** Returns the compiled form of a branch regex, compiling it the first time it is used. */
+  private static Pattern branchPattern(String regex) {
+    return branchPatterns.computeIfAbsent(regex, Pattern::compile);
+  }
+
+  /** Returns the cache of parsed lines, e.g. for its statistics. */
+  public MacroCache<?> getMacroCache() {
+    return macroCache;
+  }
+
+  /**
+   * Drops the parsed form of a macro whose text is no longer used.
+   *
+   * @param command the old text of the macro
+   */
+  public void invalidateMacro(String command) {
+    macroCache.invalidate(command == null ? null : command.trim());
+  }
+
   public static ExpressionParser createParser(
       VariableResolver resolver, boolean hasTokenInContext) {
     ExpressionParser parser = new ExpressionParser(resolver);
@@ -206,18 +206,11 @@ public Object getVariable(String name, VariableModifiers mods) throws ParserExce
       } else {
         // If the token has no property of that name check to see if there s a defaulted
         // value for the property for the token type.
-        List<TokenProperty> propertyList =
-            MapTool.getCampaign()
-                .getCampaignProperties()
-                .getTokenPropertyList(tokenInContext.getPropertyType());
-        if (propertyList != null) {
-          for (TokenProperty property : propertyList) {
-            if (name.equalsIgnoreCase(property.getName())) {
-              result = property.getDefaultValue();
-              evaluate = true;
-              break;
-            }
-          }
+        TokenProperty property =
+            MapTool.getCampaign().getTokenProperty(tokenInContext.getPropertyType(), name);
+        if (property != null) {
+          result = property.getDefaultValue();
+          evaluate = true;
         }
       }
     } else {
@@ -413,13 +406,7 @@ private void setBooleanTokenState(Token token, String stateName, Object val) {
    * @return <code>true</code> if the property is valid for the token.
    */
   private boolean validTokenProperty(String prop, Token token) {
-    for (TokenProperty tp : MapTool.getCampaign().getTokenPropertyList(token.getPropertyType())) {
-      if (tp.getName().equalsIgnoreCase(prop)) {
-        return true;
-      }
-    }
-
-    return false;
+    return MapTool.getCampaign().getTokenProperty(token.getPropertyType(), prop) != null;
   }
 
   /**
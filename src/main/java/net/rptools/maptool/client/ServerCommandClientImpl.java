@@ -33,6 +33,7 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.TopologyMode;
 import net.rptools.maptool.model.Zone.VisionType;
@@ -43,6 +44,7 @@
 import net.rptools.maptool.server.ServerCommand;
 import net.rptools.maptool.server.ServerMethodHandler;
 import net.rptools.maptool.server.ServerPolicy;
+import net.rptools.maptool.util.AreaCodec;
 
 /**
  * This class is used by a client to send commands to the server. The methods of this class are
@@ -98,6 +100,10 @@ public void getZone(GUID zoneGUID) {
     makeServerCall(COMMAND.getZone, zoneGUID);
   }
 
+  public void requestZones(List<GUID> zoneGUIDs) {
+    makeServerCall(COMMAND.requestZones, zoneGUIDs);
+  }
+
   public void putZone(Zone zone) {
     makeServerCall(COMMAND.putZone, zone);
   }
@@ -122,6 +128,14 @@ public void removeAsset(MD5Key assetID) {
     makeServerCall(COMMAND.removeAsset, assetID);
   }
 
+  public void prioritizeAssets(Set<MD5Key> assetIDs) {
+    makeServerCall(COMMAND.prioritizeAssets, assetIDs);
+  }
+
+  public void assetChunkReceived(long sequence) {
+    makeServerCall(COMMAND.assetChunkReceived, sequence);
+  }
+
   public void enforceZoneView(GUID zoneGUID, int x, int y, double scale, int width, int height) {
     makeServerCall(COMMAND.enforceZoneView, zoneGUID, x, y, scale, width, height);
   }
@@ -135,10 +149,26 @@ public void putToken(GUID zoneGUID, Token token) {
     // after changing the token. But they don't tell the zone about it so classes
     // waiting for the zone change event don't get it.
     MapTool.getCampaign().getZone(zoneGUID).putToken(token);
-    makeServerCall(COMMAND.putToken, zoneGUID, token);
+
+    // Only what changed since the server last heard about the token, when we know that
+    TokenDelta delta = TokenSyncTracker.getInstance().diff(zoneGUID, token);
+    if (delta == null) {
+      makeServerCall(COMMAND.putToken, zoneGUID, token);
+    } else if (!delta.isEmpty()) {
+      updateTokenDelta(zoneGUID, delta);
+    }
+  }
+
+  public void updateTokenDelta(GUID zoneGUID, TokenDelta delta) {
+    makeServerCall(COMMAND.updateTokenDelta, zoneGUID, delta);
+  }
+
+  public void syncToken(GUID zoneGUID, GUID tokenGUID) {
+    makeServerCall(COMMAND.syncToken, zoneGUID, tokenGUID);
   }
 
   public void removeToken(GUID zoneGUID, GUID tokenGUID) {
+    TokenSyncTracker.getInstance().forget(zoneGUID, tokenGUID);
     makeServerCall(COMMAND.removeToken, zoneGUID, tokenGUID);
   }
 
@@ -153,6 +183,8 @@ public void removeToken(GUID zoneGUID, GUID tokenGUID) {
    */
   public void updateTokenProperty(
       GUID zoneGUID, GUID tokenGUID, Token.Update update, Object[] parameters) {
+    // Changed without a diff, the next putToken() sends it whole
+    TokenSyncTracker.getInstance().forget(tokenGUID);
     makeServerCall(COMMAND.updateTokenProperty, zoneGUID, tokenGUID, update, parameters);
   }
 
@@ -336,7 +368,7 @@ public void clearExposedArea(GUID zoneGUID, boolean globalOnly) {
 
   private static void makeServerCall(ServerCommand.COMMAND command, Object... params) {
     if (MapTool.getConnection() != null) {
-      MapTool.getConnection().callMethod(command.name(), params);
+      MapTool.getConnection().callMethod(command.name(), AreaCodec.packParameters(params));
     }
   }
 
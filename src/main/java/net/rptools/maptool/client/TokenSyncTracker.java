@@ -0,0 +1,266 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import net.rptools.lib.MD5Key;
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
+
+/**
+ * Remembers, for each token, what the server was last told or told us about it, so {@link
+ * ServerCommandClientImpl#putToken(GUID, Token)} can send only the fields that changed.
+ *
+ * <p>For each token it keeps the zone it was last synced in, a digest of every field as last
+ * synced, and the server version of the token when known. A token put in another zone, as when it
+ * is moved to another map, starts over, since the server only applies a delta to the token in the
+ * zone it names. A token without digests is sent whole. The digests of a token are refreshed on
+ * every full token or delta received, and dropped on any other kind of update, since those change
+ * the token without saying which fields.
+ *
+ * <p>It also keeps the changes sent but not yet acknowledged by the server. The server applies
+ * them after whatever it relayed before the acknowledgement, so those changes are put back on top
+ * of every full token or delta from another client received in the meantime. Otherwise the
+ * sender would end up with the other client's values where the server has its own.
+ */
+public class TokenSyncTracker {
+  private static final TokenSyncTracker instance = new TokenSyncTracker();
+
+  /** The zone each token was last synced in. */
+  private final Map<GUID, GUID> zones = new HashMap<GUID, GUID>();
+
+  private final Map<GUID, Map<String, MD5Key>> fingerprints =
+      new HashMap<GUID, Map<String, MD5Key>>();
+
+  /** The server version of the tokens; missing when it isn't known. */
+  private final Map<GUID, Long> versions = new HashMap<GUID, Long>();
+
+  /** The field values sent and not yet acknowledged, oldest first. */
+  private final Map<GUID, ArrayDeque<Map<String, Object>>> unacknowledged =
+      new HashMap<GUID, ArrayDeque<Map<String, Object>>>();
+
+  /** Use {@link #getInstance()}; visible for the tests. */
+  TokenSyncTracker() {}
+
+  public static TokenSyncTracker getInstance() {
+    return instance;
+  }
+
+  /**
+   * Work out what changed in the token since it was last synced, and remember the new state.
+   *
+   * @param zoneId the zone the token is about to be sent for
+   * @param token the token about to be sent
+   * @return the changed fields, or null if the token has to be sent whole
+   */
+  public synchronized TokenDelta diff(GUID zoneId, Token token) {
+    if (!zoneId.equals(zones.get(token.getId()))) {
+      forget(token.getId());
+    }
+    Map<String, MD5Key> last = fingerprints.get(token.getId());
+    Map<String, Object> values = TokenDelta.getFieldValues(token);
+    if (last == null) {
+      zones.put(token.getId(), zoneId);
+      record(token.getId(), values);
+      sent(token.getId(), values);
+      return null;
+    }
+    Map<String, Object> changed = new HashMap<String, Object>();
+    for (Map.Entry<String, Object> entry : values.entrySet()) {
+      MD5Key fingerprint = TokenDelta.fingerprint(entry.getValue());
+      if (!fingerprint.equals(last.get(entry.getKey()))) {
+        changed.put(entry.getKey(), entry.getValue());
+        last.put(entry.getKey(), fingerprint);
+      }
+    }
+    if (!changed.isEmpty()) {
+      sent(token.getId(), changed);
+    }
+    return new TokenDelta(token.getId(), changed);
+  }
+
+  /**
+   * A whole token was received without a version; its server version is unknown until the next
+   * delta.
+   *
+   * @param zoneId the zone of the token
+   * @param token the token
+   */
+  public void tokenSynced(GUID zoneId, Token token) {
+    tokenSynced(zoneId, token, null);
+  }
+
+  /**
+   * A whole token was received. The changes sent since, that the server has yet to apply, are put
+   * back on it first, unless they were sent for another zone.
+   *
+   * @param zoneId the zone of the token
+   * @param token the token, about to be put in its zone
+   * @param version the server version of the token, or null if not known
+   */
+  public synchronized void tokenSynced(GUID zoneId, Token token, Long version) {
+    if (!zoneId.equals(zones.get(token.getId()))) {
+      forget(token.getId());
+      zones.put(token.getId(), zoneId);
+    }
+    reapplyUnacknowledged(token);
+    record(token.getId(), TokenDelta.getFieldValues(token));
+    if (version != null) {
+      versions.put(token.getId(), version);
+    } else {
+      versions.remove(token.getId());
+    }
+  }
+
+  /**
+   * Check a delta from the server against the version of the token, and remember its fields. The
+   * fields also in a change sent but not yet acknowledged are left as they are, the server will
+   * overwrite them with that change.
+   *
+   * @param zoneId the zone the delta is for
+   * @param delta the delta
+   * @return false if an update was missed, so the whole token has to be asked for
+   */
+  public synchronized boolean accept(GUID zoneId, TokenDelta delta) {
+    GUID id = delta.getTokenId();
+    GUID zone = zones.get(id);
+    if (zone != null && !zone.equals(zoneId)) {
+      forget(id);
+      return false;
+    }
+    if (!checkVersion(delta)) {
+      return false;
+    }
+    Map<String, MD5Key> last = fingerprints.get(id);
+    if (last != null) {
+      for (Map.Entry<String, Object> entry : delta.getFields().entrySet()) {
+        if (!isUnacknowledged(id, entry.getKey())) {
+          last.put(entry.getKey(), TokenDelta.fingerprint(entry.getValue()));
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Apply a delta from another client to the token, keeping the values of the changes sent but not
+   * yet acknowledged. Call {@link #accept(GUID, TokenDelta)} first.
+   *
+   * @param delta the delta
+   * @param token the token, about to be put back in its zone
+   */
+  public synchronized void apply(TokenDelta delta, Token token) {
+    delta.applyTo(token);
+    reapplyUnacknowledged(token);
+  }
+
+  /**
+   * The server applied the oldest change sent for the token.
+   *
+   * @param delta the acknowledgement
+   * @return false if an update was missed, so the whole token has to be asked for
+   */
+  public synchronized boolean acknowledged(TokenDelta delta) {
+    ArrayDeque<Map<String, Object>> pending = unacknowledged.get(delta.getTokenId());
+    if (pending != null) {
+      pending.poll();
+      if (pending.isEmpty()) {
+        unacknowledged.remove(delta.getTokenId());
+      }
+    }
+    return checkVersion(delta);
+  }
+
+  /**
+   * The token changed some other way, or is gone; it is sent whole next time.
+   *
+   * @param id the id of the token
+   */
+  public synchronized void forget(GUID id) {
+    zones.remove(id);
+    fingerprints.remove(id);
+    versions.remove(id);
+    unacknowledged.remove(id);
+  }
+
+  /**
+   * The token is gone from a zone; it is forgotten only if that is the zone it was synced in, as a
+   * token moved to another map is removed from the old one after it is put in the new one.
+   *
+   * @param zoneId the zone the token was removed from
+   * @param id the id of the token
+   */
+  public synchronized void forget(GUID zoneId, GUID id) {
+    if (zoneId.equals(zones.get(id))) {
+      forget(id);
+    }
+  }
+
+  /** Forget every token, when the campaign is replaced. */
+  public synchronized void clear() {
+    zones.clear();
+    fingerprints.clear();
+    versions.clear();
+    unacknowledged.clear();
+  }
+
+  /** Check that the delta follows the known version, and take on its version. */
+  private boolean checkVersion(TokenDelta delta) {
+    GUID id = delta.getTokenId();
+    Long known = versions.get(id);
+    if (known != null && known != delta.getBaseVersion()) {
+      forget(id);
+      return false;
+    }
+    versions.put(id, delta.getVersion());
+    return true;
+  }
+
+  private void sent(GUID id, Map<String, Object> values) {
+    unacknowledged.computeIfAbsent(id, k -> new ArrayDeque<Map<String, Object>>()).add(values);
+  }
+
+  private boolean isUnacknowledged(GUID id, String field) {
+    ArrayDeque<Map<String, Object>> pending = unacknowledged.get(id);
+    if (pending != null) {
+      for (Map<String, Object> values : pending) {
+        if (values.containsKey(field)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private void reapplyUnacknowledged(Token token) {
+    ArrayDeque<Map<String, Object>> pending = unacknowledged.get(token.getId());
+    if (pending != null) {
+      for (Map<String, Object> values : pending) {
+        new TokenDelta(token.getId(), values).applyTo(token);
+      }
+    }
+  }
+
+  private void record(GUID id, Map<String, Object> values) {
+    Map<String, MD5Key> fingerprint = new HashMap<String, MD5Key>();
+    for (Map.Entry<String, Object> entry : values.entrySet()) {
+      fingerprint.put(entry.getKey(), TokenDelta.fingerprint(entry.getValue()));
+    }
+    fingerprints.put(id, fingerprint);
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import net.rptools.maptool.model.Campaign;
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.Zone;
+
+/**
+ * The zones received from the server, with the stamp the server sent them with. A client joining
+ * the same server again only asks for the zones whose stamp changed since.
+ *
+ * <p>A zone is only good for its stamp as long as it isn't changed on the client, so the version of
+ * the zone when it arrived is kept too and a zone changed since is sent again.
+ */
+public class ZoneCache {
+  private static final ZoneCache instance = new ZoneCache();
+
+  private final Map<GUID, Entry> entries = new HashMap<GUID, Entry>();
+
+  /** Use {@link #getInstance()}; visible for the tests. */
+  ZoneCache() {}
+
+  public static ZoneCache getInstance() {
+    return instance;
+  }
+
+  private static class Entry {
+    private final Zone zone;
+    private final String stamp;
+    private final long version;
+
+    private Entry(Zone zone, String stamp) {
+      this.zone = zone;
+      this.stamp = stamp;
+      this.version = zone.getVersion();
+    }
+
+    private boolean isCurrent(String serverStamp) {
+      return stamp.equals(serverStamp) && zone.getVersion() == version;
+    }
+  }
+
+  /**
+   * Remember a zone as received from the server.
+   *
+   * @param zone the zone
+   * @param stamp the stamp the server sent it with
+   */
+  public synchronized void put(Zone zone, String stamp) {
+    entries.put(zone.getId(), new Entry(zone, stamp));
+  }
+
+  /**
+   * Forget a zone, when it is removed or arrives without a stamp.
+   *
+   * @param zoneId the zone
+   */
+  public synchronized void remove(GUID zoneId) {
+    entries.remove(zoneId);
+  }
+
+  /**
+   * Put the cached zones that are still current into the campaign, in the order of the stamps, and
+   * forget all the others.
+   *
+   * @param campaign the campaign, without zones
+   * @param stamps the current stamps of the zones on the server, in campaign order
+   * @return the zones that have to be asked for, in campaign order
+   */
+  public synchronized List<GUID> restore(Campaign campaign, Map<GUID, String> stamps) {
+    List<GUID> missing = new ArrayList<GUID>();
+    for (Map.Entry<GUID, String> stamp : stamps.entrySet()) {
+      Entry entry = entries.get(stamp.getKey());
+      if (entry != null && entry.isCurrent(stamp.getValue())) {
+        campaign.putZone(entry.zone);
+      } else {
+        missing.add(stamp.getKey());
+      }
+    }
+    for (Iterator<Map.Entry<GUID, Entry>> i = entries.entrySet().iterator(); i.hasNext(); ) {
+      Map.Entry<GUID, Entry> entry = i.next();
+      if (!entry.getValue().isCurrent(stamps.get(entry.getKey()))) {
+        i.remove();
+      }
+    }
+    return missing;
+  }
+
+  /**
+   * Forget the zones that aren't part of the campaign, when a campaign is loaded. Only the zones
+   * restored from the cache or received since stay.
+   *
+   * @param campaign the campaign now in use, or null
+   */
+  public synchronized void retain(Campaign campaign) {
+    for (Iterator<Entry> i = entries.values().iterator(); i.hasNext(); ) {
+      Zone zone = i.next().zone;
+      if (campaign == null || campaign.getZone(zone.getId()) != zone) {
+        i.remove();
+      }
+    }
+  }
+
+  /** Forget all the zones. */
+  public synchronized void clear() {
+    entries.clear();
+  }
+}
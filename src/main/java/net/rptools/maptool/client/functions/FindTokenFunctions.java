@@ -239,6 +239,7 @@ public boolean matchToken(Token t) {
    */
   private static class LayerFilter implements Zone.Filter {
     private final JsonArray filterLayers;
+    private final Set<TokenIndex.Key> indexKeys = new HashSet<TokenIndex.Key>();
 
     public LayerFilter(JsonArray layers) {
       filterLayers = new JsonArray();
@@ -246,8 +247,9 @@ public LayerFilter(JsonArray layers) {
         // Can't use .toString() as it wraps in extra quotes - bug in the JSON lib?
         String name = ((JsonPrimitive) s).getAsString().toUpperCase();
         name = "HIDDEN".equals(name) ? "GM" : name;
-        name = Zone.Layer.valueOf(name).toString();
-        filterLayers.add(name);
+        Zone.Layer layer = Zone.Layer.valueOf(name);
+        filterLayers.add(layer.toString());
+        indexKeys.add(TokenIndex.Key.layer(layer));
       }
     }
 
@@ -255,6 +257,11 @@ public boolean matchToken(Token t) {
       // Filter out the utility lib: and image: tokens
       return filterLayers.contains(new JsonPrimitive(t.getLayer().toString())) && !t.isImgOrLib();
     }
+
+    /** @return the token index keys of the layers */
+    public Set<TokenIndex.Key> getIndexKeys() {
+      return indexKeys;
+    }
   }
 
   private static class PropertyTypeFilter implements Zone.Filter {
@@ -435,9 +442,10 @@ private static Object getTokenList(
       }
     }
     Zone zone = zoneRenderer.getZone();
-    allTokens = zone.getTokensFiltered(new LayerFilter(layers));
-    List<Token> tokenList = new ArrayList<Token>(allTokens.size());
-    tokenList.addAll(allTokens);
+    // Narrow the tokens down with the token index, then check every condition on those as before
+    LayerFilter layerFilter = new LayerFilter(layers);
+    allTokens = zone.getTokensIndexed(getIndexConditions(jobj, layerFilter));
+    List<Token> tokenList = getTokensFiltered(layerFilter, allTokens);
     JsonObject range = null;
     JsonObject area = null;
 
@@ -648,9 +656,12 @@ private static Object getTokenList(
         points[ip] = new Point(joff.get("x").getAsInt() + cp.x, joff.get("y").getAsInt() + cp.y);
         ip += 1;
       }
+      // Only the tokens overlapping the cells of the area can match, so get those from the index
+      Set<Token> candidates = new HashSet<Token>(getTokensNearXY(zone, points));
       Set<Token> matching = new HashSet<Token>();
       for (Token targetToken : tokenList) {
-        if (TokenLocationFunctions.isTokenAtXY(targetToken, zone, points))
+        if (candidates.contains(targetToken)
+            && TokenLocationFunctions.isTokenAtXY(targetToken, zone, points))
           matching.add(targetToken);
       }
       tokenList.retainAll(matching);
@@ -675,6 +686,139 @@ private static Object getTokenList(
     }
   }
 
+  /**
+   * Returns the conditions of a getTokens() search that the token index can answer: those a token
+   * has to meet to match. The conditions the index can't answer, or that are malformed, are left to
+   * the filters, which also report the errors.
+   *
+   * @param jobj the conditions of the search
+   * @param layerFilter the layers to search
+   * @return the conditions, each a set of keys any of which will do
+   */
+  private static List<Set<TokenIndex.Key>> getIndexConditions(
+      JsonObject jobj, LayerFilter layerFilter) {
+    List<Set<TokenIndex.Key>> conditions = new ArrayList<Set<TokenIndex.Key>>();
+    conditions.add(layerFilter.getIndexKeys());
+    for (String searchType : jobj.keySet()) {
+      JsonElement json = jobj.get(searchType);
+      if ("setStates".equalsIgnoreCase(searchType)) {
+        List<String> states = getStrings(json);
+        if (states != null) {
+          for (String state : states) {
+            conditions.add(Collections.singleton(TokenIndex.Key.state(state)));
+          }
+        }
+      } else if ("propertyType".equalsIgnoreCase(searchType)) {
+        List<String> types = getStrings(json);
+        if (types != null) {
+          Set<TokenIndex.Key> keys = new HashSet<TokenIndex.Key>();
+          for (String type : types) {
+            keys.add(TokenIndex.Key.propertyType(type));
+          }
+          conditions.add(keys);
+        }
+      } else if ("pc".equalsIgnoreCase(searchType) || "npc".equalsIgnoreCase(searchType)) {
+        if (booleanCheck(jobj, searchType)) {
+          Token.Type type = "pc".equalsIgnoreCase(searchType) ? Token.Type.PC : Token.Type.NPC;
+          conditions.add(Collections.singleton(TokenIndex.Key.type(type)));
+        }
+      } else if ("light".equalsIgnoreCase(searchType)) {
+        boolean match = false;
+        if (json.isJsonObject()) {
+          JsonElement value = json.getAsJsonObject().get("value");
+          match =
+              value == null
+                  || (value.isJsonPrimitive() && FunctionUtil.getBooleanValue(value.getAsString()));
+        } else if (json.isJsonPrimitive()) {
+          match = "true".equalsIgnoreCase(json.getAsString()) || "1".equals(json.getAsString());
+        }
+        if (match) {
+          conditions.add(Collections.singleton(TokenIndex.Key.hasLight()));
+        }
+      } else if ("owned".equalsIgnoreCase(searchType)) {
+        Set<TokenIndex.Key> keys = null;
+        if (json.isJsonArray()) {
+          List<String> owners = getStrings(json);
+          if (owners != null) {
+            keys = new HashSet<TokenIndex.Key>();
+            for (String owner : owners) {
+              keys.add(TokenIndex.Key.owner(owner));
+            }
+          }
+        } else if (json.isJsonPrimitive()) {
+          Ownership ownership = getOwnership(json.getAsString());
+          if (ownership == Ownership.BYALL) {
+            keys = Set.of(TokenIndex.Key.ownedByAll());
+          } else if (ownership == Ownership.SELF) {
+            keys =
+                Set.of(
+                    TokenIndex.Key.ownedByAll(),
+                    TokenIndex.Key.owner(MapTool.getPlayer().getName()));
+          } else if (ownership == Ownership.ANY
+              || ownership == Ownership.OTHERS
+              || ownership == Ownership.SINGLE
+              || ownership == Ownership.MULTIPLE) {
+            keys = Set.of(TokenIndex.Key.hasOwners());
+          }
+        }
+        if (keys != null) {
+          conditions.add(keys);
+        }
+      }
+    }
+    return conditions;
+  }
+
+  /**
+   * @param json a string, or an array of strings
+   * @return the strings, or null if the element is anything else
+   */
+  private static List<String> getStrings(JsonElement json) {
+    if (json.isJsonPrimitive()) {
+      return Collections.singletonList(json.getAsString());
+    }
+    if (!json.isJsonArray()) {
+      return null;
+    }
+    List<String> strings = new ArrayList<String>();
+    for (JsonElement item : json.getAsJsonArray()) {
+      if (!item.isJsonPrimitive()) {
+        return null;
+      }
+      strings.add(item.getAsString());
+    }
+    return strings;
+  }
+
+  /**
+   * Get the tokens whose footprint is near any of the (x,y) cell coordinates, using the spatial
+   * index of the zone. The result is a superset of the tokens for which {@link
+   * TokenLocationFunctions#isTokenAtXY(Token, Zone, Point[])} returns true.
+   *
+   * @param zone The map
+   * @param points An array of points (cells coordinates, or pixels on gridless maps)
+   * @return the tokens near the points
+   */
+  private static List<Token> getTokensNearXY(Zone zone, Point[] points) {
+    if (points.length == 0) {
+      return Collections.emptyList();
+    }
+    Grid grid = zone.getGrid();
+    Rectangle bounds = null;
+    for (Point point : points) {
+      Rectangle cell =
+          grid.getCapabilities().isPathingSupported()
+              ? grid.getBounds(new CellPoint(point.x, point.y))
+              : new Rectangle(point.x, point.y, 1, 1);
+      if (bounds == null) {
+        bounds = new Rectangle(cell);
+      } else {
+        bounds.add(cell);
+      }
+    }
+    return zone.getTokensIntersecting(bounds, null);
+  }
+
   private static boolean booleanCheck(JsonObject jobj, String searchType) {
     JsonElement jel = jobj.get(searchType);
     if (jel.isJsonPrimitive()) {
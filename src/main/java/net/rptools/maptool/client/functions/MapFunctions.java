@@ -33,7 +33,7 @@ public class MapFunctions extends AbstractFunction {
   private MapFunctions() {
     super(
         0,
-        2,
+        3,
         "getAllMapNames",
         "getCurrentMapName",
         "getVisibleMapNames",
@@ -41,7 +41,9 @@ private MapFunctions() {
         "getMapVisible",
         "setMapVisible",
         "setMapName",
-        "copyMap");
+        "copyMap",
+        "getMapExposureModel",
+        "setMapExposureModel");
   }
 
   public static MapFunctions getInstance() {
@@ -111,6 +113,32 @@ public Object childEvaluate(Parser parser, String functionName, List<Object> par
       MapTool.serverCommand().putZone(newMap);
       return newMap.getName();
 
+    } else if ("getMapExposureModel".equalsIgnoreCase(functionName)) {
+      FunctionUtil.checkNumberParam(functionName, parameters, 0, 1);
+      Zone zone = FunctionUtil.getZoneRendererFromParam(functionName, parameters, 0).getZone();
+      return zone.getExposureModel().name();
+
+    } else if ("setMapExposureModel".equalsIgnoreCase(functionName)) {
+      checkTrusted(functionName);
+      FunctionUtil.checkNumberParam(functionName, parameters, 1, 3);
+      Zone.ExposureModel model;
+      try {
+        model = Zone.ExposureModel.valueOf(parameters.get(0).toString().toUpperCase());
+      } catch (IllegalArgumentException e) {
+        throw new ParserException(
+            I18N.getText("macro.function.general.argumentTypeInvalid", functionName, 1));
+      }
+      int subdivisions =
+          parameters.size() > 1
+              ? FunctionUtil.paramAsInteger(functionName, parameters, 1, true)
+              : Zone.DEFAULT_EXPOSURE_SUBDIVISIONS;
+      Zone zone = FunctionUtil.getZoneRendererFromParam(functionName, parameters, 2).getZone();
+      zone.setExposureModel(model, subdivisions);
+      // The whole exposure changes, so resend the zone like the map properties do
+      MapTool.serverCommand().removeZone(zone.getId());
+      MapTool.serverCommand().putZone(zone);
+      return zone.getExposureModel().name();
+
     } else {
       FunctionUtil.checkNumberParam(functionName, parameters, 0, 1);
       boolean allMaps = functionName.equals("getAllMapNames");
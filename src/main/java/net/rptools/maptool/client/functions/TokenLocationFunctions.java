@@ -16,6 +16,7 @@
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import java.awt.*;
 import java.awt.geom.Point2D;
 import java.math.BigDecimal;
@@ -65,6 +66,7 @@ private TokenLocationFunctions() {
         "getTokenDrawOrder",
         "getTokenMap",
         "getDistance",
+        "getDistances",
         "moveToken",
         "goto",
         "getDistanceToXY",
@@ -115,6 +117,10 @@ public Object childEvaluate(Parser parser, String functionName, List<Object> par
       FunctionUtil.checkNumberParam("getDistance", parameters, 1, 4);
       return getDistance(parser, parameters);
     }
+    if (functionName.equals("getDistances")) {
+      FunctionUtil.checkNumberParam(functionName, parameters, 1, 4);
+      return getDistances(parser, parameters);
+    }
     if (functionName.equals("getDistanceToXY")) {
       FunctionUtil.checkNumberParam(functionName, parameters, 2, 6);
       return getDistanceToXY(parser, parameters);
@@ -278,31 +284,13 @@ public double getDistance(Token source, Token target, boolean units, String metr
       Set<CellPoint> sourceCells = source.getOccupiedCells(grid);
       Set<CellPoint> targetCells = target.getOccupiedCells(grid);
 
-      WalkerMetric wmetric = null;
-      if (metric != null && grid.useMetric()) {
-        try {
-          wmetric = WalkerMetric.valueOf(metric);
-        } catch (IllegalArgumentException e) {
-          throw new ParserException(
-              I18N.getText("macro.function.getDistance.invalidMetric", metric));
-        }
-      }
+      WalkerMetric wmetric = getWalkerMetric(grid, metric);
 
       distance = Double.MAX_VALUE;
       if (closedForm) {
-        if (wmetric == null && grid.useMetric())
-          wmetric =
-              MapTool.isPersonalServer()
-                  ? AppPreferences.getMovementMetric()
-                  : MapTool.getServerPolicy().getMovementMetric();
+        if (wmetric == null && grid.useMetric()) wmetric = getDefaultWalkerMetric();
         // explicitly find difference without walkers
-        double curDist;
-        for (CellPoint scell : sourceCells) {
-          for (CellPoint tcell : targetCells) {
-            curDist = grid.cellDistance(scell, tcell, wmetric);
-            distance = Math.min(distance, curDist);
-          }
-        }
+        distance = getCellDistance(grid, sourceCells, targetCells, wmetric);
         if (units) distance *= zone.getUnitsPerCell();
       } else {
         // walker approach, slow but could eventually take into account VBL & terrain
@@ -321,21 +309,141 @@ public double getDistance(Token source, Token target, boolean units, String metr
       }
     } else {
       // take distance between center of the two tokens
-      Rectangle sourceBounds = source.getBounds(zone);
-      double sourceCenterX = sourceBounds.x + sourceBounds.width / 2.0;
-      double sourceCenterY = sourceBounds.y + sourceBounds.height / 2.0;
-      Rectangle targetBounds = target.getBounds(zone);
-      double targetCenterX = targetBounds.x + targetBounds.width / 2.0;
-      double targetCenterY = targetBounds.y + targetBounds.height / 2.0;
-
-      double a = (int) (sourceCenterX - targetCenterX);
-      double b = (int) (sourceCenterY - targetCenterY);
-      distance = Math.sqrt(a * a + b * b) / grid.getSize();
+      distance = getCenterDistance(grid, source.getBounds(zone), target.getBounds(zone));
       if (units) distance *= zone.getUnitsPerCell();
     }
     return distance;
   }
 
+  /**
+   * Gets the distances from each source token to each target token, as {@link #getDistance(Token,
+   * Token, boolean, String)} gives them. The cells and bounds of each token and the metric are only
+   * worked out once, instead of once per pair of tokens.
+   *
+   * @param sources The tokens to get the distances from.
+   * @param targets The tokens to calculate the distances to.
+   * @param units get the distances in the units specified for the map.
+   * @param metric The metric used.
+   * @return the distances, indexed by source then target.
+   * @throws ParserException when an error occurs
+   */
+  public double[][] getDistances(
+      List<Token> sources, List<Token> targets, boolean units, String metric)
+      throws ParserException {
+    double[][] distances = new double[sources.size()][targets.size()];
+    // The targets as seen on the map of the source, which is the same map for all sources mostly
+    Zone targetZone = null;
+    List<Set<CellPoint>> targetCells = null;
+    List<Rectangle> targetBounds = null;
+
+    for (int i = 0; i < sources.size(); i++) {
+      Token source = sources.get(i);
+      Zone zone = source.getZoneRenderer().getZone();
+      Grid grid = zone.getGrid();
+      if (zone != targetZone) {
+        targetZone = zone;
+        targetCells = null;
+        targetBounds = null;
+      }
+      if (grid.getCapabilities().isPathingSupported() && !NO_GRID.equals(metric)) {
+        WalkerMetric wmetric = getWalkerMetric(grid, metric);
+        if (wmetric == null && grid.useMetric()) wmetric = getDefaultWalkerMetric();
+        if (targetCells == null) {
+          targetCells = new ArrayList<Set<CellPoint>>(targets.size());
+          for (Token target : targets) {
+            targetCells.add(target.getOccupiedCells(grid));
+          }
+        }
+        Set<CellPoint> sourceCells = source.getOccupiedCells(grid);
+        for (int j = 0; j < targets.size(); j++) {
+          double distance = getCellDistance(grid, sourceCells, targetCells.get(j), wmetric);
+          if (units) distance *= zone.getUnitsPerCell();
+          distances[i][j] = distance;
+        }
+      } else {
+        if (targetBounds == null) {
+          targetBounds = new ArrayList<Rectangle>(targets.size());
+          for (Token target : targets) {
+            targetBounds.add(target.getBounds(zone));
+          }
+        }
+        Rectangle sourceBounds = source.getBounds(zone);
+        for (int j = 0; j < targets.size(); j++) {
+          double distance = getCenterDistance(grid, sourceBounds, targetBounds.get(j));
+          if (units) distance *= zone.getUnitsPerCell();
+          distances[i][j] = distance;
+        }
+      }
+    }
+    return distances;
+  }
+
+  /**
+   * Gets the metric asked for, if the grid has metrics.
+   *
+   * @param grid the grid of the map.
+   * @param metric the name of the metric, or null for the default.
+   * @return the metric, or null for the default.
+   * @throws ParserException if the metric is unknown.
+   */
+  private static WalkerMetric getWalkerMetric(Grid grid, String metric) throws ParserException {
+    if (metric == null || !grid.useMetric()) {
+      return null;
+    }
+    try {
+      return WalkerMetric.valueOf(metric);
+    } catch (IllegalArgumentException e) {
+      throw new ParserException(I18N.getText("macro.function.getDistance.invalidMetric", metric));
+    }
+  }
+
+  /** @return the movement metric of the server, or of the preferences for a personal server. */
+  private static WalkerMetric getDefaultWalkerMetric() {
+    return MapTool.isPersonalServer()
+        ? AppPreferences.getMovementMetric()
+        : MapTool.getServerPolicy().getMovementMetric();
+  }
+
+  /**
+   * Gets the shortest distance between two sets of cells.
+   *
+   * @param grid the grid of the map.
+   * @param sourceCells the cells to measure from.
+   * @param targetCells the cells to measure to.
+   * @param wmetric the metric, for grids that use one.
+   * @return the distance, in cells.
+   */
+  private static double getCellDistance(
+      Grid grid, Set<CellPoint> sourceCells, Set<CellPoint> targetCells, WalkerMetric wmetric) {
+    double distance = Double.MAX_VALUE;
+    for (CellPoint scell : sourceCells) {
+      for (CellPoint tcell : targetCells) {
+        distance = Math.min(distance, grid.cellDistance(scell, tcell, wmetric));
+      }
+    }
+    return distance;
+  }
+
+  /**
+   * Gets the straight line distance between the centers of two token bounds.
+   *
+   * @param grid the grid of the map.
+   * @param sourceBounds the bounds of the token to measure from.
+   * @param targetBounds the bounds of the token to measure to.
+   * @return the distance, in cells.
+   */
+  private static double getCenterDistance(
+      Grid grid, Rectangle sourceBounds, Rectangle targetBounds) {
+    double sourceCenterX = sourceBounds.x + sourceBounds.width / 2.0;
+    double sourceCenterY = sourceBounds.y + sourceBounds.height / 2.0;
+    double targetCenterX = targetBounds.x + targetBounds.width / 2.0;
+    double targetCenterY = targetBounds.y + targetBounds.height / 2.0;
+
+    double a = (int) (sourceCenterX - targetCenterX);
+    double b = (int) (sourceCenterY - targetCenterY);
+    return Math.sqrt(a * a + b * b) / grid.getSize();
+  }
+
   /**
    * Gets the distance to a target x,y co-ordinate following map movement rules.
    *
@@ -468,6 +576,76 @@ private BigDecimal getDistance(Parser parser, List<Object> args) throws ParserEx
     }
   }
 
+  /**
+   * Gets the distances to several tokens, from one or several tokens.
+   *
+   * @param parser the parser.
+   * @param args arguments to the function.
+   * @return a json object with the distance to each target keyed on its id, or with such an object
+   *     for each source if the sources are given as a json array.
+   * @throws ParserException if an error occurs.
+   */
+  private JsonObject getDistances(Parser parser, List<Object> args) throws ParserException {
+    final String fName = "getDistances";
+    List<Token> targets = getTokensFromParam(parser, fName, args.get(0));
+    boolean useDistancePerCell =
+        args.size() > 1 ? FunctionUtil.paramAsBoolean(fName, args, 1, false) : true;
+    boolean sourceArray = false;
+    List<Token> sources;
+    if (args.size() > 2) {
+      sourceArray = JSONMacroFunctions.getInstance().asJsonElement(args.get(2)).isJsonArray();
+      sources = getTokensFromParam(parser, fName, args.get(2));
+    } else {
+      sources = List.of(FunctionUtil.getTokenFromParam(parser, fName, args, -1, -1));
+    }
+    String metric = args.size() > 3 ? args.get(3).toString() : null;
+
+    double[][] distances = getDistances(sources, targets, useDistancePerCell, metric);
+
+    JsonObject result = new JsonObject();
+    for (int i = 0; i < sources.size(); i++) {
+      JsonObject row = new JsonObject();
+      for (int j = 0; j < targets.size(); j++) {
+        double dist = distances[i][j];
+        row.addProperty(
+            targets.get(j).getId().toString(),
+            dist == Math.floor(dist) ? BigDecimal.valueOf((int) dist) : BigDecimal.valueOf(dist));
+      }
+      if (!sourceArray) {
+        return row;
+      }
+      result.add(sources.get(i).getId().toString(), row);
+    }
+    return result;
+  }
+
+  /**
+   * Gets the tokens of a parameter holding a token id or name, or a json array of them.
+   *
+   * @param parser the parser.
+   * @param functionName the name of the function, for the error messages.
+   * @param param the parameter.
+   * @return the tokens.
+   * @throws ParserException if a token can't be found.
+   */
+  private static List<Token> getTokensFromParam(Parser parser, String functionName, Object param)
+      throws ParserException {
+    List<Object> ids = new ArrayList<Object>();
+    JsonElement json = JSONMacroFunctions.getInstance().asJsonElement(param);
+    if (json.isJsonArray()) {
+      for (JsonElement ele : json.getAsJsonArray()) {
+        ids.add(JSONMacroFunctions.getInstance().jsonToScriptString(ele));
+      }
+    } else {
+      ids.add(param);
+    }
+    List<Token> tokens = new ArrayList<Token>(ids.size());
+    for (int i = 0; i < ids.size(); i++) {
+      tokens.add(FunctionUtil.getTokenFromParam(parser, functionName, ids, i, -1));
+    }
+    return tokens;
+  }
+
   /**
    * Gets the distance to an x,y location.
    *
@@ -25,16 +25,15 @@
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Stack;
+import net.rptools.maptool.client.LibTokenRegistry;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.MapToolVariableResolver;
 import net.rptools.maptool.client.functions.AbortFunction.AbortFunctionException;
 import net.rptools.maptool.client.functions.json.JSONMacroFunctions;
 import net.rptools.maptool.client.ui.syntax.MapToolScriptSyntax;
-import net.rptools.maptool.client.ui.zone.ZoneRenderer;
 import net.rptools.maptool.model.MacroButtonProperties;
 import net.rptools.maptool.model.Player;
 import net.rptools.maptool.model.Token;
-import net.rptools.maptool.model.Zone;
 import net.rptools.parser.Parser;
 import net.rptools.parser.ParserException;
 import net.rptools.parser.function.Function;
@@ -226,58 +225,47 @@ public boolean isFunctionDefined(String name) {
   public void loadCampaignLibFunctions() {
     userDefinedFunctions.clear();
 
-    List<ZoneRenderer> zrenderers = MapTool.getFrame().getZoneRenderers();
-    for (ZoneRenderer zr : zrenderers) {
-      List<Token> tokenList =
-          zr.getZone()
-              .getTokensFiltered(
-                  new Zone.Filter() {
-                    public boolean matchToken(Token t) {
-                      return t.getName().toLowerCase().startsWith("lib:");
-                    }
-                  });
-
-      for (Token token : tokenList) {
-        // If the token is not owned by everyone and all owners are GMs then we are in its a trusted
-        // Lib:token so we can run the macro
-        if (token != null) {
-          if (token.isOwnedByAll()) {
-            continue;
-          } else {
-            Set<String> gmPlayers = new HashSet<String>();
-            for (Object o : MapTool.getPlayerList()) {
-              Player p = (Player) o;
-              if (p.isGM()) {
-                gmPlayers.add(p.getName());
-              }
+    for (LibTokenRegistry.LibToken libToken : LibTokenRegistry.getInstance().getAllLibTokens()) {
+      Token token = libToken.getToken();
+      // If the token is not owned by everyone and all owners are GMs then we are in its a trusted
+      // Lib:token so we can run the macro
+      if (token != null) {
+        if (token.isOwnedByAll()) {
+          continue;
+        } else {
+          Set<String> gmPlayers = new HashSet<String>();
+          for (Object o : MapTool.getPlayerList()) {
+            Player p = (Player) o;
+            if (p.isGM()) {
+              gmPlayers.add(p.getName());
             }
-            for (String owner : token.getOwners()) {
-              if (!gmPlayers.contains(owner)) {
-                continue;
-              }
+          }
+          for (String owner : token.getOwners()) {
+            if (!gmPlayers.contains(owner)) {
+              continue;
             }
           }
         }
-        // If we get here it is trusted so try to execute it.
-        if (token.getMacro(ON_LOAD_CAMPAIGN_CALLBACK, false) != null) {
-          try {
-            MapTool.getParser()
-                .runMacro(
-                    new MapToolVariableResolver(token),
-                    token,
-                    ON_LOAD_CAMPAIGN_CALLBACK + "@" + token.getName(),
-                    "");
-          } catch (AbortFunctionException afe) {
-            // Do nothing
-          } catch (Exception e) {
-            MapTool.addLocalMessage(
-                "Error running "
-                    + ON_LOAD_CAMPAIGN_CALLBACK
-                    + " on "
-                    + token.getName()
-                    + " : "
-                    + e.getMessage());
-          }
+      }
+      // If we get here it is trusted so try to execute it.
+      if (token.getMacro(ON_LOAD_CAMPAIGN_CALLBACK, false) != null) {
+        try {
+          MapTool.getParser()
+              .runMacro(
+                  new MapToolVariableResolver(token),
+                  token,
+                  ON_LOAD_CAMPAIGN_CALLBACK + "@" + token.getName(),
+                  "");
+        } catch (AbortFunctionException afe) {
+          // Do nothing
+        } catch (Exception e) {
+          MapTool.addLocalMessage(
+              "Error running "
+                  + ON_LOAD_CAMPAIGN_CALLBACK
+                  + " on "
+                  + token.getName()
+                  + " : "
+                  + e.getMessage());
         }
       }
     }
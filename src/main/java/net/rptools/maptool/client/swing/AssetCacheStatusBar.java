@@ -83,6 +83,12 @@ public void onFileCreate(File file) {
             public void onFileDelete(File file) {
               update();
             }
+
+            // Is triggered when a segment of the asset store grows
+            @Override
+            public void onFileChange(File file) {
+              update();
+            }
           };
 
       observer.addListener(listener);
@@ -19,7 +19,9 @@
 import java.awt.event.MouseAdapter;
 import java.text.DecimalFormat;
 import javax.swing.JProgressBar;
+import net.rptools.maptool.model.AssetManager;
 import net.rptools.maptool.util.FileUtil;
+import net.rptools.maptool.util.ImageManager;
 
 /** */
 public class MemoryStatusBar extends JProgressBar {
@@ -116,12 +118,18 @@ private void update() {
             + FileUtil.byteCountToDisplaySize(totalMemory));
 
     setToolTipText(
-        "Used Memory: "
+        "<html>Used Memory: "
             + format.format((totalMemory - freeMemory) / (1024 * 1024))
             + "M, Total Memory: "
             + format.format(totalMemory / (1024 * 1024))
             + "M, Maximum Memory: "
             + format.format(maxMemory / (1024 * 1024))
-            + "M");
+            + "M<br>"
+            + AssetManager.getCacheStatistics()
+            + "<br>"
+            + ImageManager.getCacheStatistics()
+            + "<br>"
+            + ImageManager.getMipmapCacheStatistics()
+            + "</html>");
   }
 }
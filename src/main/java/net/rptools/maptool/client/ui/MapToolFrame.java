@@ -1516,13 +1516,16 @@ public void addZoneRenderer(ZoneRenderer renderer) {
 
   /**
    * Remove the ZoneRenderer. If it's the current ZoneRenderer, set a new current ZoneRenderer.
-   * Flush zoneMiniMapPanel.
+   * Flush zoneMiniMapPanel and the drawing chunks cached for the renderer.
    *
    * @param renderer the ZoneRenderer to remove.
    */
   public void removeZoneRenderer(ZoneRenderer renderer) {
     boolean isCurrent = renderer == getCurrentZoneRenderer();
     zoneRendererList.remove(renderer);
+    if (renderer != null) {
+      renderer.flushDrawableRenderer();
+    }
     if (isCurrent) {
       boolean rendererSet = false;
       for (ZoneRenderer currRenderer : zoneRendererList) {
@@ -1541,6 +1544,9 @@ public void removeZoneRenderer(ZoneRenderer renderer) {
   }
 
   public void clearZoneRendererList() {
+    for (ZoneRenderer renderer : zoneRendererList) {
+      renderer.flushDrawableRenderer();
+    }
     zoneRendererList.clear();
     zoneMiniMapPanel.flush();
     zoneMiniMapPanel.repaint();
@@ -1590,6 +1596,10 @@ public void setCurrentZoneRenderer(ZoneRenderer renderer) {
       MapTool.getEventDispatcher()
           .fireEvent(MapTool.ZoneEvent.Activated, this, null, renderer.getZone());
       renderer.requestFocusInWindow();
+      if (!MapTool.isHostingServer() && !MapTool.isPersonalServer()) {
+        // Get the images of this map before those of the maps we were looking at
+        MapTool.serverCommand().prioritizeAssets(renderer.getZone().getAllAssetIds());
+      }
     }
     AppActions.updateActions();
     repaint();
@@ -53,6 +53,9 @@
 import net.rptools.maptool.client.AppState;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.functions.MediaPlayerAdapter;
+import net.rptools.maptool.client.ui.zone.FogUtil;
+import net.rptools.maptool.client.ui.zone.ZoneRenderer;
+import net.rptools.maptool.client.ui.zone.vbl.VisibilityEngine;
 import net.rptools.maptool.client.walker.WalkerMetric;
 import net.rptools.maptool.language.I18N;
 import net.rptools.maptool.model.Grid;
@@ -127,6 +130,7 @@ public void stateChanged(ChangeEvent ce) {
   private final JCheckBox tokensSnapWhileDraggingCheckBox;
   private final JCheckBox hideMousePointerWhileDraggingCheckBox;
   private final JCheckBox newMapsVisibleCheckBox;
+  private final JCheckBox fastVisionCheckBox;
   private final JCheckBox newTokensVisibleCheckBox;
   private final JCheckBox tokensStartFreeSizeCheckBox;
   private final JCheckBox stampsStartSnapToGridCheckBox;
@@ -186,6 +190,7 @@ public void stateChanged(ChangeEvent ce) {
 
   private final JSpinner autoSaveSpinner;
   private final JCheckBox saveReminderCheckBox;
+  private final JCheckBox newCampaignFormatCheckBox;
 
   private final JCheckBox showDialogOnNewToken;
 
@@ -255,6 +260,7 @@ public void actionPerformed(java.awt.event.ActionEvent e) {
     showStatSheetModifierCheckBox = panel.getCheckBox("showStatSheetModifier");
     showNumberingCombo = panel.getComboBox("showNumberingCombo");
     saveReminderCheckBox = panel.getCheckBox("saveReminderCheckBox");
+    newCampaignFormatCheckBox = panel.getCheckBox("newCampaignFormatCheckBox");
     fillSelectionCheckBox = panel.getCheckBox("fillSelectionCheckBox");
     frameRateCapTextField = panel.getTextField("frameRateCapTextField");
     // initEnableServerSyncCheckBox = panel.getCheckBox("initEnableServerSyncCheckBox");
@@ -269,6 +275,7 @@ public void actionPerformed(java.awt.event.ActionEvent e) {
     tokensSnapWhileDraggingCheckBox = panel.getCheckBox("tokensSnapWhileDragging");
     hideMousePointerWhileDraggingCheckBox = panel.getCheckBox("hideMousePointerWhileDragging");
     newMapsVisibleCheckBox = panel.getCheckBox("newMapsVisibleCheckBox");
+    fastVisionCheckBox = panel.getCheckBox("fastVisionCheckBox");
     newTokensVisibleCheckBox = panel.getCheckBox("newTokensVisibleCheckBox");
     stampsStartFreeSizeCheckBox = panel.getCheckBox("stampsStartFreeSize");
     tokensStartFreeSizeCheckBox = panel.getCheckBox("tokensStartFreeSize");
@@ -507,6 +514,13 @@ public void actionPerformed(ActionEvent e) {
             AppPreferences.setSaveReminder(saveReminderCheckBox.isSelected());
           }
         });
+    newCampaignFormatCheckBox.addActionListener(
+        new ActionListener() {
+          @Override
+          public void actionPerformed(ActionEvent e) {
+            AppPreferences.setNewCampaignFormat(newCampaignFormatCheckBox.isSelected());
+          }
+        });
     fillSelectionCheckBox.addActionListener(
         new ActionListener() {
           @Override
@@ -606,6 +620,24 @@ public void actionPerformed(ActionEvent e) {
             AppPreferences.setNewMapsVisible(newMapsVisibleCheckBox.isSelected());
           }
         });
+    fastVisionCheckBox.addActionListener(
+        new ActionListener() {
+          @Override
+          public void actionPerformed(ActionEvent e) {
+            VisibilityEngine.Type type =
+                fastVisionCheckBox.isSelected()
+                    ? VisibilityEngine.Type.SWEEP
+                    : VisibilityEngine.Type.AREA;
+            AppPreferences.setVisibilityEngine(type);
+            FogUtil.setVisibilityEngine(type);
+            for (ZoneRenderer zr : MapTool.getFrame().getZoneRenderers()) {
+              zr.getZoneView().flush();
+              zr.flushFog();
+              zr.flushLight();
+            }
+            MapTool.getFrame().refresh();
+          }
+        });
     newTokensVisibleCheckBox.addActionListener(
         new ActionListener() {
           @Override
@@ -1188,6 +1220,7 @@ private void updateFacings() {
   private void setInitialState() {
     showDialogOnNewToken.setSelected(AppPreferences.getShowDialogOnNewToken());
     saveReminderCheckBox.setSelected(AppPreferences.getSaveReminder());
+    newCampaignFormatCheckBox.setSelected(AppPreferences.getNewCampaignFormat());
     fillSelectionCheckBox.setSelected(AppPreferences.getFillSelectionBox());
     frameRateCapTextField.setText(Integer.toString(AppPreferences.getFrameRateCap()));
     // initEnableServerSyncCheckBox.setSelected(AppPreferences.getInitEnableServerSync());
@@ -1199,6 +1232,8 @@ private void setInitialState() {
     hideMousePointerWhileDraggingCheckBox.setSelected(
         AppPreferences.getHideMousePointerWhileDragging());
     newMapsVisibleCheckBox.setSelected(AppPreferences.getNewMapsVisible());
+    fastVisionCheckBox.setSelected(
+        AppPreferences.getVisibilityEngine() == VisibilityEngine.Type.SWEEP);
     newTokensVisibleCheckBox.setSelected(AppPreferences.getNewTokensVisible());
     stampsStartFreeSizeCheckBox.setSelected(AppPreferences.getObjectsStartFreesize());
     tokensStartFreeSizeCheckBox.setSelected(AppPreferences.getTokensStartFreesize());
@@ -58,6 +58,11 @@ public class ASyncPartitionedDrawableRenderer implements DrawableRenderer {
     new RenderThread().start();
   }
 
+  public void invalidate(DrawnElement element) {
+    // Doesn't track what each drawable covers, so everything is drawn again
+    flush();
+  }
+
   public void flush() {
     // for (BufferedImage image : chunkMap.values()) {
     // releaseChunk(image);
@@ -37,6 +37,11 @@ public class BackBufferDrawableRenderer implements DrawableRenderer {
   private double lastScale;
   private int lastDrawableListSize;
 
+  public void invalidate(DrawnElement element) {
+    // Doesn't track what each drawable covers, so everything is drawn again
+    flush();
+  }
+
   public void flush() {
     backBuffer = null;
     lastViewport = null;
@@ -70,6 +70,11 @@ public DiskBasedPartitionedDrawableRenderer() {
     flush();
   }
 
+  public void invalidate(DrawnElement element) {
+    // Doesn't track what each drawable covers, so everything is drawn again
+    flush();
+  }
+
   public void flush() {
     File chunkDir = getChunkDir();
     try {
@@ -26,4 +26,12 @@ public void renderDrawables(
       Graphics g, List<DrawnElement> drawableList, Rectangle viewport, double scale);
 
   public void flush();
+
+  /**
+   * Tells the renderer that a drawable was added, removed or changed, so that what it cached for
+   * the area of the drawable is drawn again.
+   *
+   * @param element the drawable
+   */
+  public void invalidate(DrawnElement element);
 }
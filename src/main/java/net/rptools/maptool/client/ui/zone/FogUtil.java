@@ -28,23 +28,18 @@
 import java.awt.geom.Area;
 import java.awt.geom.PathIterator;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
-import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import net.rptools.lib.CodeTimer;
+import net.rptools.maptool.client.AppPreferences;
 import net.rptools.maptool.client.AppUtil;
 import net.rptools.maptool.client.MapTool;
-import net.rptools.maptool.client.ui.zone.vbl.AreaOcean;
 import net.rptools.maptool.client.ui.zone.vbl.AreaTree;
-import net.rptools.maptool.client.ui.zone.vbl.VisibleAreaSegment;
+import net.rptools.maptool.client.ui.zone.vbl.VisibilityEngine;
 import net.rptools.maptool.model.CellPoint;
 import net.rptools.maptool.model.ExposedAreaMetaData;
 import net.rptools.maptool.model.GUID;
@@ -61,8 +56,12 @@
 public class FogUtil {
   private static final Logger log = LogManager.getLogger(FogUtil.class);
 
+  /** The engine calculating visibility, read from the preferences on first use. */
+  private static volatile VisibilityEngine visibilityEngine;
+
   /**
-   * Return the visible area for an origin, a lightSourceArea and a VBL.
+   * Return the visible area for an origin, a lightSourceArea and a VBL, using the visibility engine
+   * selected in the preferences.
    *
    * @param x the x vision origin.
    * @param y the y vision origin.
@@ -71,70 +70,24 @@ public class FogUtil {
    * @return the visible area.
    */
   public static Area calculateVisibility(int x, int y, Area vision, AreaTree topology) {
-    CodeTimer timer = new CodeTimer("calculateVisibility");
-
-    vision = new Area(vision);
-    vision.transform(AffineTransform.getTranslateInstance(x, y));
-
-    Point origin = new Point(x, y);
-
-    AreaOcean ocean = topology.getOceanAt(origin);
-    if (ocean == null) {
-      return null;
-    }
-    int skippedAreas = 0;
-
-    // Jamz: Updated comparison for VisibleAreaSegment, hopefully this fixes the exceptions
-    // If exception still happens, this JVM option can be used as a temp fix:
-    // -Djava.util.Arrays.useLegacyMergeSort=true
-    // http://dertompson.com/2012/11/23/sort-algorithm-changes-in-java-7/
-    // http://bugs.java.com/bugdatabase/view_bug.do?bug_id=7075600
-    List<VisibleAreaSegment> segmentList =
-        new ArrayList<VisibleAreaSegment>(ocean.getVisibleAreaSegments(origin));
-    Collections.sort(segmentList);
-
-    List<Area> clearedAreaList = new LinkedList<Area>();
-    nextSegment:
-    for (VisibleAreaSegment segment : segmentList) {
-      Rectangle r = segment.getPath().getBounds();
-      for (Area clearedArea : clearedAreaList) {
-        if (clearedArea.contains(r)) {
-          skippedAreas++;
-          continue nextSegment;
-        }
-      }
-      Area area = segment.getArea();
-
-      timer.start("combine");
-      Area intersectedArea = null;
-      for (ListIterator<Area> iter = clearedAreaList.listIterator(); iter.hasNext(); ) {
-        Area clearedArea = iter.next();
-        if (clearedArea.intersects(r)) {
-          clearedArea.add(area);
-          iter.remove(); // we'll put it on the back of the list to prevent crazy growth at the
-          // front
-          intersectedArea = clearedArea;
-          break;
-        }
-      }
-      timer.stop("combine");
-      clearedAreaList.add(intersectedArea != null ? intersectedArea : area);
-    }
-
-    while (clearedAreaList.size() > 1) {
-      Area a1 = clearedAreaList.remove(0);
-      Area a2 = clearedAreaList.remove(0);
-
-      a1.add(a2);
-      clearedAreaList.add(a1);
-    }
+    return getVisibilityEngine().calculateVisibility(x, y, vision, topology);
+  }
 
-    if (clearedAreaList.size() > 0) {
-      vision.subtract(clearedAreaList.get(0));
+  /** @return the visibility engine used by {@link #calculateVisibility}. */
+  public static VisibilityEngine getVisibilityEngine() {
+    if (visibilityEngine == null) {
+      visibilityEngine = AppPreferences.getVisibilityEngine().getEngine();
     }
+    return visibilityEngine;
+  }
 
-    // For simplicity, this catches some of the edge cases
-    return vision;
+  /**
+   * Change the visibility engine. Cached vision has to be flushed by the caller.
+   *
+   * @param type the type of engine to use.
+   */
+  public static void setVisibilityEngine(VisibilityEngine.Type type) {
+    visibilityEngine = type.getEngine();
   }
 
   /**
@@ -364,14 +317,9 @@ public static void exposeLastPath(final ZoneRenderer renderer, final Set<GUID> t
 
       if (lastPath == null) return;
 
-      Map<GUID, ExposedAreaMetaData> fullMeta = zone.getExposedAreaMetaData();
       GUID exposedGUID = token.getExposedAreaGUID();
-      ExposedAreaMetaData meta = fullMeta.get(exposedGUID);
-
-      if (meta == null) {
-        meta = new ExposedAreaMetaData();
-        fullMeta.put(exposedGUID, meta);
-      }
+      // Creates the meta data with the exposure model of the zone if the token has none yet
+      ExposedAreaMetaData meta = zone.getExposedAreaMetaData(exposedGUID);
 
       /*
        * Lee: this assumes that all tokens that pass through the checks above stored CellPoints. Well, they don't, not in the context of a snapped to grid follower following an unsnapped key
@@ -455,9 +403,14 @@ public static Point calculateVisionCenter(Token token, Zone zone) {
     return new Point(x, y);
   }
 
-  public static void main(String[] args) {
-    System.out.println("Creating topology");
-    final int topSize = 20000;
+  /**
+   * Create the random topology used to try out the visibility calculation, with a clear 400 pixel
+   * square in the middle.
+   *
+   * @param topSize the width and height of the topology.
+   * @return the topology.
+   */
+  static Area createTestTopology(int topSize) {
     final Area topology = new Area();
     Random r = new Random(12345);
     for (int i = 0; i < 500; i++) {
@@ -470,6 +423,13 @@ public static void main(String[] args) {
 
     // Make sure the the center point is not contained inside the blocked area
     topology.subtract(new Area(new Rectangle(topSize / 2 - 200, topSize / 2 - 200, 400, 400)));
+    return topology;
+  }
+
+  public static void main(String[] args) {
+    System.out.println("Creating topology");
+    final int topSize = 20000;
+    final Area topology = createTestTopology(topSize);
 
     final Area vision =
         new Area(
@@ -14,6 +14,7 @@
  */
 package net.rptools.maptool.client.ui.zone;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Composite;
@@ -25,77 +26,161 @@
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-import net.rptools.lib.CodeTimer;
-import net.rptools.lib.image.ImageUtil;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import net.rptools.maptool.model.GUID;
 import net.rptools.maptool.model.drawing.Drawable;
 import net.rptools.maptool.model.drawing.DrawablesGroup;
 import net.rptools.maptool.model.drawing.DrawnElement;
 import net.rptools.maptool.model.drawing.Pen;
+import net.rptools.maptool.util.BoundedCache;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-/** */
+/**
+ * Draws the drawables of a layer from images of {@value #CHUNK_SIZE} pixel squares of the screen.
+ *
+ * <p>The chunks of all the renderers share one cache, keyed by the renderer, the scale and the
+ * position of the chunk, and the least recently used chunks are dropped once the cache holds more
+ * than its memory budget. Chunks at other scales stay cached, so zooming back and forth doesn't
+ * draw them again. When drawables change only the chunks overlapping them are dropped, see {@link
+ * #invalidate(DrawnElement)}.
+ *
+ * <p>Missing chunks are drawn by a pool of background threads. The renderer waits a short while
+ * for them so that small changes don't flicker, and the rest ask for a repaint when ready.
+ */
 public class PartitionedDrawableRenderer implements DrawableRenderer {
-  private static Logger log = LogManager.getLogger(PartitionedDrawableRenderer.class);
+  private static final Logger log = LogManager.getLogger(PartitionedDrawableRenderer.class);
   private static boolean messageLogged = false;
 
   private static final int CHUNK_SIZE = 256;
-  private static List<BufferedImage> unusedChunkList = new LinkedList<BufferedImage>();
 
-  private final Set<String> noImageSet = new HashSet<String>();
-  private final List<Tuple> chunkList = new LinkedList<Tuple>();
-  private int maxChunks;
+  /** The memory budget of the chunks of all the renderers: 256 chunks of 4 bytes a pixel. */
+  private static final long MAX_CHUNK_BYTES = 256L * CHUNK_SIZE * CHUNK_SIZE * 4;
+
+  /** How long the renderer waits for missing chunks before drawing without them. */
+  private static final long MAX_WAIT_MILLIS = 20;
+
+  /** Stands for a chunk with nothing drawn in it. */
+  private static final BufferedImage EMPTY_CHUNK =
+      new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+
+  /**
+   * The weight of an empty chunk: its key and the entries of the cache maps. Empty chunks must
+   * count, or there would be no end to them and to the walks over the cache when drawables change.
+   */
+  private static final long EMPTY_CHUNK_BYTES = 160;
+
+  private static final BoundedCache<ChunkKey, BufferedImage> chunkCache =
+      new BoundedCache<ChunkKey, BufferedImage>(
+          "Drawable chunk cache",
+          MAX_CHUNK_BYTES,
+          image ->
+              image == EMPTY_CHUNK
+                  ? EMPTY_CHUNK_BYTES
+                  : (long) image.getWidth() * image.getHeight() * 4,
+          (key, image) -> true);
+
+  private static final ExecutorService chunkExecutor =
+      Executors.newFixedThreadPool(
+          Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+          new ThreadFactoryBuilder().setNameFormat("drawable-chunk-%d").setDaemon(true).build());
+
+  /** Called from a background thread whenever a chunk is ready. */
+  private final Runnable onChunkReady;
 
-  private double lastDrawableCount;
-  private double lastScale;
+  /** The chunks being drawn. */
+  private final Set<ChunkKey> pending = ConcurrentHashMap.newKeySet();
+
+  /** The drawables changed since the last render. */
+  private final Queue<DrawnElement> changed = new ConcurrentLinkedQueue<DrawnElement>();
+
+  /**
+   * Bumped whenever chunks are dropped, so that chunks drawn from an older list of drawables
+   * aren't cached. Guarded by the renderer.
+   */
+  private int generation;
+
+  private int lastDrawableCount;
   private Rectangle lastViewport;
 
   private int horizontalChunkCount;
   private int verticalChunkCount;
 
-  private CodeTimer timer;
+  /** Creates a renderer that isn't told when chunks are ready. */
+  public PartitionedDrawableRenderer() {
+    this(null);
+  }
+
+  /**
+   * @param onChunkReady called from a background thread whenever a chunk is ready, so that the
+   *     chunks the renderer didn't wait for get drawn; may be null
+   */
+  public PartitionedDrawableRenderer(Runnable onChunkReady) {
+    this.onChunkReady = onChunkReady;
+  }
 
   public void flush() {
-    int unusedSize = unusedChunkList.size();
-    for (Tuple tuple : chunkList) {
-      // Reuse the images
-      if (unusedSize < maxChunks && tuple != null) {
-        unusedChunkList.add(tuple.image);
-        unusedSize++;
+    synchronized (this) {
+      generation++;
+      for (ChunkKey key : chunkCache.keys()) {
+        if (key.renderer == this) {
+          chunkCache.remove(key);
+        }
       }
     }
-    chunkList.clear();
-    noImageSet.clear();
+    changed.clear();
+  }
+
+  /**
+   * Drops the chunks overlapping a drawable the next time the renderer draws. Call it when the
+   * drawable is added, removed or changed; the bounds of the drawable in the list at that time are
+   * dropped as well, so a change of pen needs only one call with the drawable as it was before.
+   *
+   * @param element the drawable
+   */
+  public void invalidate(DrawnElement element) {
+    changed.add(element);
   }
 
   public void renderDrawables(
       Graphics g, List<DrawnElement> drawableList, Rectangle viewport, double scale) {
-    timer = new CodeTimer("Renderer");
-    timer.setThreshold(10);
-    timer.setEnabled(false);
-
     // NOTHING TO DO
     if (drawableList == null || drawableList.size() == 0) {
-      flush();
+      if (lastDrawableCount != 0) {
+        flush();
+        lastDrawableCount = 0;
+      }
       return;
     }
-    // View changed ?
-    if (drawableList.size() != lastDrawableCount || lastScale != scale) {
+    if (!changed.isEmpty()) {
+      dropChanged(drawableList);
+    } else if (drawableList.size() != lastDrawableCount) {
+      // The list changed without telling us, e.g. it was replaced
       flush();
     }
+    lastDrawableCount = drawableList.size();
+
     if (lastViewport == null
         || viewport.width != lastViewport.width
         || viewport.height != lastViewport.height) {
       horizontalChunkCount = (int) Math.ceil(viewport.width / (double) CHUNK_SIZE) + 1;
       verticalChunkCount = (int) Math.ceil(viewport.height / (double) CHUNK_SIZE) + 1;
-
-      maxChunks = (horizontalChunkCount * verticalChunkCount * 2);
     }
+    lastViewport = viewport;
+
     // Compute grid
     int gridx = (int) Math.floor(-viewport.x / (double) CHUNK_SIZE);
     int gridy = (int) Math.floor(-viewport.y / (double) CHUNK_SIZE);
@@ -108,34 +193,31 @@ public void renderDrawables(
     gridx += (viewport.x > CHUNK_SIZE && (viewport.x % CHUNK_SIZE == 0) ? -1 : 0);
     gridy += (viewport.y > CHUNK_SIZE && (viewport.y % CHUNK_SIZE == 0) ? -1 : 0);
 
+    long scaleBits = Double.doubleToLongBits(scale);
+    ChunkKey[][] keys = new ChunkKey[verticalChunkCount][horizontalChunkCount];
+    List<Future<?>> requested = new ArrayList<Future<?>>();
+    List<DrawnElement> snapshot = null;
     for (int row = 0; row < verticalChunkCount; row++) {
       for (int col = 0; col < horizontalChunkCount; col++) {
-        int cellX = gridx + col;
-        int cellY = gridy + row;
-
-        String key = getKey(cellX, cellY);
-        if (noImageSet.contains(key)) {
-          continue;
-        }
-        Tuple chunk = findChunk(chunkList, key);
-        if (chunk == null) {
-          chunk = new Tuple(key, createChunk(drawableList, cellX, cellY, scale));
-
-          if (chunk.image == null) {
-            noImageSet.add(key);
-            continue;
+        ChunkKey key = new ChunkKey(this, scaleBits, gridx + col, gridy + row);
+        keys[row][col] = key;
+        if (!chunkCache.containsKey(key) && pending.add(key)) {
+          if (snapshot == null) {
+            // The chunks are drawn away from the thread changing the list and the pens
+            snapshot = copyOf(drawableList);
           }
+          requested.add(requestChunk(key, snapshot, scale));
         }
-        // Most recently used is at the front
-        chunkList.add(0, chunk);
-
-        // Trim to the right size
-        if (chunkList.size() > maxChunks) {
-          int chunkSize = chunkList.size();
-          // chunkList.subList(maxChunks, chunkSize).clear();
-          while (chunkSize > maxChunks) {
-            chunkList.remove(--chunkSize);
-          }
+      }
+    }
+    awaitChunks(requested);
+
+    for (int row = 0; row < verticalChunkCount; row++) {
+      for (int col = 0; col < horizontalChunkCount; col++) {
+        ChunkKey key = keys[row][col];
+        BufferedImage image = chunkCache.get(key);
+        if (image == null || image == EMPTY_CHUNK) {
+          continue;
         }
         int x =
             col * CHUNK_SIZE
@@ -146,9 +228,7 @@ public void renderDrawables(
                 - ((CHUNK_SIZE - viewport.y)) % CHUNK_SIZE
                 - (gridy < -1 ? CHUNK_SIZE : 0);
 
-        timer.start("render:DrawImage");
-        g.drawImage(chunk.image, x, y, null);
-        timer.stop("render:DrawImage");
+        g.drawImage(image, x, y, null);
 
         // DEBUG: Partition boundaries
         if (log.isDebugEnabled()) { // Show partition boundaries
@@ -173,40 +253,141 @@ public void renderDrawables(
             }
           }
           g.drawRect(x, y, CHUNK_SIZE - 1, CHUNK_SIZE - 1);
-          g.drawString(key, x + CHUNK_SIZE / 2, y + CHUNK_SIZE / 2);
+          g.drawString(key.x + "." + key.y, x + CHUNK_SIZE / 2, y + CHUNK_SIZE / 2);
         }
       }
     }
-    // REMEMBER
-    lastViewport = viewport;
-    lastDrawableCount = drawableList.size();
-    lastScale = scale;
+  }
 
-    if (timer.isEnabled()) {
-      // System.out.println(timer);
+  /**
+   * Drops the cached chunks, at any scale, overlapping the drawables passed to {@link
+   * #invalidate(DrawnElement)}, both as they were passed and as they are in the list now.
+   */
+  private void dropChanged(List<DrawnElement> drawableList) {
+    Map<GUID, DrawnElement> current = new HashMap<GUID, DrawnElement>();
+    for (DrawnElement element : drawableList) {
+      current.put(element.getDrawable().getId(), element);
+    }
+    List<Rectangle2D> dirty = new ArrayList<Rectangle2D>();
+    DrawnElement element;
+    while ((element = changed.poll()) != null) {
+      addDrawnBounds(dirty, element);
+      DrawnElement now = current.get(element.getDrawable().getId());
+      if (now != null && now != element) {
+        addDrawnBounds(dirty, now);
+      }
+    }
+    if (dirty.isEmpty()) {
+      return;
+    }
+    synchronized (this) {
+      generation++;
+      for (ChunkKey key : chunkCache.keys()) {
+        if (key.renderer != this) {
+          continue;
+        }
+        Rectangle2D chunkBounds = key.getZoneBounds();
+        for (Rectangle2D bounds : dirty) {
+          if (bounds.intersects(chunkBounds)) {
+            chunkCache.remove(key);
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  private static void addDrawnBounds(List<Rectangle2D> dirty, DrawnElement element) {
+    Rectangle2D bounds = getDrawnBounds(element);
+    if (bounds != null) {
+      dirty.add(bounds);
     }
   }
 
   /**
-   * Given a List and a String key, find the element in the list that matches the key.
-   *
-   * @param list
-   * @param key
-   * @return
+   * @param element the drawable
+   * @return the bounds of the drawable in zone coordinates including the pen, or null if it has no
+   *     bounds
+   */
+  private static Rectangle2D getDrawnBounds(DrawnElement element) {
+    Drawable drawable = element.getDrawable();
+    if (drawable.getBounds() == null) {
+      return null;
+    }
+    Rectangle2D drawnBounds = new Rectangle(drawable.getBounds());
+    Pen pen = element.getPen();
+    int penSize = (int) (pen.getThickness() / 2 + 1);
+    drawnBounds.setRect(
+        drawnBounds.getX() - penSize,
+        drawnBounds.getY() - penSize,
+        drawnBounds.getWidth() + pen.getThickness(),
+        drawnBounds.getHeight() + pen.getThickness());
+    return drawnBounds;
+  }
+
+  /**
+   * @param drawableList the drawables
+   * @return a copy of the list with copies of the elements and pens, groups included, which can be
+   *     drawn while the originals change
+   */
+  private static List<DrawnElement> copyOf(List<DrawnElement> drawableList) {
+    List<DrawnElement> copy = new ArrayList<DrawnElement>(drawableList.size());
+    for (DrawnElement element : drawableList) {
+      Drawable drawable = element.getDrawable();
+      if (drawable instanceof DrawablesGroup) {
+        drawable = new DrawablesGroup(copyOf(((DrawablesGroup) drawable).getDrawableList()));
+      }
+      copy.add(new DrawnElement(drawable, new Pen(element.getPen())));
+    }
+    return copy;
+  }
+
+  private Future<?> requestChunk(ChunkKey key, List<DrawnElement> drawableList, double scale) {
+    int requestGeneration;
+    synchronized (this) {
+      requestGeneration = generation;
+    }
+    return chunkExecutor.submit(
+        () -> {
+          try {
+            BufferedImage image = createChunk(drawableList, key.x, key.y, scale);
+            synchronized (this) {
+              if (generation == requestGeneration) {
+                chunkCache.put(key, image != null ? image : EMPTY_CHUNK);
+              }
+            }
+          } catch (RuntimeException e) {
+            log.error("Could not draw chunk " + key, e);
+          } finally {
+            pending.remove(key);
+          }
+          if (onChunkReady != null) {
+            onChunkReady.run();
+          }
+        });
+  }
+
+  /**
+   * Waits up to {@link #MAX_WAIT_MILLIS} for the chunks. The ones that aren't ready by then ask for
+   * a repaint when they are.
    */
-  private Tuple findChunk(List<Tuple> list, String key) {
-    ListIterator<Tuple> iter = list.listIterator();
-    while (iter.hasNext()) {
-      Tuple tuple = iter.next();
-      if (tuple.equals(key)) {
-        iter.remove();
-        return tuple;
+  private void awaitChunks(List<Future<?>> requested) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_MILLIS);
+    for (Future<?> future : requested) {
+      try {
+        future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        return;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException e) {
+        log.error("Could not draw chunk", e);
       }
     }
-    return null;
   }
 
-  private BufferedImage createChunk(
+  private static BufferedImage createChunk(
       List<DrawnElement> drawableList, int gridx, int gridy, double scale) {
     int x = gridx * CHUNK_SIZE;
     int y = gridy * CHUNK_SIZE;
@@ -215,42 +396,22 @@ private BufferedImage createChunk(
     Composite oldComposite = null;
     Graphics2D g = null;
 
+    Rectangle2D chunkBounds =
+        new Rectangle(
+            (int) (gridx * (CHUNK_SIZE / scale)),
+            (int) (gridy * (CHUNK_SIZE / scale)),
+            (int) (CHUNK_SIZE / scale),
+            (int) (CHUNK_SIZE / scale));
+
     for (DrawnElement element : drawableList) {
-      timer.start("createChunk:calculate");
       Drawable drawable = element.getDrawable();
-      if (drawable.getBounds() == null) {
-        timer.stop("createChunk:calculate");
-        continue;
-      }
-
-      Rectangle2D drawnBounds = new Rectangle(drawable.getBounds());
-      Rectangle2D chunkBounds =
-          new Rectangle(
-              (int) (gridx * (CHUNK_SIZE / scale)),
-              (int) (gridy * (CHUNK_SIZE / scale)),
-              (int) (CHUNK_SIZE / scale),
-              (int) (CHUNK_SIZE / scale));
-
-      // Handle pen size
-      Pen pen = element.getPen();
-      int penSize = (int) (pen.getThickness() / 2 + 1);
-      drawnBounds.setRect(
-          drawnBounds.getX() - penSize,
-          drawnBounds.getY() - penSize,
-          drawnBounds.getWidth() + pen.getThickness(),
-          drawnBounds.getHeight() + pen.getThickness());
-      timer.stop("createChunk:calculate");
-
-      timer.start("createChunk:BoundsCheck");
-      if (!drawnBounds.intersects(chunkBounds)) {
-        timer.stop("createChunk:BoundsCheck");
+      Rectangle2D drawnBounds = getDrawnBounds(element);
+      if (drawnBounds == null || !drawnBounds.intersects(chunkBounds)) {
         continue;
       }
-      timer.stop("createChunk:BoundsCheck");
-
-      timer.start("createChunk:CreateChunk");
       if (image == null) {
-        image = getNewChunk();
+        image = new BufferedImage(CHUNK_SIZE, CHUNK_SIZE, Transparency.BITMASK);
+        image.setAccelerationPriority(1);
         g = image.createGraphics();
         g.setClip(0, 0, CHUNK_SIZE, CHUNK_SIZE);
         oldComposite = g.getComposite();
@@ -262,18 +423,13 @@ private BufferedImage createChunk(
         af.scale(scale, scale);
         g.setTransform(af);
       }
-      timer.stop("createChunk:CreateChunk");
-
+      Pen pen = element.getPen();
       if (pen.getOpacity() != 1 && pen.getOpacity() != 0 /*
 																 * handle legacy pens, besides, it doesn't make sense to have a non visible pen
 																 */) {
         g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, pen.getOpacity()));
       }
 
-      // g.setColor(Color.red);
-      // g.draw(drawnBounds);
-
-      timer.start("createChunk:Draw");
       if (drawable instanceof DrawablesGroup) {
         DrawablesGroup dg = (DrawablesGroup) drawable;
         BufferedImage groupImage = createChunk(dg.getDrawableList(), gridx, gridy, scale);
@@ -282,7 +438,6 @@ private BufferedImage createChunk(
         g2.dispose();
       } else drawable.draw(g, pen);
       g.setComposite(oldComposite);
-      timer.stop("createChunk:Draw");
     }
     if (g != null) {
       g.dispose();
@@ -290,34 +445,49 @@ private BufferedImage createChunk(
     return image;
   }
 
-  private BufferedImage getNewChunk() {
-    BufferedImage image = null;
-    if (unusedChunkList.size() > 0) {
-      image = unusedChunkList.remove(0);
-      ImageUtil.clearImage(image);
-    } else {
-      image = new BufferedImage(CHUNK_SIZE, CHUNK_SIZE, Transparency.BITMASK);
+  /** A chunk of a renderer at a scale. */
+  private static final class ChunkKey {
+    private final PartitionedDrawableRenderer renderer;
+    private final long scaleBits;
+    private final int x;
+    private final int y;
+
+    private ChunkKey(PartitionedDrawableRenderer renderer, long scaleBits, int x, int y) {
+      this.renderer = renderer;
+      this.scaleBits = scaleBits;
+      this.x = x;
+      this.y = y;
     }
-    image.setAccelerationPriority(1);
-    return image;
-  }
 
-  private String getKey(int col, int row) {
-    return col + "." + row;
-  }
+    /** @return the part of the zone drawn in the chunk, with a pixel of margin */
+    private Rectangle2D getZoneBounds() {
+      double size = CHUNK_SIZE / Double.longBitsToDouble(scaleBits);
+      return new Rectangle2D.Double(x * size - 1, y * size - 1, size + 2, size + 2);
+    }
 
-  private static class Tuple {
-    String key;
-    BufferedImage image;
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof ChunkKey)) {
+        return false;
+      }
+      ChunkKey other = (ChunkKey) o;
+      return renderer == other.renderer
+          && scaleBits == other.scaleBits
+          && x == other.x
+          && y == other.y;
+    }
 
-    public Tuple(String key, BufferedImage image) {
-      this.key = key;
-      this.image = image;
+    @Override
+    public int hashCode() {
+      int result = System.identityHashCode(renderer);
+      result = 31 * result + Long.hashCode(scaleBits);
+      result = 31 * result + x;
+      return 31 * result + y;
     }
 
     @Override
-    public boolean equals(Object obj) {
-      return key.equals(obj.toString());
+    public String toString() {
+      return x + "." + y + "@" + Double.longBitsToDouble(scaleBits);
     }
   }
 }
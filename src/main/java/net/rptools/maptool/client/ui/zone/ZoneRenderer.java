@@ -67,6 +67,7 @@
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TooManyListenersException;
 import java.util.concurrent.ExecutorService;
@@ -173,10 +174,14 @@ public class ZoneRenderer extends JComponent
   private final ZoneView zoneView;
 
   private Scale zoneScale;
-  private final DrawableRenderer backgroundDrawableRenderer = new PartitionedDrawableRenderer();
-  private final DrawableRenderer objectDrawableRenderer = new PartitionedDrawableRenderer();
-  private final DrawableRenderer tokenDrawableRenderer = new PartitionedDrawableRenderer();
-  private final DrawableRenderer gmDrawableRenderer = new PartitionedDrawableRenderer();
+  private final DrawableRenderer backgroundDrawableRenderer =
+      new PartitionedDrawableRenderer(this::repaint);
+  private final DrawableRenderer objectDrawableRenderer =
+      new PartitionedDrawableRenderer(this::repaint);
+  private final DrawableRenderer tokenDrawableRenderer =
+      new PartitionedDrawableRenderer(this::repaint);
+  private final DrawableRenderer gmDrawableRenderer =
+      new PartitionedDrawableRenderer(this::repaint);
   private final List<ZoneOverlay> overlayList = new ArrayList<ZoneOverlay>();
   private final Map<Zone.Layer, List<TokenLocation>> tokenLocationMap =
       new HashMap<Zone.Layer, List<TokenLocation>>();
@@ -196,10 +201,6 @@ public class ZoneRenderer extends JComponent
   private boolean showAllPaths = true; // Jamz: new option to show path
   // Optimizations
   private final Map<GUID, BufferedImage> labelRenderingCache = new HashMap<GUID, BufferedImage>();
-  private final Map<Token, BufferedImage> replacementImageMap = new HashMap<Token, BufferedImage>();
-  private final Map<Token, BufferedImage> flipImageMap = new HashMap<Token, BufferedImage>();
-  private final Map<Token, BufferedImage> flipIsoImageMap = new HashMap<Token, BufferedImage>();
-  private final Map<Token, BufferedImage> opacityImageMap = new HashMap<Token, BufferedImage>();
   private Token tokenUnderMouse;
 
   private ScreenPoint pointUnderMouse;
@@ -390,6 +391,19 @@ public void propertyChange(PropertyChangeEvent evt) {
         });
   }
 
+  private DrawableRenderer getDrawableRenderer(Zone.Layer layer) {
+    switch (layer) {
+      case OBJECT:
+        return objectDrawableRenderer;
+      case BACKGROUND:
+        return backgroundDrawableRenderer;
+      case GM:
+        return gmDrawableRenderer;
+      default:
+        return tokenDrawableRenderer;
+    }
+  }
+
   /**
    * I _hate_ this method. But couldn't think of a better way to tell the drawable renderer that a
    * new image had arrived TODO: FIX THIS ! Perhaps add a new app listener for when new images show
@@ -725,9 +739,9 @@ public void centerOn(CellPoint point) {
   }
 
   /**
-   * Remove the token from: tokenLocationCache, flipImageMap, opacityImageMap, replacementImageMap,
-   * labelRenderingCache. Set the visibleScreenArea, tokenStackMap, renderedLightMap, rendered Aura
-   * map to null. Flush the fog. Flush the token from the zoneView.
+   * Remove the token from: tokenLocationCache, labelRenderingCache. Set the visibleScreenArea,
+   * tokenStackMap, renderedLightMap, rendered Aura map to null. Flush the fog. Flush the token from
+   * the zoneView.
    *
    * @param token the token to flush
    */
@@ -737,10 +751,6 @@ public void flush(Token token) {
     synchronized (tokenLocationCache) {
       tokenLocationCache.remove(token);
     }
-    flipImageMap.remove(token);
-    flipIsoImageMap.remove(token);
-    opacityImageMap.remove(token);
-    replacementImageMap.remove(token);
     labelRenderingCache.remove(token.getId());
 
     // This should be smarter, but whatever
@@ -773,10 +783,6 @@ public void flush() {
     // tokenLocationCache.clear();
 
     flushDrawableRenderer();
-    replacementImageMap.clear();
-    flipImageMap.clear();
-    flipIsoImageMap.clear();
-    opacityImageMap.clear();
     fogBuffer = null;
     renderedLightMap = null;
     renderedAuraMap = null;
@@ -2130,8 +2136,20 @@ protected void renderBoard(Graphics2D g, PlayerView view) {
       if (zone.getMapAssetId() != null) {
         BufferedImage mapImage = ImageManager.getImage(zone.getMapAssetId(), this);
         double scaleFactor = getScale();
+        // Zoomed out, draw a reduced copy of the map at the size of the full one
+        BufferedImage drawnImage =
+            ImageManager.getMipmap(
+                zone.getMapAssetId(),
+                mapImage,
+                scaleFactor,
+                null,
+                null,
+                () -> {
+                  drawBackground = true;
+                  repaint();
+                });
         bbg.drawImage(
-            mapImage,
+            drawnImage,
             getViewOffsetX() + (int) (zone.getBoardX() * scaleFactor),
             getViewOffsetY() + (int) (zone.getBoardY() * scaleFactor),
             (int) (mapImage.getWidth() * scaleFactor),
@@ -2291,35 +2309,21 @@ protected void showBlockedMoves(Graphics2D g, PlayerView view, Set<SelectionSet>
             }
           }
         }
-        // handle flipping
-        BufferedImage workImage = image;
-        if (token.isFlippedX() || token.isFlippedY()) {
-          workImage =
-              new BufferedImage(image.getWidth(), image.getHeight(), image.getTransparency());
-
-          int workW = image.getWidth() * (token.isFlippedX() ? -1 : 1);
-          int workH = image.getHeight() * (token.isFlippedY() ? -1 : 1);
-          int workX = token.isFlippedX() ? image.getWidth() : 0;
-          int workY = token.isFlippedY() ? image.getHeight() : 0;
-
-          Graphics2D wig = workImage.createGraphics();
-          wig.drawImage(image, workX, workY, workW, workH, null);
-          wig.dispose();
-        }
-        // on the iso plane
+        // handle flipping, and on the iso plane
+        TokenVariant variant =
+            new TokenVariant(
+                false, token.isFlippedX(), token.isFlippedY(), token.isFlippedIso(), 1.0f);
+        BufferedImage workImage =
+            getTokenWorkImage(token, image, scaledWidth, scaledHeight, variant);
+        Dimension imgSize = new Dimension(image.getWidth(), image.getHeight());
         if (token.isFlippedIso()) {
-          if (flipIsoImageMap.get(token) == null) {
-            workImage = IsometricGrid.isoImage(workImage);
-          } else {
-            workImage = flipIsoImageMap.get(token);
-          }
           token.setHeight(workImage.getHeight());
           token.setWidth(workImage.getWidth());
           footprintBounds = token.getBounds(zone);
+          imgSize = new Dimension(workImage.getWidth(), workImage.getHeight());
         }
         // Draw token
         double iso_ho = 0;
-        Dimension imgSize = new Dimension(workImage.getWidth(), workImage.getHeight());
         if (token.getShape() == TokenShape.FIGURE) {
           double th = token.getHeight() * Double.valueOf(footprintBounds.width) / token.getWidth();
           iso_ho = footprintBounds.height - th;
@@ -3022,6 +3026,18 @@ protected void renderTokens(
     double scale = zoneScale.getScale();
     Set<GUID> tempVisTokens = new HashSet<GUID>();
 
+    // Only the tokens near the part of the zone being drawn, found with the spatial index
+    Set<Token> nearTokens = null;
+    if (zone.getGrid() != null) {
+      Rectangle screenBounds = clipBounds != null ? clipBounds : viewport;
+      ZonePoint topLeft = new ScreenPoint(screenBounds.x, screenBounds.y).convertToZone(this);
+      ZonePoint bottomRight =
+          new ScreenPoint(screenBounds.getMaxX(), screenBounds.getMaxY()).convertToZone(this);
+      Rectangle zoneBounds = new Rectangle(topLeft.x, topLeft.y, 0, 0);
+      zoneBounds.add(bottomRight.x + 1, bottomRight.y + 1);
+      nearTokens = new HashSet<Token>(zone.getTokensIntersecting(zoneBounds, null));
+    }
+
     // calculations
     boolean calculateStacks =
         !tokenList.isEmpty() && !tokenList.get(0).isStamp() && tokenStackMap == null;
@@ -3063,6 +3079,13 @@ protected void renderTokens(
         // This ensures that the timer is always stopped
         timer.stop("tokenlist-1");
       }
+      // Figures and rotated tokens are drawn beyond the bounds they are indexed with
+      if (nearTokens != null
+          && !nearTokens.contains(token)
+          && token.getShape() != Token.TokenShape.FIGURE
+          && !(token.hasFacing() && token.getShape() == Token.TokenShape.TOP_DOWN)) {
+        continue;
+      }
       timer.start("tokenlist-1.1");
       TokenLocation location = tokenLocationCache.get(token);
       if (location != null && !location.maybeOnscreen(viewport)) {
@@ -3209,14 +3232,7 @@ protected void renderTokens(
 
       // Moving ?
       timer.start("renderTokens:ShowMovement");
-      if (isTokenMoving(token)) {
-        BufferedImage replacementImage = replacementImageMap.get(token);
-        if (replacementImage == null) {
-          replacementImage = ImageUtil.rgbToGrayscale(image);
-          replacementImageMap.put(token, replacementImage);
-        }
-        image = replacementImage;
-      }
+      boolean moving = isTokenMoving(token);
       timer.stop("renderTokens:ShowMovement");
 
       // Previous path
@@ -3238,39 +3254,27 @@ protected void renderTokens(
       timer.stop("tokenlist-4");
 
       timer.start("tokenlist-5");
-      // handle flipping
-      BufferedImage workImage = image;
-      if (token.isFlippedX() || token.isFlippedY()) {
-        workImage = flipImageMap.get(token);
-        if (workImage == null) {
-          workImage =
-              new BufferedImage(image.getWidth(), image.getHeight(), image.getTransparency());
-
-          int workW = image.getWidth() * (token.isFlippedX() ? -1 : 1);
-          int workH = image.getHeight() * (token.isFlippedY() ? -1 : 1);
-          int workX = token.isFlippedX() ? image.getWidth() : 0;
-          int workY = token.isFlippedY() ? image.getHeight() : 0;
-
-          Graphics2D wig = workImage.createGraphics();
-          wig.drawImage(image, workX, workY, workW, workH, null);
-          wig.dispose();
-
-          flipImageMap.put(token, workImage);
-        }
-      }
+      // Moving, flipped and translucent tokens are drawn from derived images, and all of them from
+      // the reduced image that best matches the zoom
+      TokenVariant variant =
+          new TokenVariant(
+              moving,
+              token.isFlippedX(),
+              token.isFlippedY(),
+              token.isFlippedIso(),
+              token.getTokenOpacity());
+      BufferedImage workImage =
+          getTokenWorkImage(token, image, location.scaledWidth, location.scaledHeight, variant);
       timer.stop("tokenlist-5");
 
       timer.start("tokenlist-5a");
+      // Positions are worked out from the size of the full image
+      Dimension imgSize = new Dimension(image.getWidth(), image.getHeight());
       if (token.isFlippedIso()) {
-        if (flipIsoImageMap.get(token) == null) {
-          workImage = IsometricGrid.isoImage(workImage);
-          flipIsoImageMap.put(token, workImage);
-        } else {
-          workImage = flipIsoImageMap.get(token);
-        }
         token.setHeight(workImage.getHeight());
         token.setWidth(workImage.getWidth());
         footprintBounds = token.getBounds(zone);
+        imgSize = new Dimension(workImage.getWidth(), workImage.getHeight());
       }
       timer.stop("tokenlist-5a");
 
@@ -3278,7 +3282,6 @@ protected void renderTokens(
       // Position
       // For Isometric Grid we alter the height offset
       double iso_ho = 0;
-      Dimension imgSize = new Dimension(workImage.getWidth(), workImage.getHeight());
       if (token.getShape() == TokenShape.FIGURE) {
         double th = token.getHeight() * Double.valueOf(footprintBounds.width) / token.getWidth();
         iso_ho = footprintBounds.height - th;
@@ -3345,24 +3348,6 @@ protected void renderTokens(
       }
       timer.stop("tokenlist-6");
 
-      // Apply Alpha Transparency
-      float opacity = token.getTokenOpacity();
-      if (opacity < 1.0f) {
-        if (opacityImageMap.get(token) == null) {
-          BufferedImage dest =
-              new BufferedImage(
-                  workImage.getWidth(), workImage.getHeight(), BufferedImage.TYPE_INT_ARGB);
-          Graphics2D gAlpha = dest.createGraphics();
-          gAlpha.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity));
-          gAlpha.drawImage(workImage, 0, 0, null);
-          gAlpha.dispose();
-          workImage = dest;
-          opacityImageMap.put(token, workImage);
-        } else {
-          workImage = opacityImageMap.get(token);
-        }
-      }
-
       timer.start("tokenlist-7");
       // If the token is a figure and if its visible, draw all of it.
       if (!isGMView && zoneView.isUsingVision() && (token.getShape() == Token.TokenShape.FIGURE)) {
@@ -4744,29 +4729,135 @@ private void addTokens(
    * @return BufferedImage
    */
   private BufferedImage getTokenImage(Token token) {
-    BufferedImage image = null;
-    // Get the basic image
-    if (token.getHasImageTable() && token.hasFacing()) {
-      if (token.getImageTableName() != null) {
-        LookupTable lookupTable =
-            MapTool.getCampaign().getLookupTableMap().get(token.getImageTableName());
-        if (lookupTable != null) {
-          try {
-            LookupEntry result = lookupTable.getLookup(token.getFacing().toString());
-            if (result != null) {
-              image = ImageManager.getImage(result.getImageId(), this);
-            }
-          } catch (ParserException p) {
-            // do nothing
+    MD5Key imageId = getTokenImageId(token);
+    if (imageId != token.getImageAssetId()) {
+      return ImageManager.getImage(imageId, this);
+    }
+    return ImageManager.getImage(imageId);
+  }
+
+  /**
+   * Returns the asset of the image drawn for the token, from its image table if it has one and has
+   * a facing.
+   *
+   * @param token the token to get the image asset of
+   * @return the asset id
+   */
+  private MD5Key getTokenImageId(Token token) {
+    if (token.getHasImageTable() && token.hasFacing() && token.getImageTableName() != null) {
+      LookupTable lookupTable =
+          MapTool.getCampaign().getLookupTableMap().get(token.getImageTableName());
+      if (lookupTable != null) {
+        try {
+          LookupEntry result = lookupTable.getLookup(token.getFacing().toString());
+          if (result != null && result.getImageId() != null) {
+            return result.getImageId();
           }
+        } catch (ParserException p) {
+          // do nothing
         }
       }
     }
-    ;
-    if (image == null) {
-      image = ImageManager.getImage(token.getImageAssetId());
+    return token.getImageAssetId();
+  }
+
+  /**
+   * Returns the image to draw for the token: its image reduced for the size it is drawn at, and
+   * made gray, flipped or translucent as needed. Iso flipped images are never reduced, as their
+   * size sets the size of the token.
+   *
+   * @param token the token
+   * @param image the image of the token, from {@link #getTokenImage(Token)}
+   * @param width the width the token is drawn at, in screen pixels
+   * @param height the height the token is drawn at, in screen pixels
+   * @param variant how the image is changed
+   * @return the image to draw
+   */
+  private BufferedImage getTokenWorkImage(
+      Token token, BufferedImage image, double width, double height, TokenVariant variant) {
+    double scale =
+        token.isFlippedIso()
+            ? 1
+            : Math.max(width / image.getWidth(), height / image.getHeight());
+    return ImageManager.getMipmap(
+        getTokenImageId(token),
+        image,
+        scale,
+        variant.isIdentity() ? null : variant,
+        variant::apply,
+        this::repaint);
+  }
+
+  /** How a token image is changed before being drawn. */
+  private static final class TokenVariant {
+    private final boolean grayscale;
+    private final boolean flipX;
+    private final boolean flipY;
+    private final boolean flipIso;
+    private final float opacity;
+
+    private TokenVariant(
+        boolean grayscale, boolean flipX, boolean flipY, boolean flipIso, float opacity) {
+      this.grayscale = grayscale;
+      this.flipX = flipX;
+      this.flipY = flipY;
+      this.flipIso = flipIso;
+      this.opacity = Math.min(opacity, 1.0f);
+    }
+
+    private boolean isIdentity() {
+      return !grayscale && !flipX && !flipY && !flipIso && opacity == 1.0f;
+    }
+
+    private BufferedImage apply(BufferedImage image) {
+      if (grayscale) {
+        image = ImageUtil.rgbToGrayscale(image);
+      }
+      if (flipX || flipY) {
+        BufferedImage flipped =
+            new BufferedImage(image.getWidth(), image.getHeight(), image.getTransparency());
+        int workW = image.getWidth() * (flipX ? -1 : 1);
+        int workH = image.getHeight() * (flipY ? -1 : 1);
+        int workX = flipX ? image.getWidth() : 0;
+        int workY = flipY ? image.getHeight() : 0;
+
+        Graphics2D wig = flipped.createGraphics();
+        wig.drawImage(image, workX, workY, workW, workH, null);
+        wig.dispose();
+        image = flipped;
+      }
+      if (flipIso) {
+        image = IsometricGrid.isoImage(image);
+      }
+      if (opacity < 1.0f) {
+        BufferedImage dest =
+            new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D gAlpha = dest.createGraphics();
+        gAlpha.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity));
+        gAlpha.drawImage(image, 0, 0, null);
+        gAlpha.dispose();
+        image = dest;
+      }
+      return image;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof TokenVariant)) {
+        return false;
+      }
+      TokenVariant other = (TokenVariant) o;
+      return grayscale == other.grayscale
+          && flipX == other.flipX
+          && flipY == other.flipY
+          && flipIso == other.flipIso
+          && opacity == other.opacity;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(grayscale, flipX, flipY, flipIso, opacity);
     }
-    return image;
   }
 
   /*
@@ -4809,7 +4900,8 @@ private class ZoneModelChangeListener implements ModelChangeListener {
 
     /**
      * ALL events trigger updateTokenTree and a repaint. Reacts specifically to events
-     * TOPOLOGY_CHANGED, TOKEN_CHANGED, TOKEN_REMOVED, and TOKEN_ADDED.
+     * TOPOLOGY_CHANGED, TOKEN_CHANGED, TOKEN_REMOVED, TOKEN_ADDED, DRAWABLE_ADDED and
+     * DRAWABLE_REMOVED.
      *
      * @param event the event
      */
@@ -4818,7 +4910,9 @@ public void modelChanged(ModelChangeEvent event) {
 
       if (evt == Zone.Event.TOPOLOGY_CHANGED) {
         flushFog();
-        flushLight();
+        // The zoneView listens to the zone itself and only drops the vision near the change
+        renderedLightMap = null;
+        renderedAuraMap = null;
       }
       if (evt == Zone.Event.TOKEN_CHANGED
           || evt == Zone.Event.TOKEN_REMOVED
@@ -4833,6 +4927,10 @@ public void modelChanged(ModelChangeEvent event) {
           flush((Token) event.getArg());
         }
       }
+      if (evt == Zone.Event.DRAWABLE_ADDED || evt == Zone.Event.DRAWABLE_REMOVED) {
+        DrawnElement element = (DrawnElement) event.getArg();
+        getDrawableRenderer(element.getDrawable().getLayer()).invalidate(element);
+      }
       if (evt == Zone.Event.FOG_CHANGED) {
         flushFog = true;
       }
@@ -21,6 +21,7 @@
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
@@ -32,11 +33,13 @@
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.swing.SwingWorker;
 import net.rptools.maptool.client.AppState;
 import net.rptools.maptool.client.AppUtil;
@@ -87,6 +90,17 @@ public class ZoneView implements ModelChangeListener {
   /** Hold all of our lights combined by lumens. */
   private final SortedMap<Double, Area> allLightAreaMap = new ConcurrentSkipListMap<Double, Area>();
 
+  // DEPENDENCY TRACKING
+  /** Map each token to the bounds of its vision range, before VBL is applied. */
+  private final Map<GUID, Rectangle2D> visionRangeCache = new ConcurrentHashMap<GUID, Rectangle2D>();
+  /** Map each light source token to the bounds of the range of its lights, before VBL. */
+  private final Map<GUID, Rectangle2D> lightRangeCache = new ConcurrentHashMap<GUID, Rectangle2D>();
+  /** Map each token with VBL to the bounds of the VBL it put in tokenTopology. */
+  private final Map<GUID, Rectangle2D> tokenVBLBoundsCache =
+      new ConcurrentHashMap<GUID, Rectangle2D>();
+  /** How often the cached areas were reused or rebuilt. */
+  private final CacheStatistics statistics = new CacheStatistics();
+
   /** The digested topology of the map VBL, and possibly tokens VBL. */
   private AreaTree topologyTree;
   /** The VBL area of the zone VBL and the tokens VBL. */
@@ -145,11 +159,13 @@ public synchronized AreaTree getTopologyTree(boolean useTokenVBL) {
       log.debug("ZoneView topologyTree is null, generating...");
 
       tokenTopology = new Area(zone.getTopology());
-      List<Token> vblTokens =
-          MapTool.getFrame().getCurrentZoneRenderer().getZone().getTokensWithVBL();
+      List<Token> vblTokens = zone.getTokensWithVBL();
 
+      tokenVBLBoundsCache.clear();
       for (Token vblToken : vblTokens) {
-        tokenTopology.add(vblToken.getTransformedVBL());
+        Area vbl = vblToken.getTransformedVBL();
+        tokenTopology.add(vbl);
+        tokenVBLBoundsCache.put(vblToken.getId(), vbl.getBounds2D());
       }
 
       topologyTree = new AreaTree(tokenTopology);
@@ -183,12 +199,20 @@ private TreeMap<Double, Area> getLightSourceArea(Token baseToken, Token lightSou
     if (areaBySightMap != null) {
       TreeMap<Double, Area> lightSourceArea = areaBySightMap.get(baseToken.getSightType());
       if (lightSourceArea != null) {
+        statistics.lightReused.incrementAndGet();
         return lightSourceArea;
       }
     } else {
       areaBySightMap = new HashMap<String, TreeMap<Double, Area>>();
       lightSourceCache.put(lightSourceToken.getId(), areaBySightMap);
     }
+    statistics.lightRebuilt.incrementAndGet();
+    if (!lightRangeCache.containsKey(lightSourceToken.getId())) {
+      Rectangle2D range = calculateLightRange(lightSourceToken);
+      if (range != null) {
+        lightRangeCache.put(lightSourceToken.getId(), range);
+      }
+    }
 
     // Calculate
     TreeMap<Double, Area> lightSourceAreaMap = new TreeMap<Double, Area>();
@@ -354,7 +378,11 @@ public Area getVisibleArea(Token token) {
     Area tokenVisibleArea = tokenVisionCache.get(token.getId());
     // System.out.println("tokenVisionCache size? " + tokenVisionCache.size());
 
-    if (tokenVisibleArea != null) return tokenVisibleArea;
+    if (tokenVisibleArea != null) {
+      statistics.visionReused.incrementAndGet();
+      return tokenVisibleArea;
+    }
+    statistics.visionRebuilt.incrementAndGet();
 
     SightType sight = MapTool.getCampaign().getSightType(token.getSightType());
     // More sanity checks; maybe sight type removed from campaign after token set?
@@ -366,11 +394,17 @@ public Area getVisibleArea(Token token) {
     // Combine the player visible area with the available light sources
     tokenVisibleArea = tokenVisibleAreaCache.get(token.getId());
     if (tokenVisibleArea == null) {
+      statistics.visibleAreaRebuilt.incrementAndGet();
       Point p = FogUtil.calculateVisionCenter(token, zone);
       Area visibleArea = sight.getVisionShape(token, zone);
       tokenVisibleArea = FogUtil.calculateVisibility(p.x, p.y, visibleArea, getTopologyTree());
 
+      Rectangle2D range = visibleArea.getBounds2D();
+      range.setRect(range.getX() + p.x, range.getY() + p.y, range.getWidth(), range.getHeight());
+      visionRangeCache.put(token.getId(), range);
       tokenVisibleAreaCache.put(token.getId(), tokenVisibleArea);
+    } else {
+      statistics.visibleAreaReused.incrementAndGet();
     }
 
     // Stopwatch stopwatch = Stopwatch.createStarted();
@@ -663,38 +697,206 @@ public void flush() {
     visibleAreaMap.clear();
     drawableLightCache.clear();
     brightLightCache.clear();
+    visionRangeCache.clear();
+    lightRangeCache.clear();
+    statistics.fullFlushes.incrementAndGet();
   }
 
   /**
    * Flush the ZoneView cache of the token. Remove token from tokenVisibleAreaCache,
-   * drawableLightCache, and brightLightCache. Always clear tokenVisionCache, visibleAreaMap, and
-   * lightSourceCache.
+   * tokenVisionCache, lightSourceCache, drawableLightCache, and brightLightCache, and clear
+   * visibleAreaMap.
+   *
+   * <p>If the token has (or had) light sources, the vision of the other tokens is only dropped when
+   * the token's old or new light range overlaps what they can see; the rest is kept.
    *
    * @param token the token to flush.
    */
   public void flush(Token token) {
-    boolean hadLightSource = lightSourceCache.get(token.getId()) != null;
-
-    tokenVisionCache.remove(token.getId());
-    tokenVisibleAreaCache.remove(token.getId());
-    lightSourceCache.remove(token.getId());
-    drawableLightCache.remove(token.getId());
-    brightLightCache.remove(token.getId());
+    GUID id = token.getId();
+    boolean wasLightSource = lightSourceCache.containsKey(id) || isInLightSourceMap(id);
+    Rectangle2D oldLightRange = lightRangeCache.remove(id);
+
+    tokenVisionCache.remove(id);
+    tokenVisibleAreaCache.remove(id);
+    visionRangeCache.remove(id);
+    lightSourceCache.remove(id);
+    drawableLightCache.remove(id);
+    brightLightCache.remove(id);
     visibleAreaMap.clear();
 
-    if (hadLightSource || token.hasLightSources()) {
-      // Have to recalculate all token vision
+    List<Rectangle2D> changedLightRegions = new ArrayList<Rectangle2D>(2);
+    if (oldLightRange != null) {
+      changedLightRegions.add(oldLightRange);
+    } else if (wasLightSource) {
+      // We don't know where its light used to reach, so everyone may be affected
+      log.debug("Unknown previous light range for " + token.getName() + ", flushing all vision");
+      statistics.visionDropped.addAndGet(tokenVisionCache.size());
       tokenVisionCache.clear();
     }
-    if (token.getHasSight()) {
-      visibleAreaMap.clear();
+    if (token.hasLightSources()) {
+      Rectangle2D newLightRange = calculateLightRange(token);
+      if (newLightRange != null) {
+        lightRangeCache.put(id, newLightRange);
+        changedLightRegions.add(newLightRange);
+      }
     }
-    // TODO: This fixes a bug with changing vision type, I don't like it though, it needs to be
-    // optimized back out
-    lightSourceCache.clear();
-    // TODO: This fixes a similar bug with turning lights off after moving a different npc token, I
-    // don't like it either...
-    tokenVisionCache.clear();
+    if (!changedLightRegions.isEmpty()) {
+      flushVisionIntersecting(changedLightRegions);
+    }
+  }
+
+  /**
+   * Flush the cached areas that depend on the VBL inside the given regions: the visible area of
+   * the tokens whose vision range overlaps a region, the lights whose range overlaps a region, and
+   * the vision of the tokens those lights reach. Everything else is kept. The topology tree is
+   * always rebuilt.
+   *
+   * @param regions the bounds of the VBL that was added or removed.
+   */
+  private void flushTopology(List<Rectangle2D> regions) {
+    synchronized (this) {
+      topologyTree = null;
+      tokenTopology = null;
+    }
+    int visibleAreaDropped = 0;
+    for (GUID id : new ArrayList<GUID>(tokenVisibleAreaCache.keySet())) {
+      Rectangle2D range = visionRangeCache.get(id);
+      if (range == null || intersects(range, regions)) {
+        tokenVisibleAreaCache.remove(id);
+        visionRangeCache.remove(id);
+        removeLightCaches(id);
+        visibleAreaDropped++;
+      }
+    }
+    List<Rectangle2D> changedLightRegions = new ArrayList<Rectangle2D>();
+    for (GUID id : new ArrayList<GUID>(lightSourceCache.keySet())) {
+      Rectangle2D range = lightRangeCache.get(id);
+      if (range == null) {
+        // Can't tell what it reaches; drop it and everything that could depend on it
+        removeLightCaches(id);
+        statistics.visionDropped.addAndGet(tokenVisionCache.size());
+        tokenVisionCache.clear();
+      } else if (intersects(range, regions)) {
+        removeLightCaches(id);
+        changedLightRegions.add(range);
+      }
+    }
+    statistics.visibleAreaDropped.addAndGet(visibleAreaDropped);
+    statistics.visibleAreaKept.addAndGet(tokenVisibleAreaCache.size());
+    if (log.isDebugEnabled()) {
+      log.debug(
+          "Topology changed in "
+              + regions
+              + ": dropped "
+              + visibleAreaDropped
+              + " visible areas and "
+              + changedLightRegions.size()
+              + " lights, kept "
+              + tokenVisibleAreaCache.size()
+              + " visible areas and "
+              + lightSourceCache.size()
+              + " lights");
+    }
+    flushVisionIntersecting(changedLightRegions);
+    visibleAreaMap.clear();
+  }
+
+  /**
+   * Remove from tokenVisionCache the tokens whose visible area overlaps one of the regions where
+   * lights changed. Only matters at night, since lights are ignored otherwise.
+   *
+   * @param changedLightRegions the bounds of the lights that changed.
+   */
+  private void flushVisionIntersecting(List<Rectangle2D> changedLightRegions) {
+    if (changedLightRegions.isEmpty() || zone.getVisionType() != Zone.VisionType.NIGHT) {
+      return;
+    }
+    int dropped = 0;
+    for (GUID id : new ArrayList<GUID>(tokenVisionCache.keySet())) {
+      Area visibleArea = tokenVisibleAreaCache.get(id);
+      if (visibleArea == null || intersects(visibleArea.getBounds2D(), changedLightRegions)) {
+        tokenVisionCache.remove(id);
+        dropped++;
+      }
+    }
+    statistics.visionDropped.addAndGet(dropped);
+    statistics.visionKept.addAndGet(tokenVisionCache.size());
+    visibleAreaMap.clear();
+  }
+
+  /**
+   * Remove the lights of a token. The drawable and bright light caches also hold the personal
+   * lights of the token, so its vision is dropped too.
+   *
+   * @param id the id of the token.
+   */
+  private void removeLightCaches(GUID id) {
+    lightSourceCache.remove(id);
+    drawableLightCache.remove(id);
+    brightLightCache.remove(id);
+    tokenVisionCache.remove(id);
+  }
+
+  /**
+   * Calculate the bounds of everything the lights of a token could reach, ignoring VBL. Uses the
+   * largest sight multiplier of the campaign, so it covers every sight type.
+   *
+   * @param token the token holding the light sources.
+   * @return the bounds, or null if the token has no known light source.
+   */
+  private Rectangle2D calculateLightRange(Token token) {
+    double multiplier = 1;
+    for (SightType sight : MapTool.getCampaign().getSightTypeMap().values()) {
+      multiplier = Math.max(multiplier, sight.getMultiplier());
+    }
+    Point p = FogUtil.calculateVisionCenter(token, zone);
+    Rectangle2D range = null;
+    for (AttachedLightSource als : token.getLightSources()) {
+      LightSource lightSource = MapTool.getCampaign().getLightSource(als.getLightSourceId());
+      if (lightSource == null) {
+        continue;
+      }
+      Rectangle2D bounds = lightSource.getArea(token, zone, als.getDirection()).getBounds2D();
+      bounds.setRect(
+          p.x + bounds.getX() * multiplier,
+          p.y + bounds.getY() * multiplier,
+          bounds.getWidth() * multiplier,
+          bounds.getHeight() * multiplier);
+      if (range == null) {
+        range = bounds;
+      } else {
+        range.add(bounds);
+      }
+    }
+    return range;
+  }
+
+  private boolean isInLightSourceMap(GUID id) {
+    for (Set<GUID> lightSet : lightSourceMap.values()) {
+      if (lightSet.contains(id)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean intersects(Rectangle2D bounds, List<Rectangle2D> regions) {
+    for (Rectangle2D region : regions) {
+      // Inclusive test, VBL touching the edge of a vision range still matters
+      if (bounds.getMaxX() >= region.getMinX()
+          && region.getMaxX() >= bounds.getMinX()
+          && bounds.getMaxY() >= region.getMinY()
+          && region.getMaxY() >= bounds.getMinY()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** @return the counters of reused and rebuilt cached areas. */
+  public CacheStatistics getCacheStatistics() {
+    return statistics;
   }
 
   /**
@@ -764,19 +966,32 @@ public void modelChanged(ModelChangeEvent event) {
     Object evt = event.getEvent();
     if (event.getModel() instanceof Zone) {
       boolean tokenChangedVBL = false;
+      // Where token VBL was before and after the change
+      List<Rectangle2D> changedVBLRegions = new ArrayList<Rectangle2D>();
 
-      if (evt == Zone.Event.TOKEN_CHANGED || evt == Zone.Event.TOKEN_REMOVED) {
+      if (evt == Zone.Event.TOKEN_CHANGED
+          || evt == Zone.Event.TOKEN_REMOVED
+          || evt == Zone.Event.TOKEN_ADDED) {
+        List<Token> list;
         if (event.getArg() instanceof List<?>) {
-          @SuppressWarnings("unchecked")
-          List<Token> list = (List<Token>) (event.getArg());
-          for (Token token : list) {
-            if (token.hasVBL()) tokenChangedVBL = true;
-            flush(token);
-          }
+          list = (List<Token>) (event.getArg());
         } else {
-          final Token token = (Token) event.getArg();
-          if (token.hasVBL()) tokenChangedVBL = true;
+          list = Collections.singletonList((Token) event.getArg());
+        }
+        for (Token token : list) {
+          Rectangle2D oldVBL = tokenVBLBoundsCache.remove(token.getId());
+          if (oldVBL != null) {
+            changedVBLRegions.add(oldVBL);
+          }
+          if (token.hasVBL() && evt != Zone.Event.TOKEN_REMOVED) {
+            Rectangle2D newVBL = token.getTransformedVBL().getBounds2D();
+            tokenVBLBoundsCache.put(token.getId(), newVBL);
+            changedVBLRegions.add(newVBL);
+          }
           flush(token);
+          if (evt == Zone.Event.TOKEN_REMOVED) {
+            lightRangeCache.remove(token.getId());
+          }
         }
         // Ug, stupid hack here, can't find a bug where if a NPC token is moved before lights are
         // cleared on another token, changes aren't pushed to client?
@@ -796,9 +1011,8 @@ public void modelChanged(ModelChangeEvent event) {
         tokenChangedVBL = processTokenAddChangeEvent(tokens);
       }
 
-      if (evt == Zone.Event.TOKEN_REMOVED) {
+      if (evt == Zone.Event.TOKEN_REMOVED && event.getArg() instanceof Token) {
         Token token = (Token) event.getArg();
-        if (token.hasVBL()) tokenChangedVBL = true;
 
         for (AttachedLightSource als : token.getLightSources()) {
           LightSource lightSource = MapTool.getCampaign().getLightSource(als.getLightSourceId());
@@ -815,15 +1029,16 @@ public void modelChanged(ModelChangeEvent event) {
       // Moved this event to the bottom so we can check the other events
       // since if a token that has VBL is added/removed/edited (rotated/moved/etc)
       // it should also trip a Topology change
-      if (evt == Zone.Event.TOPOLOGY_CHANGED || tokenChangedVBL) {
-        tokenVisionCache.clear();
-        lightSourceCache.clear();
-        visibleAreaMap.clear();
-        topologyTree = null;
-        tokenTopology = null;
-        tokenVisibleAreaCache.clear();
-
-        // topologyAreaData = null; // Jamz: This isn't used, probably never completed code.
+      if (evt == Zone.Event.TOPOLOGY_CHANGED) {
+        if (event.getArg() instanceof Area) {
+          // Only the part of the map under the added or removed VBL needs recalculating
+          changedVBLRegions.add(((Area) event.getArg()).getBounds2D());
+          flushTopology(changedVBLRegions);
+        } else {
+          flushTopology(Collections.singletonList(getInfiniteRegion()));
+        }
+      } else if (tokenChangedVBL || !changedVBLRegions.isEmpty()) {
+        flushTopology(changedVBLRegions);
       }
     }
   }
@@ -866,6 +1081,90 @@ private boolean processTokenAddChangeEvent(List<Token> tokens) {
     return hasVBL;
   }
 
+  private static Rectangle2D getInfiniteRegion() {
+    return new Rectangle2D.Double(
+        -Double.MAX_VALUE / 2, -Double.MAX_VALUE / 2, Double.MAX_VALUE, Double.MAX_VALUE);
+  }
+
+  /**
+   * Counters of how often the cached areas were reused or had to be rebuilt, and of how many
+   * entries were kept or dropped when the map changed.
+   */
+  public static class CacheStatistics {
+    private final AtomicLong visibleAreaReused = new AtomicLong();
+    private final AtomicLong visibleAreaRebuilt = new AtomicLong();
+    private final AtomicLong visibleAreaKept = new AtomicLong();
+    private final AtomicLong visibleAreaDropped = new AtomicLong();
+    private final AtomicLong visionReused = new AtomicLong();
+    private final AtomicLong visionRebuilt = new AtomicLong();
+    private final AtomicLong visionKept = new AtomicLong();
+    private final AtomicLong visionDropped = new AtomicLong();
+    private final AtomicLong lightReused = new AtomicLong();
+    private final AtomicLong lightRebuilt = new AtomicLong();
+    private final AtomicLong fullFlushes = new AtomicLong();
+
+    /** @return how often the visible area of a token (sight and VBL only) was reused. */
+    public long getVisibleAreaReused() {
+      return visibleAreaReused.get();
+    }
+
+    /** @return how often the visible area of a token (sight and VBL only) was calculated. */
+    public long getVisibleAreaRebuilt() {
+      return visibleAreaRebuilt.get();
+    }
+
+    /** @return how often the vision of a token (including lights) was reused. */
+    public long getVisionReused() {
+      return visionReused.get();
+    }
+
+    /** @return how often the vision of a token (including lights) was calculated. */
+    public long getVisionRebuilt() {
+      return visionRebuilt.get();
+    }
+
+    /** @return how often the area of a light was reused. */
+    public long getLightReused() {
+      return lightReused.get();
+    }
+
+    /** @return how often the area of a light was calculated. */
+    public long getLightRebuilt() {
+      return lightRebuilt.get();
+    }
+
+    /** Reset all counters to zero. */
+    public void reset() {
+      for (AtomicLong counter :
+          new AtomicLong[] {
+            visibleAreaReused, visibleAreaRebuilt, visibleAreaKept, visibleAreaDropped,
+            visionReused, visionRebuilt, visionKept, visionDropped,
+            lightReused, lightRebuilt, fullFlushes
+          }) {
+        counter.set(0);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "visible area reused/rebuilt %d/%d (kept/dropped on change %d/%d), "
+              + "vision reused/rebuilt %d/%d (kept/dropped on change %d/%d), "
+              + "lights reused/rebuilt %d/%d, full flushes %d",
+          visibleAreaReused.get(),
+          visibleAreaRebuilt.get(),
+          visibleAreaKept.get(),
+          visibleAreaDropped.get(),
+          visionReused.get(),
+          visionRebuilt.get(),
+          visionKept.get(),
+          visionDropped.get(),
+          lightReused.get(),
+          lightRebuilt.get(),
+          fullFlushes.get());
+    }
+  }
+
   /** Has a single field: the visibleArea area */
   private static class VisibleAreaMeta {
     Area visibleArea;
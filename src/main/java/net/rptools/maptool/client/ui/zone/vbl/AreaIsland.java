@@ -51,6 +51,10 @@ public AreaOcean getDeepestOceanAt(Point2D point) {
     return null;
   }
 
+  AreaMeta getMeta() {
+    return meta;
+  }
+
   public Set<AreaOcean> getOceans() {
     return new HashSet<AreaOcean>(oceanSet);
   }
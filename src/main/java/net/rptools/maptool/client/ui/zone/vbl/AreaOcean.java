@@ -16,7 +16,9 @@
 
 import java.awt.geom.Area;
 import java.awt.geom.Point2D;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 public class AreaOcean implements AreaContainer {
@@ -53,6 +55,23 @@ public Set<VisibleAreaSegment> getVisibleAreaSegments(Point2D origin) {
     return segSet;
   }
 
+  /**
+   * Get the faces of everything that can block vision inside this ocean: the boundary of the ocean
+   * and the boundaries of its islands. Whatever is inside the islands is hidden by them.
+   *
+   * @return the list of faces.
+   */
+  public List<AreaFace> getWallFaces() {
+    List<AreaFace> faces = new ArrayList<AreaFace>();
+    if (meta != null) {
+      faces.addAll(meta.faceList);
+    }
+    for (AreaIsland island : islandSet) {
+      faces.addAll(island.getMeta().faceList);
+    }
+    return faces;
+  }
+
   public AreaOcean getDeepestOceanAt(Point2D point) {
 
     if (meta != null && !meta.area.contains(point)) {
@@ -0,0 +1,99 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone.vbl;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import net.rptools.lib.CodeTimer;
+
+/**
+ * The original visibility engine: the shadow cast by each visible segment of VBL is turned into an
+ * {@link Area}, the shadows are unioned, and the result is subtracted from the vision.
+ */
+public class AreaVisibilityEngine implements VisibilityEngine {
+
+  @Override
+  public Area calculateVisibility(int x, int y, Area vision, AreaTree topology) {
+    CodeTimer timer = new CodeTimer("calculateVisibility");
+
+    vision = new Area(vision);
+    vision.transform(AffineTransform.getTranslateInstance(x, y));
+
+    Point origin = new Point(x, y);
+
+    AreaOcean ocean = topology.getOceanAt(origin);
+    if (ocean == null) {
+      return null;
+    }
+
+    // Jamz: Updated comparison for VisibleAreaSegment, hopefully this fixes the exceptions
+    // If exception still happens, this JVM option can be used as a temp fix:
+    // -Djava.util.Arrays.useLegacyMergeSort=true
+    // http://dertompson.com/2012/11/23/sort-algorithm-changes-in-java-7/
+    // http://bugs.java.com/bugdatabase/view_bug.do?bug_id=7075600
+    List<VisibleAreaSegment> segmentList =
+        new ArrayList<VisibleAreaSegment>(ocean.getVisibleAreaSegments(origin));
+    Collections.sort(segmentList);
+
+    List<Area> clearedAreaList = new LinkedList<Area>();
+    nextSegment:
+    for (VisibleAreaSegment segment : segmentList) {
+      Rectangle r = segment.getPath().getBounds();
+      for (Area clearedArea : clearedAreaList) {
+        if (clearedArea.contains(r)) {
+          continue nextSegment;
+        }
+      }
+      Area area = segment.getArea();
+
+      timer.start("combine");
+      Area intersectedArea = null;
+      for (ListIterator<Area> iter = clearedAreaList.listIterator(); iter.hasNext(); ) {
+        Area clearedArea = iter.next();
+        if (clearedArea.intersects(r)) {
+          clearedArea.add(area);
+          iter.remove(); // we'll put it on the back of the list to prevent crazy growth at the
+          // front
+          intersectedArea = clearedArea;
+          break;
+        }
+      }
+      timer.stop("combine");
+      clearedAreaList.add(intersectedArea != null ? intersectedArea : area);
+    }
+
+    while (clearedAreaList.size() > 1) {
+      Area a1 = clearedAreaList.remove(0);
+      Area a2 = clearedAreaList.remove(0);
+
+      a1.add(a2);
+      clearedAreaList.add(a1);
+    }
+
+    if (clearedAreaList.size() > 0) {
+      vision.subtract(clearedAreaList.get(0));
+    }
+
+    // For simplicity, this catches some of the edge cases
+    return vision;
+  }
+}
@@ -0,0 +1,294 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone.vbl;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * Visibility engine working on the VBL as line segments. The visibility polygon around the origin is
+ * computed with an angular sweep over the segment endpoints, keeping the segments crossed by the
+ * sweep ray ordered by distance, and the vision is intersected with it once. This replaces the many
+ * {@link Area} unions of {@link AreaVisibilityEngine} with a single intersection.
+ *
+ * <p>The segments are the walls of the {@link AreaOcean} containing the origin: its own boundary
+ * and the boundaries of its islands. Boundaries produced by {@link Area} never cross each other,
+ * which the ordering of the segments relies on.
+ */
+public class SweepVisibilityEngine implements VisibilityEngine {
+
+  /** Fraction of a segment used to probe on which side of another segment it lies. */
+  private static final double PROBE = 0.01;
+
+  /** Distance between the walls kept and the box closing the visibility polygon. */
+  private static final double BOX_MARGIN = 10;
+
+  @Override
+  public Area calculateVisibility(int x, int y, Area vision, AreaTree topology) {
+    Area visible = new Area(vision);
+    visible.transform(AffineTransform.getTranslateInstance(x, y));
+
+    Point2D origin = new Point2D.Double(x, y);
+    AreaOcean ocean = topology.getOceanAt(origin);
+    if (ocean == null) {
+      return null;
+    }
+    Rectangle2D clip = visible.getBounds2D();
+    if (clip.isEmpty()) {
+      return visible;
+    }
+    clip.add(origin);
+
+    // Walls outside of the vision can't hide any of it
+    List<Segment> segments = new ArrayList<Segment>();
+    for (AreaFace face : ocean.getWallFaces()) {
+      double[] line =
+          clipLine(
+              face.getP1().getX(),
+              face.getP1().getY(),
+              face.getP2().getX(),
+              face.getP2().getY(),
+              clip);
+      if (line != null) {
+        addSegment(segments, origin, line[0], line[1], line[2], line[3]);
+      }
+    }
+    if (segments.isEmpty()) {
+      return visible;
+    }
+    // Close the polygon with a box around everything
+    double minX = clip.getMinX() - BOX_MARGIN;
+    double minY = clip.getMinY() - BOX_MARGIN;
+    double maxX = clip.getMaxX() + BOX_MARGIN;
+    double maxY = clip.getMaxY() + BOX_MARGIN;
+    addSegment(segments, origin, minX, minY, maxX, minY);
+    addSegment(segments, origin, maxX, minY, maxX, maxY);
+    addSegment(segments, origin, maxX, maxY, minX, maxY);
+    addSegment(segments, origin, minX, maxY, minX, minY);
+
+    Path2D polygon = calculateVisibilityPolygon(origin, segments);
+    if (polygon != null) {
+      visible.intersect(new Area(polygon));
+    }
+    return visible;
+  }
+
+  /**
+   * Sweep a ray around the origin, and every time the closest segment changes add the part of the
+   * previous closest segment that was seen to the polygon.
+   *
+   * @param origin the center of the sweep.
+   * @param segments the segments, including a box enclosing everything.
+   * @return the visibility polygon, or null if it could not be computed.
+   */
+  private static Path2D calculateVisibilityPolygon(Point2D origin, List<Segment> segments) {
+    List<Endpoint> endpoints = new ArrayList<Endpoint>(segments.size() * 2);
+    for (Segment segment : segments) {
+      endpoints.add(segment.p1);
+      endpoints.add(segment.p2);
+    }
+    endpoints.sort(
+        (a, b) -> {
+          int cmp = Double.compare(a.angle, b.angle);
+          if (cmp != 0) {
+            return cmp;
+          }
+          // Segments begin before they end at the same angle
+          return Boolean.compare(b.begin, a.begin);
+        });
+
+    LinkedList<Segment> open = new LinkedList<Segment>();
+    List<Point2D> points = new ArrayList<Point2D>();
+    double beginAngle = 0;
+
+    // The first pass only finds the segments open at angle -PI, the second one outputs
+    for (int pass = 0; pass < 2; pass++) {
+      for (Endpoint endpoint : endpoints) {
+        Segment closest = open.peekFirst();
+        if (endpoint.begin) {
+          ListIterator<Segment> iter = open.listIterator();
+          while (iter.hasNext()) {
+            if (!isBehind(endpoint.segment, iter.next(), origin)) {
+              iter.previous();
+              break;
+            }
+          }
+          iter.add(endpoint.segment);
+        } else {
+          open.remove(endpoint.segment);
+        }
+        if (closest != open.peekFirst()) {
+          if (pass == 1 && closest != null) {
+            points.add(rayIntersection(origin, beginAngle, closest));
+            points.add(rayIntersection(origin, endpoint.angle, closest));
+          }
+          beginAngle = endpoint.angle;
+        }
+      }
+    }
+    if (points.size() < 3) {
+      return null;
+    }
+    Path2D polygon = new Path2D.Double(Path2D.WIND_NON_ZERO, points.size());
+    polygon.moveTo(points.get(0).getX(), points.get(0).getY());
+    for (int i = 1; i < points.size(); i++) {
+      polygon.lineTo(points.get(i).getX(), points.get(i).getY());
+    }
+    polygon.closePath();
+    return polygon;
+  }
+
+  private static void addSegment(
+      List<Segment> segments, Point2D origin, double x1, double y1, double x2, double y2) {
+    Segment segment = new Segment(x1, y1, x2, y2);
+    segment.p1.angle = Math.atan2(y1 - origin.getY(), x1 - origin.getX());
+    segment.p2.angle = Math.atan2(y2 - origin.getY(), x2 - origin.getX());
+
+    double delta = segment.p2.angle - segment.p1.angle;
+    if (delta <= -Math.PI) {
+      delta += 2 * Math.PI;
+    }
+    if (delta > Math.PI) {
+      delta -= 2 * Math.PI;
+    }
+    if (Math.abs(delta) < 1e-12) {
+      // Seen edge on, it can't hide anything by itself
+      return;
+    }
+    segment.p1.begin = delta > 0;
+    segment.p2.begin = !segment.p1.begin;
+    segments.add(segment);
+  }
+
+  /**
+   * Returns true if segment a is further from the origin than segment b, where they overlap as
+   * seen from the origin. Only valid for segments that don't cross each other.
+   */
+  private static boolean isBehind(Segment a, Segment b, Point2D origin) {
+    boolean a1 = leftOf(a, interpolate(b.p1, b.p2, PROBE));
+    boolean a2 = leftOf(a, interpolate(b.p2, b.p1, PROBE));
+    boolean a3 = leftOf(a, origin.getX(), origin.getY());
+    boolean b1 = leftOf(b, interpolate(a.p1, a.p2, PROBE));
+    boolean b2 = leftOf(b, interpolate(a.p2, a.p1, PROBE));
+    boolean b3 = leftOf(b, origin.getX(), origin.getY());
+
+    if (b1 == b2 && b2 != b3) {
+      // a is on the other side of b
+      return true;
+    }
+    if (a1 == a2 && a2 == a3) {
+      // b is on the same side of a as the origin
+      return true;
+    }
+    return false;
+  }
+
+  private static boolean leftOf(Segment s, double[] p) {
+    return leftOf(s, p[0], p[1]);
+  }
+
+  private static boolean leftOf(Segment s, double x, double y) {
+    double cross = (s.p2.x - s.p1.x) * (y - s.p1.y) - (s.p2.y - s.p1.y) * (x - s.p1.x);
+    return cross < 0;
+  }
+
+  private static double[] interpolate(Endpoint p, Endpoint q, double f) {
+    return new double[] {p.x * (1 - f) + q.x * f, p.y * (1 - f) + q.y * f};
+  }
+
+  /** @return the point where the ray from the origin at the angle meets the line of the segment */
+  private static Point2D rayIntersection(Point2D origin, double angle, Segment segment) {
+    double ox = origin.getX();
+    double oy = origin.getY();
+    double dx = Math.cos(angle);
+    double dy = Math.sin(angle);
+    double sx = segment.p2.x - segment.p1.x;
+    double sy = segment.p2.y - segment.p1.y;
+
+    double denominator = sy * dx - sx * dy;
+    if (denominator == 0) {
+      // Parallel, use the closest end
+      double d1 = Point2D.distanceSq(ox, oy, segment.p1.x, segment.p1.y);
+      double d2 = Point2D.distanceSq(ox, oy, segment.p2.x, segment.p2.y);
+      Endpoint p = d1 < d2 ? segment.p1 : segment.p2;
+      return new Point2D.Double(p.x, p.y);
+    }
+    double t = (sx * (oy - segment.p1.y) - sy * (ox - segment.p1.x)) / denominator;
+    return new Point2D.Double(ox + t * dx, oy + t * dy);
+  }
+
+  /**
+   * Clip a line to a rectangle (Liang-Barsky).
+   *
+   * @return the clipped line as {x1, y1, x2, y2}, or null if it is outside the rectangle.
+   */
+  private static double[] clipLine(double x1, double y1, double x2, double y2, Rectangle2D r) {
+    double dx = x2 - x1;
+    double dy = y2 - y1;
+    double[] p = {-dx, dx, -dy, dy};
+    double[] q = {x1 - r.getMinX(), r.getMaxX() - x1, y1 - r.getMinY(), r.getMaxY() - y1};
+    double t0 = 0;
+    double t1 = 1;
+    for (int i = 0; i < 4; i++) {
+      if (p[i] == 0) {
+        if (q[i] < 0) {
+          return null;
+        }
+      } else {
+        double t = q[i] / p[i];
+        if (p[i] < 0) {
+          t0 = Math.max(t0, t);
+        } else {
+          t1 = Math.min(t1, t);
+        }
+        if (t0 > t1) {
+          return null;
+        }
+      }
+    }
+    return new double[] {x1 + t0 * dx, y1 + t0 * dy, x1 + t1 * dx, y1 + t1 * dy};
+  }
+
+  private static class Segment {
+    final Endpoint p1;
+    final Endpoint p2;
+
+    Segment(double x1, double y1, double x2, double y2) {
+      p1 = new Endpoint(x1, y1, this);
+      p2 = new Endpoint(x2, y2, this);
+    }
+  }
+
+  private static class Endpoint {
+    final double x;
+    final double y;
+    final Segment segment;
+    double angle;
+    boolean begin;
+
+    Endpoint(double x, double y, Segment segment) {
+      this.x = x;
+      this.y = y;
+      this.segment = segment;
+    }
+  }
+}
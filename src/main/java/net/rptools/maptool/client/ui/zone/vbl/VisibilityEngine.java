@@ -0,0 +1,55 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone.vbl;
+
+import java.awt.geom.Area;
+
+/**
+ * Calculates the part of a vision or light area that can be seen from its origin, given the VBL.
+ * The engine used by {@link net.rptools.maptool.client.ui.zone.FogUtil} is selected in the
+ * preferences.
+ */
+public interface VisibilityEngine {
+
+  /** The available engines. */
+  enum Type {
+    /** Subtracts the shadow of each wall from the vision, using {@link Area} operations. */
+    AREA(new AreaVisibilityEngine()),
+    /** Computes the visibility polygon with an angular sweep over the wall segments. */
+    SWEEP(new SweepVisibilityEngine());
+
+    private final VisibilityEngine engine;
+
+    Type(VisibilityEngine engine) {
+      this.engine = engine;
+    }
+
+    /** @return the engine of this type. Engines are stateless and can be shared. */
+    public VisibilityEngine getEngine() {
+      return engine;
+    }
+  }
+
+  /**
+   * Return the visible area for an origin, a lightSourceArea and a VBL.
+   *
+   * @param x the x vision origin.
+   * @param y the y vision origin.
+   * @param vision the lightSourceArea, relative to the origin.
+   * @param topology the VBL topology.
+   * @return the visible area, or null if the origin is inside the VBL.
+   */
+  Area calculateVisibility(int x, int y, Area vision, AreaTree topology);
+}
@@ -21,49 +21,53 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import net.rptools.maptool.client.MapTool;
+import net.rptools.maptool.client.ui.zone.ZoneRenderer;
 import net.rptools.maptool.client.walker.AbstractZoneWalker;
 import net.rptools.maptool.model.CellPoint;
 import net.rptools.maptool.model.Label;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Token.TerrainModifierOperation;
 import net.rptools.maptool.model.TokenFootprint;
 import net.rptools.maptool.model.Zone;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.locationtech.jts.awt.ShapeReader;
-import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.GeometryFactory;
-import org.locationtech.jts.geom.LineString;
 
 public abstract class AbstractAStarWalker extends AbstractZoneWalker {
 
   private static final Logger log = LogManager.getLogger(AbstractAStarWalker.class);
-  private final GeometryFactory geometryFactory = new GeometryFactory();
+
+  /** Orders the open list on the F cost, preferring the node closest to the goal on a tie. */
+  private static final Comparator<AStarCellPoint> OPEN_LIST_ORDER =
+      Comparator.<AStarCellPoint>comparingDouble(AStarCellPoint::fCost)
+          .thenComparingDouble(node -> node.h);
+
+  /** Milliseconds after which a path search gives up. */
+  private static final long TIMEOUT = 10000;
+
   // private List<GUID> debugLabels;
   protected int crossX = 0;
   protected int crossY = 0;
   private boolean debugCosts = false; // Manually set this to view H, G & F costs as rendered labels
-  private Area vbl = new Area();
   private double cell_cost = zone.getUnitsPerCell();
   private double distance = -1;
-  private ShapeReader shapeReader = new ShapeReader(geometryFactory);
-  private Geometry vblGeometry = null;
+  private NavigationMesh navigationMesh = null;
   // private long avgRetrieveTime;
   // private long avgTestTime;
   // private long retrievalCount;
   // private long testCount;
   private TokenFootprint footprint = new TokenFootprint();
   private Map<AStarCellPoint, AStarCellPoint> checkedList = new ConcurrentHashMap<>();
-  private List<AStarCellPoint> terrainCells = new ArrayList<>();
+  private Map<CellPoint, List<AStarCellPoint>> terrainCells = new HashMap<>();
 
   public AbstractAStarWalker(Zone zone) {
     super(zone);
@@ -73,9 +77,11 @@ public AbstractAStarWalker(Zone zone) {
       // log.info("Token: " + token.getName() + ", " + token.getTerrainModifier());
       Set<CellPoint> cells = token.getOccupiedCells(zone.getGrid());
       for (CellPoint cell : cells) {
-        terrainCells.add(
-            new AStarCellPoint(
-                cell, token.getTerrainModifier(), token.getTerrainModifierOperation()));
+        terrainCells
+            .computeIfAbsent(cell, k -> new ArrayList<>())
+            .add(
+                new AStarCellPoint(
+                    cell, token.getTerrainModifier(), token.getTerrainModifierOperation()));
       }
     }
   }
@@ -119,63 +125,66 @@ public void setFootprint(TokenFootprint footprint) {
 
   @Override
   protected List<CellPoint> calculatePath(CellPoint start, CellPoint goal) {
+    // Get current VBL for map...
+    // The navigation mesh of the zone only rebuilds its geometry when the topology changed, and
+    // remembers the moves it tested for the next path.
+    // Note: zoneRenderer will be null if map is not visible to players.
+    ZoneRenderer zoneRenderer = MapTool.getFrame().getCurrentZoneRenderer();
+    if (zoneRenderer != null) {
+      navigationMesh = NavigationMesh.getMesh(zone);
+      if (MapTool.getServerPolicy().getVblBlocksMove()) {
+        Area topology = zoneRenderer.getZoneView().getTopologyTree().getArea();
+        navigationMesh.update(zone.getGrid(), topology, zone.getTopologyTerrain(), tokenVBL);
+      } else {
+        navigationMesh.update(zone.getGrid(), null, zone.getTopologyTerrain(), null);
+      }
+    }
+
+    // Current fail safe... bail out after 10 seconds of searching just in case, shouldn't hang UI
+    // as this is off the AWT thread. Timeout quicker for GM cause reasons
+    long timeout = MapTool.getPlayer().isGM() ? TIMEOUT / 2 : TIMEOUT;
+
+    return calculatePath(start, goal, timeout);
+  }
+
+  /**
+   * Calculates a restricted path against the given mesh, without looking at the client. Used by the
+   * benchmarks.
+   *
+   * @param start the start of the path
+   * @param goal the end of the path
+   * @param mesh the navigation mesh to test the moves against
+   * @return the path
+   */
+  List<CellPoint> calculatePath(CellPoint start, CellPoint goal, NavigationMesh mesh) {
+    restrictMovement = true;
+    if (terrainModifiersIgnored == null) {
+      terrainModifiersIgnored = Collections.singleton(TerrainModifierOperation.NONE);
+    }
+    navigationMesh = mesh;
+    return calculatePath(start, goal, TIMEOUT);
+  }
+
+  private List<CellPoint> calculatePath(CellPoint start, CellPoint goal, long timeout) {
     crossX = start.x - goal.x;
     crossY = start.y - goal.y;
 
-    List<AStarCellPoint> openList = new ArrayList<>();
+    // Binary heap; a node that gets a cheaper path is pushed again and the stale copy skipped
+    PriorityQueue<AStarCellPoint> openList = new PriorityQueue<>(OPEN_LIST_ORDER);
     Map<AStarCellPoint, AStarCellPoint> openSet = new HashMap<>(); // For faster lookups
     Set<AStarCellPoint> closedSet = new HashSet<>();
 
-    // Current fail safe... bail out after 10 seconds of searching just in case, shouldn't hang UI
-    // as this is off the AWT thread
     long timeOut = System.currentTimeMillis();
-    double estimatedTimeoutNeeded = 10000;
 
     // if (start.equals(end))
     // log.info("NO WORK!");
 
-    openList.add(new AStarCellPoint(start));
-    openSet.put(openList.get(0), openList.get(0));
+    AStarCellPoint startNode = new AStarCellPoint(start);
+    openList.add(startNode);
+    openSet.put(startNode, startNode);
 
     AStarCellPoint currentNode = null;
 
-    // Get current VBL for map...
-    // Using JTS because AWT Area can only intersect with Area and we want to use simple lines here.
-    // Render VBL to Geometry class once and store.
-    // Note: zoneRenderer will be null if map is not visible to players.
-    if (MapTool.getFrame().getCurrentZoneRenderer() != null) {
-      if (MapTool.getServerPolicy().getVblBlocksMove()) {
-        vbl = MapTool.getFrame().getCurrentZoneRenderer().getZoneView().getTopologyTree().getArea();
-
-        if (tokenVBL != null) {
-          vbl.subtract(tokenVBL);
-        }
-
-        // Finally, add the Move Blocking Layer!
-        vbl.add((zone.getTopologyTerrain()));
-      } else {
-        vbl = zone.getTopologyTerrain();
-      }
-    }
-
-    if (!vbl.isEmpty()) {
-      try {
-        vblGeometry =
-            shapeReader
-                .read(vbl.getPathIterator(null))
-                .buffer(1); // .buffer helps creating valid geometry and prevent self-intersecting
-        // polygons
-        if (!vblGeometry.isValid()) {
-          log.info(
-              "vblGeometry is invalid! May cause issues. Check for self-intersecting polygons.");
-        }
-      } catch (Exception e) {
-        log.info("vblGeometry oh oh: ", e);
-      }
-
-      // log.info("vblGeometry bounds: " + vblGeometry.toString());
-    }
-
     // Erase previous debug labels, this actually erases ALL labels! Use only when debugging!
     if (!zone.getLabels().isEmpty() && debugCosts) {
       for (Label label : zone.getLabels()) {
@@ -183,20 +192,18 @@ protected List<CellPoint> calculatePath(CellPoint start, CellPoint goal) {
       }
     }
 
-    // Timeout quicker for GM cause reasons
-    if (MapTool.getPlayer().isGM()) {
-      estimatedTimeoutNeeded = estimatedTimeoutNeeded / 2;
-    }
-
-    // log.info("A* Path timeout estimate: " + estimatedTimeoutNeeded);
-
     while (!openList.isEmpty()) {
-      if (System.currentTimeMillis() > timeOut + estimatedTimeoutNeeded) {
-        log.info("Timing out after " + estimatedTimeoutNeeded);
+      if (System.currentTimeMillis() > timeOut + timeout) {
+        log.info("Timing out after " + timeout);
         break;
       }
 
-      currentNode = openList.remove(0);
+      currentNode = openList.poll();
+      if (openSet.get(currentNode) != currentNode) {
+        // A cheaper path to this node was found after it was pushed
+        currentNode = null;
+        continue;
+      }
       openSet.remove(currentNode);
       if (currentNode.equals(goal)) {
         break;
@@ -209,15 +216,12 @@ protected List<CellPoint> calculatePath(CellPoint start, CellPoint goal) {
         if (openSet.containsKey(currentNeighbor)) {
           // check if it is cheaper to get here the way that we just came, versus the previous path
           AStarCellPoint oldNode = openSet.get(currentNeighbor);
-          if (currentNeighbor.gCost() < oldNode.gCost()) {
-            oldNode.replaceG(currentNeighbor);
-            currentNeighbor = oldNode;
-            currentNeighbor.parent = currentNode;
+          if (currentNeighbor.gCost() >= oldNode.gCost()) {
+            continue;
           }
-          continue;
         }
 
-        pushNode(openList, currentNeighbor);
+        openList.add(currentNeighbor);
         openSet.put(currentNeighbor, currentNeighbor);
       }
 
@@ -269,29 +273,6 @@ protected List<CellPoint> calculatePath(CellPoint start, CellPoint goal) {
     return returnedCellPointList;
   }
 
-  void pushNode(List<AStarCellPoint> list, AStarCellPoint node) {
-    if (list.isEmpty()) {
-      list.add(node);
-      return;
-    }
-    if (node.fCost() < list.get(0).fCost()) {
-      list.add(0, node);
-      return;
-    }
-    if (node.fCost() > list.get(list.size() - 1).fCost()) {
-      list.add(node);
-      return;
-    }
-    for (ListIterator<AStarCellPoint> iter = list.listIterator(); iter.hasNext(); ) {
-      AStarCellPoint listNode = iter.next();
-      if (listNode.fCost() >= node.fCost()) {
-        iter.previous();
-        iter.add(node);
-        return;
-      }
-    }
-  }
-
   protected List<AStarCellPoint> getNeighbors(AStarCellPoint node, Set<AStarCellPoint> closedSet) {
     List<AStarCellPoint> neighbors = new ArrayList<>();
     int[][] neighborMap = getNeighborMap(node.x, node.y);
@@ -332,9 +313,8 @@ protected List<AStarCellPoint> getNeighbors(AStarCellPoint node, Set<AStarCellPo
         }
 
         // Check for terrain modifiers
-        for (AStarCellPoint cell : terrainCells) {
-          if (cell.equals(neighbor)
-              && !terrainModifiersIgnored.contains(cell.terrainModifierOperation)) {
+        for (AStarCellPoint cell : terrainCells.getOrDefault(neighbor, Collections.emptyList())) {
+          if (!terrainModifiersIgnored.contains(cell.terrainModifierOperation)) {
             switch (cell.terrainModifierOperation) {
               case MULTIPLY:
                 terrainMultiplier += cell.terrainModifier;
@@ -403,71 +383,18 @@ protected List<AStarCellPoint> getNeighbors(AStarCellPoint node, Set<AStarCellPo
   }
 
   private boolean vblBlocksMovement(AStarCellPoint start, AStarCellPoint goal) {
-    if (vblGeometry == null) {
-      return false;
-    }
-
-    // Stopwatch stopwatch = Stopwatch.createStarted();
-    AStarCellPoint checkNode = checkedList.get(goal);
-    if (checkNode != null) {
-      Boolean test = checkNode.isValidMove(start);
-
-      // if it's null then the test for that direction hasn't been set yet otherwise just return the
-      // previous result
-      if (test != null) {
-        // log.info("Time to retrieve: " + stopwatch.elapsed(TimeUnit.NANOSECONDS));
-        // avgRetrieveTime += stopwatch.elapsed(TimeUnit.NANOSECONDS);
-        // retrievalCount++;
-        return test;
-      } else {
-        // Copies all previous checks to save later...
-        goal = checkNode;
-      }
-    }
-
-    Rectangle startBounds = zone.getGrid().getBounds(start);
-    Rectangle goalBounds = zone.getGrid().getBounds(goal);
-
-    if (goalBounds.isEmpty() || startBounds.isEmpty()) {
+    if (navigationMesh == null) {
       return false;
     }
 
-    // If there is no vbl within the footprints, we're good!
-    if (!vbl.intersects(startBounds) && !vbl.intersects(goalBounds)) {
-      return false;
-    }
+    boolean blocksMovement = navigationMesh.isBlocked(start, goal);
 
-    // If the goal center point is in vbl, allow to maintain path through vbl (should be GM only?)
-    /*
-    if (vbl.contains(goal.toPoint())) {
-      // Allow GM to move through VBL
-       return !MapTool.getPlayer().isGM();
-    }
-    */
-
-    // NEW WAY - use polygon test
-    double x1 = startBounds.getCenterX();
-    double y1 = startBounds.getCenterY();
-    double x2 = goalBounds.getCenterX();
-    double y2 = goalBounds.getCenterY();
-    LineString centerRay =
-        geometryFactory.createLineString(
-            new Coordinate[] {new Coordinate(x1, y1), new Coordinate(x2, y2)});
-
-    boolean blocksMovement;
-    try {
-      blocksMovement = vblGeometry.intersects(centerRay);
-    } catch (Exception e) {
-      log.info("clipped.intersects oh oh: ", e);
-      return true;
+    // Keep the blocked moves around for the A* debug display of the zone renderer
+    if (blocksMovement) {
+      AStarCellPoint checkNode = checkedList.putIfAbsent(goal, goal);
+      (checkNode != null ? checkNode : goal).setValidMove(start, true);
     }
 
-    // avgTestTime += stopwatch.elapsed(TimeUnit.NANOSECONDS);
-    // testCount++;
-
-    goal.setValidMove(start, blocksMovement);
-    checkedList.put(goal, goal);
-
     return blocksMovement;
   }
 
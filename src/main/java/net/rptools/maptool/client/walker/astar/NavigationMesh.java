@@ -0,0 +1,354 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import net.rptools.maptool.model.CellPoint;
+import net.rptools.maptool.model.Grid;
+import net.rptools.maptool.model.ModelChangeEvent;
+import net.rptools.maptool.model.ModelChangeListener;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.model.ZonePoint;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.locationtech.jts.awt.ShapeReader;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+
+/**
+ * The movement blocking topology of a zone, shared by every A* walker on that zone.
+ *
+ * <p>The JTS geometry of the topology is only rebuilt when the topology changes, not on every path
+ * request. The result of each cell to cell movement test is kept as well: for each cell a bitset of
+ * the blocked moves to its eight neighbours, and a flag telling whether the cell touches the
+ * topology at all. When the topology changes only the cells near the changed area are forgotten.
+ */
+public class NavigationMesh {
+
+  private static final Logger log = LogManager.getLogger(NavigationMesh.class);
+
+  /** The meshes of the zones. The mesh must not hold on to its zone, or it would never go away. */
+  private static final Map<Zone, NavigationMesh> meshMap = new WeakHashMap<Zone, NavigationMesh>();
+
+  /** Bit of {@link #cellMap} telling the cell was tested. */
+  private static final int CELL_KNOWN = 1;
+
+  /** Bit of {@link #cellMap} telling the bounds of the cell intersect the topology. */
+  private static final int CELL_TOUCHES_TOPOLOGY = 2;
+
+  /** Number of bits used in {@link #edgeMap} for the known flags of the 3x3 neighbourhood. */
+  private static final int NEIGHBOURS = 9;
+
+  private final GeometryFactory geometryFactory = new GeometryFactory();
+  private final ShapeReader shapeReader = new ShapeReader(geometryFactory);
+
+  // The sources the mesh was built from, compared by identity
+  private Grid grid;
+  private Area topology;
+  private Area terrain;
+  private Area tokenVBL;
+  private boolean built;
+
+  private Area vbl = new Area();
+  private Geometry vblGeometry;
+
+  /** The bounds of the topology changes since the last update, or null. */
+  private Rectangle dirtyBounds;
+
+  /** True if the whole mesh must be forgotten on the next update. */
+  private boolean dirtyAll;
+
+  /** The passability flags of the cells, keyed on the packed cell coordinates. */
+  private final Map<Long, Integer> cellMap = new HashMap<Long, Integer>();
+
+  /**
+   * The moves from a cell to its neighbours. The low {@link #NEIGHBOURS} bits tell which moves were
+   * tested, the next ones which of those are blocked.
+   */
+  private final Map<Long, Integer> edgeMap = new HashMap<Long, Integer>();
+
+  /** Moves between cells that are not neighbours, only tested for large footprints. */
+  private final Map<Long, Map<Long, Boolean>> farEdgeMap = new HashMap<Long, Map<Long, Boolean>>();
+
+  /** The largest distance, in cells, of a move in {@link #farEdgeMap}. */
+  private int maxEdgeLength = 1;
+
+  private int testCount;
+
+  /**
+   * Returns the mesh of the zone, creating it the first time.
+   *
+   * @param zone the zone
+   * @return the mesh of the zone
+   */
+  public static NavigationMesh getMesh(Zone zone) {
+    synchronized (meshMap) {
+      NavigationMesh mesh = meshMap.get(zone);
+      if (mesh == null) {
+        mesh = new NavigationMesh();
+        zone.addModelChangeListener(mesh.new ZoneListener());
+        meshMap.put(zone, mesh);
+      }
+      return mesh;
+    }
+  }
+
+  NavigationMesh() {}
+
+  /**
+   * Makes sure the mesh matches the given topology. The areas are compared by identity; changes
+   * made to them in place are picked up from the events of the zone.
+   *
+   * @param grid the grid of the zone
+   * @param topology the VBL blocking movement, or null if VBL doesn't block movement
+   * @param terrain the movement blocking layer of the zone
+   * @param tokenVBL the VBL of the moving token, which never blocks itself, or null
+   */
+  public synchronized void update(Grid grid, Area topology, Area terrain, Area tokenVBL) {
+    boolean sourceChanged =
+        !built
+            || grid != this.grid
+            || topology != this.topology
+            || terrain != this.terrain
+            || tokenVBL != this.tokenVBL;
+    if (!sourceChanged && !dirtyAll && dirtyBounds == null) {
+      return;
+    }
+
+    if (!built
+        || dirtyAll
+        || grid != this.grid
+        || tokenVBL != this.tokenVBL
+        || (topology == null) != (this.topology == null)
+        || ((topology != this.topology || terrain != this.terrain) && dirtyBounds == null)) {
+      // Can't tell what changed
+      cellMap.clear();
+      edgeMap.clear();
+      farEdgeMap.clear();
+      maxEdgeLength = 1;
+    } else if (dirtyBounds != null) {
+      forget(grid, dirtyBounds);
+    }
+
+    this.grid = grid;
+    this.topology = topology;
+    this.terrain = terrain;
+    this.tokenVBL = tokenVBL;
+    dirtyAll = false;
+    dirtyBounds = null;
+    built = true;
+
+    vbl = new Area();
+    if (topology != null) {
+      vbl.add(topology);
+      if (tokenVBL != null) {
+        vbl.subtract(tokenVBL);
+      }
+    }
+    if (terrain != null) {
+      vbl.add(terrain);
+    }
+
+    vblGeometry = null;
+    if (!vbl.isEmpty()) {
+      try {
+        // .buffer helps creating valid geometry and prevent self-intersecting polygons
+        vblGeometry = shapeReader.read(vbl.getPathIterator(null)).buffer(1);
+        if (!vblGeometry.isValid()) {
+          log.info(
+              "vblGeometry is invalid! May cause issues. Check for self-intersecting polygons.");
+        }
+      } catch (Exception e) {
+        log.info("vblGeometry oh oh: ", e);
+      }
+    }
+  }
+
+  /** @return true if there is any topology blocking movement */
+  public synchronized boolean hasTopology() {
+    return vblGeometry != null;
+  }
+
+  /**
+   * Tells whether the topology blocks the straight move between the centers of the cells.
+   *
+   * @param start the cell moved from
+   * @param goal the cell moved to
+   * @return true if the move is blocked
+   */
+  public synchronized boolean isBlocked(CellPoint start, CellPoint goal) {
+    if (vblGeometry == null) {
+      return false;
+    }
+    int dx = goal.x - start.x;
+    int dy = goal.y - start.y;
+    Long key = key(start.x, start.y);
+
+    if (Math.abs(dx) <= 1 && Math.abs(dy) <= 1) {
+      int bit = 1 << ((dy + 1) * 3 + dx + 1);
+      Integer bits = edgeMap.get(key);
+      int value = bits != null ? bits : 0;
+      if ((value & bit) != 0) {
+        return (value & (bit << NEIGHBOURS)) != 0;
+      }
+      Boolean blocked = testMove(start, goal);
+      if (blocked == null) {
+        return true;
+      }
+      value |= bit;
+      if (blocked) {
+        value |= bit << NEIGHBOURS;
+      }
+      edgeMap.put(key, value);
+      return blocked;
+    }
+
+    Map<Long, Boolean> moves = farEdgeMap.get(key);
+    Long goalKey = key(goal.x, goal.y);
+    Boolean blocked = moves != null ? moves.get(goalKey) : null;
+    if (blocked != null) {
+      return blocked;
+    }
+    blocked = testMove(start, goal);
+    if (blocked == null) {
+      return true;
+    }
+    farEdgeMap.computeIfAbsent(key, k -> new HashMap<Long, Boolean>()).put(goalKey, blocked);
+    maxEdgeLength = Math.max(maxEdgeLength, Math.max(Math.abs(dx), Math.abs(dy)));
+    return blocked;
+  }
+
+  /** @return the number of moves tested against the geometry since the mesh was created */
+  public synchronized int getTestCount() {
+    return testCount;
+  }
+
+  /** @return whether the move is blocked, or null if the geometry could not be tested */
+  private Boolean testMove(CellPoint start, CellPoint goal) {
+    Rectangle startBounds = grid.getBounds(start);
+    Rectangle goalBounds = grid.getBounds(goal);
+
+    if (goalBounds.isEmpty() || startBounds.isEmpty()) {
+      return false;
+    }
+
+    // If there is no vbl within the footprints, we're good!
+    if (!touchesTopology(start, startBounds) && !touchesTopology(goal, goalBounds)) {
+      return false;
+    }
+
+    testCount++;
+    LineString centerRay =
+        geometryFactory.createLineString(
+            new Coordinate[] {
+              new Coordinate(startBounds.getCenterX(), startBounds.getCenterY()),
+              new Coordinate(goalBounds.getCenterX(), goalBounds.getCenterY())
+            });
+    try {
+      return vblGeometry.intersects(centerRay);
+    } catch (Exception e) {
+      log.info("clipped.intersects oh oh: ", e);
+      return null;
+    }
+  }
+
+  private boolean touchesTopology(CellPoint cell, Rectangle bounds) {
+    Long key = key(cell.x, cell.y);
+    Integer flags = cellMap.get(key);
+    if (flags == null) {
+      flags = CELL_KNOWN | (vbl.intersects(bounds) ? CELL_TOUCHES_TOPOLOGY : 0);
+      cellMap.put(key, flags);
+    }
+    return (flags & CELL_TOUCHES_TOPOLOGY) != 0;
+  }
+
+  /** Forgets the cells, and the moves starting from them, that are near the area. */
+  private void forget(Grid grid, Rectangle area) {
+    CellPoint min = grid.convert(new ZonePoint(area.x, area.y));
+    CellPoint max = grid.convert(new ZonePoint(area.x + area.width, area.y + area.height));
+    // A move can reach maxEdgeLength cells away, plus one cell for hex grids converting corners
+    int margin = maxEdgeLength + 1;
+    int minX = Math.min(min.x, max.x) - margin;
+    int maxX = Math.max(min.x, max.x) + margin;
+    int minY = Math.min(min.y, max.y) - margin;
+    int maxY = Math.max(min.y, max.y) + margin;
+
+    cellMap.keySet().removeIf(key -> isInside(key, minX, minY, maxX, maxY));
+    edgeMap.keySet().removeIf(key -> isInside(key, minX, minY, maxX, maxY));
+    farEdgeMap.keySet().removeIf(key -> isInside(key, minX, minY, maxX, maxY));
+  }
+
+  private synchronized void invalidate(Rectangle area) {
+    if (area == null) {
+      dirtyAll = true;
+    } else if (dirtyBounds == null) {
+      dirtyBounds = new Rectangle(area);
+    } else {
+      dirtyBounds.add(area);
+    }
+  }
+
+  private static boolean isInside(long key, int minX, int minY, int maxX, int maxY) {
+    int x = (int) (key >> 32);
+    int y = (int) key;
+    return x >= minX && x <= maxX && y >= minY && y <= maxY;
+  }
+
+  private static Long key(int x, int y) {
+    return ((long) x << 32) | (y & 0xFFFFFFFFL);
+  }
+
+  private static boolean hasVBL(Object arg) {
+    if (arg instanceof Token) {
+      return ((Token) arg).hasVBL();
+    }
+    if (arg instanceof Collection) {
+      for (Object o : (Collection<?>) arg) {
+        if (o instanceof Token && ((Token) o).hasVBL()) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Keeps the mesh in line with the zone. */
+  private class ZoneListener implements ModelChangeListener {
+    @Override
+    public void modelChanged(ModelChangeEvent event) {
+      Object type = event.getEvent();
+      if (type == Zone.Event.TOPOLOGY_CHANGED) {
+        Object arg = event.getArg();
+        invalidate(arg instanceof Area ? ((Area) arg).getBounds() : null);
+      } else if (type == Zone.Event.GRID_CHANGED) {
+        invalidate(null);
+      } else if ((type == Zone.Event.TOKEN_ADDED
+              || type == Zone.Event.TOKEN_CHANGED
+              || type == Zone.Event.TOKEN_REMOVED)
+          && hasVBL(event.getArg())) {
+        // Token VBL is part of the topology and the old position of the token is unknown
+        invalidate(null);
+      }
+    }
+  }
+}
@@ -37,7 +37,7 @@ public boolean equals(Object o) {
   }
 
   public int hashCode() {
-    return new String(x + "-" + y).hashCode();
+    return 31 * x + y;
   }
 
   public String toString() {
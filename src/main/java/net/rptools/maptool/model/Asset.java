@@ -72,6 +72,26 @@ public Asset(MD5Key id) {
     this.id = id;
   }
 
+  /**
+   * Restore an asset whose description was saved apart from its data. The data isn't hashed or
+   * inspected again.
+   *
+   * @param id the MD5 sum of the data
+   * @param name the name of the asset
+   * @param extension the extension of the data, or null to find it from the data
+   * @param type the type of the asset
+   * @param image the data
+   */
+  public Asset(MD5Key id, String name, String extension, String type, byte[] image) {
+    this.id = id;
+    this.name = name;
+    this.extension = extension;
+    if (type != null) {
+      this.type = type;
+    }
+    this.image = image;
+  }
+
   public MD5Key getId() {
     return id;
   }
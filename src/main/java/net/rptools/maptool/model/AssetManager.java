@@ -21,8 +21,9 @@
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -33,10 +34,13 @@
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.Function;
 import net.rptools.lib.FileUtil;
 import net.rptools.lib.MD5Key;
+import net.rptools.maptool.client.AppPreferences;
 import net.rptools.maptool.client.AppUtil;
 import net.rptools.maptool.client.MapTool;
+import net.rptools.maptool.util.BoundedCache;
 import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -50,12 +54,33 @@
 public class AssetManager {
   private static final Logger log = LogManager.getLogger(AssetManager.class);
 
-  /** Assets are associated with the MD5 sum of their raw data */
-  private static Map<MD5Key, Asset> assetMap = new ConcurrentHashMap<MD5Key, Asset>();
+  /**
+   * Assets are associated with the MD5 sum of their raw data. Only assets that can be read back
+   * from the persistent cache are evicted when the cache goes over its memory budget.
+   */
+  private static final BoundedCache<MD5Key, Asset> assetMap =
+      new BoundedCache<MD5Key, Asset>(
+          "Asset cache",
+          AppPreferences.getAssetCacheSize() * 1024L * 1024L,
+          asset -> asset.getImage() != null ? asset.getImage().length : 0,
+          (id, asset) -> usePersistentCache && assetIsInPersistentCache(id));
+
+  /** Every asset that has been put in the cache, including the evicted ones. */
+  private static final Set<MD5Key> knownAssets = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Assets of a lazily loaded campaign that are still only in the campaign file, with the function
+   * reading them from it. They are read the first time they are asked for.
+   */
+  private static final Map<MD5Key, Function<MD5Key, Asset>> pendingAssets =
+      new ConcurrentHashMap<MD5Key, Function<MD5Key, Asset>>();
 
   /** Location of the cache on the filesystem */
   private static File cacheDir;
 
+  /** The packed store holding the persistent cache, inside the cache directory */
+  private static PackedAssetStore assetStore;
+
   /** True if a persistent cache should be used */
   private static boolean usePersistentCache;
 
@@ -69,6 +94,9 @@ public class AssetManager {
   /** Property string associated with asset name */
   public static final String NAME = "name";
 
+  /** Directory of the packed store, relative to the cache directory */
+  private static final String STORE_DIR = "store";
+
   /** Used to load assets from storage */
   private static AssetLoader assetLoader = new AssetLoader();
 
@@ -77,7 +105,13 @@ public class AssetManager {
   static {
     cacheDir = AppUtil.getAppHome("assetcache");
     if (cacheDir != null) {
-      usePersistentCache = true;
+      try {
+        assetStore = new PackedAssetStore(new File(cacheDir, STORE_DIR));
+        usePersistentCache = true;
+        Runtime.getRuntime().addShutdownHook(new Thread(assetStore::close));
+      } catch (IOException ioe) {
+        log.error("Could not open the asset store, the persistent cache is disabled", ioe);
+      }
     }
   }
 
@@ -90,8 +124,16 @@ public class AssetManager {
    */
   public static void clearCache() {
     try {
+      if (assetStore != null) {
+        assetStore.clear();
+      }
       if (cacheDir != null) {
-        FileUtils.cleanDirectory(cacheDir);
+        // Loose files from before the packed store, and the .lnk files
+        for (File file : cacheDir.listFiles()) {
+          if (!file.getName().equals(STORE_DIR)) {
+            FileUtils.forceDelete(file);
+          }
+        }
       }
     } catch (IOException e) {
       // TODO Auto-generated catch block
@@ -99,6 +141,27 @@ public static void clearCache() {
     }
   }
 
+  /**
+   * Check every asset in the persistent cache against its MD5 sum, dropping the corrupted ones.
+   * This reads the whole cache, so don't call it from the event thread.
+   *
+   * @return the number of corrupted assets found
+   */
+  public static int verifyPersistentCache() {
+    return assetStore != null ? assetStore.verify().size() : 0;
+  }
+
+  /**
+   * Return the data of an asset in the persistent cache, without reading it into the heap.
+   *
+   * @param id MD5 of the asset
+   * @return a read only buffer of the data, or null if the asset isn't in the persistent cache
+   * @throws IOException if the cache can't be read
+   */
+  public static ByteBuffer getAssetData(MD5Key id) throws IOException {
+    return assetStore != null ? assetStore.getData(id) : null;
+  }
+
   /**
    * Remove all existing repositories and load all the repositories from the currently loaded
    * campaign.
@@ -186,7 +249,8 @@ public static boolean hasAsset(Asset asset) {
   public static boolean hasAsset(MD5Key key) {
     return assetMap.containsKey(key)
         || assetIsInPersistentCache(key)
-        || assetHasLocalReference(key);
+        || assetHasLocalReference(key)
+        || pendingAssets.containsKey(key);
   }
 
   /**
@@ -210,14 +274,16 @@ public static void putAsset(Asset asset) {
       return;
     }
 
-    assetMap.put(asset.getId(), asset);
-
     // Invalid images are represented by empty assets.
     // Don't persist those
     if (asset.getImage().length > 0) {
       putInPersistentCache(asset);
     }
 
+    // After persisting it, so the memory cache sees that it can evict the asset
+    assetMap.put(asset.getId(), asset);
+    knownAssets.add(asset.getId());
+
     // Clear the waiting status
     assetLoader.completeRequest(asset.getId());
 
@@ -308,9 +374,98 @@ public static Asset getAsset(MD5Key id) {
       }
     }
 
+    if (asset == null) {
+      asset = getPendingAsset(id);
+    }
+
     return asset;
   }
 
+  /**
+   * Register assets that can be read from a campaign file when they are first needed, instead of
+   * when the campaign is loaded. Assets already available are skipped. Any assets pending from a
+   * previous campaign are forgotten.
+   *
+   * @param ids the MD5 sums of the assets
+   * @param source reads an asset from the campaign file, null if it can't
+   */
+  public static void setPendingAssets(Set<MD5Key> ids, Function<MD5Key, Asset> source) {
+    pendingAssets.clear();
+    for (MD5Key id : ids) {
+      if (id != null && !hasAsset(id)) {
+        pendingAssets.put(id, source);
+      }
+    }
+  }
+
+  /** Forget the pending assets of the last lazily loaded campaign. */
+  public static void clearPendingAssets() {
+    pendingAssets.clear();
+  }
+
+  /**
+   * Read every pending asset into the cache, so the campaign no longer depends on its file. Meant
+   * to be called from a background thread.
+   */
+  public static void loadPendingAssets() {
+    loadPendingAssets(null);
+  }
+
+  /**
+   * Same as {@link #loadPendingAssets()}, but the assets are read with the given function instead
+   * of the one they were registered with, for instance one using a file that is already open.
+   *
+   * @param source reads an asset from the campaign file, null to use the registered one
+   */
+  public static void loadPendingAssets(Function<MD5Key, Asset> source) {
+    int count = 0;
+    for (MD5Key id : new ArrayList<MD5Key>(pendingAssets.keySet())) {
+      if (getPendingAsset(id, source) != null) {
+        count++;
+      }
+    }
+    if (count > 0) {
+      log.debug("Loaded " + count + " pending campaign assets");
+    }
+  }
+
+  private static Asset getPendingAsset(MD5Key id) {
+    return getPendingAsset(id, null);
+  }
+
+  private static Asset getPendingAsset(MD5Key id, Function<MD5Key, Asset> reader) {
+    Function<MD5Key, Asset> source = pendingAssets.get(id);
+    if (source == null) {
+      return null;
+    }
+    // One read per asset, even when the renderer and the background loader ask at the same time
+    synchronized (source) {
+      if (!pendingAssets.containsKey(id)) {
+        return getAsset(id); // Someone else just read it
+      }
+      Asset asset = (reader != null ? reader : source).apply(id);
+      pendingAssets.remove(id);
+      if (asset != null) {
+        putAsset(asset);
+      }
+      return asset;
+    }
+  }
+
+  /**
+   * Change the memory budget of the asset cache.
+   *
+   * @param bytes the budget, in bytes
+   */
+  public static void setCacheSize(long bytes) {
+    assetMap.setMaxWeight(bytes);
+  }
+
+  /** @return the size and the hit, miss and eviction counts of the in memory asset cache */
+  public static String getCacheStatistics() {
+    return assetMap.toString();
+  }
+
   /**
    * Remove the asset from the asset cache.
    *
@@ -318,6 +473,7 @@ public static Asset getAsset(MD5Key id) {
    */
   public static void removeAsset(MD5Key id) {
     assetMap.remove(id);
+    knownAssets.remove(id);
   }
 
   /**
@@ -326,11 +482,12 @@ public static void removeAsset(MD5Key id) {
    * @param enable True to enable the cache, false to disable
    */
   public static void setUsePersistentCache(boolean enable) {
-    if (enable && cacheDir == null) {
-      throw new IllegalArgumentException("Could not enable persistent cache: no such directory");
+    if (enable && assetStore == null) {
+      throw new IllegalArgumentException("Could not enable persistent cache: no asset store");
     }
 
     usePersistentCache = enable;
+    assetMap.updateEvictable();
   }
 
   /**
@@ -380,19 +537,33 @@ private static Asset getFromPersistentCache(MD5Key id) {
       return null;
     }
 
-    File assetFile = getAssetCacheFile(id);
-
     try {
-      byte[] data = FileUtils.readFileToByteArray(assetFile);
-      Properties props = getAssetInfo(id);
-
-      Asset asset = new Asset(props.getProperty(NAME), data);
+      Asset asset = assetStore != null ? assetStore.get(id) : null;
+      boolean loose = false;
+      if (asset == null) {
+        // A loose file from before the packed store
+        byte[] data = FileUtils.readFileToByteArray(getAssetCacheFile(id));
+        Properties props = getAssetInfo(id);
+        asset = new Asset(props.getProperty(NAME), data);
+        loose = true;
+      }
 
       if (!asset.getId().equals(id)) {
         log.error("MD5 for asset " + asset.getName() + " corrupted");
+        if (assetStore != null && !loose) {
+          assetStore.remove(id);
+        }
+        return null;
+      }
+
+      if (loose && assetStore != null) {
+        // Move it over, and delete the loose files once it is safely in the store
+        putInPersistentCache(asset);
+        assetStore.afterWrite(id, () -> deleteLooseFiles(id));
       }
 
       assetMap.put(id, asset);
+      knownAssets.add(id);
 
       return asset;
     } catch (IOException ioe) {
@@ -401,6 +572,19 @@ private static Asset getFromPersistentCache(MD5Key id) {
     }
   }
 
+  /**
+   * Delete the files an asset was kept in before the packed store.
+   *
+   * @param id MD5 of the asset
+   */
+  private static void deleteLooseFiles(MD5Key id) {
+    for (File file : new File[] {getAssetCacheFile(id), getAssetInfoFile(id)}) {
+      if (file.exists() && !file.delete()) {
+        log.warn("Could not delete " + file + " after moving it to the asset store");
+      }
+    }
+  }
+
   /**
    * Create an asset from a file.
    *
@@ -441,6 +625,13 @@ public static Asset createAsset(URL url) throws IOException {
    */
   public static Properties getAssetInfo(MD5Key id) {
 
+    String name = assetStore != null ? assetStore.getName(id) : null;
+    if (name != null) {
+      Properties props = new Properties();
+      props.put(NAME, name);
+      return props;
+    }
+
     File infoFile = getAssetInfoFile(id);
     try {
 
@@ -466,47 +657,8 @@ private static void putInPersistentCache(final Asset asset) {
       return;
     }
 
-    if (!assetIsInPersistentCache(asset)) {
-
-      final File assetFile = getAssetCacheFile(asset);
-
-      new Thread() {
-        @Override
-        public void run() {
-
-          try {
-            assetFile.getParentFile().mkdirs();
-            // Image
-            OutputStream out = new FileOutputStream(assetFile);
-            out.write(asset.getImage());
-            out.close();
-          } catch (IOException ioe) {
-            log.error("Could not persist asset while writing image data", ioe);
-            return;
-          } catch (NullPointerException npe) {
-            // Not an issue, will update once th frame is finished loading...
-            log.warn("Could not update statusbar while MapTool frame is loading.", npe);
-          }
-        }
-      }.start();
-    }
-    if (!assetInfoIsInPersistentCache(asset)) {
-
-      File infoFile = getAssetInfoFile(asset);
-
-      try {
-        // Info
-        OutputStream out = new FileOutputStream(infoFile);
-        Properties props = new Properties();
-        props.put(NAME, asset.getName() != null ? asset.getName() : "");
-        props.store(out, "Asset Info");
-        out.close();
-
-      } catch (IOException ioe) {
-        log.error("Could not persist asset while writing image properties", ioe);
-        return;
-      }
-    }
+    // Queued for the store's writer thread, and readable from the store right away
+    assetStore.put(asset);
   }
 
   /**
@@ -586,35 +738,18 @@ private static boolean assetHasLocalReference(MD5Key id) {
     return getLocalReference(id) != null;
   }
 
-  /**
-   * Determine if the asset is in the persistent cache.
-   *
-   * @param asset Asset to search for
-   * @return True if asset is in the persistent cache, false otherwise
-   */
-  private static boolean assetIsInPersistentCache(Asset asset) {
-    return assetIsInPersistentCache(asset.getId());
-  }
-
-  /**
-   * The assets information is in the persistent cache.
-   *
-   * @param asset Asset to search for
-   * @return True if the assets information exists in the persistent cache
-   */
-  private static boolean assetInfoIsInPersistentCache(Asset asset) {
-    return getAssetInfoFile(asset.getId()).exists();
-  }
-
   /**
    * Determine if the asset is in the persistent cache.
    *
    * @param id MD5 sum of the asset
    * @return True if asset is in the persistent cache, false otherwise
-   * @see this#assetIsInPersistentCache(Asset)
    */
   private static boolean assetIsInPersistentCache(MD5Key id) {
 
+    if (assetStore != null && assetStore.contains(id)) {
+      return true;
+    }
+    // Loose files from before the packed store
     return getAssetCacheFile(id).exists() && getAssetCacheFile(id).length() > 0;
   }
 
@@ -639,22 +774,11 @@ public static File getAssetCacheFile(MD5Key id) {
     return new File(cacheDir.getAbsolutePath() + File.separator + id);
   }
 
-  /**
-   * Return the asset info file, if any
-   *
-   * @param asset Asset to search for
-   * @return The assets info file, or null if it doesn't have one
-   */
-  private static File getAssetInfoFile(Asset asset) {
-    return getAssetInfoFile(asset.getId());
-  }
-
   /**
    * Return the asset info file, if any
    *
    * @param id MD5 sum of the asset
    * @return File - The assets info file, or null if it doesn't have one
-   * @see this@getAssetInfoFile(Asset asset)
    */
   private static File getAssetInfoFile(MD5Key id) {
     return new File(cacheDir.getAbsolutePath() + File.separator + id + ".info");
@@ -761,10 +885,15 @@ public static Map<MD5Key, Asset> findAllAssetsNotInRepositories(List<String> rep
      * copied. If both were the same data type, converting both to Set<String> would allow for an addAll() and removeAll() and be done with it!
      */
     Map<MD5Key, Asset> missing =
-        new HashMap<MD5Key, Asset>(Math.min(assetMap.size(), aggregate.size()));
-    for (MD5Key key : assetMap.keySet()) {
-      if (aggregate.contains(key) == false) // Not in any repository so add it.
-      missing.put(key, assetMap.get(key));
+        new HashMap<MD5Key, Asset>(Math.min(knownAssets.size(), aggregate.size()));
+    for (MD5Key key : knownAssets) {
+      if (aggregate.contains(key) == false) { // Not in any repository so add it.
+        // Evicted assets are read back from the persistent cache
+        Asset asset = getAsset(key);
+        if (asset != null) {
+          missing.put(key, asset);
+        }
+      }
     }
     return missing;
   }
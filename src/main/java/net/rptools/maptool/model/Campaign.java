@@ -25,6 +25,7 @@
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.function.Function;
 import net.rptools.lib.MD5Key;
 import net.rptools.lib.net.Location;
 import net.rptools.maptool.client.MapTool;
@@ -52,9 +53,11 @@ public class Campaign {
 
   private GUID id = new GUID();
 
-  /** The {@link Zone}s that make up this {@code Campaign}. */
-  private final Map<GUID, Zone> zones =
-      Collections.synchronizedMap(new LinkedHashMap<GUID, Zone>());
+  /**
+   * The {@link Zone}s that make up this {@code Campaign}. Campaign files store the zones in their
+   * own entries, so this is null after reading the campaign until {@link #readResolve()} runs.
+   */
+  private Map<GUID, Zone> zones = Collections.synchronizedMap(new LinkedHashMap<GUID, Zone>());
 
   private String name; // the name of the campaign, to be displayed in the MapToolFrame title bar
 
@@ -154,6 +157,17 @@ public List<String> getRemoteRepositoryList() {
    * @param campaign The campaign to copy from.
    */
   public Campaign(Campaign campaign) {
+    this(campaign, zone -> new Zone(zone, true));
+  }
+
+  /**
+   * Copy the campaign, with the zones copied by the given function. Lets a caller that keeps copies
+   * of the zones, like autosave, reuse the ones that are still current.
+   *
+   * @param campaign the campaign to copy
+   * @param zoneCopier returns a copy of the zone, with the same ids
+   */
+  public Campaign(Campaign campaign, Function<Zone, Zone> zoneCopier) {
     name = campaign.getName();
 
     /*
@@ -167,7 +181,7 @@ public Campaign(Campaign campaign) {
       zonesToCopy = new LinkedHashMap<>(campaign.zones);
     }
     for (Entry<GUID, Zone> entry : zonesToCopy.entrySet()) {
-      Zone copy = new Zone(entry.getValue(), true);
+      Zone copy = zoneCopier.apply(entry.getValue());
       zones.put(copy.getId(), copy);
     }
     campaignProperties = new CampaignProperties(campaign.campaignProperties);
@@ -177,6 +191,32 @@ public Campaign(Campaign campaign) {
         new ArrayList<MacroButtonProperties>(campaign.getGmMacroButtonPropertiesArray());
   }
 
+  /**
+   * Returns a campaign with the same id, name, properties and macros as this one, but no zones. The
+   * fields are shared with this campaign, not copied. The server sends it to a joining client ahead
+   * of the zones.
+   *
+   * @return the campaign without its zones
+   */
+  public Campaign copyWithoutZones() {
+    Campaign copy = new Campaign();
+    copy.id = id;
+    copy.name = name;
+    copy.exportLocation = exportLocation;
+    copy.exportSettings = exportSettings;
+    copy.campaignProperties = campaignProperties;
+    copy.macroButtonProperties = macroButtonProperties;
+    copy.macroButtonLastIndex = macroButtonLastIndex;
+    copy.gmMacroButtonLastIndex = gmMacroButtonLastIndex;
+    copy.gmMacroButtonProperties = gmMacroButtonProperties;
+    copy.tokenTypeMap = tokenTypeMap;
+    copy.remoteRepositoryList = remoteRepositoryList;
+    copy.lightSourcesMap = lightSourcesMap;
+    copy.lookupTableMap = lookupTableMap;
+    copy.hasUsedFogToolbar = hasUsedFogToolbar;
+    return copy;
+  }
+
   public GUID getId() {
     return id;
   }
@@ -232,6 +272,18 @@ public List<TokenProperty> getTokenPropertyList(String tokenType) {
         : new ArrayList<TokenProperty>();
   }
 
+  /**
+   * Finds a token property of a type by name, ignoring case.
+   *
+   * @param tokenType the property type
+   * @param name the name of the property
+   * @return the property, or <code>null</code> if the type has no such property
+   */
+  public TokenProperty getTokenProperty(String tokenType, String name) {
+    checkCampaignPropertyConversion(); // TODO: Remove, for compatibility 1.3b19-1.3b20
+    return campaignProperties.getTokenProperty(tokenType, name);
+  }
+
   public void putTokenType(String name, List<TokenProperty> propertyList) {
     getTokenTypeMap().put(name, propertyList);
   }
@@ -681,4 +733,17 @@ public CampaignExportDialog getExportCampaignDialog() {
   public void setExportCampaignDialog(CampaignExportDialog d) {
     campaignExportDialog = d;
   }
+
+  /**
+   * Campaign files written since the zones got their own entries have no zones in the campaign
+   * XML; start those out empty, the zones are put in afterwards.
+   *
+   * @return this
+   */
+  private Object readResolve() {
+    if (zones == null) {
+      zones = Collections.synchronizedMap(new LinkedHashMap<GUID, Zone>());
+    }
+    return this;
+  }
 }
@@ -60,6 +60,9 @@ public class CampaignProperties {
   private Map<String, BarTokenOverlay> tokenBars;
   private Map<String, String> characterSheets;
 
+  /** The token properties of each type by lower case name, see {@link #getTokenProperty}. */
+  private transient Map<String, TokenPropertyIndex> tokenPropertyIndex;
+
   /** Flag indicating that owners have special permissions */
   private boolean initiativeOwnerPermissions = AppPreferences.getInitOwnerPermissions();
 
@@ -182,6 +185,53 @@ public List<TokenProperty> getTokenPropertyList(String tokenType) {
     return getTokenTypeMap().get(tokenType);
   }
 
+  /**
+   * Finds a token property by name without scanning the property list. The index of a type is
+   * rebuilt whenever its list is replaced or changes size.
+   *
+   * @param tokenType the property type
+   * @param name the name of the property, in any case
+   * @return the first property of the type with that name, or <code>null</code>
+   */
+  public synchronized TokenProperty getTokenProperty(String tokenType, String name) {
+    List<TokenProperty> propertyList = getTokenPropertyList(tokenType);
+    if (propertyList == null) {
+      return null;
+    }
+    if (tokenPropertyIndex == null) {
+      tokenPropertyIndex = new HashMap<String, TokenPropertyIndex>();
+    }
+    TokenPropertyIndex index = tokenPropertyIndex.get(tokenType);
+    if (index == null || !index.isCurrent(propertyList)) {
+      index = new TokenPropertyIndex(propertyList);
+      tokenPropertyIndex.put(tokenType, index);
+    }
+    return index.get(name);
+  }
+
+  /** The properties of one type, by lower case name. */
+  private static class TokenPropertyIndex {
+    private final List<TokenProperty> propertyList;
+    private final int size;
+    private final Map<String, TokenProperty> byName = new HashMap<String, TokenProperty>();
+
+    TokenPropertyIndex(List<TokenProperty> propertyList) {
+      this.propertyList = propertyList;
+      this.size = propertyList.size();
+      for (TokenProperty property : propertyList) {
+        byName.putIfAbsent(property.getName().toLowerCase(), property);
+      }
+    }
+
+    boolean isCurrent(List<TokenProperty> list) {
+      return list == propertyList && list.size() == size;
+    }
+
+    TokenProperty get(String name) {
+      return byName.get(name.toLowerCase());
+    }
+  }
+
   public List<String> getRemoteRepositoryList() {
     if (remoteRepositoryList == null) {
       initRemoteRepositoryList();
@@ -15,12 +15,19 @@
 package net.rptools.maptool.model;
 
 import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
 
-/** Stores the exposed area of a token. */
+/**
+ * Stores the exposed area of a token, either as an {@link Area} or, on maps using {@link
+ * Zone.ExposureModel#RASTER}, as an {@link ExposureMask}.
+ */
 public class ExposedAreaMetaData {
   /** Area exposed so far. */
   private Area exposedAreaHistory;
 
+  /** The exposed samples for the raster model, <code>null</code> for the area model. */
+  private ExposureMask exposureMask;
+
   public ExposedAreaMetaData() {
     exposedAreaHistory = new Area();
   }
@@ -29,26 +36,89 @@ public ExposedAreaMetaData(Area area) {
     exposedAreaHistory = new Area(area);
   }
 
+  /** @param mask the exposed samples, which are used as is */
+  public ExposedAreaMetaData(ExposureMask mask) {
+    exposedAreaHistory = new Area();
+    exposureMask = mask;
+  }
+
+  /**
+   * Returns the exposed area. For the raster model this is the area covered by the exposed samples,
+   * which must not be modified.
+   *
+   * @return the exposed area
+   */
   public Area getExposedAreaHistory() {
     // if (exposedAreaHistory == null) {
     // exposedAreaHistory = new Area();
     // }
+    if (exposureMask != null) {
+      return exposureMask.toArea();
+    }
     return exposedAreaHistory;
   }
 
+  /** @return the exposed samples, or <code>null</code> when the area model is used */
+  public ExposureMask getExposureMask() {
+    return exposureMask;
+  }
+
   public void addToExposedAreaHistory(Area newArea) {
     if (newArea != null && !newArea.isEmpty()) {
-      exposedAreaHistory.add(newArea);
+      if (exposureMask != null) {
+        exposureMask.add(newArea);
+      } else {
+        exposedAreaHistory.add(newArea);
+      }
     }
   }
 
   public void removeExposedAreaHistory(Area newArea) {
     if (newArea != null && !newArea.isEmpty()) {
-      exposedAreaHistory.subtract(newArea);
+      if (exposureMask != null) {
+        exposureMask.subtract(newArea);
+      } else {
+        exposedAreaHistory.subtract(newArea);
+      }
     }
   }
 
   public void clearExposedAreaHistory() {
     exposedAreaHistory = new Area();
+    if (exposureMask != null) {
+      exposureMask.clear();
+    }
+  }
+
+  /**
+   * @param x the x coordinate, in zone pixels
+   * @param y the y coordinate, in zone pixels
+   * @return true if the point is exposed
+   */
+  public boolean contains(double x, double y) {
+    return exposureMask != null ? exposureMask.contains(x, y) : exposedAreaHistory.contains(x, y);
+  }
+
+  /**
+   * @param rect the rectangle to test, in zone coordinates
+   * @return true if part of the rectangle is exposed
+   */
+  public boolean intersects(Rectangle2D rect) {
+    return exposureMask != null
+        ? exposureMask.intersects(rect)
+        : exposedAreaHistory.intersects(rect);
+  }
+
+  /**
+   * @param area the area to test, in zone coordinates
+   * @return true if part of the area is exposed
+   */
+  public boolean intersects(Area area) {
+    if (exposureMask != null) {
+      return exposureMask.intersects(area);
+    }
+    Area intersection = new Area(exposedAreaHistory);
+    intersection.intersect(area);
+    return !intersection.isEmpty();
   }
 }
@@ -0,0 +1,454 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.awt.Shape;
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The exposed part of a map stored as a sparse bitmap, as an alternative to accumulating an ever
+ * growing {@link Area}.
+ *
+ * <p>The map is divided in square samples of {@link #getResolution()} zone pixels. A sample is
+ * exposed when its center is inside an exposed shape. The samples are grouped in tiles of 64 by
+ * 64, one <code>long</code> per row, and only the tiles with at least one exposed sample are kept.
+ * Adding, removing and testing shapes only looks at the tiles they touch, whatever the exposure
+ * history.
+ *
+ * <p>{@link #toArea()} turns the samples back into an {@link Area} for drawing the fog; the result
+ * is cached until the mask changes.
+ */
+public class ExposureMask {
+  private static final int TILE_SHIFT = 6;
+  private static final int TILE_SIZE = 1 << TILE_SHIFT;
+  private static final int TILE_MASK = TILE_SIZE - 1;
+
+  /**
+   * How far the flattened curves may be from the shape, in zone pixels. Kept well under a sample so
+   * only centers right on a curved edge may come out differently.
+   */
+  private static final double FLATNESS = 0.1;
+
+  /** The width and height of a sample, in zone pixels. */
+  private int resolution;
+
+  /** The tiles with exposed samples, keyed on the packed tile coordinates. */
+  private Map<Long, long[]> tiles = new HashMap<Long, long[]>();
+
+  /** The cached result of {@link #toArea()}. */
+  private transient Area area;
+
+  /** For serialization. */
+  private ExposureMask() {}
+
+  /** @param resolution the width and height of a sample, in zone pixels */
+  public ExposureMask(int resolution) {
+    if (resolution <= 0) {
+      throw new IllegalArgumentException("resolution must be positive: " + resolution);
+    }
+    this.resolution = resolution;
+  }
+
+  /** @param mask the mask to copy */
+  public ExposureMask(ExposureMask mask) {
+    this.resolution = mask.resolution;
+    for (Map.Entry<Long, long[]> entry : mask.tiles.entrySet()) {
+      tiles.put(entry.getKey(), entry.getValue().clone());
+    }
+    this.area = mask.area;
+  }
+
+  /** @return the width and height of a sample, in zone pixels */
+  public int getResolution() {
+    return resolution;
+  }
+
+  /** @return the number of tiles holding exposed samples */
+  public int getTileCount() {
+    return tiles.size();
+  }
+
+  /** @return true if nothing is exposed */
+  public boolean isEmpty() {
+    return tiles.isEmpty();
+  }
+
+  /** Hides everything. */
+  public void clear() {
+    tiles.clear();
+    area = null;
+  }
+
+  /**
+   * Exposes the samples whose center is inside the shape.
+   *
+   * @param shape the shape to expose, in zone coordinates
+   */
+  public void add(Shape shape) {
+    if (shape != null) {
+      scan(shape, (row, from, to) -> setSpan(row, from, to, true));
+    }
+  }
+
+  /**
+   * Hides the samples whose center is inside the shape.
+   *
+   * @param shape the shape to hide, in zone coordinates
+   */
+  public void subtract(Shape shape) {
+    if (shape != null && !tiles.isEmpty()) {
+      scan(shape, (row, from, to) -> setSpan(row, from, to, false));
+    }
+  }
+
+  /**
+   * Exposes everything exposed in the other mask. This is a plain union of the tiles when both
+   * masks use the same resolution.
+   *
+   * @param mask the mask to add
+   */
+  public void add(ExposureMask mask) {
+    if (mask.resolution != resolution) {
+      add(mask.toArea());
+      return;
+    }
+    for (Map.Entry<Long, long[]> entry : mask.tiles.entrySet()) {
+      long[] tile = tiles.get(entry.getKey());
+      if (tile == null) {
+        tiles.put(entry.getKey(), entry.getValue().clone());
+      } else {
+        long[] other = entry.getValue();
+        for (int i = 0; i < TILE_SIZE; i++) {
+          tile[i] |= other[i];
+        }
+      }
+    }
+    area = null;
+  }
+
+  /**
+   * @param x the x coordinate, in zone pixels
+   * @param y the y coordinate, in zone pixels
+   * @return true if the sample holding the point is exposed
+   */
+  public boolean contains(double x, double y) {
+    return isSet((int) Math.floor(x / resolution), (int) Math.floor(y / resolution));
+  }
+
+  /**
+   * @param rect the rectangle to test, in zone coordinates
+   * @return true if an exposed sample overlaps the rectangle
+   */
+  public boolean intersects(Rectangle2D rect) {
+    if (rect.isEmpty() || tiles.isEmpty()) {
+      return false;
+    }
+    int fromX = (int) Math.floor(rect.getMinX() / resolution);
+    int toX = (int) Math.ceil(rect.getMaxX() / resolution);
+    int fromY = (int) Math.floor(rect.getMinY() / resolution);
+    int toY = (int) Math.ceil(rect.getMaxY() / resolution);
+    for (int row = fromY; row < toY; row++) {
+      if (testSpan(row, fromX, toX)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param shape the shape to test, in zone coordinates
+   * @return true if an exposed sample has its center inside the shape
+   */
+  public boolean intersects(Shape shape) {
+    if (tiles.isEmpty()) {
+      return false;
+    }
+    return !scan(shape, (row, from, to) -> !testSpan(row, from, to));
+  }
+
+  /**
+   * Returns the exposed samples as an area. The result is cached and must not be modified.
+   *
+   * @return the exposed area
+   */
+  public Area toArea() {
+    if (area == null) {
+      Path2D path = new Path2D.Double(Path2D.WIND_NON_ZERO);
+      for (Map.Entry<Long, long[]> entry : tiles.entrySet()) {
+        long key = entry.getKey();
+        int tileX = (int) (key >> 32) << TILE_SHIFT;
+        int tileY = (int) key << TILE_SHIFT;
+        long[] tile = entry.getValue();
+        int row = 0;
+        while (row < TILE_SIZE) {
+          // Rows with the same samples become one band of rectangles
+          int end = row + 1;
+          while (end < TILE_SIZE && tile[end] == tile[row]) {
+            end++;
+          }
+          long bits = tile[row];
+          while (bits != 0) {
+            int start = Long.numberOfTrailingZeros(bits);
+            long gaps = ~bits & (-1L << start);
+            int stop = gaps == 0 ? TILE_SIZE : Long.numberOfTrailingZeros(gaps);
+            appendRectangle(path, tileX + start, tileY + row, stop - start, end - row);
+            bits = stop == TILE_SIZE ? 0 : bits & (-1L << stop);
+          }
+          row = end;
+        }
+      }
+      area = new Area(path);
+    }
+    return area;
+  }
+
+  private void appendRectangle(Path2D path, int x, int y, int width, int height) {
+    double x0 = (double) x * resolution;
+    double y0 = (double) y * resolution;
+    double x1 = (double) (x + width) * resolution;
+    double y1 = (double) (y + height) * resolution;
+    path.moveTo(x0, y0);
+    path.lineTo(x1, y0);
+    path.lineTo(x1, y1);
+    path.lineTo(x0, y1);
+    path.closePath();
+  }
+
+  private boolean isSet(int column, int row) {
+    long[] tile = tiles.get(key(column >> TILE_SHIFT, row >> TILE_SHIFT));
+    return tile != null && (tile[row & TILE_MASK] & (1L << (column & TILE_MASK))) != 0;
+  }
+
+  /** Sets or clears the samples from column <code>from</code> to <code>to</code>, exclusive. */
+  private boolean setSpan(int row, int from, int to, boolean value) {
+    int tileY = row >> TILE_SHIFT;
+    int index = row & TILE_MASK;
+    for (int tileX = from >> TILE_SHIFT; tileX <= (to - 1) >> TILE_SHIFT; tileX++) {
+      long bits = bits(tileX, from, to);
+      Long key = key(tileX, tileY);
+      long[] tile = tiles.get(key);
+      if (value) {
+        if (tile == null) {
+          tile = new long[TILE_SIZE];
+          tiles.put(key, tile);
+        }
+        tile[index] |= bits;
+      } else if (tile != null && (tile[index] & bits) != 0) {
+        tile[index] &= ~bits;
+        if (tile[index] == 0 && isEmpty(tile)) {
+          tiles.remove(key);
+        }
+      }
+    }
+    area = null;
+    return true;
+  }
+
+  /** @return true if a sample from column <code>from</code> to <code>to</code> is set */
+  private boolean testSpan(int row, int from, int to) {
+    int tileY = row >> TILE_SHIFT;
+    int index = row & TILE_MASK;
+    for (int tileX = from >> TILE_SHIFT; tileX <= (to - 1) >> TILE_SHIFT; tileX++) {
+      long[] tile = tiles.get(key(tileX, tileY));
+      if (tile != null && (tile[index] & bits(tileX, from, to)) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** @return the bits of the tile covering the columns <code>from</code> to <code>to</code> */
+  private static long bits(int tileX, int from, int to) {
+    int origin = tileX << TILE_SHIFT;
+    int start = Math.max(from - origin, 0);
+    int end = Math.min(to - origin, TILE_SIZE);
+    long bits = end - start == TILE_SIZE ? -1L : (1L << (end - start)) - 1;
+    return bits << start;
+  }
+
+  private static boolean isEmpty(long[] tile) {
+    for (long row : tile) {
+      if (row != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static Long key(int tileX, int tileY) {
+    return ((long) tileX << 32) | (tileY & 0xFFFFFFFFL);
+  }
+
+  /** Receives the runs of samples whose centers are inside a shape. */
+  private interface SpanVisitor {
+    /** @return false to stop the scan */
+    boolean visit(int row, int from, int to);
+  }
+
+  /**
+   * Scan converts the shape, calling the visitor for each run of samples whose center is inside
+   * the shape.
+   *
+   * @return false if the visitor stopped the scan
+   */
+  private boolean scan(Shape shape, SpanVisitor visitor) {
+    EdgeList edges = new EdgeList();
+    PathIterator iter = shape.getPathIterator(null, FLATNESS);
+    boolean evenOdd = iter.getWindingRule() == PathIterator.WIND_EVEN_ODD;
+    double[] coords = new double[6];
+    double moveX = 0, moveY = 0, lastX = 0, lastY = 0;
+    for (; !iter.isDone(); iter.next()) {
+      switch (iter.currentSegment(coords)) {
+        case PathIterator.SEG_MOVETO:
+          edges.add(lastX, lastY, moveX, moveY);
+          moveX = lastX = coords[0];
+          moveY = lastY = coords[1];
+          break;
+        case PathIterator.SEG_LINETO:
+          edges.add(lastX, lastY, coords[0], coords[1]);
+          lastX = coords[0];
+          lastY = coords[1];
+          break;
+        case PathIterator.SEG_CLOSE:
+          edges.add(lastX, lastY, moveX, moveY);
+          lastX = moveX;
+          lastY = moveY;
+          break;
+      }
+    }
+    edges.add(lastX, lastY, moveX, moveY);
+    if (edges.count == 0) {
+      return true;
+    }
+
+    Integer[] order = new Integer[edges.count];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Integer.compare(edges.firstRow[a], edges.firstRow[b]));
+
+    int[] active = new int[edges.count];
+    double[] crossings = new double[edges.count];
+    int[] directions = new int[edges.count];
+    int activeCount = 0;
+    int next = 0;
+    int row = edges.firstRow[order[0]];
+    while (next < order.length || activeCount > 0) {
+      if (activeCount == 0 && edges.firstRow[order[next]] > row) {
+        row = edges.firstRow[order[next]];
+      }
+      while (next < order.length && edges.firstRow[order[next]] == row) {
+        active[activeCount++] = order[next++];
+      }
+
+      // Find where the row center crosses the active edges, sorted on x
+      double centerY = (row + 0.5) * resolution;
+      for (int i = 0; i < activeCount; i++) {
+        int edge = active[i];
+        double x = edges.x[edge] + (centerY - edges.y[edge]) * edges.slope[edge];
+        int j = i;
+        while (j > 0 && crossings[j - 1] > x) {
+          crossings[j] = crossings[j - 1];
+          directions[j] = directions[j - 1];
+          j--;
+        }
+        crossings[j] = x;
+        directions[j] = edges.direction[edge];
+      }
+
+      int winding = 0;
+      int from = 0;
+      for (int i = 0; i < activeCount; i++) {
+        boolean wasInside = evenOdd ? (winding & 1) != 0 : winding != 0;
+        winding += directions[i];
+        boolean inside = evenOdd ? (winding & 1) != 0 : winding != 0;
+        if (!wasInside && inside) {
+          from = (int) Math.ceil(crossings[i] / resolution - 0.5);
+        } else if (wasInside && !inside) {
+          int to = (int) Math.ceil(crossings[i] / resolution - 0.5);
+          if (from < to && !visitor.visit(row, from, to)) {
+            return false;
+          }
+        }
+      }
+
+      // Drop the edges ending on this row
+      int kept = 0;
+      for (int i = 0; i < activeCount; i++) {
+        if (edges.lastRow[active[i]] > row) {
+          active[kept++] = active[i];
+        }
+      }
+      activeCount = kept;
+      row++;
+    }
+    return true;
+  }
+
+  /** The non horizontal edges of a flattened shape, with the sample rows they cross. */
+  private class EdgeList {
+    private int count;
+    private double[] x = new double[16];
+    private double[] y = new double[16];
+    private double[] slope = new double[16];
+    private int[] direction = new int[16];
+    private int[] firstRow = new int[16];
+    private int[] lastRow = new int[16];
+
+    private void add(double x0, double y0, double x1, double y1) {
+      if (y0 == y1) {
+        return;
+      }
+      int dir = 1;
+      if (y0 > y1) {
+        double t = x0;
+        x0 = x1;
+        x1 = t;
+        t = y0;
+        y0 = y1;
+        y1 = t;
+        dir = -1;
+      }
+      // The rows whose center is in [y0, y1)
+      int first = (int) Math.ceil(y0 / resolution - 0.5);
+      int last = (int) Math.ceil(y1 / resolution - 0.5) - 1;
+      if (first > last) {
+        return;
+      }
+      if (count == x.length) {
+        int length = count * 2;
+        x = Arrays.copyOf(x, length);
+        y = Arrays.copyOf(y, length);
+        slope = Arrays.copyOf(slope, length);
+        direction = Arrays.copyOf(direction, length);
+        firstRow = Arrays.copyOf(firstRow, length);
+        lastRow = Arrays.copyOf(lastRow, length);
+      }
+      x[count] = x0;
+      y[count] = y0;
+      slope[count] = (x1 - x0) / (y1 - y0);
+      direction[count] = dir;
+      firstRow[count] = first;
+      lastRow[count] = last;
+      count++;
+    }
+  }
+}
@@ -15,6 +15,7 @@
 package net.rptools.maptool.model;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
 import java.awt.Point;
@@ -27,10 +28,15 @@
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import javax.swing.Action;
 import javax.swing.KeyStroke;
@@ -68,7 +74,23 @@ public abstract class Grid implements Cloneable {
 
   private static final Dimension NO_DIM = new Dimension();
   private static final DirectionCalculator calculator = new DirectionCalculator();
-  private static Map<Integer, Area> gridShapeCache = new ConcurrentHashMap<>();
+  /** Radii of the grid areas made ahead of time for each grid layout, in cells. */
+  private static final int[] COMMON_GRID_RADII = {1, 2, 3, 4, 5, 6, 8, 10, 12};
+
+  /** The grid areas by grid layout and radius, see {@link #getGridAreaFromCache(int)}. */
+  private static final Map<GridAreaKey, Area> gridAreaCache = new ConcurrentHashMap<>();
+  /**
+   * The grid areas around token footprints, see {@link #getScaledGridArea(Token, int)}. There are
+   * only a few footprints and radii in use, so this stays small.
+   */
+  private static final Map<ScaledGridAreaKey, Area> scaledGridAreaCache = new ConcurrentHashMap<>();
+  /** The grid layouts whose common radii have been queued, keyed with a radius of 0. */
+  private static final Set<GridAreaKey> precomputedLayouts = ConcurrentHashMap.newKeySet();
+
+  private static final ExecutorService gridAreaExecutor =
+      Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder().setNameFormat("grid-area-%d").setDaemon(true).build());
+
   protected Map<KeyStroke, Action> movementKeys = null;
   private int offsetX = 0;
   private int offsetY = 0;
@@ -85,25 +107,6 @@ public Grid(Grid grid) {
     setOffset(grid.offsetX, grid.offsetY);
   }
 
-  protected synchronized Map<Integer, Area> getGridShapeCache() {
-    return gridShapeCache;
-  }
-
-  protected synchronized void setGridShapeCache(int gridRadius, Area newGridArea) {
-    final AffineTransform at = new AffineTransform();
-    final double gridScale = (double) MAX_GRID_SIZE / getSize();
-    at.scale(gridScale, gridScale);
-
-    getGridShapeCache().put(Integer.valueOf(gridRadius), newGridArea.createTransformedArea(at));
-
-    // Verify combined Area is a single union of polygons
-    if (!newGridArea.isSingular()) {
-      log.warn(
-          "gridShape {} is not singular, this is unexpected and could affect performance.",
-          gridRadius);
-    }
-  }
-
   public void drawCoordinatesOverlay(Graphics2D g, ZoneRenderer renderer) {
     // Do nothing -- my default
   }
@@ -494,7 +497,9 @@ protected Area createHex(double x, double y, double radius, double rotation) {
 
   private void fireGridChanged() {
     if (zone != null) {
-      gridShapeCache.clear();
+      gridAreaCache.clear();
+      scaledGridAreaCache.clear();
+      precomputedLayouts.clear();
       zone.fireModelChangeEvent(new ModelChangeEvent(this, Event.GRID_CHANGED));
     }
   }
@@ -783,19 +788,33 @@ protected Area getGridArea(
   protected Area getScaledGridArea(Token token, int gridRadius) {
     final double offsetX = token.getX() + token.getFootprint(this).getBounds(this).getWidth() / 2;
     final double offsetY = token.getY() + token.getFootprint(this).getBounds(this).getHeight() / 2;
-    final Area gridArea = getGridAreaFromCache(gridRadius);
-    Area occupiedArea = new Area();
 
+    // The area is traced once per footprint shape and radius, around the cell of the token
+    final CellPoint center = convert(new ZonePoint(token.getX(), token.getY()));
+    final Set<Point> footprint = new HashSet<>();
     for (CellPoint occupiedCell : token.getOccupiedCells(this)) {
-      final double x = (occupiedCell.x * getSize()) - offsetX;
-      final double y = (occupiedCell.y * getSize()) - offsetY;
-      final AffineTransform at = new AffineTransform();
-      at.translate(x, y);
-
-      occupiedArea.add(gridArea.createTransformedArea(at));
+      footprint.add(new Point(occupiedCell.x - center.x, occupiedCell.y - center.y));
+    }
+    final ScaledGridAreaKey key = new ScaledGridAreaKey(getGridAreaKey(gridRadius), footprint);
+    Area gridArea = scaledGridAreaCache.get(key);
+    if (gridArea == null) {
+      final HashSet<Point> points = generateRadius(gridRadius);
+      final Set<Point> cells = new HashSet<>();
+      for (Point cell : footprint) {
+        for (Point point : points) {
+          cells.add(new Point(cell.x + point.x, cell.y + point.y));
+        }
+      }
+      gridArea = traceCells(cells);
+      // Don't cache an area made while the grid was being changed
+      if (key.layout.equals(getGridAreaKey(gridRadius))) {
+        scaledGridAreaCache.put(key, gridArea);
+      }
     }
 
-    return occupiedArea;
+    final AffineTransform at = new AffineTransform();
+    at.translate(center.x * getSize() - offsetX, center.y * getSize() - offsetY);
+    return gridArea.createTransformedArea(at);
   }
 
   /**
@@ -817,26 +836,34 @@ protected AffineTransform getGridOffset(Token token) {
   }
 
   /**
-   * Generates an Area that conforms to the current grid cells to the specified radius and caches
-   * the results
+   * Generates an Area that conforms to the current grid cells to the specified radius. Use {@link
+   * #getGridAreaFromCache(int)} to get a cached copy instead.
    *
-   * @param gridRadius radius of the Area measured using ONE_TWO_ONE metric
+   * @param gridRadius radius of the Area measured using the current metric
    * @return the {@link Area} conforming to the current grid layout for the given radius
    */
   protected Area createGridArea(int gridRadius) {
-    final Area cellArea = new Area(createCellShape(getSize()));
-    final HashSet<Point> points = generateRadius(gridRadius);
-    Area gridArea = new Area();
+    return traceCells(generateRadius(gridRadius));
+  }
+
+  /**
+   * Returns the outline of a set of cells, with cell (x, y) at (x * size, y * size). The outline is
+   * traced from the cell edges rather than by adding up the cell areas, see {@link GridOutline}.
+   *
+   * @param cells the cells to outline
+   * @return the {@link Area} covered by the cells
+   */
+  protected Area traceCells(Collection<Point> cells) {
+    final Area cellArea = createCellShape(getSize());
+    final GridOutline outline = new GridOutline();
 
-    for (Point point : points) {
+    for (Point point : cells) {
       final AffineTransform at = new AffineTransform();
-      at.translate((point.x) * getSize(), (point.y) * getSize());
-      gridArea.add(cellArea.createTransformedArea(at));
+      at.translate(point.x * getSize(), point.y * getSize());
+      outline.add(cellArea, at);
     }
 
-    setGridShapeCache(gridRadius, gridArea);
-
-    return gridArea;
+    return outline.toArea();
   }
 
   /**
@@ -899,23 +926,139 @@ protected WalkerMetric getCurrentMetric() {
 
   /**
    * Retrieve the generated grid conformed {@link Area} from cache if it exists, otherwise generate,
-   * store, and return it.
+   * store, and return it. Areas are cached per grid type, size, offset, metric and radius, and the
+   * first use of a grid layout makes the areas of the common radii in the background.
    *
    * @param gridRadius The radius of the {@link Area} to retrieve from cache.
-   * @return the {@link Area} from cache for the given gridRadius
+   * @return a copy of the {@link Area} from cache for the given gridRadius
    */
   protected Area getGridAreaFromCache(int gridRadius) {
+    final GridAreaKey key = getGridAreaKey(gridRadius);
+    Area gridArea = gridAreaCache.get(key);
+
     // If not already in cache, create and cache it
     // Or if debug is enabled recreate cache
-    if (log.isDebugEnabled() || !getGridShapeCache().containsKey(Integer.valueOf(gridRadius))) {
-      createGridArea(gridRadius);
+    if (gridArea == null || log.isDebugEnabled()) {
+      gridArea = cacheGridArea(key);
     }
+    precomputeGridAreas(key);
 
-    double rescale = getSize() / (double) MAX_GRID_SIZE;
-    final AffineTransform at = new AffineTransform();
-    at.scale(rescale, rescale);
+    return new Area(gridArea);
+  }
 
-    return getGridShapeCache().get(Integer.valueOf(gridRadius)).createTransformedArea(at);
+  private GridAreaKey getGridAreaKey(int gridRadius) {
+    return new GridAreaKey(
+        getClass(), getSize(), getOffsetX(), getOffsetY(), getCurrentMetric(), gridRadius);
+  }
+
+  private Area cacheGridArea(GridAreaKey key) {
+    final Area gridArea = createGridArea(key.radius);
+
+    // Verify combined Area is a single union of polygons
+    if (!gridArea.isSingular()) {
+      log.warn(
+          "gridShape {} is not singular, this is unexpected and could affect performance.",
+          key.radius);
+    }
+
+    // Don't cache an area made while the grid was being changed
+    if (key.equals(getGridAreaKey(key.radius))) {
+      gridAreaCache.put(key, gridArea);
+    }
+    return gridArea;
+  }
+
+  private void precomputeGridAreas(GridAreaKey key) {
+    if (!precomputedLayouts.add(key.withRadius(0))) {
+      return;
+    }
+    gridAreaExecutor.execute(
+        () -> {
+          for (int radius : COMMON_GRID_RADII) {
+            final GridAreaKey common = key.withRadius(radius);
+            if (gridAreaCache.containsKey(common) || !common.equals(getGridAreaKey(radius))) {
+              continue;
+            }
+            try {
+              cacheGridArea(common);
+            } catch (RuntimeException e) {
+              log.warn("Could not make the grid area of radius {}", radius, e);
+            }
+          }
+        });
+  }
+
+  /** The layout of a grid and a radius, which together determine a grid area. */
+  private static final class GridAreaKey {
+    private final Class<? extends Grid> type;
+    private final int size;
+    private final int offsetX;
+    private final int offsetY;
+    private final WalkerMetric metric;
+    private final int radius;
+
+    private GridAreaKey(
+        Class<? extends Grid> type,
+        int size,
+        int offsetX,
+        int offsetY,
+        WalkerMetric metric,
+        int radius) {
+      this.type = type;
+      this.size = size;
+      this.offsetX = offsetX;
+      this.offsetY = offsetY;
+      this.metric = metric;
+      this.radius = radius;
+    }
+
+    private GridAreaKey withRadius(int radius) {
+      return new GridAreaKey(type, size, offsetX, offsetY, metric, radius);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof GridAreaKey)) {
+        return false;
+      }
+      GridAreaKey other = (GridAreaKey) o;
+      return type == other.type
+          && size == other.size
+          && offsetX == other.offsetX
+          && offsetY == other.offsetY
+          && metric == other.metric
+          && radius == other.radius;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(type, size, offsetX, offsetY, metric, radius);
+    }
+  }
+
+  /** A grid layout and radius, and the cells of a footprint relative to the cell of the token. */
+  private static final class ScaledGridAreaKey {
+    private final GridAreaKey layout;
+    private final Set<Point> footprint;
+
+    private ScaledGridAreaKey(GridAreaKey layout, Set<Point> footprint) {
+      this.layout = layout;
+      this.footprint = footprint;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof ScaledGridAreaKey)) {
+        return false;
+      }
+      ScaledGridAreaKey other = (ScaledGridAreaKey) o;
+      return layout.equals(other.layout) && footprint.equals(other.footprint);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(layout, footprint);
+    }
   }
 
   static class DirectionCalculator {
@@ -0,0 +1,217 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the outline of a set of grid cells without combining the cells one {@link Area} at a time.
+ *
+ * <p>Every cell polygon is turned the same way round and its edges are collected. An edge shared by
+ * two cells shows up once in each direction, so the pair cancels and only the boundary of the cell
+ * set is left. The boundary edges are then chained into closed loops and handed to {@link Area} in
+ * one go, which fills them with the non-zero winding rule. Cells that overlap rather than share
+ * edges are still combined correctly by the winding rule, they just leave more edges behind.
+ *
+ * <p>Vertices are matched on coordinates rounded to 1/1024 of a pixel, but keep the coordinates
+ * they were first added with.
+ */
+class GridOutline {
+  private static final double PRECISION = 1024;
+
+  /** The boundary edges left so far, from their start to their ends. */
+  private final Map<Vertex, Deque<Vertex>> edges = new HashMap<>();
+
+  private int edgeCount;
+
+  /**
+   * Add the polygons of a shape. Curves are flattened.
+   *
+   * @param shape the shape to add
+   * @param at the transform to apply to the shape, may be null
+   */
+  public void add(Shape shape, AffineTransform at) {
+    List<Vertex> polygon = new ArrayList<>();
+    double[] coords = new double[6];
+    for (PathIterator it = shape.getPathIterator(at, 0.25); !it.isDone(); it.next()) {
+      switch (it.currentSegment(coords)) {
+        case PathIterator.SEG_MOVETO:
+          addPolygon(polygon);
+          polygon.clear();
+          polygon.add(new Vertex(coords[0], coords[1]));
+          break;
+        case PathIterator.SEG_LINETO:
+          polygon.add(new Vertex(coords[0], coords[1]));
+          break;
+        case PathIterator.SEG_CLOSE:
+          addPolygon(polygon);
+          polygon.clear();
+          break;
+        default:
+          break;
+      }
+    }
+    addPolygon(polygon);
+  }
+
+  /** @return the number of boundary edges left, which is the size of the traced outline */
+  public int getEdgeCount() {
+    return edgeCount;
+  }
+
+  /** @return the area enclosed by the boundary edges */
+  public Area toArea() {
+    Path2D path = new Path2D.Double(Path2D.WIND_NON_ZERO, edgeCount + 1);
+    // Work on a copy so the outline can still be added to
+    Map<Vertex, Deque<Vertex>> remaining = new HashMap<>();
+    for (Map.Entry<Vertex, Deque<Vertex>> entry : edges.entrySet()) {
+      remaining.put(entry.getKey(), new ArrayDeque<>(entry.getValue()));
+    }
+    while (!remaining.isEmpty()) {
+      Vertex start = remaining.keySet().iterator().next();
+      List<Vertex> loop = new ArrayList<>();
+      Vertex current = start;
+      // Every vertex has as many edges in as out, so following the edges gets back to the start
+      do {
+        loop.add(current);
+        Deque<Vertex> ends = remaining.get(current);
+        Vertex next = ends.pop();
+        if (ends.isEmpty()) {
+          remaining.remove(current);
+        }
+        current = next;
+      } while (!current.equals(start));
+      appendLoop(path, loop);
+    }
+    return new Area(path);
+  }
+
+  private void addPolygon(List<Vertex> polygon) {
+    // Drop the repeated start of polygons closed with a line
+    int count = polygon.size();
+    if (count > 1 && polygon.get(0).equals(polygon.get(count - 1))) {
+      count--;
+    }
+    if (count < 3) {
+      return;
+    }
+    long twiceArea = 0;
+    for (int i = 0; i < count; i++) {
+      twiceArea += polygon.get(i).cross(polygon.get((i + 1) % count));
+    }
+    if (twiceArea == 0) {
+      return;
+    }
+    for (int i = 0; i < count; i++) {
+      Vertex a = polygon.get(i);
+      Vertex b = polygon.get((i + 1) % count);
+      if (twiceArea > 0) {
+        addEdge(a, b);
+      } else {
+        addEdge(b, a);
+      }
+    }
+  }
+
+  private void addEdge(Vertex from, Vertex to) {
+    if (from.equals(to)) {
+      return;
+    }
+    Deque<Vertex> reverse = edges.get(to);
+    if (reverse != null && reverse.remove(from)) {
+      if (reverse.isEmpty()) {
+        edges.remove(to);
+      }
+      edgeCount--;
+      return;
+    }
+    edges.computeIfAbsent(from, k -> new ArrayDeque<>()).add(to);
+    edgeCount++;
+  }
+
+  /** Add a loop to the path, leaving out the vertices in the middle of straight runs. */
+  private static void appendLoop(Path2D path, List<Vertex> loop) {
+    int count = loop.size();
+    boolean started = false;
+    for (int i = 0; i < count; i++) {
+      Vertex previous = loop.get((i + count - 1) % count);
+      Vertex vertex = loop.get(i);
+      Vertex next = loop.get((i + 1) % count);
+      if (isStraight(previous, vertex, next)) {
+        continue;
+      }
+      if (started) {
+        path.lineTo(vertex.exactX, vertex.exactY);
+      } else {
+        path.moveTo(vertex.exactX, vertex.exactY);
+        started = true;
+      }
+    }
+    if (started) {
+      path.closePath();
+    }
+  }
+
+  private static boolean isStraight(Vertex previous, Vertex vertex, Vertex next) {
+    long dx1 = vertex.x - previous.x;
+    long dy1 = vertex.y - previous.y;
+    long dx2 = next.x - vertex.x;
+    long dy2 = next.y - vertex.y;
+    return dx1 * dy2 == dy1 * dx2 && dx1 * dx2 + dy1 * dy2 > 0;
+  }
+
+  /** A polygon vertex, compared by its rounded coordinates. */
+  private static final class Vertex {
+    private final double exactX;
+    private final double exactY;
+    private final long x;
+    private final long y;
+
+    private Vertex(double x, double y) {
+      this.exactX = x;
+      this.exactY = y;
+      this.x = Math.round(x * PRECISION);
+      this.y = Math.round(y * PRECISION);
+    }
+
+    private long cross(Vertex other) {
+      return x * other.y - y * other.x;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Vertex)) {
+        return false;
+      }
+      Vertex other = (Vertex) o;
+      return x == other.x && y == other.y;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(x * 31 + y);
+    }
+  }
+}
@@ -562,9 +562,9 @@ public void setSecondDimension(double length) {
 
   @Override
   protected Area createGridArea(int gridRadius) {
-    final Area cellArea = new Area(createCellShape(getSize()));
+    final Area cellArea = createCellShape(getSize());
     final HashSet<Point> points = generateRing(gridRadius);
-    Area gridArea = new Area();
+    final GridOutline outline = new GridOutline();
 
     // HACK! Hex cellShape is ever so off from grid so adding them to a single Area can produce gap
     // artifacts in the rendering
@@ -585,21 +585,19 @@ protected Area createGridArea(int gridRadius) {
         at.scale(hexScale, 1);
       }
 
-      gridArea.add(cellArea.createTransformedArea(at));
+      outline.add(cellArea, at);
     }
 
     // Fill inner Hex Area with one large area to save time
     final int hexRadius = gridRadius * getSize();
 
     if (isHexHorizontal()) {
-      gridArea.add(createHex(getSize(), getSize(), hexRadius, 0));
+      outline.add(createHex(getSize(), getSize(), hexRadius, 0), null);
     } else {
-      gridArea.add(createHex(getSize(), -getSize(), hexRadius, Math.toRadians(90)));
+      outline.add(createHex(getSize(), -getSize(), hexRadius, Math.toRadians(90)), null);
     }
 
-    setGridShapeCache(gridRadius, gridArea);
-
-    return gridArea;
+    return outline.toArea();
   }
 
   @Override
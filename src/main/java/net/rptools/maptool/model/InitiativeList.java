@@ -54,6 +54,9 @@ public class InitiativeList implements Serializable {
   /** Used to add property change support to the round and current values. */
   private transient PropertyChangeSupport pcs = new PropertyChangeSupport(this);
 
+  /** Bumped on every change announced to the listeners. */
+  private transient long version;
+
   /** The zone that owns this initiative list. */
   private transient Zone zone;
 
@@ -157,7 +160,7 @@ public TokenInitiative insertToken(int index, Token token) {
     }
     TokenInitiative ti = new TokenInitiative(token);
     tokens.add(index, ti);
-    getPCS().fireIndexedPropertyChange(TOKENS_PROP, index, null, ti);
+    changed().fireIndexedPropertyChange(TOKENS_PROP, index, null, ti);
     setCurrent(indexOf(currentInitiative)); // Restore current initiative
     finishUnitOfWork();
     return ti;
@@ -226,7 +229,7 @@ public Token removeToken(int index) {
 
     TokenInitiative ti = tokens.remove(index);
     Token old = ti.getToken();
-    getPCS().fireIndexedPropertyChange(TOKENS_PROP, index, ti, null);
+    changed().fireIndexedPropertyChange(TOKENS_PROP, index, ti, null);
     setCurrent(indexOf(currentInitiative)); // Restore current initiative
     finishUnitOfWork();
     return old;
@@ -244,7 +247,7 @@ public void setCurrent(int aCurrent) {
     if (aCurrent < 0 || aCurrent >= tokens.size()) aCurrent = -1; // Don't allow bad values
     int old = current;
     current = aCurrent;
-    getPCS().firePropertyChange(CURRENT_PROP, old, current);
+    changed().firePropertyChange(CURRENT_PROP, old, current);
     finishUnitOfWork();
   }
 
@@ -281,7 +284,7 @@ public void setRound(int aRound) {
     startUnitOfWork();
     int old = round;
     round = aRound;
-    getPCS().firePropertyChange(ROUND_PROP, old, aRound);
+    changed().firePropertyChange(ROUND_PROP, old, aRound);
     finishUnitOfWork();
   }
 
@@ -369,7 +372,7 @@ public void clearModel() {
     if (!tokens.isEmpty()) {
       List<TokenInitiative> old = tokens;
       tokens = new ArrayList<TokenInitiative>();
-      getPCS().firePropertyChange(TOKENS_PROP, old, tokens);
+      changed().firePropertyChange(TOKENS_PROP, old, tokens);
     } // endif
     finishUnitOfWork();
   }
@@ -394,7 +397,7 @@ public void update() {
         if (index <= current) setCurrent(current - 1);
         i.remove();
         updateNeeded = true;
-        getPCS().fireIndexedPropertyChange(TOKENS_PROP, index, ti, null);
+        changed().fireIndexedPropertyChange(TOKENS_PROP, index, ti, null);
       } // endif
     } // endwhile
     if (updateNeeded) {
@@ -454,7 +457,7 @@ public int compare(TokenInitiative o1, TokenInitiative o2) {
             return 1;
           }
         });
-    getPCS().firePropertyChange(TOKENS_PROP, null, tokens);
+    changed().firePropertyChange(TOKENS_PROP, null, tokens);
     setCurrent(indexOf(currentInitiative)); // Restore current initiative
     finishUnitOfWork();
   }
@@ -465,6 +468,20 @@ public Zone getZone() {
     return zone;
   }
 
+  /**
+   * @return the number of changes made to the list, part of the version of its zone, see {@link
+   *     Zone#getVersion()}
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /** Count a change about to be announced, and return the support that announces it. */
+  private PropertyChangeSupport changed() {
+    version++;
+    return getPCS();
+  }
+
   /** @return Getter for pcs */
   private PropertyChangeSupport getPCS() {
     if (pcs == null) pcs = new PropertyChangeSupport(this);
@@ -498,12 +515,12 @@ public void moveToken(int oldIndex, int index) {
     startUnitOfWork();
     current = -1;
     TokenInitiative ti = tokens.remove(oldIndex);
-    getPCS().fireIndexedPropertyChange(TOKENS_PROP, oldIndex, ti, null);
+    changed().fireIndexedPropertyChange(TOKENS_PROP, oldIndex, ti, null);
 
     // Add it at it's new position
     index -= index > oldIndex ? 1 : 0;
     tokens.add(index, ti);
-    getPCS().fireIndexedPropertyChange(TOKENS_PROP, index, null, ti);
+    changed().fireIndexedPropertyChange(TOKENS_PROP, index, null, ti);
 
     // Set/restore proper initiative
     if (newInitiative == null) current = indexOf(currentInitiative);
@@ -553,7 +570,7 @@ public void setHideNPC(boolean hide) {
     startUnitOfWork();
     boolean old = hideNPC;
     hideNPC = hide;
-    getPCS().firePropertyChange(HIDE_NPCS_PROP, old, hide);
+    changed().firePropertyChange(HIDE_NPCS_PROP, old, hide);
     finishUnitOfWork();
   }
 
@@ -636,7 +653,7 @@ public void setHolding(boolean isHolding) {
       startUnitOfWork();
       boolean old = holding;
       holding = isHolding;
-      getPCS().fireIndexedPropertyChange(TOKENS_PROP, tokens.indexOf(this), old, isHolding);
+      changed().fireIndexedPropertyChange(TOKENS_PROP, tokens.indexOf(this), old, isHolding);
       finishUnitOfWork(this);
     }
 
@@ -655,7 +672,7 @@ public void setState(String aState) {
       startUnitOfWork();
       String old = state;
       state = aState;
-      getPCS().fireIndexedPropertyChange(TOKENS_PROP, tokens.indexOf(this), old, aState);
+      changed().fireIndexedPropertyChange(TOKENS_PROP, tokens.indexOf(this), old, aState);
       finishUnitOfWork(this);
     }
 
@@ -680,8 +697,8 @@ public void update(boolean isHolding, String aState) {
       holding = isHolding;
       String oldState = state;
       state = aState;
-      getPCS().fireIndexedPropertyChange(TOKENS_PROP, tokens.indexOf(this), old, isHolding);
-      getPCS().fireIndexedPropertyChange(TOKENS_PROP, tokens.indexOf(this), oldState, aState);
+      changed().fireIndexedPropertyChange(TOKENS_PROP, tokens.indexOf(this), old, isHolding);
+      changed().fireIndexedPropertyChange(TOKENS_PROP, tokens.indexOf(this), oldState, aState);
     }
   }
 }
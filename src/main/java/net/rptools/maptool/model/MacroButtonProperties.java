@@ -565,6 +565,9 @@ public String getCommand() {
   }
 
   public void setCommand(String command) {
+    if (this.command != null && !this.command.equals(command)) {
+      MapTool.getParser().invalidateMacro(this.command);
+    }
     this.command = command;
   }
 
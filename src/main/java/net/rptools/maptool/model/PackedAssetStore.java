@@ -0,0 +1,802 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import net.rptools.lib.MD5Key;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An append-only, content addressed store for asset data. Assets are packed into a few large
+ * segment files instead of one file per asset, and an index journal maps each {@link MD5Key} to its
+ * location, so opening the store reads a single file no matter how many assets it holds.
+ *
+ * <p>Segments are read through memory mapped buffers; {@link #getData(MD5Key)} returns a read only
+ * view of the mapped bytes without copying them to the heap. All writes go through one writer
+ * thread, which appends whatever is queued as a single batch.
+ *
+ * <p>Removing an asset only drops it from the index; {@link #compact()} copies the live records to
+ * new segments and reclaims the space. {@link #verify()} checks the data against the MD5 sums.
+ */
+public class PackedAssetStore {
+  private static final Logger log = LogManager.getLogger(PackedAssetStore.class);
+
+  private static final int RECORD_MAGIC = 0x4D544153; // "MTAS"
+  private static final int INDEX_MAGIC = 0x4D544149; // "MTAI"
+  private static final int INDEX_VERSION = 2;
+
+  private static final byte OP_PUT = 1;
+  private static final byte OP_REMOVE = 2;
+  /** How far into a segment the index accounts for every record, since version 2. */
+  private static final byte OP_SEGMENT_END = 3;
+
+  private static final String INDEX_FILE = "index.dat";
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".pack";
+
+  /** Segments are closed once they reach this size. */
+  static final long MAX_SEGMENT_SIZE = 256L * 1024 * 1024;
+
+  /** Compact when at least this fraction of the store is dead space. */
+  private static final double COMPACT_THRESHOLD = 0.5;
+
+  /** Don't bother compacting for less dead space than this. */
+  private static final long MIN_COMPACT_BYTES = 16L * 1024 * 1024;
+
+  /** Location of one asset in the segments. */
+  private static class Entry {
+    final int segment;
+    final long recordOffset;
+    final long dataOffset;
+    final int length;
+    final String name;
+
+    Entry(int segment, long recordOffset, long dataOffset, int length, String name) {
+      this.segment = segment;
+      this.recordOffset = recordOffset;
+      this.dataOffset = dataOffset;
+      this.length = length;
+      this.name = name;
+    }
+
+    long getRecordSize() {
+      return dataOffset - recordOffset + length;
+    }
+  }
+
+  private final File dir;
+
+  /**
+   * Where each asset is. Only changed by the writer thread, and replaced as a whole by compaction
+   * so readers never see an asset missing while it moves.
+   */
+  private volatile Map<MD5Key, Entry> index = new ConcurrentHashMap<MD5Key, Entry>();
+
+  /**
+   * For each segment, the offset up to which the index read at open time accounts for the records,
+   * including the removed ones. Only the records past it are recovered.
+   */
+  private final Map<Integer, Long> indexedEnds = new ConcurrentHashMap<Integer, Long>();
+
+  /** Assets queued for the writer. They are readable from here until they are in the index. */
+  private final Map<MD5Key, Asset> pending = new ConcurrentHashMap<MD5Key, Asset>();
+
+  private final Map<Integer, MappedByteBuffer> mappedSegments =
+      new ConcurrentHashMap<Integer, MappedByteBuffer>();
+
+  private final ExecutorService writer =
+      Executors.newSingleThreadExecutor(
+          r -> {
+            Thread t = new Thread(r, "PackedAssetStore writer");
+            t.setDaemon(true);
+            return t;
+          });
+
+  // Only touched by the writer thread, except when opening.
+  private int currentSegment;
+  private FileChannel segmentChannel;
+  private DataOutputStream indexOut;
+
+  /** Size of all segment files, live and dead records alike. */
+  private volatile long totalBytes;
+
+  /** Size of the records in the index. */
+  private volatile long liveBytes;
+
+  /**
+   * Open the store in the directory, creating it if needed. Records written to a segment but
+   * missing from the index, e.g. after a crash, are recovered.
+   *
+   * @param dir the directory of the store
+   * @throws IOException if the directory can't be created or the store can't be read
+   */
+  public PackedAssetStore(File dir) throws IOException {
+    this.dir = dir;
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Could not create asset store " + dir);
+    }
+    open();
+  }
+
+  private void open() throws IOException {
+    List<Integer> segments = listSegments();
+    File indexFile = new File(dir, INDEX_FILE);
+
+    boolean indexRead = indexFile.exists() && readIndex(indexFile);
+    if (!indexRead) {
+      index.clear();
+      indexedEnds.clear();
+    }
+    totalBytes = 0;
+    for (int segment : segments) {
+      File file = getSegmentFile(segment);
+      // Rebuild from the segments when there is no index, else only scan what it doesn't cover.
+      // A batch of records can span segments, so that isn't always the tail of the last one.
+      scanSegment(segment, indexedEnds.getOrDefault(segment, 0L));
+      totalBytes += file.length();
+    }
+    indexedEnds.clear();
+    liveBytes = index.values().stream().mapToLong(Entry::getRecordSize).sum();
+    currentSegment = segments.isEmpty() ? 0 : segments.get(segments.size() - 1);
+
+    // Rewrite the index so it matches the segments exactly
+    writeIndex(indexFile);
+    openForAppend();
+
+    if (totalBytes - liveBytes > MIN_COMPACT_BYTES
+        && liveBytes < totalBytes * (1 - COMPACT_THRESHOLD)) {
+      writer.execute(this::compactNow);
+    }
+  }
+
+  /** @return the number of assets in the store, including the ones not written yet */
+  public int size() {
+    int count = index.size();
+    for (MD5Key id : pending.keySet()) {
+      if (!index.containsKey(id)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /** @return the size of the segment files */
+  public long getTotalBytes() {
+    return totalBytes;
+  }
+
+  /** @return the size of the records still in use */
+  public long getLiveBytes() {
+    return liveBytes;
+  }
+
+  /**
+   * @param id the MD5 sum of the asset
+   * @return true if the asset is in the store or queued to be written
+   */
+  public boolean contains(MD5Key id) {
+    return pending.containsKey(id) || index.containsKey(id);
+  }
+
+  /**
+   * @param id the MD5 sum of the asset
+   * @return the name of the asset, or null if it isn't in the store
+   */
+  public String getName(MD5Key id) {
+    Asset asset = pending.get(id);
+    if (asset != null) {
+      return asset.getName();
+    }
+    Entry entry = index.get(id);
+    return entry != null ? entry.name : null;
+  }
+
+  /**
+   * Return a read only view of the data of the asset. For assets on disk this is a slice of the
+   * memory mapped segment, so nothing is copied to the heap.
+   *
+   * @param id the MD5 sum of the asset
+   * @return the data, or null if the asset isn't in the store
+   * @throws IOException if the segment can't be mapped
+   */
+  public ByteBuffer getData(MD5Key id) throws IOException {
+    Asset asset = pending.get(id);
+    if (asset != null) {
+      return ByteBuffer.wrap(asset.getImage()).asReadOnlyBuffer();
+    }
+    Entry entry = index.get(id);
+    if (entry == null) {
+      return null;
+    }
+    ByteBuffer data;
+    try {
+      data = getMappedSegment(entry.segment, entry.dataOffset + entry.length).duplicate();
+    } catch (IOException ioe) {
+      // The segment may have been compacted away since the lookup
+      Entry moved = index.get(id);
+      if (moved == null || moved == entry) {
+        throw ioe;
+      }
+      entry = moved;
+      data = getMappedSegment(entry.segment, entry.dataOffset + entry.length).duplicate();
+    }
+    data.position((int) entry.dataOffset);
+    data.limit((int) (entry.dataOffset + entry.length));
+    return data.slice().asReadOnlyBuffer();
+  }
+
+  /**
+   * Read the asset into the heap.
+   *
+   * @param id the MD5 sum of the asset
+   * @return the asset, or null if it isn't in the store
+   * @throws IOException if the segment can't be read
+   */
+  public Asset get(MD5Key id) throws IOException {
+    Asset asset = pending.get(id);
+    if (asset != null) {
+      return asset;
+    }
+    String name = getName(id);
+    ByteBuffer data = getData(id);
+    if (data == null) {
+      return null;
+    }
+    byte[] bytes = new byte[data.remaining()];
+    data.get(bytes);
+    return new Asset(name, bytes);
+  }
+
+  /**
+   * Queue the asset to be written. Returns immediately; the asset can be read back right away.
+   *
+   * @param asset the asset to store
+   */
+  public void put(Asset asset) {
+    if (asset == null || asset.getImage() == null || contains(asset.getId())) {
+      return;
+    }
+    pending.put(asset.getId(), asset);
+    writer.execute(this::writePending);
+  }
+
+  /**
+   * Drop the asset from the store. The space is reclaimed by the next compaction.
+   *
+   * @param id the MD5 sum of the asset
+   */
+  public void remove(MD5Key id) {
+    pending.remove(id);
+    writer.execute(
+        () -> {
+          Entry entry = index.remove(id);
+          if (entry != null) {
+            liveBytes -= entry.getRecordSize();
+            try {
+              writeIndexRemove(indexOut, id);
+              indexOut.flush();
+            } catch (IOException ioe) {
+              log.error("Could not update asset store index", ioe);
+            }
+          }
+        });
+  }
+
+  /**
+   * Run the action on the writer thread once everything queued so far has been written, if the
+   * asset is then on disk. Nothing happens if writing it failed.
+   *
+   * @param id the MD5 sum of the asset
+   * @param action what to do once the asset is on disk
+   */
+  public void afterWrite(MD5Key id, Runnable action) {
+    writer.execute(
+        () -> {
+          if (index.containsKey(id)) {
+            action.run();
+          }
+        });
+  }
+
+  /** Wait until everything queued so far is on disk. */
+  public void flush() {
+    await(writer.submit(() -> {}));
+  }
+
+  /**
+   * Copy the live records to new segments and delete the old ones. Blocks until done.
+   */
+  public void compact() {
+    await(
+        writer.submit(
+            () -> {
+              compactNow();
+              return null;
+            }));
+  }
+
+  /**
+   * Check every asset against its MD5 sum. Assets that don't match are removed from the store.
+   *
+   * @return the ids of the corrupted assets
+   */
+  public List<MD5Key> verify() {
+    flush();
+    List<MD5Key> corrupted = new ArrayList<MD5Key>();
+    for (MD5Key id : new ArrayList<MD5Key>(index.keySet())) {
+      try {
+        ByteBuffer data = getData(id);
+        if (data != null && !id.equals(new MD5Key(new ByteBufferInputStream(data)))) {
+          corrupted.add(id);
+        }
+      } catch (IOException ioe) {
+        log.warn("Could not read asset " + id + " from the asset store", ioe);
+        corrupted.add(id);
+      }
+    }
+    for (MD5Key id : corrupted) {
+      log.error("Asset " + id + " in the asset store is corrupted, removing it");
+      remove(id);
+    }
+    flush();
+    return corrupted;
+  }
+
+  /** Delete everything in the store. Blocks until done. */
+  public void clear() {
+    pending.clear();
+    await(
+        writer.submit(
+            () -> {
+              closeFiles();
+              for (int segment : listSegments()) {
+                deleteSegment(segment);
+              }
+              index.clear();
+              totalBytes = 0;
+              liveBytes = 0;
+              currentSegment = 0;
+              writeIndex(new File(dir, INDEX_FILE));
+              openForAppend();
+              return null;
+            }));
+  }
+
+  /** Write out everything queued and close the files. The store can't be used afterwards. */
+  public void close() {
+    writer.execute(this::closeFiles);
+    writer.shutdown();
+    try {
+      if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+        log.warn("Timed out closing the asset store");
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Append every queued asset to the current segment, then to the index. Writer thread only. */
+  private void writePending() {
+    if (pending.isEmpty()) {
+      return;
+    }
+    Map<MD5Key, Entry> written = new LinkedHashMap<MD5Key, Entry>();
+    try {
+      for (Asset asset : new ArrayList<Asset>(pending.values())) {
+        if (!index.containsKey(asset.getId())) {
+          Entry entry = appendRecord(asset.getId(), asset.getName(), asset.getImage());
+          written.put(asset.getId(), entry);
+        }
+      }
+      segmentChannel.force(false);
+      for (Map.Entry<MD5Key, Entry> e : written.entrySet()) {
+        writeIndexPut(indexOut, e.getKey(), e.getValue());
+      }
+      indexOut.flush();
+    } catch (IOException ioe) {
+      log.error("Could not write to the asset store", ioe);
+    } finally {
+      // Whatever made it into a segment will be recovered on the next open
+      for (Map.Entry<MD5Key, Entry> e : written.entrySet()) {
+        index.put(e.getKey(), e.getValue());
+        liveBytes += e.getValue().getRecordSize();
+        pending.remove(e.getKey());
+      }
+    }
+  }
+
+  private Entry appendRecord(MD5Key id, String name, byte[] data) throws IOException {
+    return appendRecord(id, name, ByteBuffer.wrap(data));
+  }
+
+  private Entry appendRecord(MD5Key id, String name, ByteBuffer data) throws IOException {
+    if (name == null) {
+      name = "";
+    }
+    ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+    DataOutputStream header = new DataOutputStream(headerBytes);
+    header.writeInt(RECORD_MAGIC);
+    header.writeUTF(id.toString());
+    header.writeUTF(name);
+    header.writeInt(data.remaining());
+    header.flush();
+
+    long recordSize = headerBytes.size() + data.remaining();
+    long position = segmentChannel.size();
+    if (position > 0 && position + recordSize > MAX_SEGMENT_SIZE) {
+      segmentChannel.force(false);
+      segmentChannel.close();
+      currentSegment++;
+      segmentChannel = openSegment(currentSegment);
+      position = 0;
+    }
+    int length = data.remaining();
+    ByteBuffer[] buffers = {ByteBuffer.wrap(headerBytes.toByteArray()), data};
+    while (buffers[1].hasRemaining()) {
+      segmentChannel.write(buffers);
+    }
+    totalBytes += recordSize;
+    return new Entry(currentSegment, position, position + headerBytes.size(), length, name);
+  }
+
+  private void compactNow() {
+    try {
+      long before = totalBytes;
+      closeFiles();
+      List<Integer> oldSegments = listSegments();
+      currentSegment = oldSegments.isEmpty() ? 0 : oldSegments.get(oldSegments.size() - 1) + 1;
+      segmentChannel = openSegment(currentSegment);
+      totalBytes = 0;
+
+      List<Map.Entry<MD5Key, Entry>> live =
+          new ArrayList<Map.Entry<MD5Key, Entry>>(index.entrySet());
+      live.sort(
+          Comparator.comparingInt((Map.Entry<MD5Key, Entry> e) -> e.getValue().segment)
+              .thenComparingLong(e -> e.getValue().recordOffset));
+      Map<MD5Key, Entry> compacted = new LinkedHashMap<MD5Key, Entry>();
+      for (Map.Entry<MD5Key, Entry> e : live) {
+        Entry entry = e.getValue();
+        ByteBuffer data =
+            getMappedSegment(entry.segment, entry.dataOffset + entry.length).duplicate();
+        data.position((int) entry.dataOffset);
+        data.limit((int) (entry.dataOffset + entry.length));
+        compacted.put(e.getKey(), appendRecord(e.getKey(), entry.name, data.slice()));
+      }
+      segmentChannel.force(false);
+      segmentChannel.close();
+      segmentChannel = null;
+
+      // Switch over in one step, and back if the new index can't be written
+      Map<MD5Key, Entry> oldIndex = index;
+      index = new ConcurrentHashMap<MD5Key, Entry>(compacted);
+      try {
+        writeIndex(new File(dir, INDEX_FILE));
+      } catch (IOException ioe) {
+        index = oldIndex;
+        throw ioe;
+      }
+      liveBytes = totalBytes;
+      for (int segment : oldSegments) {
+        deleteSegment(segment);
+      }
+      openForAppend();
+      log.info("Compacted asset store from " + before + " to " + totalBytes + " bytes");
+    } catch (IOException ioe) {
+      log.error("Could not compact the asset store", ioe);
+      try {
+        openForAppend();
+      } catch (IOException e) {
+        log.error("Could not reopen the asset store", e);
+      }
+    }
+  }
+
+  /**
+   * Read the index journal. A truncated last record is ignored.
+   *
+   * @return false if the file is not a valid index
+   */
+  private boolean readIndex(File indexFile) {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+      int magic = in.readInt();
+      int version = in.readInt();
+      if (magic != INDEX_MAGIC || version < 1 || version > INDEX_VERSION) {
+        log.warn("Asset store index has an unknown format, rebuilding it");
+        return false;
+      }
+      while (true) {
+        byte op;
+        try {
+          op = in.readByte();
+        } catch (EOFException eof) {
+          break;
+        }
+        if (op == OP_SEGMENT_END) {
+          indexedEnds.merge(in.readInt(), in.readLong(), Math::max);
+          continue;
+        }
+        MD5Key id = new MD5Key(in.readUTF());
+        if (op == OP_PUT) {
+          int segment = in.readInt();
+          long recordOffset = in.readLong();
+          long dataOffset = in.readLong();
+          int length = in.readInt();
+          String name = in.readUTF();
+          index.put(id, new Entry(segment, recordOffset, dataOffset, length, name));
+          indexedEnds.merge(segment, dataOffset + length, Math::max);
+        } else if (op == OP_REMOVE) {
+          index.remove(id);
+        } else {
+          log.warn("Asset store index is corrupted, rebuilding it");
+          return false;
+        }
+      }
+    } catch (EOFException eof) {
+      log.warn("Asset store index was truncated, recovering from the segments");
+    } catch (IOException ioe) {
+      log.warn("Could not read asset store index, rebuilding it", ioe);
+      return false;
+    }
+    // Drop entries pointing past the end of their segment
+    Map<Integer, Long> segmentLengths = new ConcurrentHashMap<Integer, Long>();
+    index
+        .values()
+        .removeIf(
+            e ->
+                e.dataOffset + e.length
+                    > segmentLengths.computeIfAbsent(
+                        e.segment, segment -> getSegmentFile(segment).length()));
+    return true;
+  }
+
+  /**
+   * Add every complete record in the segment from the offset on to the index. A partially written
+   * record at the end is cut off.
+   */
+  private void scanSegment(int segment, long offset) throws IOException {
+    File file = getSegmentFile(segment);
+    long length = file.length();
+    if (offset >= length) {
+      return;
+    }
+    long validEnd = offset;
+    try (CountingInputStream counter =
+        new CountingInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      DataInputStream in = new DataInputStream(counter);
+      IOUtils.skipFully(in, offset);
+      counter.resetByteCount();
+      while (validEnd < length) {
+        if (in.readInt() != RECORD_MAGIC) {
+          break;
+        }
+        MD5Key id = new MD5Key(in.readUTF());
+        String name = in.readUTF();
+        int dataLength = in.readInt();
+        long dataOffset = offset + counter.getByteCount();
+        if (dataLength < 0 || dataOffset + dataLength > length) {
+          break;
+        }
+        IOUtils.skipFully(in, dataLength);
+        index.put(id, new Entry(segment, validEnd, dataOffset, dataLength, name));
+        validEnd = dataOffset + dataLength;
+      }
+    } catch (EOFException eof) {
+      // Partial record
+    }
+    if (validEnd < length) {
+      log.warn("Discarding " + (length - validEnd) + " bytes at the end of " + file);
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+        channel.truncate(validEnd);
+      }
+    }
+  }
+
+  /** Write a fresh index holding only the current entries, replacing the old one atomically. */
+  private void writeIndex(File indexFile) throws IOException {
+    File tmp = new File(dir, INDEX_FILE + ".tmp");
+    try (FileOutputStream fos = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+      out.writeInt(INDEX_MAGIC);
+      out.writeInt(INDEX_VERSION);
+      for (Map.Entry<MD5Key, Entry> e : index.entrySet()) {
+        writeIndexPut(out, e.getKey(), e.getValue());
+      }
+      // Every record in the segments so far is accounted for, removed or not
+      for (int segment : listSegments()) {
+        out.writeByte(OP_SEGMENT_END);
+        out.writeInt(segment);
+        out.writeLong(getSegmentFile(segment).length());
+      }
+      out.flush();
+      fos.getFD().sync();
+    }
+    Files.move(
+        tmp.toPath(),
+        indexFile.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static void writeIndexPut(DataOutputStream out, MD5Key id, Entry entry)
+      throws IOException {
+    out.writeByte(OP_PUT);
+    out.writeUTF(id.toString());
+    out.writeInt(entry.segment);
+    out.writeLong(entry.recordOffset);
+    out.writeLong(entry.dataOffset);
+    out.writeInt(entry.length);
+    out.writeUTF(entry.name);
+  }
+
+  private static void writeIndexRemove(DataOutputStream out, MD5Key id) throws IOException {
+    out.writeByte(OP_REMOVE);
+    out.writeUTF(id.toString());
+  }
+
+  private void openForAppend() throws IOException {
+    segmentChannel = openSegment(currentSegment);
+    indexOut =
+        new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(new File(dir, INDEX_FILE), true)));
+  }
+
+  private FileChannel openSegment(int segment) throws IOException {
+    FileChannel channel =
+        FileChannel.open(
+            getSegmentFile(segment).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    channel.position(channel.size());
+    return channel;
+  }
+
+  private void closeFiles() {
+    try {
+      if (segmentChannel != null) {
+        segmentChannel.force(false);
+        segmentChannel.close();
+        segmentChannel = null;
+      }
+      if (indexOut != null) {
+        indexOut.close();
+        indexOut = null;
+      }
+    } catch (IOException ioe) {
+      log.error("Could not close the asset store", ioe);
+    }
+  }
+
+  /**
+   * Return the mapped segment, mapping it again if it has grown past the requested offset since it
+   * was last mapped.
+   */
+  private MappedByteBuffer getMappedSegment(int segment, long end) throws IOException {
+    MappedByteBuffer buffer = mappedSegments.get(segment);
+    if (buffer == null || buffer.capacity() < end) {
+      synchronized (mappedSegments) {
+        buffer = mappedSegments.get(segment);
+        if (buffer == null || buffer.capacity() < end) {
+          try (FileChannel channel =
+              FileChannel.open(getSegmentFile(segment).toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+          }
+          if (buffer.capacity() < end) {
+            throw new IOException("Asset store segment " + segment + " is too short");
+          }
+          mappedSegments.put(segment, buffer);
+        }
+      }
+    }
+    return buffer;
+  }
+
+  private void deleteSegment(int segment) {
+    mappedSegments.remove(segment);
+    File file = getSegmentFile(segment);
+    // A mapped file can't be deleted on Windows until the mapping is garbage collected
+    if (file.exists() && !file.delete()) {
+      file.deleteOnExit();
+    }
+  }
+
+  private List<Integer> listSegments() {
+    List<Integer> segments = new ArrayList<Integer>();
+    String[] names = dir.list();
+    if (names != null) {
+      for (String name : names) {
+        if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+          try {
+            segments.add(
+                Integer.parseInt(
+                    name.substring(
+                        SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+          } catch (NumberFormatException nfe) {
+            // Not one of ours
+          }
+        }
+      }
+    }
+    segments.sort(null);
+    return segments;
+  }
+
+  private File getSegmentFile(int segment) {
+    return new File(dir, String.format("%s%05d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+  }
+
+  private static <T> T await(Future<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException ee) {
+      log.error("Asset store operation failed", ee.getCause());
+    }
+    return null;
+  }
+
+  /** Reads a byte buffer without copying it. */
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      len = Math.min(len, buffer.remaining());
+      buffer.get(b, off, len);
+      return len;
+    }
+  }
+}
@@ -38,6 +38,7 @@
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
 import net.rptools.CaseInsensitiveHashMap;
@@ -293,6 +294,20 @@ public enum TerrainModifierOperation {
 
   private CaseInsensitiveHashMap<Object> propertyMapCI;
 
+  /**
+   * The JSON value of the properties read through {@link #getEvaluatedProperty}, by lower case
+   * name. Each entry remembers the raw value it was parsed from and is only used while the property
+   * (or its default) is still that same value.
+   */
+  private transient Map<String, ParsedProperty> parsedProperties;
+
+  /**
+   * The zone whose spatial index holds the token, told when the token is moved with {@link
+   * #setX(int)} or {@link #setY(int)}; the other changes reach the index when the token is put back
+   * in its zone.
+   */
+  private transient Zone indexingZone;
+
   private Map<String, String> macroMap;
   private Map<Integer, Object> macroPropertiesMap;
 
@@ -626,6 +641,17 @@ public void setHaloColor(Color color) {
     haloColor = color;
   }
 
+  /**
+   * Drop the values cached from the serialized fields, after the fields were set directly. See
+   * {@link TokenDelta#applyTo(Token)}.
+   */
+  void resetDerivedState() {
+    actualLayer = null;
+    haloColor = null;
+    visionOverlayColor = null;
+    parsedProperties = null;
+  }
+
   public Color getHaloColor() {
     if (haloColor == null && haloColorValue != null) {
       haloColor = new Color(haloColorValue);
@@ -1207,11 +1233,30 @@ public int getY() {
   public void setX(int x) {
     lastX = this.x;
     this.x = x;
+    moved();
   }
 
   public void setY(int y) {
     lastY = this.y;
     this.y = y;
+    moved();
+  }
+
+  private void moved() {
+    Zone zone = indexingZone;
+    if (zone != null) {
+      zone.tokenMoved(this);
+    }
+  }
+
+  /** @param zone the zone whose spatial index holds the token, or null */
+  void setIndexingZone(Zone zone) {
+    indexingZone = zone;
+  }
+
+  /** @return the zone whose spatial index holds the token, or null */
+  Zone getIndexingZone() {
+    return indexingZone;
   }
 
   // Lee: added functions necessary for path computations
@@ -1584,10 +1629,12 @@ public void setAllStates(Object aValue) {
 
   public void resetProperty(String key) {
     getPropertyMap().remove(key);
+    forgetParsedProperty(key);
   }
 
   public void setProperty(String key, Object value) {
     getPropertyMap().put(key, value);
+    forgetParsedProperty(key);
   }
 
   public Object getProperty(String key) {
@@ -1613,26 +1660,18 @@ public Object getEvaluatedProperty(MapToolVariableResolver resolver, String key)
     Object val = getProperty(key);
     if (val == null) {
       // Global default ?
-      List<TokenProperty> propertyList =
-          MapTool.getCampaign().getCampaignProperties().getTokenPropertyList(propertyType);
-      if (propertyList != null) {
-        for (TokenProperty property : propertyList) {
-          if (key.equalsIgnoreCase(property.getName())) {
-            val = property.getDefaultValue();
-            break;
-          }
-        }
+      TokenProperty property = MapTool.getCampaign().getTokenProperty(propertyType, key);
+      if (property != null) {
+        val = property.getDefaultValue();
       }
     }
     if (val == null) {
       return "";
     }
     // First we try convert it to a JSON object.
-    if (val.toString().trim().startsWith("[") || val.toString().trim().startsWith("{")) {
-      JsonElement json = JSONMacroFunctions.getInstance().asJsonElement(val.toString());
-      if (json.isJsonObject() || json.isJsonArray()) {
-        return json;
-      }
+    JsonElement json = getParsedProperty(key, val);
+    if (json != null) {
+      return json;
     }
     try {
       if (log.isDebugEnabled()) {
@@ -1674,6 +1713,56 @@ public Set<String> getPropertyNamesRaw() {
     return getPropertyMap().keySetRaw();
   }
 
+  /**
+   * Returns the value of a property as a JSON object or array, parsing it only if it changed since
+   * the last call. Callers get a deep copy of the parsed element, as some JSON macro functions edit
+   * nested values of their arguments in place.
+   *
+   * @param key the name of the property
+   * @param val the raw value of the property or its default
+   * @return the JSON object or array, or <code>null</code> if the value isn't one
+   */
+  private JsonElement getParsedProperty(String key, Object val) {
+    Map<String, ParsedProperty> parsed = parsedProperties;
+    if (parsed == null) {
+      parsed = new ConcurrentHashMap<String, ParsedProperty>();
+      parsedProperties = parsed;
+    }
+    String lowerKey = key.toLowerCase();
+    ParsedProperty entry = parsed.get(lowerKey);
+    if (entry == null || entry.raw != val) {
+      JsonElement json = null;
+      String text = val.toString().trim();
+      if (text.startsWith("[") || text.startsWith("{")) {
+        json = JSONMacroFunctions.getInstance().asJsonElement(val.toString());
+        if (!json.isJsonObject() && !json.isJsonArray()) {
+          json = null;
+        }
+      }
+      entry = new ParsedProperty(val, json);
+      parsed.put(lowerKey, entry);
+    }
+    return entry.json == null ? null : entry.json.deepCopy();
+  }
+
+  private void forgetParsedProperty(String key) {
+    Map<String, ParsedProperty> parsed = parsedProperties;
+    if (parsed != null && key != null) {
+      parsed.remove(key.toLowerCase());
+    }
+  }
+
+  /** A property value and what it parsed to. */
+  private static class ParsedProperty {
+    private final Object raw;
+    private final JsonElement json;
+
+    ParsedProperty(Object raw, JsonElement json) {
+      this.raw = raw;
+      this.json = json;
+    }
+  }
+
   private CaseInsensitiveHashMap<Object> getPropertyMap() {
     if (propertyMapCI == null) {
       propertyMapCI = new CaseInsensitiveHashMap<Object>();
@@ -0,0 +1,210 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import com.caucho.hessian.io.HessianOutput;
+import com.caucho.hessian.io.SerializerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.rptools.lib.MD5Key;
+
+/**
+ * The fields of a token that changed, sent instead of the whole token. A delta holds the new value
+ * of each changed field, so applying it is the same as applying the whole token, except for the
+ * fields left out because they are the same on both ends.
+ *
+ * <p>The fields are the ones Hessian sends for a full token: every non static, non transient field
+ * of {@link Token}. The server stamps each delta it relays with the version of the token before
+ * and after it, so a client can tell when it missed an update and ask for the whole token again.
+ * The client that sent a change gets an acknowledgement instead, a delta with the versions only,
+ * see {@link #acknowledge(GUID, long, long)}, or a rejection when the server doesn't have the token
+ * in that zone, see {@link #reject(GUID)}.
+ */
+public class TokenDelta {
+
+  /** The serialized fields of a token, in declaration order. */
+  private static final List<Field> FIELDS;
+
+  static {
+    List<Field> fields = new ArrayList<Field>();
+    for (Field field : Token.class.getDeclaredFields()) {
+      int modifiers = field.getModifiers();
+      if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+        field.setAccessible(true);
+        fields.add(field);
+      }
+    }
+    FIELDS = Collections.unmodifiableList(fields);
+  }
+
+  /** Shared, it caches the serializers; same settings as the connection. */
+  private static final SerializerFactory serializerFactory = new SerializerFactory();
+
+  static {
+    serializerFactory.setAllowNonSerializable(true);
+  }
+
+  private GUID tokenId;
+  private long baseVersion;
+  private long version;
+  private Map<String, Object> fields;
+  private boolean acknowledgement;
+  private boolean rejected;
+
+  /** For Hessian. */
+  private TokenDelta() {}
+
+  /**
+   * @param tokenId the token the delta applies to
+   * @param fields the new values of the changed fields, keyed on the field name
+   */
+  public TokenDelta(GUID tokenId, Map<String, Object> fields) {
+    this.tokenId = tokenId;
+    this.fields = fields;
+  }
+
+  /**
+   * Create the acknowledgement of a change to the token, for the client that made it.
+   *
+   * @param tokenId the token that changed
+   * @param baseVersion the version of the token before the change
+   * @param version the version of the token once the change was applied
+   * @return a delta without fields that only carries the versions
+   */
+  public static TokenDelta acknowledge(GUID tokenId, long baseVersion, long version) {
+    TokenDelta delta = new TokenDelta(tokenId, new HashMap<String, Object>());
+    delta.setVersions(baseVersion, version);
+    delta.acknowledgement = true;
+    return delta;
+  }
+
+  /**
+   * Create the reply to a change to a token the server doesn't have in the zone, so the client
+   * that made it sends the whole token instead.
+   *
+   * @param tokenId the token that changed
+   * @return an acknowledgement without versions that says the change wasn't applied
+   */
+  public static TokenDelta reject(GUID tokenId) {
+    TokenDelta delta = new TokenDelta(tokenId, new HashMap<String, Object>());
+    delta.acknowledgement = true;
+    delta.rejected = true;
+    return delta;
+  }
+
+  /** @return true if this only acknowledges a change made by the client receiving it */
+  public boolean isAcknowledgement() {
+    return acknowledgement;
+  }
+
+  /** @return true if the change acknowledged wasn't applied, the token not being in the zone */
+  public boolean isRejection() {
+    return rejected;
+  }
+
+  public GUID getTokenId() {
+    return tokenId;
+  }
+
+  /** @return the version of the token the delta was applied to on the server */
+  public long getBaseVersion() {
+    return baseVersion;
+  }
+
+  /** @return the version of the token on the server once the delta was applied */
+  public long getVersion() {
+    return version;
+  }
+
+  /** Set by the server when it relays the delta. */
+  public void setVersions(long baseVersion, long version) {
+    this.baseVersion = baseVersion;
+    this.version = version;
+  }
+
+  /** @return the new values of the changed fields, keyed on the field name */
+  public Map<String, Object> getFields() {
+    return Collections.unmodifiableMap(fields);
+  }
+
+  public boolean isEmpty() {
+    return fields.isEmpty();
+  }
+
+  /**
+   * Set the fields of the token to the values in the delta. The caller is expected to put the
+   * token back in its zone afterwards, so the change is seen.
+   *
+   * @param token the token to change
+   */
+  public void applyTo(Token token) {
+    for (Field field : FIELDS) {
+      if (fields.containsKey(field.getName())) {
+        try {
+          field.set(token, fields.get(field.getName()));
+        } catch (IllegalAccessException e) {
+          // setAccessible() was called on all of them
+          throw new IllegalStateException(e);
+        }
+      }
+    }
+    token.resetDerivedState();
+  }
+
+  /**
+   * @param token the token
+   * @return the current values of the serialized fields of the token, keyed on the field name
+   */
+  public static Map<String, Object> getFieldValues(Token token) {
+    Map<String, Object> values = new HashMap<String, Object>();
+    for (Field field : FIELDS) {
+      try {
+        values.put(field.getName(), field.get(token));
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Compute a digest of the value as it would be sent over the wire. Two values with the same
+   * digest are sent the same way; the reverse isn't true for hashed collections, which only means
+   * a field may be sent when it didn't need to be.
+   *
+   * @param value the value of a field
+   * @return the digest of the serialized value
+   */
+  public static MD5Key fingerprint(Object value) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    HessianOutput out = new HessianOutput(bytes);
+    out.setSerializerFactory(serializerFactory);
+    try {
+      out.writeObject(value);
+      out.flush();
+    } catch (IOException ioe) {
+      // Can't happen writing to memory
+      throw new IllegalStateException(ioe);
+    }
+    return new MD5Key(bytes.toByteArray());
+  }
+}
@@ -0,0 +1,260 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Secondary indexes over the tokens of a zone: by layer, property type, PC/NPC, owner, set states,
+ * and whether the token has lights or sight. Each key holds the ids of the tokens it applies to, so
+ * a search can start from the smallest of them instead of every token on the map.
+ *
+ * <p>The index is kept current from the token events of the zone, so a token changed without an
+ * event (see {@link Zone#tokenChanged(Token)}) is indexed as it was. The keys only narrow down a
+ * search; the caller still has to check the tokens it gets back.
+ */
+public class TokenIndex implements ModelChangeListener {
+
+  /** What a key is about. */
+  public enum Kind {
+    LAYER,
+    PROPERTY_TYPE,
+    TYPE,
+    OWNER,
+    OWNED_BY_ALL,
+    HAS_OWNERS,
+    STATE,
+    HAS_LIGHT,
+    HAS_SIGHT
+  }
+
+  /** A key of the index, such as "on the token layer" or "has the Dead state set". */
+  public static final class Key {
+    private final Kind kind;
+    private final Object value;
+
+    private Key(Kind kind, Object value) {
+      this.kind = kind;
+      this.value = value;
+    }
+
+    public static Key layer(Zone.Layer layer) {
+      return new Key(Kind.LAYER, layer);
+    }
+
+    public static Key propertyType(String propertyType) {
+      return new Key(Kind.PROPERTY_TYPE, propertyType);
+    }
+
+    public static Key type(Token.Type type) {
+      return new Key(Kind.TYPE, type);
+    }
+
+    /** @return the key of the tokens with the player in their owner list */
+    public static Key owner(String player) {
+      return new Key(Kind.OWNER, player);
+    }
+
+    public static Key ownedByAll() {
+      return new Key(Kind.OWNED_BY_ALL, null);
+    }
+
+    /** @return the key of the tokens owned by all or by someone in particular */
+    public static Key hasOwners() {
+      return new Key(Kind.HAS_OWNERS, null);
+    }
+
+    /** @return the key of the tokens with the state set to anything but null or false */
+    public static Key state(String state) {
+      return new Key(Kind.STATE, state);
+    }
+
+    public static Key hasLight() {
+      return new Key(Kind.HAS_LIGHT, null);
+    }
+
+    public static Key hasSight() {
+      return new Key(Kind.HAS_SIGHT, null);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return kind == other.kind && Objects.equals(value, other.value);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(kind, value);
+    }
+
+    @Override
+    public String toString() {
+      return value == null ? kind.toString() : kind + ":" + value;
+    }
+  }
+
+  /** The tokens under each key. */
+  private final Map<Key, Set<GUID>> postings = new HashMap<Key, Set<GUID>>();
+
+  /** The keys each token was indexed under. */
+  private final Map<GUID, Set<Key>> tokenKeys = new HashMap<GUID, Set<Key>>();
+
+  /**
+   * Index the token, or index it again after a change.
+   *
+   * @param token the token
+   */
+  public synchronized void put(Token token) {
+    remove(token.getId());
+    Set<Key> keys = getKeys(token);
+    tokenKeys.put(token.getId(), keys);
+    for (Key key : keys) {
+      postings.computeIfAbsent(key, k -> new HashSet<GUID>()).add(token.getId());
+    }
+  }
+
+  /**
+   * Remove the token from the index.
+   *
+   * @param id the token
+   */
+  public synchronized void remove(GUID id) {
+    Set<Key> keys = tokenKeys.remove(id);
+    if (keys == null) {
+      return;
+    }
+    for (Key key : keys) {
+      Set<GUID> ids = postings.get(key);
+      ids.remove(id);
+      if (ids.isEmpty()) {
+        postings.remove(key);
+      }
+    }
+  }
+
+  /**
+   * @param key the key
+   * @return the number of tokens under the key
+   */
+  public synchronized int size(Key key) {
+    Set<GUID> ids = postings.get(key);
+    return ids == null ? 0 : ids.size();
+  }
+
+  /**
+   * Returns the tokens that are under at least one key of every condition. The condition with the
+   * fewest tokens is looked at first, and the others are only checked against its tokens.
+   *
+   * @param conditions the conditions, each a list of keys any of which will do
+   * @return the ids of the tokens, in no particular order
+   */
+  public synchronized Set<GUID> query(List<? extends Collection<Key>> conditions) {
+    if (conditions.isEmpty()) {
+      return new HashSet<GUID>(tokenKeys.keySet());
+    }
+    Collection<Key> smallest = null;
+    int smallestSize = Integer.MAX_VALUE;
+    for (Collection<Key> condition : conditions) {
+      int size = 0;
+      for (Key key : condition) {
+        size += size(key);
+      }
+      if (size < smallestSize) {
+        smallest = condition;
+        smallestSize = size;
+      }
+    }
+    Set<GUID> result = new HashSet<GUID>(smallestSize);
+    for (Key key : smallest) {
+      result.addAll(postings.getOrDefault(key, Collections.emptySet()));
+    }
+    for (Collection<Key> condition : conditions) {
+      if (condition == smallest || result.isEmpty()) {
+        continue;
+      }
+      result.removeIf(id -> Collections.disjoint(tokenKeys.get(id), condition));
+    }
+    return result;
+  }
+
+  @Override
+  public void modelChanged(ModelChangeEvent event) {
+    Object type = event.getEvent();
+    if (type != Zone.Event.TOKEN_ADDED
+        && type != Zone.Event.TOKEN_CHANGED
+        && type != Zone.Event.TOKEN_REMOVED) {
+      return;
+    }
+    Object arg = event.getArg();
+    Collection<?> tokens = arg instanceof Collection ? (Collection<?>) arg : List.of(arg);
+    for (Object o : tokens) {
+      Token token = (Token) o;
+      if (type == Zone.Event.TOKEN_REMOVED) {
+        remove(token.getId());
+      } else {
+        put(token);
+      }
+    }
+  }
+
+  /**
+   * @param token the token
+   * @return the keys the token goes under
+   */
+  static Set<Key> getKeys(Token token) {
+    Set<Key> keys = new HashSet<Key>();
+    keys.add(Key.layer(token.getLayer()));
+    keys.add(Key.propertyType(token.getPropertyType()));
+    keys.add(Key.type(token.getType()));
+    if (token.isOwnedByAll()) {
+      keys.add(Key.ownedByAll());
+    }
+    if (token.hasOwners()) {
+      keys.add(Key.hasOwners());
+    }
+    for (String owner : token.getOwners()) {
+      keys.add(Key.owner(owner));
+    }
+    for (String state : token.getStatePropertyNames()) {
+      Object value = token.getState(state);
+      if (value != null && !Boolean.FALSE.equals(value) && !isZero(value)) {
+        keys.add(Key.state(state));
+      }
+    }
+    if (token.hasLightSources()) {
+      keys.add(Key.hasLight());
+    }
+    if (token.getHasSight()) {
+      keys.add(Key.hasSight());
+    }
+    return keys;
+  }
+
+  private static boolean isZero(Object value) {
+    return value instanceof BigDecimal && value.equals(BigDecimal.ZERO);
+  }
+}
@@ -0,0 +1,252 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A uniform grid (spatial hash) over the bounds of the tokens of a zone. Each token is registered in
+ * every bucket its bounds overlap, so range and point queries only have to look at the tokens in the
+ * buckets the query touches instead of every token on the map.
+ *
+ * <p>Tokens whose bounds cover more than {@link #MAX_BUCKETS_PER_TOKEN} buckets (large background
+ * stamps, mostly) are kept in a separate list that is checked on every query, which keeps the
+ * number of buckets bounded.
+ *
+ * <p>The index does not watch the tokens; the owner must call {@link #put(Token, Rectangle)} again
+ * whenever the bounds of a token change.
+ */
+public class TokenSpatialIndex {
+
+  /** The default size of a bucket, in zone pixels. */
+  public static final int DEFAULT_BUCKET_SIZE = 256;
+
+  /** Tokens covering more buckets than this are stored in the oversized list. */
+  static final int MAX_BUCKETS_PER_TOKEN = 64;
+
+  private final int bucketSize;
+
+  /** The bucket contents, keyed on the packed bucket coordinates. */
+  private final Map<Long, Set<Token>> buckets = new HashMap<Long, Set<Token>>();
+
+  /** The bounds each token was indexed with. */
+  private final Map<GUID, Rectangle> boundsMap = new HashMap<GUID, Rectangle>();
+
+  /** The tokens currently in the index. */
+  private final Map<GUID, Token> tokenMap = new HashMap<GUID, Token>();
+
+  /** Tokens too large to be put in the buckets. */
+  private final Set<Token> oversized = new HashSet<Token>();
+
+  public TokenSpatialIndex() {
+    this(DEFAULT_BUCKET_SIZE);
+  }
+
+  /** @param bucketSize the width and height of a bucket, in zone pixels */
+  public TokenSpatialIndex(int bucketSize) {
+    if (bucketSize <= 0) {
+      throw new IllegalArgumentException("bucketSize must be positive: " + bucketSize);
+    }
+    this.bucketSize = bucketSize;
+  }
+
+  /**
+   * Adds the token to the index or moves it to its new bounds. A <code>null</code> bounds removes
+   * the token.
+   *
+   * @param token the token to index
+   * @param bounds the bounds of the token, in zone coordinates
+   */
+  public void put(Token token, Rectangle bounds) {
+    remove(token.getId());
+    if (bounds == null) {
+      return;
+    }
+    Rectangle copy = new Rectangle(bounds);
+    tokenMap.put(token.getId(), token);
+    boundsMap.put(token.getId(), copy);
+
+    if (countBuckets(copy) > MAX_BUCKETS_PER_TOKEN) {
+      oversized.add(token);
+      return;
+    }
+    int minX = bucket(copy.x);
+    int maxX = bucket(copy.x + Math.max(copy.width - 1, 0));
+    int minY = bucket(copy.y);
+    int maxY = bucket(copy.y + Math.max(copy.height - 1, 0));
+    for (int by = minY; by <= maxY; by++) {
+      for (int bx = minX; bx <= maxX; bx++) {
+        buckets.computeIfAbsent(key(bx, by), k -> new HashSet<Token>()).add(token);
+      }
+    }
+  }
+
+  /**
+   * Removes the token with the given id from the index.
+   *
+   * @param id the id of the token
+   * @return true if the token was in the index
+   */
+  public boolean remove(GUID id) {
+    Token token = tokenMap.remove(id);
+    Rectangle bounds = boundsMap.remove(id);
+    if (token == null) {
+      return false;
+    }
+    if (oversized.remove(token)) {
+      return true;
+    }
+    int minX = bucket(bounds.x);
+    int maxX = bucket(bounds.x + Math.max(bounds.width - 1, 0));
+    int minY = bucket(bounds.y);
+    int maxY = bucket(bounds.y + Math.max(bounds.height - 1, 0));
+    for (int by = minY; by <= maxY; by++) {
+      for (int bx = minX; bx <= maxX; bx++) {
+        Long key = key(bx, by);
+        Set<Token> bucket = buckets.get(key);
+        if (bucket != null) {
+          bucket.remove(token);
+          if (bucket.isEmpty()) {
+            buckets.remove(key);
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  /** Removes every token from the index. */
+  public void clear() {
+    buckets.clear();
+    boundsMap.clear();
+    tokenMap.clear();
+    oversized.clear();
+  }
+
+  /** @return the number of tokens in the index */
+  public int size() {
+    return tokenMap.size();
+  }
+
+  /**
+   * @param id the id of the token
+   * @return a copy of the bounds the token was indexed with, or <code>null</code> if not indexed
+   */
+  public Rectangle getBounds(GUID id) {
+    Rectangle bounds = boundsMap.get(id);
+    return bounds != null ? new Rectangle(bounds) : null;
+  }
+
+  /**
+   * Returns the tokens whose indexed bounds intersect the given area. The order of the result is
+   * unspecified.
+   *
+   * @param area the area to look in, in zone coordinates
+   * @return the tokens intersecting the area
+   */
+  public List<Token> getIntersecting(Rectangle area) {
+    Set<Token> result = new LinkedHashSet<Token>();
+    if (area.isEmpty()) {
+      return new ArrayList<Token>();
+    }
+    if (countBuckets(area) > buckets.size()) {
+      // Querying a large area; cheaper to look at every bucket once.
+      for (Set<Token> bucket : buckets.values()) {
+        addIntersecting(bucket, area, result);
+      }
+    } else {
+      int minX = bucket(area.x);
+      int maxX = bucket(area.x + area.width - 1);
+      int minY = bucket(area.y);
+      int maxY = bucket(area.y + area.height - 1);
+      for (int by = minY; by <= maxY; by++) {
+        for (int bx = minX; bx <= maxX; bx++) {
+          Set<Token> bucket = buckets.get(key(bx, by));
+          if (bucket != null) {
+            addIntersecting(bucket, area, result);
+          }
+        }
+      }
+    }
+    addIntersecting(oversized, area, result);
+    return new ArrayList<Token>(result);
+  }
+
+  /**
+   * Returns the tokens whose indexed bounds contain the given point. The order of the result is
+   * unspecified.
+   *
+   * @param x the x coordinate, in zone pixels
+   * @param y the y coordinate, in zone pixels
+   * @return the tokens at the point
+   */
+  public List<Token> getContaining(int x, int y) {
+    List<Token> result = new ArrayList<Token>();
+    Set<Token> bucket = buckets.get(key(bucket(x), bucket(y)));
+    if (bucket != null) {
+      for (Token token : bucket) {
+        if (boundsMap.get(token.getId()).contains(x, y)) {
+          result.add(token);
+        }
+      }
+    }
+    for (Token token : oversized) {
+      if (boundsMap.get(token.getId()).contains(x, y)) {
+        result.add(token);
+      }
+    }
+    return result;
+  }
+
+  private void addIntersecting(Set<Token> tokens, Rectangle area, Set<Token> result) {
+    for (Token token : tokens) {
+      if (!result.contains(token) && intersects(boundsMap.get(token.getId()), area)) {
+        result.add(token);
+      }
+    }
+  }
+
+  /**
+   * Same as {@link Rectangle#intersects(Rectangle)}, but a zero sized token still intersects the
+   * area containing its location.
+   */
+  private static boolean intersects(Rectangle bounds, Rectangle area) {
+    if (bounds.isEmpty()) {
+      return area.contains(bounds.x, bounds.y);
+    }
+    return bounds.intersects(area);
+  }
+
+  private long countBuckets(Rectangle r) {
+    long w = (long) bucket(r.x + Math.max(r.width - 1, 0)) - bucket(r.x) + 1;
+    long h = (long) bucket(r.y + Math.max(r.height - 1, 0)) - bucket(r.y) + 1;
+    return w * h;
+  }
+
+  private int bucket(int coordinate) {
+    return Math.floorDiv(coordinate, bucketSize);
+  }
+
+  private static Long key(int bx, int by) {
+    return ((long) bx << 32) | (by & 0xFFFFFFFFL);
+  }
+}
@@ -141,6 +141,17 @@ public enum TopologyMode {
     COMBINED
   }
 
+  /** How the exposed fog is stored (AREA or RASTER). */
+  public enum ExposureModel {
+    /** The exposed parts are accumulated in an {@link Area}. */
+    AREA,
+    /** The exposed parts are samples of an {@link ExposureMask}. */
+    RASTER
+  }
+
+  /** The default number of raster exposure samples along the side of a grid cell. */
+  public static final int DEFAULT_EXPOSURE_SUBDIVISIONS = 4;
+
   public static final int DEFAULT_TOKEN_VISION_DISTANCE = 250; // In units
   public static final int DEFAULT_PIXELS_CELL = 50;
   public static final int DEFAULT_UNITS_PER_CELL = 5;
@@ -179,14 +190,36 @@ public enum TopologyMode {
   /** Map each token GUID to its exposed area metadata */
   private Map<GUID, ExposedAreaMetaData> exposedAreaMeta = new HashMap<GUID, ExposedAreaMetaData>();
 
-  /** Token list ordered by Z. */
-  private final List<Token> tokenOrderedList = new LinkedList<Token>();
+  /**
+   * Token list ordered by Z. Kept sorted by binary insertion; older campaign files may still
+   * contain a LinkedList, which {@link #readResolve()} replaces.
+   */
+  private List<Token> tokenOrderedList = new ArrayList<Token>();
+
+  /**
+   * The z-order each token had when it was inserted in {@link #tokenOrderedList}. Tokens can have
+   * their z-order changed before {@link #putToken(Token)} is called, so this is what the list is
+   * actually sorted by.
+   */
+  private transient Map<GUID, Integer> tokenSortedZOrder = new HashMap<GUID, Integer>();
+
+  /** Spatial index over the footprint bounds of the tokens. Built on first use. */
+  private transient TokenSpatialIndex tokenSpatialIndex;
+
+  /** Index of the tokens by layer, owner, state and such. Built on first use. */
+  private transient TokenIndex tokenIndex;
 
   private InitiativeList initiativeList = new InitiativeList(this);
 
   /** The global exposed area. */
   private Area exposedArea = new Area();
 
+  /**
+   * The global exposed samples when the zone uses {@link ExposureModel#RASTER}, in which case
+   * {@link #exposedArea} stays empty. <code>null</code> for {@link ExposureModel#AREA}.
+   */
+  private ExposureMask exposedMask;
+
   private boolean hasFog;
   private DrawablePaint fogPaint;
   private transient UndoPerZone undo;
@@ -226,6 +259,14 @@ public enum TopologyMode {
 
   private transient HashMap<String, Integer> tokenNumberCache;
 
+  /**
+   * Bumped on every change made through the zone's setters or that fires a model change event,
+   * which includes every token put in the zone or reported with {@link #tokenChanged(Token)}.
+   * Together with the version of the initiative list, a copy of the zone made at some {@link
+   * #getVersion()} is still current while that is unchanged.
+   */
+  private transient long version;
+
   /**
    * Note: When adding new fields to this class, make sure to update all constructors, {@link
    * #imported()}, {@link #readResolve()}, and potentially {@link #optimize()}.
@@ -238,6 +279,7 @@ public Zone() {
   }
 
   public void setBackgroundPaint(DrawablePaint paint) {
+    version++;
     backgroundPaint = paint;
   }
 
@@ -248,11 +290,13 @@ public MD5Key getBackgroundAsset() {
   }
 
   public void setMapAsset(MD5Key id) {
+    version++;
     mapAsset = id;
     boardChanged = true;
   }
 
   public void setTokenVisionDistance(int units) {
+    version++;
     tokenVisionDistance = units;
   }
 
@@ -265,6 +309,7 @@ public VisionType getVisionType() {
   }
 
   public void setVisionType(VisionType visionType) {
+    version++;
     this.visionType = visionType;
   }
 
@@ -273,6 +318,7 @@ public TokenSelection getTokenSelection() {
   }
 
   public void setTokenSelection(TokenSelection tokenSelection) {
+    version++;
     this.tokenSelection = tokenSelection;
   }
 
@@ -286,6 +332,7 @@ public int getTokenVisionInPixels() {
   }
 
   public void setFogPaint(DrawablePaint paint) {
+    version++;
     fogPaint = paint;
   }
 
@@ -300,6 +347,7 @@ public String getName() {
   }
 
   public void setName(String name) {
+    version++;
     this.name = name;
   }
 
@@ -392,6 +440,7 @@ public Zone(Zone zone, boolean keepIds) {
       }
     }
     exposedAreaMeta = new HashMap<GUID, ExposedAreaMetaData>(zone.exposedAreaMeta.size() * 4 / 3);
+    exposedMask = zone.exposedMask != null ? new ExposureMask(zone.exposedMask) : null;
 
     // Copy the tokens, save a map between old and new for the initiative list.
     if (zone.initiativeList == null) {
@@ -470,6 +519,7 @@ public int getHeight() {
   }
 
   public void setHeight(int height) {
+    version++;
     this.height = height;
   }
 
@@ -478,6 +528,7 @@ public int getWidth() {
   }
 
   public void setWidth(int width) {
+    version++;
     this.width = width;
   }
 
@@ -486,12 +537,14 @@ public boolean isVisible() {
   }
 
   public void setVisible(boolean isVisible) {
+    version++;
     this.isVisible = isVisible;
   }
 
   public void setGrid(Grid grid) {
     this.grid = grid;
     grid.setZone(this);
+    tokenSpatialIndex = null; // footprints depend on the grid
     // tokenVisionDistance = DEFAULT_TOKEN_VISION_DISTANCE * grid.getSize() / unitsPerCell;
     fireModelChangeEvent(new ModelChangeEvent(this, Event.GRID_CHANGED));
   }
@@ -505,6 +558,7 @@ public int getGridColor() {
   }
 
   public void setGridColor(int color) {
+    version++;
     gridColor = color;
   }
 
@@ -554,6 +608,7 @@ public boolean drawBoard() {
   }
 
   public void setDrawBoard(boolean draw) {
+    version++;
     drawBoard = draw;
   }
 
@@ -566,6 +621,7 @@ public float getImageScaleX() {
   }
 
   public void setImageScaleX(float imageScaleX) {
+    version++;
     this.imageScaleX = imageScaleX;
   }
 
@@ -574,6 +630,7 @@ public float getImageScaleY() {
   }
 
   public void setImageScaleY(float imageScaleY) {
+    version++;
     this.imageScaleY = imageScaleY;
   }
 
@@ -610,6 +667,23 @@ public boolean isPointVisible(ZonePoint point, PlayerView view) {
     if (!hasFog() || view.isGMView()) {
       return true;
     }
+    if (exposedMask != null) {
+      if (exposedMask.contains(point.x, point.y)) {
+        return true;
+      }
+      if (MapTool.getServerPolicy().isUseIndividualFOW() && getVisionType() != VisionType.OFF) {
+        List<Token> toks = view.getTokens(); // only owned and HasSight tokens are returned
+        if (toks != null) {
+          for (Token tok : toks) {
+            ExposedAreaMetaData meta = exposedAreaMeta.get(tok.getExposedAreaGUID());
+            if (meta != null && meta.contains(point.x, point.y)) {
+              return true;
+            }
+          }
+        }
+      }
+      return false;
+    }
     if (MapTool.getServerPolicy().isUseIndividualFOW() && getVisionType() != VisionType.OFF) {
       Area combined = new Area(exposedArea);
       List<Token> toks = view.getTokens(); // only owned and HasSight tokens are returned
@@ -675,6 +749,18 @@ public boolean isTokenVisible(Token token) {
 
     // Token is visible, and there is fog
     Rectangle tokenSize = token.getBounds(this);
+    if (exposedMask != null) {
+      // Test each exposure on its own rather than building their union
+      if (exposedMask.intersects(tokenSize)) {
+        return true;
+      }
+      for (ExposedAreaMetaData meta : getOwnedExposedAreaMetaData()) {
+        if (meta.intersects(tokenSize)) {
+          return true;
+        }
+      }
+      return false;
+    }
     Area combined = new Area(exposedArea);
     PlayerView view = MapTool.getFrame().getZoneRenderer(this).getPlayerView();
     if (MapTool.getServerPolicy().isUseIndividualFOW() && getVisionType() != VisionType.OFF) {
@@ -713,6 +799,17 @@ public boolean isTokenFootprintVisible(Token token) {
     // Token is visible, and there is fog
     Rectangle tokenSize = token.getBounds(this);
     Area tokenFootprint = getGrid().getTokenCellArea(tokenSize);
+    if (exposedMask != null) {
+      if (exposedMask.intersects(tokenFootprint)) {
+        return true;
+      }
+      for (ExposedAreaMetaData meta : getOwnedExposedAreaMetaData()) {
+        if (meta.intersects(tokenFootprint)) {
+          return true;
+        }
+      }
+      return false;
+    }
     Area combined = new Area(exposedArea);
     PlayerView view = MapTool.getFrame().getZoneRenderer(this).getPlayerView();
     if (MapTool.getServerPolicy().isUseIndividualFOW() && getVisionType() != VisionType.OFF) {
@@ -734,9 +831,32 @@ public boolean isTokenFootprintVisible(Token token) {
     // return combined.intersects(tokenSize);
   }
 
+  /**
+   * @return the exposed areas of the tokens of the current view owned by the player, when
+   *     individual fog is in use
+   */
+  private List<ExposedAreaMetaData> getOwnedExposedAreaMetaData() {
+    List<ExposedAreaMetaData> result = new ArrayList<ExposedAreaMetaData>();
+    if (!MapTool.getServerPolicy().isUseIndividualFOW() || getVisionType() == VisionType.OFF) {
+      return result;
+    }
+    PlayerView view = MapTool.getFrame().getZoneRenderer(this).getPlayerView();
+    List<Token> toks = view.getTokens();
+    if (toks != null) {
+      for (Token tok : toks) {
+        ExposedAreaMetaData meta = exposedAreaMeta.get(tok.getExposedAreaGUID());
+        if (meta != null && AppUtil.playerOwns(tok)) {
+          result.add(meta);
+        }
+      }
+    }
+    return result;
+  }
+
   public void clearTopology() {
+    Area oldTopology = topology;
     topology = new Area();
-    fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED));
+    fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED, oldTopology));
   }
 
   /**
@@ -758,7 +878,8 @@ public void addTopology(Area area, TopologyMode topologyMode) {
         break;
     }
 
-    fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED));
+    // The area is passed along so listeners can tell which part of the map changed
+    fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED, area));
   }
 
   public void addTopology(Area area) {
@@ -784,7 +905,8 @@ public void removeTopology(Area area, TopologyMode topologyMode) {
         break;
     }
 
-    fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED));
+    // The area is passed along so listeners can tell which part of the map changed
+    fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED, area));
   }
 
   public void removeTopology(Area area) {
@@ -812,6 +934,7 @@ public Area getTopologyTerrain() {
    * @param token the token that changed
    */
   public void tokenChanged(Token token) {
+    updateTokenSpatialIndex(token);
     fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_CHANGED, token));
   }
 
@@ -822,6 +945,9 @@ public void tokenChanged(Token token) {
    */
   public void clearExposedArea(boolean globalOnly) {
     exposedArea = new Area();
+    if (exposedMask != null) {
+      exposedMask.clear();
+    }
     if (!globalOnly) {
       exposedAreaMeta.clear();
     }
@@ -869,7 +995,7 @@ public void exposeArea(Area area, Token tok) {
         GUID tea = tok.getExposedAreaGUID();
         ExposedAreaMetaData meta = exposedAreaMeta.get(tea);
         if (meta == null) {
-          meta = new ExposedAreaMetaData();
+          meta = newExposedAreaMetaData();
           exposedAreaMeta.put(tea, meta);
         }
         meta.addToExposedAreaHistory(area);
@@ -885,7 +1011,7 @@ public void exposeArea(Area area, Token tok) {
         return; // FJE Added so that TEA isn't added to the GEA, below.
       }
     }
-    exposedArea.add(area);
+    addGlobalExposure(area);
     fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED));
   }
 
@@ -904,7 +1030,7 @@ public void exposeArea(Area area, Set<GUID> selectedToks) {
       // Why is this done here and then again below???
       // And just because Vision==Off doesn't mean we aren't doing IF...
       // Jamz: if this exposedArea isn't done then it breaks getExposedTokens when vision is off...
-      exposedArea.add(area);
+      addGlobalExposure(area);
     }
     if (selectedToks != null
         && !selectedToks.isEmpty()
@@ -928,7 +1054,7 @@ public void exposeArea(Area area, Set<GUID> selectedToks) {
           GUID tea = tok.getExposedAreaGUID();
           meta = exposedAreaMeta.get(tea);
           if (meta == null) {
-            meta = new ExposedAreaMetaData();
+            meta = newExposedAreaMetaData();
             exposedAreaMeta.put(tea, meta);
           }
           meta.addToExposedAreaHistory(area);
@@ -941,7 +1067,7 @@ public void exposeArea(Area area, Set<GUID> selectedToks) {
       }
     } else {
       // Not using IF so add the EA to the GEA instead of a TEA.
-      exposedArea.add(area);
+      addGlobalExposure(area);
     }
     fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED));
   }
@@ -969,7 +1095,7 @@ public void setFogArea(Area area, Set<GUID> selectedToks) {
         }
         ExposedAreaMetaData meta = exposedAreaMeta.get(tok.getExposedAreaGUID());
         if (meta == null) {
-          meta = new ExposedAreaMetaData();
+          meta = newExposedAreaMetaData();
         }
         meta.clearExposedAreaHistory();
         meta.addToExposedAreaHistory(area);
@@ -979,7 +1105,10 @@ public void setFogArea(Area area, Set<GUID> selectedToks) {
       }
     } else {
       exposedArea.reset();
-      exposedArea.add(area);
+      if (exposedMask != null) {
+        exposedMask.clear();
+      }
+      addGlobalExposure(area);
     }
     fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED));
   }
@@ -989,7 +1118,7 @@ public void hideArea(Area area, Set<GUID> selectedToks) {
       return;
     }
     if (getVisionType() == VisionType.OFF) {
-      exposedArea.subtract(area);
+      removeGlobalExposure(area);
     }
     if (selectedToks != null
         && !selectedToks.isEmpty()
@@ -1008,7 +1137,7 @@ public void hideArea(Area area, Set<GUID> selectedToks) {
         }
         ExposedAreaMetaData meta = exposedAreaMeta.get(tok.getExposedAreaGUID());
         if (meta == null) {
-          meta = new ExposedAreaMetaData();
+          meta = newExposedAreaMetaData();
         }
         meta.removeExposedAreaHistory(area);
         exposedAreaMeta.put(tok.getExposedAreaGUID(), meta);
@@ -1016,7 +1145,7 @@ public void hideArea(Area area, Set<GUID> selectedToks) {
         putToken(tok);
       }
     } else {
-      exposedArea.subtract(area);
+      removeGlobalExposure(area);
     }
     fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED));
   }
@@ -1039,6 +1168,22 @@ public ZonePoint getNearestVertex(ZonePoint point) {
    * @return the exposed area
    */
   public Area getExposedArea(PlayerView view) {
+    if (exposedMask != null) {
+      // Combine the samples, and only build the area of the result
+      ExposureMask combined = new ExposureMask(exposedMask);
+      List<Token> toks = view.getTokens();
+      if (toks != null) {
+        for (Token tok : toks) {
+          ExposedAreaMetaData meta = exposedAreaMeta.get(tok.getExposedAreaGUID());
+          if (meta != null && meta.getExposureMask() != null) {
+            combined.add(meta.getExposureMask());
+          } else if (meta != null) {
+            combined.add(meta.getExposedAreaHistory());
+          }
+        }
+      }
+      return combined.toArea();
+    }
     Area combined = new Area(exposedArea);
 
     List<Token> toks = view.getTokens();
@@ -1068,14 +1213,84 @@ public Area getExposedArea(PlayerView view) {
    * @return Area object representing exposed fog area visible to all tokens
    */
   public Area getExposedArea() {
+    if (exposedMask != null) {
+      return exposedMask.toArea();
+    }
     return exposedArea;
   }
 
+  private void addGlobalExposure(Area area) {
+    if (exposedMask != null) {
+      exposedMask.add(area);
+    } else {
+      exposedArea.add(area);
+    }
+  }
+
+  private void removeGlobalExposure(Area area) {
+    if (exposedMask != null) {
+      exposedMask.subtract(area);
+    } else {
+      exposedArea.subtract(area);
+    }
+  }
+
+  /** @return a new, empty exposed area for a token, using the exposure model of the zone */
+  private ExposedAreaMetaData newExposedAreaMetaData() {
+    if (exposedMask != null) {
+      return new ExposedAreaMetaData(new ExposureMask(exposedMask.getResolution()));
+    }
+    return new ExposedAreaMetaData();
+  }
+
+  /** @return how the exposed fog of the zone is stored */
+  public ExposureModel getExposureModel() {
+    return exposedMask != null ? ExposureModel.RASTER : ExposureModel.AREA;
+  }
+
+  /**
+   * Changes how the exposed fog is stored, converting what has been exposed so far. With {@link
+   * ExposureModel#RASTER} the exposure is kept as samples of a fraction of a grid cell, which keeps
+   * fog updates and visibility tests fast on maps explored for a long time; the edges of the fog
+   * then follow the samples. The {@link ExposureModel#AREA} model keeps the exact shapes.
+   *
+   * @param model the exposure model
+   * @param subdivisions the number of samples along the side of a grid cell, for the raster model
+   */
+  public void setExposureModel(ExposureModel model, int subdivisions) {
+    if (model == ExposureModel.RASTER) {
+      int resolution = Math.max(1, getGrid().getSize() / Math.max(1, subdivisions));
+      if (exposedMask != null && exposedMask.getResolution() == resolution) {
+        return;
+      }
+      ExposureMask mask = new ExposureMask(resolution);
+      mask.add(getExposedArea());
+      for (Map.Entry<GUID, ExposedAreaMetaData> entry : exposedAreaMeta.entrySet()) {
+        ExposureMask tokenMask = new ExposureMask(resolution);
+        tokenMask.add(entry.getValue().getExposedAreaHistory());
+        entry.setValue(new ExposedAreaMetaData(tokenMask));
+      }
+      exposedArea = new Area();
+      exposedMask = mask;
+    } else {
+      if (exposedMask == null) {
+        return;
+      }
+      exposedArea = new Area(exposedMask.toArea());
+      exposedMask = null;
+      for (Map.Entry<GUID, ExposedAreaMetaData> entry : exposedAreaMeta.entrySet()) {
+        entry.setValue(new ExposedAreaMetaData(entry.getValue().getExposedAreaHistory()));
+      }
+    }
+    fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED));
+  }
+
   public double getUnitsPerCell() {
     return Math.max(unitsPerCell, 0);
   }
 
   public void setUnitsPerCell(double unitsPerCell) {
+    version++;
     this.unitsPerCell = unitsPerCell;
   }
 
@@ -1088,6 +1303,7 @@ public AStarRoundingOptions getAStarRounding() {
   }
 
   public void setAStarRounding(AStarRoundingOptions aStarRounding) {
+    version++;
     this.aStarRounding = aStarRounding;
   }
 
@@ -1100,6 +1316,7 @@ public TopologyMode getTopologyMode() {
   }
 
   public void setTopologyMode(TopologyMode topologyMode) {
+    version++;
     this.topologyMode = topologyMode;
   }
 
@@ -1116,6 +1333,10 @@ public int getSmallestZOrder() {
   /** Sort the tokens by their ZOrder */
   public void sortZOrder() {
     Collections.sort(tokenOrderedList, TOKEN_Z_ORDER_COMPARATOR);
+    tokenSortedZOrder.clear();
+    for (Token token : tokenOrderedList) {
+      tokenSortedZOrder.put(token.getId(), token.getZOrder());
+    }
   }
 
   ///////////////////////////////////////////////////////////////////////////
@@ -1306,10 +1527,9 @@ public void putToken(Token token) {
 
     tokenMap.put(token.getId(), token);
 
-    // LATER: optimize this
-    tokenOrderedList.remove(token);
-    tokenOrderedList.add(token);
-    tokenOrderedList.sort(TOKEN_Z_ORDER_COMPARATOR);
+    removeFromZOrder(token);
+    addToZOrder(token);
+    updateTokenSpatialIndex(token);
 
     if (newToken) {
       fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_ADDED, token));
@@ -1324,29 +1544,22 @@ public void putToken(Token token) {
    * </code> and passes the list of added tokens as a parameter. Ditto for <code>Event.TOKEN_CHANGED
    * </code>.
    *
-   * <p>Not currently invoked by other code, but event handling changes for multiple tokens has been
-   * made. Marked as deprecated to prevent use until the rest of the integration is completed.
-   *
    * @param tokens List of Tokens to be added to this zone
    */
-  @Deprecated
   public void putTokens(List<Token> tokens) {
-    // System.out.println("putToken() called with list of " + tokens.size() + " tokens.");
-
-    Collection<Token> values = tokenMap.values();
-
-    List<Token> addedTokens = new LinkedList<Token>(tokens);
-    addedTokens.removeAll(values);
-
-    List<Token> changedTokens = new LinkedList<Token>(tokens);
-    changedTokens.retainAll(values);
+    List<Token> addedTokens = new ArrayList<Token>();
+    List<Token> changedTokens = new ArrayList<Token>();
 
     for (Token t : tokens) {
-      tokenMap.put(t.getId(), t);
+      if (tokenMap.put(t.getId(), t) == null) {
+        addedTokens.add(t);
+      } else {
+        changedTokens.add(t);
+      }
+      removeFromZOrder(t);
+      addToZOrder(t);
+      updateTokenSpatialIndex(t);
     }
-    tokenOrderedList.removeAll(tokens);
-    tokenOrderedList.addAll(tokens);
-    tokenOrderedList.sort(TOKEN_Z_ORDER_COMPARATOR);
 
     if (!addedTokens.isEmpty()) {
       fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_ADDED, addedTokens));
@@ -1359,7 +1572,13 @@ public void putTokens(List<Token> tokens) {
   public void removeToken(GUID id) {
     Token token = tokenMap.remove(id);
     if (token != null) {
-      tokenOrderedList.remove(token);
+      removeFromZOrder(token);
+      if (tokenSpatialIndex != null) {
+        tokenSpatialIndex.remove(id);
+      }
+      if (token.getIndexingZone() == this) {
+        token.setIndexingZone(null);
+      }
       fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_REMOVED, token));
     }
   }
@@ -1368,6 +1587,188 @@ public Token getToken(GUID id) {
     return tokenMap.get(id);
   }
 
+  /**
+   * Inserts the token in {@link #tokenOrderedList} at the position given by its current z-order.
+   *
+   * @param token the token to insert
+   */
+  private void addToZOrder(Token token) {
+    int index = searchZOrder(token.getZOrder(), token.getId());
+    tokenOrderedList.add(index < 0 ? -(index + 1) : index, token);
+    tokenSortedZOrder.put(token.getId(), token.getZOrder());
+  }
+
+  /**
+   * Removes the token from {@link #tokenOrderedList}, using the z-order it was inserted with.
+   *
+   * @param token the token to remove
+   */
+  private void removeFromZOrder(Token token) {
+    Integer z = tokenSortedZOrder.remove(token.getId());
+    if (z == null) {
+      return;
+    }
+    int index = searchZOrder(z, token.getId());
+    if (index >= 0) {
+      tokenOrderedList.remove(index);
+    } else {
+      // Should not happen, but don't leave a stale token behind if it does
+      tokenOrderedList.remove(token);
+    }
+  }
+
+  /**
+   * Binary search of {@link #tokenOrderedList} using the same ordering as {@link
+   * #TOKEN_Z_ORDER_COMPARATOR}, but on the z-order each token was inserted with.
+   *
+   * @param z the z-order to look for
+   * @param id the token id to look for
+   * @return the index of the token, or <code>(-(insertion point) - 1)</code> if not found
+   */
+  private int searchZOrder(int z, GUID id) {
+    int low = 0;
+    int high = tokenOrderedList.size() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      Token midToken = tokenOrderedList.get(mid);
+      Integer midZ = tokenSortedZOrder.get(midToken.getId());
+      int cmp = Integer.compare(midZ != null ? midZ : midToken.getZOrder(), z);
+      if (cmp == 0) {
+        cmp = midToken.getId().compareTo(id);
+      }
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * Returns the bounds a token is indexed with: its footprint on the grid combined with its drawn
+   * bounds, so that both cell based and pixel based lookups find it.
+   *
+   * @param token the token
+   * @return the bounds in zone coordinates, or <code>null</code> if the zone has no grid yet
+   */
+  private Rectangle getTokenFootprintBounds(Token token) {
+    if (grid == null) {
+      return null;
+    }
+    Rectangle bounds = token.getBounds(this);
+    TokenFootprint footprint = token.getFootprint(grid);
+    if (footprint != null) {
+      bounds.add(
+          footprint.getBounds(grid, grid.convert(new ZonePoint(token.getX(), token.getY()))));
+    }
+    return bounds;
+  }
+
+  private void updateTokenSpatialIndex(Token token) {
+    if (tokenSpatialIndex != null && tokenMap.containsKey(token.getId())) {
+      token.setIndexingZone(this);
+      tokenSpatialIndex.put(token, getTokenFootprintBounds(token));
+    }
+  }
+
+  /**
+   * Called by {@link Token#setX(int)} and {@link Token#setY(int)}, which are often used without
+   * putting the token back in the zone afterwards, to keep the spatial index current.
+   *
+   * @param token the token that moved
+   */
+  void tokenMoved(Token token) {
+    if (tokenSpatialIndex != null && tokenMap.get(token.getId()) == token) {
+      tokenSpatialIndex.put(token, getTokenFootprintBounds(token));
+    }
+  }
+
+  private TokenSpatialIndex getTokenSpatialIndex() {
+    if (tokenSpatialIndex == null) {
+      TokenSpatialIndex index = new TokenSpatialIndex();
+      for (Token token : tokenOrderedList) {
+        token.setIndexingZone(this);
+        index.put(token, getTokenFootprintBounds(token));
+      }
+      tokenSpatialIndex = index;
+    }
+    return tokenSpatialIndex;
+  }
+
+  /**
+   * Returns the tokens whose footprint or bounds intersect the given area, using the spatial index
+   * instead of scanning every token. The index is updated by {@link #putToken(Token)}, {@link
+   * #tokenChanged(Token)} and when a token in the zone is moved with its setters.
+   *
+   * @param bounds the area to look in, in zone coordinates
+   * @param layer the layer to restrict the result to, or <code>null</code> for all layers
+   * @return the matching tokens, ordered by Z
+   */
+  public List<Token> getTokensIntersecting(Rectangle bounds, Layer layer) {
+    List<Token> result = getTokenSpatialIndex().getIntersecting(bounds);
+    if (layer != null) {
+      result.removeIf(t -> t.getLayer() != layer);
+    }
+    result.sort(TOKEN_Z_ORDER_COMPARATOR);
+    return Collections.unmodifiableList(result);
+  }
+
+  /**
+   * Returns the tokens whose footprint or bounds contain the given point.
+   *
+   * @param point the point, in zone coordinates
+   * @param layer the layer to restrict the result to, or <code>null</code> for all layers
+   * @return the matching tokens, ordered by Z
+   * @see #getTokensIntersecting(Rectangle, Layer)
+   */
+  public List<Token> getTokensAt(ZonePoint point, Layer layer) {
+    List<Token> result = getTokenSpatialIndex().getContaining(point.x, point.y);
+    if (layer != null) {
+      result.removeIf(t -> t.getLayer() != layer);
+    }
+    result.sort(TOKEN_Z_ORDER_COMPARATOR);
+    return Collections.unmodifiableList(result);
+  }
+
+  private synchronized TokenIndex getTokenIndex() {
+    if (tokenIndex == null) {
+      TokenIndex index = new TokenIndex();
+      for (Token token : tokenOrderedList) {
+        index.put(token);
+      }
+      addModelChangeListener(index);
+      tokenIndex = index;
+    }
+    return tokenIndex;
+  }
+
+  /**
+   * Returns the tokens that are under at least one of the keys of each condition, using the token
+   * index instead of scanning every token. The index follows the token events, so the result may
+   * hold tokens that no longer match; callers check the tokens again with their own filters.
+   *
+   * @param conditions the conditions, each a list of keys any of which will do
+   * @return the matching tokens, in the order of {@link #getAllTokens()}
+   */
+  public List<Token> getTokensIndexed(List<? extends Collection<TokenIndex.Key>> conditions) {
+    List<Token> result = new ArrayList<Token>();
+    for (GUID id : getTokenIndex().query(conditions)) {
+      Token token = tokenMap.get(id);
+      if (token != null) {
+        result.add(token);
+      }
+    }
+    // The order of tokenOrderedList, which is sorted on the z-order the tokens were inserted with
+    result.sort(
+        Comparator.comparing(
+                (Token t) -> tokenSortedZOrder.getOrDefault(t.getId(), t.getZOrder()))
+            .thenComparing(Token::getId));
+    return result;
+  }
+
   /**
    * @param name the name of the token.
    * @return the first token with a given name. The name is matched case-insensitively.
@@ -1872,10 +2273,35 @@ public InitiativeList getInitiativeList() {
 
   /** @param initiativeList Setter for the initiativeList */
   public void setInitiativeList(InitiativeList initiativeList) {
+    if (this.initiativeList != null) {
+      // The changes to the old list still count, the version must not go back
+      version += this.initiativeList.getVersion();
+    }
     this.initiativeList = initiativeList;
     fireModelChangeEvent(new ModelChangeEvent(this, Event.INITIATIVE_LIST_CHANGED));
   }
 
+  /**
+   * The initiative list only tells its listeners about its changes, so its change count is added
+   * in. Changes made to a token that is never put back in the zone, nor reported with {@link
+   * #tokenChanged(Token)}, are not counted; autosave makes a full copy now and then for those.
+   *
+   * @return the change count of the zone and its initiative list, see {@link #version}
+   */
+  public long getVersion() {
+    long sum = version;
+    if (initiativeList != null) {
+      sum += initiativeList.getVersion();
+    }
+    return sum;
+  }
+
+  @Override
+  protected void fireModelChangeEvent(ModelChangeEvent event) {
+    version++;
+    super.fireModelChangeEvent(event);
+  }
+
   public void optimize() {
     log.debug("Optimizing Map " + getName());
     MapTool.getFrame().setStatusMessage(I18N.getText("Zone.status.optimizing", getName()));
@@ -1997,6 +2423,12 @@ public boolean matchToken(Token token) {
         token.setZOrder(z++);
       }
     }
+    // Token z-order list became an ArrayList kept sorted by binary insertion
+    if (!(tokenOrderedList instanceof ArrayList)) {
+      tokenOrderedList = new ArrayList<Token>(tokenOrderedList);
+    }
+    tokenSortedZOrder = new HashMap<GUID, Integer>();
+    sortZOrder();
     // Transient "undo" field added in 1.3.b88
     // This will be true; it's just in case we decide to make it persistent in the future
     if (undo == null) {
@@ -2029,7 +2461,7 @@ public ExposedAreaMetaData getExposedAreaMetaData(GUID tokenExposedAreaGUID) {
     if (meta != null) {
       return meta;
     }
-    meta = new ExposedAreaMetaData();
+    meta = newExposedAreaMetaData();
     exposedAreaMeta.put(tokenExposedAreaGUID, meta);
     return meta;
   }
@@ -32,7 +32,8 @@ public interface Code {
   }
 
   /** Server side of the handshake */
-  public static Player receiveHandshake(MapToolServer server, Socket s) throws IOException {
+  public static Player receiveHandshake(MapToolServer server, String id, Socket s)
+      throws IOException {
     // TODO: remove server config as a param
     ServerConfig config = server.getConfig();
 
@@ -75,6 +76,9 @@ public static Player receiveHandshake(MapToolServer server, Socket s) throws IOE
       String serverUsed = MapTool.getVersion();
       response.message = I18N.getText("Handshake.msg.wrongVersion", clientUsed, serverUsed);
     }
+    if (response.code == Code.OK && request.assetChunkAcks) {
+      server.setAcknowledgesAssetChunks(id);
+    }
     response.policy = server.getPolicy();
     output.writeObject(response);
     return response.code == Code.OK
@@ -99,6 +103,8 @@ public static class Request {
     public String password;
     public String role;
     public String version;
+    /** True if the client acknowledges the asset chunks it receives; false from older clients */
+    public boolean assetChunkAcks;
 
     public Request() {
       // for serialization
@@ -109,6 +115,7 @@ public Request(String name, String password, Player.Role role, String version) {
       this.password = password;
       this.role = role.name();
       this.version = version;
+      this.assetChunkAcks = true;
     }
   }
 
@@ -15,11 +15,21 @@
 package net.rptools.maptool.server;
 
 import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Random;
+import java.util.Set;
+import java.util.WeakHashMap;
 import javax.swing.SwingUtilities;
 import net.rptools.clientserver.simple.client.ClientConnection;
 import net.rptools.clientserver.simple.server.ServerObserver;
@@ -30,9 +40,12 @@
 import net.rptools.maptool.common.MapToolConstants;
 import net.rptools.maptool.language.I18N;
 import net.rptools.maptool.model.Campaign;
+import net.rptools.maptool.model.GUID;
 import net.rptools.maptool.model.TextMessage;
+import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.transfer.AssetChunk;
 import net.rptools.maptool.transfer.AssetProducer;
+import net.rptools.maptool.transfer.AssetSendWindow;
 import net.rptools.maptool.transfer.AssetTransferManager;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -40,7 +53,6 @@
 /** @author drice */
 public class MapToolServer {
   private static final Logger log = LogManager.getLogger(MapToolServer.class);
-  private static final int ASSET_CHUNK_SIZE = 5 * 1024;
 
   private final MapToolServerConnection conn;
   private final ServerMethodHandler handler;
@@ -48,10 +60,33 @@ public class MapToolServer {
 
   private final Map<String, AssetTransferManager> assetManagerMap =
       Collections.synchronizedMap(new HashMap<String, AssetTransferManager>());
+  private final Map<String, AssetSendWindow> sendWindowMap =
+      Collections.synchronizedMap(new HashMap<String, AssetSendWindow>());
   private final Map<String, ClientConnection> connectionMap =
       Collections.synchronizedMap(new HashMap<String, ClientConnection>());
+
+  /**
+   * The connections whose client said in the handshake that it acknowledges asset chunks, until
+   * the connection is configured.
+   */
+  private final Set<String> assetChunkAckIds = Collections.synchronizedSet(new HashSet<String>());
   private final AssetProducerThread assetProducerThread;
 
+  /** The zones each client is waiting for, in the order to send them. */
+  private final Map<String, Deque<GUID>> zoneQueueMap =
+      Collections.synchronizedMap(new HashMap<String, Deque<GUID>>());
+  private final ZoneSenderThread zoneSenderThread;
+
+  /** A number for each zone object, telling apart a zone replaced by another with the same id. */
+  private final Map<Zone, Long> zoneIncarnations = new WeakHashMap<Zone, Long>();
+  private long lastZoneIncarnation;
+
+  /** Identifies the campaign in zone stamps; changes whenever the campaign is replaced. */
+  private volatile String campaignSession = new GUID().toString();
+
+  /** The zone the clients were last made to show, sent first to joining clients. */
+  private volatile GUID enforcedZoneId;
+
   private Campaign campaign;
   private ServerPolicy policy;
   private HeartbeatThread heartbeatThread;
@@ -65,6 +100,8 @@ public MapToolServer(ServerConfig config, ServerPolicy policy) throws IOExceptio
 
     assetProducerThread = new AssetProducerThread();
     assetProducerThread.start();
+    zoneSenderThread = new ZoneSenderThread();
+    zoneSenderThread.start();
 
     this.config = config;
     this.policy = policy;
@@ -78,10 +115,22 @@ public MapToolServer(ServerConfig config, ServerPolicy policy) throws IOExceptio
 
   public void configureClientConnection(ClientConnection connection) {
     String id = connection.getId();
+    sendWindowMap.put(id, new AssetSendWindow(assetChunkAckIds.remove(id.toUpperCase())));
     assetManagerMap.put(id, new AssetTransferManager());
+    zoneQueueMap.put(id, new ArrayDeque<GUID>());
     connectionMap.put(id, connection);
   }
 
+  /**
+   * Called from the handshake of a client that acknowledges the asset chunks it receives. The
+   * others get their chunks without waiting for acknowledgements.
+   *
+   * @param id the connection id of the client
+   */
+  void setAcknowledgesAssetChunks(String id) {
+    assetChunkAckIds.add(id.toUpperCase());
+  }
+
   public ClientConnection getClientConnection(String id) {
     return connectionMap.get(id);
   }
@@ -104,13 +153,151 @@ public void releaseClientConnection(String id) {
         log.error("Could not release connection: " + id, e);
       }
     }
-    assetManagerMap.remove(id);
+    AssetTransferManager manager = assetManagerMap.remove(id);
+    if (manager != null) {
+      manager.flush();
+    }
+    sendWindowMap.remove(id);
+    zoneQueueMap.remove(id);
     connectionMap.remove(id);
   }
 
   public void addAssetProducer(String connectionId, AssetProducer producer) {
     AssetTransferManager manager = assetManagerMap.get(connectionId);
     manager.addProducer(producer);
+    assetProducerThread.wakeUp();
+  }
+
+  /**
+   * Send the given assets to the client before any other asset it is waiting for.
+   *
+   * @param connectionId the connection of the client
+   * @param assetIds the assets to send first
+   */
+  public void prioritizeAssets(String connectionId, Collection<? extends Serializable> assetIds) {
+    AssetTransferManager manager = assetManagerMap.get(connectionId);
+    if (manager != null && manager.prioritize(assetIds)) {
+      assetProducerThread.wakeUp();
+    }
+  }
+
+  /**
+   * Called when the client acknowledges an asset chunk, making room for the next one.
+   *
+   * @param connectionId the connection of the client
+   * @param sequence the sequence number of the chunk
+   */
+  public void assetChunkReceived(String connectionId, long sequence) {
+    AssetSendWindow window = sendWindowMap.get(connectionId);
+    if (window != null) {
+      window.chunkAcknowledged(sequence, System.currentTimeMillis());
+      assetProducerThread.wakeUp();
+    }
+  }
+
+  /**
+   * Returns a stamp of the zone as it is now. Two stamps are equal only if they were taken of the
+   * same zone object of the same server campaign with no change in between, so a client with a copy
+   * of the zone taken at a stamp equal to the current one has the zone as it is now.
+   *
+   * @param zone the zone
+   * @return the stamp
+   */
+  public String getZoneStamp(Zone zone) {
+    long incarnation;
+    synchronized (zoneIncarnations) {
+      incarnation = zoneIncarnations.computeIfAbsent(zone, z -> ++lastZoneIncarnation);
+    }
+    // The version goes through the tokens, so no call for the zone may change them meanwhile
+    synchronized (zone) {
+      return campaignSession + ":" + incarnation + ":" + zone.getVersion();
+    }
+  }
+
+  /** @return the stamps of the zones of the campaign, in campaign order */
+  public Map<GUID, String> getZoneStamps() {
+    Map<GUID, String> stamps = new LinkedHashMap<GUID, String>();
+    for (Zone zone : campaign.getZones()) {
+      stamps.put(zone.getId(), getZoneStamp(zone));
+    }
+    return stamps;
+  }
+
+  /**
+   * Run a task while no call for any zone of the campaign is being handled. The zones are locked
+   * one after the other in campaign order; a call only ever locks one zone.
+   *
+   * @param task the task
+   */
+  public void runWithZonesLocked(Runnable task) {
+    runWithZonesLocked(campaign.getZones(), 0, task);
+  }
+
+  private static void runWithZonesLocked(List<Zone> zones, int from, Runnable task) {
+    if (from == zones.size()) {
+      task.run();
+      return;
+    }
+    synchronized (zones.get(from)) {
+      runWithZonesLocked(zones, from + 1, task);
+    }
+  }
+
+  /**
+   * Send the given zones to the client in the background, one at a time. The enforced zone goes
+   * first, then the visible zones, then the hidden ones.
+   *
+   * @param connectionId the connection of the client
+   * @param zoneIds the zones to send
+   */
+  public void sendZones(String connectionId, Collection<GUID> zoneIds) {
+    // In campaign order, whatever order they were asked in
+    Set<GUID> wanted = new HashSet<GUID>(zoneIds);
+    List<Zone> zones = new ArrayList<Zone>();
+    for (Zone zone : campaign.getZones()) {
+      if (wanted.contains(zone.getId())) {
+        zones.add(zone);
+      }
+    }
+    GUID enforced = enforcedZoneId;
+    zones.sort(
+        Comparator.comparing((Zone zone) -> !zone.getId().equals(enforced))
+            .thenComparing(zone -> !zone.isVisible()));
+    Deque<GUID> queue = zoneQueueMap.get(connectionId);
+    if (queue == null) {
+      return;
+    }
+    synchronized (queue) {
+      for (Zone zone : zones) {
+        if (!queue.contains(zone.getId())) {
+          queue.add(zone.getId());
+        }
+      }
+    }
+    zoneSenderThread.wakeUp();
+  }
+
+  /**
+   * Send the zone to the client before any other zone it is waiting for.
+   *
+   * @param connectionId the connection of the client
+   * @param zoneId the zone
+   */
+  public void sendZoneFirst(String connectionId, GUID zoneId) {
+    Deque<GUID> queue = zoneQueueMap.get(connectionId);
+    if (queue == null) {
+      return;
+    }
+    synchronized (queue) {
+      queue.remove(zoneId);
+      queue.addFirst(zoneId);
+    }
+    zoneSenderThread.wakeUp();
+  }
+
+  /** @param zoneId the zone the clients were made to show */
+  public void setEnforcedZone(GUID zoneId) {
+    enforcedZoneId = zoneId;
   }
 
   public void addObserver(ServerObserver observer) {
@@ -141,6 +328,8 @@ public void setCampaign(Campaign campaign) {
       campaign = new Campaign();
     }
     this.campaign = campaign;
+    campaignSession = new GUID().toString();
+    enforcedZoneId = null;
   }
 
   public Campaign getCampaign() {
@@ -169,6 +358,9 @@ public void stop() {
       if (heartbeatThread != null) {
         heartbeatThread.shutdown();
       }
+      if (zoneSenderThread != null) {
+        zoneSenderThread.shutdown();
+      }
       if (assetProducerThread != null) {
         assetProducerThread.shutdown();
       }
@@ -264,44 +456,174 @@ public void shutdown() {
 
   ////
   // CLASSES
+  /**
+   * Sends the queued asset chunks to every client, as much as each client's send window allows, a
+   * few chunks per client in turn so that one client's backlog doesn't hold up the others. Sleeps
+   * until a new transfer is queued or a client acknowledges a chunk.
+   */
   private class AssetProducerThread extends Thread {
-    private boolean stop = false;
+    /**
+     * The most chunks sent to one client before moving on to the next. Clients that don't
+     * acknowledge chunks have no window to stop at.
+     */
+    private static final int CHUNKS_PER_PASS = 4;
+
+    private volatile boolean stop = false;
+    private boolean wakeUpPending = false;
+
+    public AssetProducerThread() {
+      super("MapToolServer.AssetProducerThread");
+    }
 
     @Override
     public void run() {
       while (!stop) {
-        Entry<String, AssetTransferManager> entryForException = null;
+        String idForException = null;
         try {
-          boolean lookForMore = false;
-          for (Entry<String, AssetTransferManager> entry : assetManagerMap.entrySet()) {
-            entryForException = entry;
-            AssetChunk chunk = entry.getValue().nextChunk(ASSET_CHUNK_SIZE);
-            if (chunk != null) {
-              lookForMore = true;
+          List<String> ids;
+          synchronized (assetManagerMap) {
+            ids = new ArrayList<String>(assetManagerMap.keySet());
+          }
+          boolean waiting = false;
+          boolean more = false;
+          for (String id : ids) {
+            idForException = id;
+            AssetTransferManager manager = assetManagerMap.get(id);
+            AssetSendWindow window = sendWindowMap.get(id);
+            if (manager == null || window == null) {
+              continue;
+            }
+            // Fill this client's window, the connection sends it while we move on to the others
+            int sent = 0;
+            while (window.canSend(System.currentTimeMillis())) {
+              if (sent == CHUNKS_PER_PASS) {
+                // Come back to this client after the others had their turn
+                more = true;
+                break;
+              }
+              AssetChunk chunk = manager.nextChunk(window.getChunkSize());
+              if (chunk == null) {
+                break;
+              }
+              sent++;
+              long now = System.currentTimeMillis();
+              chunk.setSequence(window.chunkSent(chunk.getData().length, now));
               getConnection()
                   .callMethod(
-                      entry.getKey(),
+                      id,
                       MapToolConstants.Channel.IMAGE,
                       ClientCommand.COMMAND.updateAssetTransfer.name(),
                       chunk);
             }
+            waiting |= manager.hasProducers();
           }
-          if (lookForMore) {
+          if (more) {
             continue;
           }
-          // Sleep for a bit
           synchronized (this) {
-            Thread.sleep(500);
+            if (!wakeUpPending && !stop) {
+              // Time out while chunks are waiting, in case an acknowledgement got lost
+              wait(waiting ? AssetSendWindow.ACK_TIMEOUT : 0);
+            }
+            wakeUpPending = false;
+          }
+        } catch (InterruptedException e) {
+          // Shutting down
+        } catch (Exception e) {
+          log.info("Couldn't retrieve AssetChunk for " + idForException, e);
+          // keep on going
+        }
+      }
+    }
+
+    public synchronized void wakeUp() {
+      wakeUpPending = true;
+      notifyAll();
+    }
+
+    public void shutdown() {
+      stop = true;
+      wakeUp();
+    }
+  }
+
+  /**
+   * Sends the zones the clients are waiting for, one zone per client in turn, so that a client
+   * joining with a large campaign doesn't hold up the others. Sleeps until zones are queued.
+   */
+  private class ZoneSenderThread extends Thread {
+    /** How long to wait before sending a zone again when nothing could be sent. */
+    private static final long RETRY_DELAY = 1000;
+
+    private volatile boolean stop = false;
+    private boolean wakeUpPending = false;
+
+    public ZoneSenderThread() {
+      super("MapToolServer.ZoneSenderThread");
+    }
+
+    @Override
+    public void run() {
+      while (!stop) {
+        String idForException = null;
+        try {
+          List<String> ids;
+          synchronized (zoneQueueMap) {
+            ids = new ArrayList<String>(zoneQueueMap.keySet());
+          }
+          boolean sent = false;
+          boolean failed = false;
+          for (String id : ids) {
+            idForException = id;
+            Deque<GUID> queue = zoneQueueMap.get(id);
+            if (queue == null) {
+              continue;
+            }
+            GUID zoneId;
+            synchronized (queue) {
+              zoneId = queue.poll();
+            }
+            Zone zone = zoneId != null ? campaign.getZone(zoneId) : null;
+            if (zone == null) {
+              continue;
+            }
+            try {
+              handler.sendZone(id, zone);
+              sent = true;
+            } catch (RuntimeException e) {
+              log.info("Couldn't send zone " + zoneId + " to " + id + ", will retry", e);
+              // The client waits for every zone it asked for, so try again after the others
+              synchronized (queue) {
+                if (!queue.contains(zoneId)) {
+                  queue.add(zoneId);
+                }
+              }
+              failed = true;
+            }
+          }
+          synchronized (this) {
+            if (!sent && !wakeUpPending && !stop) {
+              wait(failed ? RETRY_DELAY : 0);
+            }
+            wakeUpPending = false;
           }
+        } catch (InterruptedException e) {
+          // Shutting down
         } catch (Exception e) {
-          log.info("Couldn't retrieve AssetChunk for " + entryForException.getKey(), e);
+          log.info("Couldn't send a zone to " + idForException, e);
           // keep on going
         }
       }
     }
 
+    public synchronized void wakeUp() {
+      wakeUpPending = true;
+      notifyAll();
+    }
+
     public void shutdown() {
       stop = true;
+      wakeUp();
     }
   }
 
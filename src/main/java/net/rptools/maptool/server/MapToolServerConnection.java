@@ -21,6 +21,7 @@
 import net.rptools.clientserver.hessian.server.ServerConnection;
 import net.rptools.clientserver.simple.server.ServerObserver;
 import net.rptools.maptool.client.ClientCommand;
+import net.rptools.maptool.model.Campaign;
 import net.rptools.maptool.model.Player;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -45,7 +46,7 @@ public MapToolServerConnection(MapToolServer server, int port) throws IOExceptio
   @Override
   public boolean handleConnectionHandshake(String id, Socket socket) {
     try {
-      Player player = Handshake.receiveHandshake(server, socket);
+      Player player = Handshake.receiveHandshake(server, id, socket);
 
       if (player != null) {
         playerMap.put(id.toUpperCase(), player);
@@ -94,9 +95,19 @@ public void connectionAdded(net.rptools.clientserver.simple.client.ClientConnect
         .broadcastCallMethod(ClientCommand.COMMAND.playerConnected.name(), player);
     // if (!server.isHostId(player.getName())) {
     // Don't bother sending the campaign file if we're hosting it ourselves
-    server
-        .getConnection()
-        .callMethod(conn.getId(), ClientCommand.COMMAND.setCampaign.name(), server.getCampaign());
+    // The zones follow in the background, once the client says which ones it doesn't have already
+    // No change in between the stamps and the campaign, or it would reach the client before both
+    server.runWithZonesLocked(
+        () -> {
+          Campaign campaign = server.getCampaign();
+          server
+              .getConnection()
+              .callMethod(
+                  conn.getId(),
+                  ClientCommand.COMMAND.setCampaign.name(),
+                  campaign.copyWithoutZones(),
+                  server.getZoneStamps());
+        });
     // }
   }
 
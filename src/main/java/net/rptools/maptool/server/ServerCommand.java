@@ -29,6 +29,7 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.TopologyMode;
 import net.rptools.maptool.model.Zone.VisionType;
@@ -44,14 +45,19 @@ public static enum COMMAND {
     setCampaign,
     setCampaignName,
     getZone,
+    requestZones,
     putZone,
     removeZone,
     putAsset,
     getAsset,
     removeAsset,
+    prioritizeAssets,
+    assetChunkReceived,
     putToken,
     removeToken,
     updateTokenProperty,
+    updateTokenDelta,
+    syncToken,
     draw,
     updateDrawing,
     clearAllDrawings,
@@ -126,6 +132,13 @@ public static enum COMMAND {
 
   public void getZone(GUID zoneGUID);
 
+  /**
+   * Ask the server to send the zones in the background, most important first.
+   *
+   * @param zoneGUIDs the zones the client doesn't have
+   */
+  public void requestZones(List<GUID> zoneGUIDs);
+
   public void putZone(Zone zone);
 
   public void removeZone(GUID zoneGUID);
@@ -138,6 +151,21 @@ public static enum COMMAND {
 
   public void removeAsset(MD5Key assetID);
 
+  /**
+   * Ask for the given assets to be sent before the other assets being transferred.
+   *
+   * @param assetIDs the assets needed first, e.g. those of the zone being viewed
+   */
+  public void prioritizeAssets(Set<MD5Key> assetIDs);
+
+  /**
+   * Acknowledge an asset chunk, so that the server can send the next one.
+   *
+   * @param sequence the sequence number of the chunk, see {@link
+   *     net.rptools.maptool.transfer.AssetChunk#getSequence()}
+   */
+  public void assetChunkReceived(long sequence);
+
   public void putToken(GUID zoneGUID, Token token);
 
   public void removeToken(GUID zoneGUID, GUID tokenGUID);
@@ -147,6 +175,22 @@ public void updateTokenProperty(
 
   public void updateTokenProperty(Token token, Token.Update update, Object... parameters);
 
+  /**
+   * Change only some fields of a token.
+   *
+   * @param zoneGUID the zone of the token
+   * @param delta the new values of the changed fields
+   */
+  public void updateTokenDelta(GUID zoneGUID, TokenDelta delta);
+
+  /**
+   * Ask for the whole token, after missing an update to it.
+   *
+   * @param zoneGUID the zone of the token
+   * @param tokenGUID the token
+   */
+  public void syncToken(GUID zoneGUID, GUID tokenGUID);
+
   public void putLabel(GUID zoneGUID, Label label);
 
   public void removeLabel(GUID zoneGUID, GUID labelGUID);
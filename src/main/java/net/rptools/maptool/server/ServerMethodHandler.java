@@ -14,8 +14,14 @@
  */
 package net.rptools.maptool.server;
 
+import com.caucho.hessian.io.HessianInput;
+import com.caucho.hessian.io.HessianOutput;
+import com.caucho.hessian.io.SerializerFactory;
 import java.awt.geom.Area;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import net.rptools.clientserver.hessian.AbstractMethodHandler;
 import net.rptools.lib.MD5Key;
@@ -40,6 +46,7 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.TopologyMode;
 import net.rptools.maptool.model.Zone.VisionType;
@@ -48,6 +55,7 @@
 import net.rptools.maptool.model.drawing.DrawnElement;
 import net.rptools.maptool.model.drawing.Pen;
 import net.rptools.maptool.transfer.AssetProducer;
+import net.rptools.maptool.util.AreaCodec;
 
 /**
  * This class is used by the server host to receive client commands sent through {@link
@@ -62,11 +70,23 @@ public class ServerMethodHandler extends AbstractMethodHandler implements Server
   private final MapToolServer server;
   private final Object MUTEX = new Object();
 
+  /** For the copies of the zones sent to the clients; same settings as the connection. */
+  private static final SerializerFactory serializerFactory = new SerializerFactory();
+
+  static {
+    serializerFactory.setAllowNonSerializable(true);
+  }
+
+  /**
+   * The version of each token, bumped whenever it is put or changed by a delta. Relayed deltas
+   * carry it so the clients can tell when they missed one. Guarded by {@link #MUTEX}.
+   */
+  private final Map<GUID, Long> tokenVersions = new HashMap<GUID, Long>();
+
   public ServerMethodHandler(MapToolServer server) {
     this.server = server;
   }
 
-  @SuppressWarnings("unchecked")
   public void handleMethod(String id, String method, Object... parameters) {
     ServerCommand.COMMAND cmd = Enum.valueOf(ServerCommand.COMMAND.class, method);
     // System.out.println("ServerMethodHandler#handleMethod: " + id + " - " + cmd.name());
@@ -74,215 +94,295 @@ public void handleMethod(String id, String method, Object... parameters) {
     try {
       RPCContext context = new RPCContext(id, method, parameters);
       RPCContext.setCurrent(context);
-      switch (cmd) {
-        case bootPlayer:
-          bootPlayer(context.getString(0));
-          break;
-        case bringTokensToFront:
-          bringTokensToFront(context.getGUID(0), (Set<GUID>) context.get(1));
-          break;
-        case draw:
-          draw(context.getGUID(0), (Pen) context.get(1), (Drawable) context.get(2));
-          break;
-        case updateDrawing:
-          updateDrawing(context.getGUID(0), (Pen) context.get(1), (DrawnElement) context.get(2));
-          break;
-        case enforceZoneView:
-          enforceZoneView(
-              context.getGUID(0),
-              context.getInt(1),
-              context.getInt(2),
-              context.getDouble(3),
-              context.getInt(4),
-              context.getInt(5));
-          break;
-        case restoreZoneView:
-          restoreZoneView(context.getGUID(0));
-          break;
-        case exposeFoW:
-          exposeFoW(context.getGUID(0), (Area) context.get(1), (Set<GUID>) context.get(2));
-          break;
-        case getAsset:
-          getAsset((MD5Key) context.get(0));
-          break;
-        case getZone:
-          getZone(context.getGUID(0));
-          break;
-        case hideFoW:
-          hideFoW(context.getGUID(0), (Area) context.get(1), (Set<GUID>) context.get(2));
-          break;
-        case setFoW:
-          setFoW(context.getGUID(0), (Area) context.get(1), (Set<GUID>) context.get(2));
-          break;
-        case hidePointer:
-          hidePointer(context.getString(0));
-          break;
-        case setLiveTypingLabel:
-          setLiveTypingLabel(context.getString(0), context.getBool(1));
-          break;
-        case enforceNotification:
-          enforceNotification(context.getBool(0));
-          break;
-        case message:
-          message((TextMessage) context.get(0));
-          break;
-        case execFunction:
-          execFunction(
-              (String) context.get(0),
-              (String) context.get(1),
-              (String) context.get(2),
-              (List<Object>) context.get(3));
-          break;
-        case execLink:
-          execLink((String) context.get(0), (String) context.get(1), (String) context.get(2));
-          break;
-        case putAsset:
-          putAsset((Asset) context.get(0));
-          break;
-        case putLabel:
-          putLabel(context.getGUID(0), (Label) context.get(1));
-          break;
-        case updateTokenProperty:
-          Token.Update update = (Token.Update) context.parameters[2];
-          updateTokenProperty(
-              context.getGUID(0), context.getGUID(1), update, context.getObjArray(3));
-          break;
-        case putToken:
-          putToken(context.getGUID(0), (Token) context.get(1));
-          break;
-        case putZone:
-          putZone((Zone) context.get(0));
-          break;
-        case removeZone:
-          removeZone(context.getGUID(0));
-          break;
-        case removeAsset:
-          removeAsset((MD5Key) context.get(0));
-          break;
-        case removeToken:
-          removeToken(context.getGUID(0), context.getGUID(1));
-          break;
-        case removeLabel:
-          removeLabel(context.getGUID(0), context.getGUID(1));
-          break;
-        case sendTokensToBack:
-          sendTokensToBack(context.getGUID(0), (Set<GUID>) context.get(1));
-          break;
-        case setCampaign:
-          setCampaign((Campaign) context.get(0));
-          break;
-        case setCampaignName:
-          setCampaignName((String) context.get(0));
-          break;
-        case setZoneGridSize:
-          setZoneGridSize(
-              context.getGUID(0),
-              context.getInt(1),
-              context.getInt(2),
-              context.getInt(3),
-              context.getInt(4));
-          break;
-        case setZoneVisibility:
-          setZoneVisibility(context.getGUID(0), (Boolean) context.get(1));
-          break;
-        case setZoneHasFoW:
-          setZoneHasFoW(context.getGUID(0), context.getBool(1));
-          break;
-        case showPointer:
-          showPointer(context.getString(0), (Pointer) context.get(1));
-          break;
-        case startTokenMove:
-          startTokenMove(
-              context.getString(0),
-              context.getGUID(1),
-              context.getGUID(2),
-              (Set<GUID>) context.get(3));
-          break;
-        case stopTokenMove:
-          stopTokenMove(context.getGUID(0), context.getGUID(1));
-          break;
-        case toggleTokenMoveWaypoint:
-          toggleTokenMoveWaypoint(
-              context.getGUID(0), context.getGUID(1), (ZonePoint) context.get(2));
-          break;
-        case undoDraw:
-          undoDraw(context.getGUID(0), context.getGUID(1));
-          break;
-        case updateTokenMove:
-          updateTokenMove(
-              context.getGUID(0), context.getGUID(1), context.getInt(2), context.getInt(3));
-          break;
-        case clearAllDrawings:
-          clearAllDrawings(context.getGUID(0), (Zone.Layer) context.get(1));
-          break;
-        case enforceZone:
-          enforceZone(context.getGUID(0));
-          break;
-        case setServerPolicy:
-          setServerPolicy((ServerPolicy) context.get(0));
-          break;
-        case addTopology:
-          addTopology(context.getGUID(0), (Area) context.get(1), (TopologyMode) context.get(2));
-          break;
-        case removeTopology:
-          removeTopology(context.getGUID(0), (Area) context.get(1), (TopologyMode) context.get(2));
-          break;
-        case renameZone:
-          renameZone(context.getGUID(0), context.getString(1));
-          break;
-        case heartbeat:
-          heartbeat(context.getString(0));
-          break;
-        case updateCampaign:
-          updateCampaign((CampaignProperties) context.get(0));
-          break;
-        case movePointer:
-          movePointer(context.getString(0), context.getInt(1), context.getInt(2));
-          break;
-        case updateInitiative:
-          updateInitiative((InitiativeList) context.get(0), (Boolean) context.get(1));
-          break;
-        case updateTokenInitiative:
-          updateTokenInitiative(
-              context.getGUID(0),
-              context.getGUID(1),
-              context.getBool(2),
-              context.getString(3),
-              context.getInt(4));
-          break;
-        case setVisionType:
-          setVisionType(context.getGUID(0), (VisionType) context.get(1));
-          break;
-        case setBoard:
-          setBoard(
-              context.getGUID(0), (MD5Key) context.get(1), context.getInt(2), context.getInt(3));
-          break;
-        case updateCampaignMacros:
-          updateCampaignMacros((List<MacroButtonProperties>) context.get(0));
-          break;
-        case updateGmMacros:
-          updateGmMacros((List<MacroButtonProperties>) context.get(0));
-          break;
-        case setTokenLocation:
-          setTokenLocation(
-              context.getGUID(0), context.getGUID(1), context.getInt(2), context.getInt(3));
-          break;
-        case exposePCArea:
-          exposePCArea(context.getGUID(0));
-          break;
-        case updateExposedAreaMeta:
-          updateExposedAreaMeta(
-              context.getGUID(0), context.getGUID(1), (ExposedAreaMetaData) context.get(2));
-          break;
-        case clearExposedArea:
-          clearExposedArea(context.getGUID(0), context.getBool(1));
-          break;
+      // The calls for a zone are handled one at a time, so that a copy of the zone taken for a
+      // client is either before or after each of them, see sendZone()
+      Zone zone = getTargetZone(context);
+      if (zone != null) {
+        synchronized (zone) {
+          handleCommand(cmd, context);
+        }
+      } else {
+        handleCommand(cmd, context);
       }
     } finally {
       RPCContext.setCurrent(null);
     }
   }
 
+  @SuppressWarnings("unchecked")
+  private void handleCommand(ServerCommand.COMMAND cmd, RPCContext context) {
+    switch (cmd) {
+      case bootPlayer:
+        bootPlayer(context.getString(0));
+        break;
+      case bringTokensToFront:
+        bringTokensToFront(context.getGUID(0), (Set<GUID>) context.get(1));
+        break;
+      case draw:
+        draw(context.getGUID(0), (Pen) context.get(1), (Drawable) context.get(2));
+        break;
+      case updateDrawing:
+        updateDrawing(context.getGUID(0), (Pen) context.get(1), (DrawnElement) context.get(2));
+        break;
+      case enforceZoneView:
+        enforceZoneView(
+            context.getGUID(0),
+            context.getInt(1),
+            context.getInt(2),
+            context.getDouble(3),
+            context.getInt(4),
+            context.getInt(5));
+        break;
+      case restoreZoneView:
+        restoreZoneView(context.getGUID(0));
+        break;
+      case exposeFoW:
+        exposeFoW(context.getGUID(0), (Area) context.get(1), (Set<GUID>) context.get(2));
+        break;
+      case getAsset:
+        getAsset((MD5Key) context.get(0));
+        break;
+      case prioritizeAssets:
+        prioritizeAssets((Set<MD5Key>) context.get(0));
+        break;
+      case assetChunkReceived:
+        assetChunkReceived(context.getLong(0));
+        break;
+      case getZone:
+        getZone(context.getGUID(0));
+        break;
+      case requestZones:
+        requestZones((List<GUID>) context.get(0));
+        break;
+      case hideFoW:
+        hideFoW(context.getGUID(0), (Area) context.get(1), (Set<GUID>) context.get(2));
+        break;
+      case setFoW:
+        setFoW(context.getGUID(0), (Area) context.get(1), (Set<GUID>) context.get(2));
+        break;
+      case hidePointer:
+        hidePointer(context.getString(0));
+        break;
+      case setLiveTypingLabel:
+        setLiveTypingLabel(context.getString(0), context.getBool(1));
+        break;
+      case enforceNotification:
+        enforceNotification(context.getBool(0));
+        break;
+      case message:
+        message((TextMessage) context.get(0));
+        break;
+      case execFunction:
+        execFunction(
+            (String) context.get(0),
+            (String) context.get(1),
+            (String) context.get(2),
+            (List<Object>) context.get(3));
+        break;
+      case execLink:
+        execLink((String) context.get(0), (String) context.get(1), (String) context.get(2));
+        break;
+      case putAsset:
+        putAsset((Asset) context.get(0));
+        break;
+      case putLabel:
+        putLabel(context.getGUID(0), (Label) context.get(1));
+        break;
+      case updateTokenProperty:
+        Token.Update update = (Token.Update) context.parameters[2];
+        updateTokenProperty(context.getGUID(0), context.getGUID(1), update, context.getObjArray(3));
+        break;
+      case putToken:
+        putToken(context.getGUID(0), (Token) context.get(1));
+        break;
+      case updateTokenDelta:
+        updateTokenDelta(context.getGUID(0), (TokenDelta) context.get(1));
+        break;
+      case syncToken:
+        syncToken(context.getGUID(0), context.getGUID(1));
+        break;
+      case putZone:
+        putZone((Zone) context.get(0));
+        break;
+      case removeZone:
+        removeZone(context.getGUID(0));
+        break;
+      case removeAsset:
+        removeAsset((MD5Key) context.get(0));
+        break;
+      case removeToken:
+        removeToken(context.getGUID(0), context.getGUID(1));
+        break;
+      case removeLabel:
+        removeLabel(context.getGUID(0), context.getGUID(1));
+        break;
+      case sendTokensToBack:
+        sendTokensToBack(context.getGUID(0), (Set<GUID>) context.get(1));
+        break;
+      case setCampaign:
+        setCampaign((Campaign) context.get(0));
+        break;
+      case setCampaignName:
+        setCampaignName((String) context.get(0));
+        break;
+      case setZoneGridSize:
+        setZoneGridSize(
+            context.getGUID(0),
+            context.getInt(1),
+            context.getInt(2),
+            context.getInt(3),
+            context.getInt(4));
+        break;
+      case setZoneVisibility:
+        setZoneVisibility(context.getGUID(0), (Boolean) context.get(1));
+        break;
+      case setZoneHasFoW:
+        setZoneHasFoW(context.getGUID(0), context.getBool(1));
+        break;
+      case showPointer:
+        showPointer(context.getString(0), (Pointer) context.get(1));
+        break;
+      case startTokenMove:
+        startTokenMove(
+            context.getString(0),
+            context.getGUID(1),
+            context.getGUID(2),
+            (Set<GUID>) context.get(3));
+        break;
+      case stopTokenMove:
+        stopTokenMove(context.getGUID(0), context.getGUID(1));
+        break;
+      case toggleTokenMoveWaypoint:
+        toggleTokenMoveWaypoint(context.getGUID(0), context.getGUID(1), (ZonePoint) context.get(2));
+        break;
+      case undoDraw:
+        undoDraw(context.getGUID(0), context.getGUID(1));
+        break;
+      case updateTokenMove:
+        updateTokenMove(
+            context.getGUID(0), context.getGUID(1), context.getInt(2), context.getInt(3));
+        break;
+      case clearAllDrawings:
+        clearAllDrawings(context.getGUID(0), (Zone.Layer) context.get(1));
+        break;
+      case enforceZone:
+        enforceZone(context.getGUID(0));
+        break;
+      case setServerPolicy:
+        setServerPolicy((ServerPolicy) context.get(0));
+        break;
+      case addTopology:
+        addTopology(context.getGUID(0), (Area) context.get(1), (TopologyMode) context.get(2));
+        break;
+      case removeTopology:
+        removeTopology(context.getGUID(0), (Area) context.get(1), (TopologyMode) context.get(2));
+        break;
+      case renameZone:
+        renameZone(context.getGUID(0), context.getString(1));
+        break;
+      case heartbeat:
+        heartbeat(context.getString(0));
+        break;
+      case updateCampaign:
+        updateCampaign((CampaignProperties) context.get(0));
+        break;
+      case movePointer:
+        movePointer(context.getString(0), context.getInt(1), context.getInt(2));
+        break;
+      case updateInitiative:
+        updateInitiative((InitiativeList) context.get(0), (Boolean) context.get(1));
+        break;
+      case updateTokenInitiative:
+        updateTokenInitiative(
+            context.getGUID(0),
+            context.getGUID(1),
+            context.getBool(2),
+            context.getString(3),
+            context.getInt(4));
+        break;
+      case setVisionType:
+        setVisionType(context.getGUID(0), (VisionType) context.get(1));
+        break;
+      case setBoard:
+        setBoard(context.getGUID(0), (MD5Key) context.get(1), context.getInt(2), context.getInt(3));
+        break;
+      case updateCampaignMacros:
+        updateCampaignMacros((List<MacroButtonProperties>) context.get(0));
+        break;
+      case updateGmMacros:
+        updateGmMacros((List<MacroButtonProperties>) context.get(0));
+        break;
+      case setTokenLocation:
+        setTokenLocation(
+            context.getGUID(0), context.getGUID(1), context.getInt(2), context.getInt(3));
+        break;
+      case exposePCArea:
+        exposePCArea(context.getGUID(0));
+        break;
+      case updateExposedAreaMeta:
+        updateExposedAreaMeta(
+            context.getGUID(0), context.getGUID(1), (ExposedAreaMetaData) context.get(2));
+        break;
+      case clearExposedArea:
+        clearExposedArea(context.getGUID(0), context.getBool(1));
+        break;
+    }
+  }
+
+  /** @return the zone of the campaign the call is for, or null if it isn't for one */
+  private Zone getTargetZone(RPCContext context) {
+    Object first = context.parameters.length > 0 ? context.parameters[0] : null;
+    return first instanceof GUID ? server.getCampaign().getZone((GUID) first) : null;
+  }
+
+  /**
+   * Send a zone to one client. The zone is copied between two calls for it, and the client told so
+   * right away. The changes made after the copy reach the client ahead of it, and are applied on
+   * top of it once it arrives. The copy is compressed and sent without holding up the calls.
+   *
+   * @param clientId the connection of the client
+   * @param zone the zone
+   */
+  void sendZone(String clientId, Zone zone) {
+    byte[] copy;
+    String stamp;
+    synchronized (zone) {
+      stamp = server.getZoneStamp(zone);
+      copy = writeZone(zone);
+      server
+          .getConnection()
+          .callMethod(clientId, ClientCommand.COMMAND.zoneCopied.name(), zone.getId());
+    }
+    server
+        .getConnection()
+        .callMethod(clientId, ClientCommand.COMMAND.putZone.name(), readZone(copy), stamp);
+  }
+
+  /** Writes the zone the way the connection does, without compressing it. */
+  private static byte[] writeZone(Zone zone) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    HessianOutput out = new HessianOutput(bytes);
+    out.setSerializerFactory(serializerFactory);
+    try {
+      out.writeObject(zone);
+      out.flush();
+    } catch (IOException ioe) {
+      // Can't happen writing to memory
+      throw new IllegalStateException(ioe);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static Zone readZone(byte[] bytes) {
+    HessianInput in = new HessianInput(new ByteArrayInputStream(bytes));
+    in.setSerializerFactory(serializerFactory);
+    try {
+      return (Zone) in.readObject(null);
+    } catch (IOException ioe) {
+      throw new IllegalStateException(ioe);
+    }
+  }
+
   /** Send the current call to all other clients except for the sender */
   private void forwardToClients() {
     server
@@ -290,7 +390,7 @@ private void forwardToClients() {
         .broadcastCallMethod(
             new String[] {RPCContext.getCurrent().id},
             RPCContext.getCurrent().method,
-            RPCContext.getCurrent().parameters);
+            RPCContext.getCurrent().rawParameters);
   }
 
   /** Send the current call to all clients including the sender */
@@ -298,7 +398,7 @@ private void forwardToAllClients() {
     server
         .getConnection()
         .broadcastCallMethod(
-            new String[] {}, RPCContext.getCurrent().method, RPCContext.getCurrent().parameters);
+            new String[] {}, RPCContext.getCurrent().method, RPCContext.getCurrent().rawParameters);
   }
 
   /**
@@ -309,7 +409,10 @@ private void forwardToAllClients() {
    * @param parameters an array of parameters related to the method
    */
   private void broadcastToClients(String exclude, String method, Object... parameters) {
-    server.getConnection().broadcastCallMethod(new String[] {exclude}, method, parameters);
+    server
+        .getConnection()
+        .broadcastCallMethod(
+            new String[] {exclude}, method, AreaCodec.packParameters(parameters));
   }
 
   /**
@@ -319,7 +422,9 @@ private void broadcastToClients(String exclude, String method, Object... paramet
    * @param parameters an array of parameters related to the method
    */
   private void broadcastToAllClients(String method, Object... parameters) {
-    server.getConnection().broadcastCallMethod(new String[] {}, method, parameters);
+    server
+        .getConnection()
+        .broadcastCallMethod(new String[] {}, method, AreaCodec.packParameters(parameters));
   }
 
   /**
@@ -330,7 +435,7 @@ private void broadcastToAllClients(String method, Object... parameters) {
    * @param parameters an array of parameters related to the method
    */
   private void broadcastToClient(String client, String method, Object... parameters) {
-    server.getConnection().callMethod(client, method, parameters);
+    server.getConnection().callMethod(client, method, AreaCodec.packParameters(parameters));
   }
 
   ////
@@ -341,7 +446,7 @@ public void setVisionType(GUID zoneGUID, VisionType visionType) {
     server
         .getConnection()
         .broadcastCallMethod(
-            ClientCommand.COMMAND.setUseVision.name(), RPCContext.getCurrent().parameters);
+            ClientCommand.COMMAND.setUseVision.name(), RPCContext.getCurrent().rawParameters);
   }
 
   public void heartbeat(String data) {
@@ -349,6 +454,7 @@ public void heartbeat(String data) {
   }
 
   public void enforceZone(GUID zoneGUID) {
+    server.setEnforcedZone(zoneGUID);
     forwardToClients();
   }
 
@@ -379,7 +485,8 @@ public void bringTokensToFront(GUID zoneGUID, Set<GUID> tokenSet) {
       }
       // Broadcast
       for (Token token : tokenList) {
-        broadcastToAllClients(ClientCommand.COMMAND.putToken.name(), zoneGUID, token);
+        broadcastToAllClients(
+            ClientCommand.COMMAND.putToken.name(), zoneGUID, token, bumpVersion(token.getId()));
       }
       zone.sortZOrder(); // update new ZOrder on server zone
     }
@@ -393,20 +500,21 @@ public void clearAllDrawings(GUID zoneGUID, Zone.Layer layer) {
   }
 
   public void draw(GUID zoneGUID, Pen pen, Drawable drawable) {
-    server
-        .getConnection()
-        .broadcastCallMethod(ClientCommand.COMMAND.draw.name(), RPCContext.getCurrent().parameters);
     Zone zone = server.getCampaign().getZone(zoneGUID);
     zone.addDrawable(new DrawnElement(drawable, pen));
+    server
+        .getConnection()
+        .broadcastCallMethod(
+            ClientCommand.COMMAND.draw.name(), RPCContext.getCurrent().rawParameters);
   }
 
   public void updateDrawing(GUID zoneGUID, Pen pen, DrawnElement drawnElement) {
+    Zone zone = server.getCampaign().getZone(zoneGUID);
+    zone.updateDrawable(drawnElement, pen);
     server
         .getConnection()
         .broadcastCallMethod(
-            ClientCommand.COMMAND.updateDrawing.name(), RPCContext.getCurrent().parameters);
-    Zone zone = server.getCampaign().getZone(zoneGUID);
-    zone.updateDrawable(drawnElement, pen);
+            ClientCommand.COMMAND.updateDrawing.name(), RPCContext.getCurrent().rawParameters);
   }
 
   public void enforceZoneView(GUID zoneGUID, int x, int y, double scale, int width, int height) {
@@ -427,7 +535,7 @@ public void exposeFoW(GUID zoneGUID, Area area, Set<GUID> selectedToks) {
     server
         .getConnection()
         .broadcastCallMethod(
-            ClientCommand.COMMAND.exposeFoW.name(), RPCContext.getCurrent().parameters);
+            ClientCommand.COMMAND.exposeFoW.name(), RPCContext.getCurrent().rawParameters);
   }
 
   public void exposePCArea(GUID zoneGUID) {
@@ -436,7 +544,15 @@ public void exposePCArea(GUID zoneGUID) {
     server
         .getConnection()
         .broadcastCallMethod(
-            ClientCommand.COMMAND.exposePCArea.name(), RPCContext.getCurrent().parameters);
+            ClientCommand.COMMAND.exposePCArea.name(), RPCContext.getCurrent().rawParameters);
+  }
+
+  public void prioritizeAssets(Set<MD5Key> assetIDs) {
+    server.prioritizeAssets(RPCContext.getCurrent().id, assetIDs);
+  }
+
+  public void assetChunkReceived(long sequence) {
+    server.assetChunkReceived(RPCContext.getCurrent().id, sequence);
   }
 
   public void getAsset(MD5Key assetID) {
@@ -444,11 +560,12 @@ public void getAsset(MD5Key assetID) {
       return;
     }
     try {
+      String name = AssetManager.getAssetInfo(assetID).getProperty(AssetManager.NAME);
+      ByteBuffer data = AssetManager.getAssetData(assetID);
       AssetProducer producer =
-          new AssetProducer(
-              assetID,
-              AssetManager.getAssetInfo(assetID).getProperty(AssetManager.NAME),
-              AssetManager.getAssetCacheFile(assetID));
+          data != null
+              ? new AssetProducer(assetID, name, data)
+              : new AssetProducer(assetID, name, AssetManager.getAssetCacheFile(assetID));
       server
           .getConnection()
           .callMethod(
@@ -481,12 +598,12 @@ public void getAsset(MD5Key assetID) {
   }
 
   public void getZone(GUID zoneGUID) {
-    server
-        .getConnection()
-        .callMethod(
-            RPCContext.getCurrent().id,
-            ClientCommand.COMMAND.putZone.name(),
-            server.getCampaign().getZone(zoneGUID));
+    // Ahead of any zones still being streamed to the client
+    server.sendZoneFirst(RPCContext.getCurrent().id, zoneGUID);
+  }
+
+  public void requestZones(List<GUID> zoneGUIDs) {
+    server.sendZones(RPCContext.getCurrent().id, zoneGUIDs);
   }
 
   public void hideFoW(GUID zoneGUID, Area area, Set<GUID> selectedToks) {
@@ -495,7 +612,7 @@ public void hideFoW(GUID zoneGUID, Area area, Set<GUID> selectedToks) {
     server
         .getConnection()
         .broadcastCallMethod(
-            ClientCommand.COMMAND.hideFoW.name(), RPCContext.getCurrent().parameters);
+            ClientCommand.COMMAND.hideFoW.name(), RPCContext.getCurrent().rawParameters);
   }
 
   public void setFoW(GUID zoneGUID, Area area, Set<GUID> selectedToks) {
@@ -504,7 +621,7 @@ public void setFoW(GUID zoneGUID, Area area, Set<GUID> selectedToks) {
     server
         .getConnection()
         .broadcastCallMethod(
-            ClientCommand.COMMAND.setFoW.name(), RPCContext.getCurrent().parameters);
+            ClientCommand.COMMAND.setFoW.name(), RPCContext.getCurrent().rawParameters);
   }
 
   public void hidePointer(String player) {
@@ -578,26 +695,92 @@ public void putLabel(GUID zoneGUID, Label label) {
 
   public void putToken(GUID zoneGUID, Token token) {
     Zone zone = server.getCampaign().getZone(zoneGUID);
+    String sender = RPCContext.getCurrent().id;
 
-    int zOrder = 0;
-    boolean newToken = zone.getToken(token.getId()) == null;
     synchronized (MUTEX) {
       // Set z-order for new tokens
+      boolean newToken = zone.getToken(token.getId()) == null;
+      int zOrder = 0;
       if (newToken) {
         zOrder = zone.getLargestZOrder() + 1;
         token.setZOrder(zOrder);
       }
       zone.putToken(token);
+      long version = bumpVersion(token.getId()) - 1;
+
+      // Relayed while holding the lock, so no delta applied after it can overtake it
+      broadcastToClients(
+          sender, ClientCommand.COMMAND.putToken.name(), zoneGUID, token, version + 1);
+      // The sender has the token already, it only needs the version
+      broadcastToClient(
+          sender,
+          ClientCommand.COMMAND.updateTokenDelta.name(),
+          zoneGUID,
+          TokenDelta.acknowledge(token.getId(), version, version + 1));
+      if (newToken) {
+        // don't send whole token back to sender, instead just send new ZOrder
+        Object[] parameters = {
+          zoneGUID, token.getId(), Token.Update.setZOrder, new Object[] {zOrder}
+        };
+        broadcastToClient(sender, ClientCommand.COMMAND.updateTokenProperty.name(), parameters);
+      }
     }
-    if (newToken) {
-      // don't send whole token back to sender, instead just send new ZOrder
-      Object[] parameters = {
-        zoneGUID, token.getId(), Token.Update.setZOrder, new Object[] {zOrder}
-      };
+  }
+
+  public void updateTokenDelta(GUID zoneGUID, TokenDelta delta) {
+    Zone zone = server.getCampaign().getZone(zoneGUID);
+    String sender = RPCContext.getCurrent().id;
+    synchronized (MUTEX) {
+      Token token = zone != null ? zone.getToken(delta.getTokenId()) : null;
+      if (token == null) {
+        // Removed in the meantime, or never put in this zone; a token still there for the sender
+        // comes back whole
+        broadcastToClient(
+            sender,
+            ClientCommand.COMMAND.updateTokenDelta.name(),
+            zoneGUID,
+            TokenDelta.reject(delta.getTokenId()));
+        return;
+      }
+      delta.applyTo(token);
+      zone.putToken(token);
+      long version = bumpVersion(token.getId()) - 1;
+      delta.setVersions(version, version + 1);
+
+      // In the order they are applied here; the sender applied it already and only gets the
+      // version, applying it again could undo a later change of its own
+      broadcastToClients(sender, ClientCommand.COMMAND.updateTokenDelta.name(), zoneGUID, delta);
       broadcastToClient(
-          RPCContext.getCurrent().id, ClientCommand.COMMAND.updateTokenProperty.name(), parameters);
+          sender,
+          ClientCommand.COMMAND.updateTokenDelta.name(),
+          zoneGUID,
+          TokenDelta.acknowledge(token.getId(), version, version + 1));
+    }
+  }
+
+  /**
+   * Bump the version of a token that changed. Must be called holding {@link #MUTEX}.
+   *
+   * @param tokenId the token
+   * @return the new version
+   */
+  private long bumpVersion(GUID tokenId) {
+    return tokenVersions.merge(tokenId, 1L, Long::sum);
+  }
+
+  public void syncToken(GUID zoneGUID, GUID tokenGUID) {
+    Zone zone = server.getCampaign().getZone(zoneGUID);
+    synchronized (MUTEX) {
+      Token token = zone != null ? zone.getToken(tokenGUID) : null;
+      if (token != null) {
+        broadcastToClient(
+            RPCContext.getCurrent().id,
+            ClientCommand.COMMAND.putToken.name(),
+            zoneGUID,
+            token,
+            tokenVersions.getOrDefault(tokenGUID, 0L));
+      }
     }
-    forwardToClients();
   }
 
   public void putZone(Zone zone) {
@@ -615,16 +798,19 @@ public void removeLabel(GUID zoneGUID, GUID labelGUID) {
     server
         .getConnection()
         .broadcastCallMethod(
-            ClientCommand.COMMAND.removeLabel.name(), RPCContext.getCurrent().parameters);
+            ClientCommand.COMMAND.removeLabel.name(), RPCContext.getCurrent().rawParameters);
   }
 
   public void removeToken(GUID zoneGUID, GUID tokenGUID) {
     Zone zone = server.getCampaign().getZone(zoneGUID);
     zone.removeToken(tokenGUID);
+    synchronized (MUTEX) {
+      tokenVersions.remove(tokenGUID);
+    }
     server
         .getConnection()
         .broadcastCallMethod(
-            ClientCommand.COMMAND.removeToken.name(), RPCContext.getCurrent().parameters);
+            ClientCommand.COMMAND.removeToken.name(), RPCContext.getCurrent().rawParameters);
   }
 
   public void updateTokenProperty(
@@ -666,13 +852,17 @@ public void sendTokensToBack(GUID zoneGUID, Set<GUID> tokenSet) {
       }
       // Broadcast
       for (Token token : tokenList) {
-        broadcastToAllClients(ClientCommand.COMMAND.putToken.name(), zoneGUID, token);
+        broadcastToAllClients(
+            ClientCommand.COMMAND.putToken.name(), zoneGUID, token, bumpVersion(token.getId()));
       }
       zone.sortZOrder(); // update new ZOrder on server zone
     }
   }
 
   public void setCampaign(Campaign campaign) {
+    synchronized (MUTEX) {
+      tokenVersions.clear();
+    }
     server.setCampaign(campaign);
     forwardToClients();
   }
@@ -691,7 +881,7 @@ public void setZoneGridSize(GUID zoneGUID, int offsetX, int offsetY, int size, i
     server
         .getConnection()
         .broadcastCallMethod(
-            ClientCommand.COMMAND.setZoneGridSize.name(), RPCContext.getCurrent().parameters);
+            ClientCommand.COMMAND.setZoneGridSize.name(), RPCContext.getCurrent().rawParameters);
   }
 
   public void setZoneHasFoW(GUID zoneGUID, boolean hasFog) {
@@ -700,7 +890,7 @@ public void setZoneHasFoW(GUID zoneGUID, boolean hasFog) {
     server
         .getConnection()
         .broadcastCallMethod(
-            ClientCommand.COMMAND.setZoneHasFoW.name(), RPCContext.getCurrent().parameters);
+            ClientCommand.COMMAND.setZoneHasFoW.name(), RPCContext.getCurrent().rawParameters);
   }
 
   public void setZoneVisibility(GUID zoneGUID, boolean visible) {
@@ -708,14 +898,14 @@ public void setZoneVisibility(GUID zoneGUID, boolean visible) {
     server
         .getConnection()
         .broadcastCallMethod(
-            ClientCommand.COMMAND.setZoneVisibility.name(), RPCContext.getCurrent().parameters);
+            ClientCommand.COMMAND.setZoneVisibility.name(), RPCContext.getCurrent().rawParameters);
   }
 
   public void showPointer(String player, Pointer pointer) {
     server
         .getConnection()
         .broadcastCallMethod(
-            ClientCommand.COMMAND.showPointer.name(), RPCContext.getCurrent().parameters);
+            ClientCommand.COMMAND.showPointer.name(), RPCContext.getCurrent().rawParameters);
   }
 
   public void setLiveTypingLabel(String label, boolean show) {
@@ -846,11 +1036,14 @@ private static class RPCContext {
     public String id;
     public String method;
     public Object[] parameters;
+    /** The parameters as received, with the areas still packed, for forwarding to the clients. */
+    public Object[] rawParameters;
 
-    public RPCContext(String id, String method, Object[] parameters) {
+    public RPCContext(String id, String method, Object[] rawParameters) {
       this.id = id;
       this.method = method;
-      this.parameters = parameters;
+      this.parameters = AreaCodec.unpackParameters(rawParameters);
+      this.rawParameters = rawParameters;
     }
 
     public static boolean hasCurrent() {
@@ -875,6 +1068,10 @@ public Integer getInt(int index) {
       return (Integer) parameters[index];
     }
 
+    public Long getLong(int index) {
+      return (Long) parameters[index];
+    }
+
     public Double getDouble(int index) {
       return (Double) parameters[index];
     }
@@ -19,12 +19,22 @@
 public class AssetChunk implements Serializable {
   private Serializable id;
   private byte[] data;
+  private long sequence;
 
   public AssetChunk(Serializable id, byte[] data) {
     this.id = id;
     this.data = data;
   }
 
+  /** @return the number the client acknowledges the chunk with, see {@link AssetSendWindow} */
+  public long getSequence() {
+    return sequence;
+  }
+
+  public void setSequence(long sequence) {
+    this.sequence = sequence;
+  }
+
   public byte[] getData() {
     return data;
   }
@@ -15,13 +15,15 @@
 package net.rptools.maptool.transfer;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Creates data chunks for transferring binary data. Assumes large datasets (otherwise it would be a
- * direct transfer) so expects the data to be streamed from a file
+ * direct transfer) so expects the data to be streamed from a file or a mapped buffer
  *
  * @author trevor
  */
@@ -29,8 +31,13 @@ public class AssetProducer {
   private Serializable id;
   private String name;
   private File assetFile;
+  private ByteBuffer assetData;
   private long length;
   private long currentPosition = 0;
+  private long priority;
+
+  /** Kept open between chunks, closed once the transfer is complete or suspended. */
+  private FileChannel channel;
 
   public AssetProducer(Serializable id, String name, File assetFile) {
     if (!assetFile.exists() || assetFile.isDirectory()) {
@@ -42,13 +49,27 @@ public AssetProducer(Serializable id, String name, File assetFile) {
     length = assetFile.length();
   }
 
+  /**
+   * Create a producer reading from a buffer, e.g. a memory mapped region of the asset store.
+   *
+   * @param id the id of the asset
+   * @param name the name of the asset
+   * @param assetData the data to transfer, from its position to its limit
+   */
+  public AssetProducer(Serializable id, String name, ByteBuffer assetData) {
+    this.id = id;
+    this.name = name;
+    this.assetData = assetData.duplicate();
+    length = this.assetData.remaining();
+  }
+
   /**
    * Get the header needed to create the corresponding AssetConsumer
    *
    * @throws IOException
    */
   public AssetHeader getHeader() throws IOException {
-    return new AssetHeader(id, name, assetFile.length());
+    return new AssetHeader(id, name, length);
   }
 
   /**
@@ -62,16 +83,58 @@ public AssetChunk nextChunk(int size) throws IOException {
       size = (int) (length - currentPosition);
     }
     byte[] data = new byte[size];
-    FileInputStream in = new FileInputStream(assetFile);
-
-    in.skip(currentPosition);
-    in.read(data, 0, size);
-    in.close();
+    if (assetData != null) {
+      ByteBuffer chunk = assetData.duplicate();
+      chunk.position(chunk.position() + (int) currentPosition);
+      chunk.get(data, 0, size);
+    } else {
+      if (channel == null) {
+        channel = FileChannel.open(assetFile.toPath(), StandardOpenOption.READ);
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(data);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, currentPosition + buffer.position()) < 0) {
+          suspend();
+          throw new IOException("Unexpected end of " + assetFile);
+        }
+      }
+    }
 
     currentPosition += size;
+    if (isComplete()) {
+      suspend();
+    }
     return new AssetChunk(id, data);
   }
 
+  /**
+   * Release the file handle held between chunks. It is opened again by the next call to {@link
+   * #nextChunk(int)}.
+   */
+  public void suspend() {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException ioe) {
+        // Only reading, nothing is lost
+      }
+      channel = null;
+    }
+  }
+
+  public Serializable getId() {
+    return id;
+  }
+
+  /** Producers with a higher priority are sent first */
+  public long getPriority() {
+    return priority;
+  }
+
+  public void setPriority(long priority) {
+    this.priority = priority;
+  }
+
   /** Whether all the data has been transferred */
   public boolean isComplete() {
     return currentPosition >= length;
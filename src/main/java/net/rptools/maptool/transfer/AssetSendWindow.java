@@ -0,0 +1,131 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.transfer;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Flow control for the asset chunks sent to one client. The client acknowledges every chunk it
+ * receives; only a few chunks are allowed in flight so that the asset data never piles up in the
+ * outgoing queue of the connection, where it would delay everything else sent to that client and
+ * keep a change of priority from taking effect.
+ *
+ * <p>The chunk size adapts to the connection: it doubles while chunks are acknowledged quickly and
+ * halves when they are slow to come back.
+ *
+ * <p>Each chunk gets a sequence number and the client acknowledges it by that number. The
+ * acknowledgements come back in order, so one also retires the older chunks whose acknowledgement
+ * got lost, and one for a chunk no longer in flight, because the window gave up on it, is ignored.
+ * Clients that don't acknowledge chunks, as they said in the handshake, get them without a window.
+ */
+public class AssetSendWindow {
+
+  public static final int MIN_CHUNK_SIZE = 5 * 1024;
+  public static final int MAX_CHUNK_SIZE = 256 * 1024;
+
+  /** How many chunks of the current size may be unacknowledged */
+  static final int WINDOW_CHUNKS = 4;
+
+  /** Round trips below this grow the chunk size, above four times this shrink it */
+  static final long TARGET_LATENCY = 250;
+
+  /** Give up waiting for acknowledgements after this long, in case they were lost */
+  public static final long ACK_TIMEOUT = 10000;
+
+  /** False if the client doesn't acknowledge chunks */
+  private final boolean acknowledged;
+
+  private int chunkSize = MIN_CHUNK_SIZE;
+  private long inFlightBytes;
+  private long nextSequence;
+
+  /** The sequence number, size and send time of the chunks not acknowledged yet, oldest first */
+  private final Deque<long[]> inFlight = new ArrayDeque<long[]>();
+
+  public AssetSendWindow() {
+    this(true);
+  }
+
+  /** @param acknowledged false if the client doesn't acknowledge the chunks it receives */
+  public AssetSendWindow(boolean acknowledged) {
+    this.acknowledged = acknowledged;
+  }
+
+  /**
+   * @param now the current time, in milliseconds
+   * @return whether another chunk may be sent
+   */
+  public synchronized boolean canSend(long now) {
+    long[] oldest = inFlight.peekFirst();
+    if (oldest != null && now - oldest[2] > ACK_TIMEOUT) {
+      // The late acknowledgements of these are ignored, their sequence numbers are gone
+      inFlight.clear();
+      inFlightBytes = 0;
+      chunkSize = MIN_CHUNK_SIZE;
+    }
+    return !acknowledged || inFlightBytes < (long) WINDOW_CHUNKS * chunkSize;
+  }
+
+  /** @return how many bytes to put in the next chunk */
+  public synchronized int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * Record a chunk being sent.
+   *
+   * @param size the number of bytes in the chunk
+   * @param now the current time, in milliseconds
+   * @return the sequence number of the chunk, for the client to acknowledge it with
+   */
+  public synchronized long chunkSent(int size, long now) {
+    long sequence = nextSequence++;
+    if (acknowledged) {
+      inFlight.addLast(new long[] {sequence, size, now});
+      inFlightBytes += size;
+    }
+    return sequence;
+  }
+
+  /**
+   * Record the acknowledgement of a chunk, and of the older chunks still in flight.
+   *
+   * @param sequence the sequence number of the chunk
+   * @param now the current time, in milliseconds
+   */
+  public synchronized void chunkAcknowledged(long sequence, long now) {
+    long[] chunk = null;
+    while (!inFlight.isEmpty() && inFlight.peekFirst()[0] <= sequence) {
+      chunk = inFlight.pollFirst();
+      inFlightBytes -= chunk[1];
+    }
+    if (chunk == null || chunk[0] != sequence) {
+      // Timed out already, or only older chunks whose acknowledgement got lost
+      return;
+    }
+    long latency = now - chunk[2];
+    if (latency < TARGET_LATENCY) {
+      chunkSize = Math.min(chunkSize * 2, MAX_CHUNK_SIZE);
+    } else if (latency > TARGET_LATENCY * 4) {
+      chunkSize = Math.max(chunkSize / 2, MIN_CHUNK_SIZE);
+    }
+  }
+
+  /** @return the number of bytes sent but not acknowledged */
+  public synchronized long getInFlightBytes() {
+    return inFlightBytes;
+  }
+}
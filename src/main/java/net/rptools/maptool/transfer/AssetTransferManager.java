@@ -17,6 +17,7 @@
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -29,22 +30,61 @@ public class AssetTransferManager {
       new CopyOnWriteArrayList<ConsumerListener>();
   private List<AssetProducer> producerList = new LinkedList<AssetProducer>();
 
+  /** The producer the last chunk came from */
+  private AssetProducer currentProducer;
+
+  /** Increases with every request, so that the most recent requests are sent first */
+  private long prioritySequence;
+
   /** Clear out all existing consumers and producers */
   public synchronized void flush() {
     consumerMap.clear();
+    for (AssetProducer producer : producerList) {
+      producer.suspend();
+    }
     producerList.clear();
+    currentProducer = null;
   }
 
   /**
    * Add a new producer to the chunk queue. Assumes that the header has already been transferred to
    * the consumer. Producer chunks can then be retrieved via nextChunk()
+   *
+   * <p>The newest producer is sent first: a client asks for the images it is about to paint, so the
+   * latest requests are the ones for the part of the map the player is looking at.
    */
   public synchronized void addProducer(AssetProducer producer) {
+    producer.setPriority(++prioritySequence);
     producerList.add(producer);
   }
 
   /**
-   * Get the next chunk from the available producers
+   * Move the given assets ahead of every other pending transfer, e.g. the assets of the zone a
+   * client just switched to. They are sent in the order they were requested.
+   *
+   * @param ids the ids of the assets
+   * @return true if any pending transfer was affected
+   */
+  public synchronized boolean prioritize(Collection<? extends Serializable> ids) {
+    long priority = ++prioritySequence;
+    boolean changed = false;
+    for (AssetProducer producer : producerList) {
+      if (ids.contains(producer.getId())) {
+        producer.setPriority(priority);
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  /** Whether there are chunks left to send */
+  public synchronized boolean hasProducers() {
+    return !producerList.isEmpty();
+  }
+
+  /**
+   * Get the next chunk from the available producers. Chunks come from the producer with the highest
+   * priority, ties going to the one added first, so that assets are completed one at a time.
    *
    * @param size size of the data to retrieve
    * @throws IOException
@@ -53,10 +93,28 @@ public synchronized AssetChunk nextChunk(int size) throws IOException {
     if (producerList.size() == 0) {
       return null;
     }
-    AssetProducer producer = producerList.remove(0);
-    AssetChunk chunk = producer.nextChunk(size);
-    if (!producer.isComplete()) {
-      producerList.add(producer);
+    AssetProducer producer = null;
+    for (AssetProducer candidate : producerList) {
+      if (producer == null || candidate.getPriority() > producer.getPriority()) {
+        producer = candidate;
+      }
+    }
+    if (currentProducer != null && currentProducer != producer) {
+      // Preempted, don't keep its file open while it waits
+      currentProducer.suspend();
+    }
+    currentProducer = producer;
+    AssetChunk chunk;
+    try {
+      chunk = producer.nextChunk(size);
+    } catch (IOException ioe) {
+      producerList.remove(producer);
+      currentProducer = null;
+      throw ioe;
+    }
+    if (producer.isComplete()) {
+      producerList.remove(producer);
+      currentProducer = null;
     }
     return chunk;
   }
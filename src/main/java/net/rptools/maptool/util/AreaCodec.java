@@ -0,0 +1,291 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import net.rptools.maptool.model.ExposedAreaMetaData;
+
+/**
+ * A compact binary form of {@link Area}, used for topology and fog in campaign files and on the
+ * network.
+ *
+ * <p>The data is a version number, then the segments of the path of the area. Each segment is its
+ * type as one byte followed by its coordinates, and the list ends with {@link #END}. A coordinate
+ * is a varint whose two low bits tell how it is stored: {@link #TAG_DELTA} when it is a whole
+ * number, the remaining bits being the zigzag encoded difference from the previous whole
+ * coordinate on the same axis; {@link #TAG_FLOAT} and {@link #TAG_DOUBLE} when it is followed by
+ * the raw bits of the value. Whole numbers are the common case for drawn topology, and nothing is
+ * ever rounded, so decoding gives back the same path.
+ *
+ * <p>The area itself is rebuilt from that path. For polygons with whole coordinates this gives an
+ * equal area, but where curves cross, {@link Area} may move the crossings by rounding errors.
+ */
+public class AreaCodec {
+
+  /** The version of the format written. */
+  public static final int VERSION = 1;
+
+  private static final int END = 0xFF;
+
+  private static final int TAG_DELTA = 0;
+  private static final int TAG_FLOAT = 1;
+  private static final int TAG_DOUBLE = 2;
+
+  /** Whole coordinates beyond this are stored as doubles, which keeps the deltas in a varint. */
+  private static final long MAX_WHOLE = 1L << 52;
+
+  private AreaCodec() {}
+
+  /**
+   * Encodes the area.
+   *
+   * @param area the area to encode
+   * @return the encoded area
+   */
+  public static byte[] encode(Area area) {
+    Output out = new Output();
+    out.writeVarint(VERSION);
+
+    double[] coords = new double[6];
+    for (PathIterator iter = area.getPathIterator(null); !iter.isDone(); iter.next()) {
+      int type = iter.currentSegment(coords);
+      out.buffer.write(type);
+      for (int i = 0; i < coordinateCount(type); i++) {
+        out.writeCoordinate(coords[i], i % 2);
+      }
+    }
+    out.buffer.write(END);
+    return out.buffer.toByteArray();
+  }
+
+  /**
+   * Decodes an area written by {@link #encode(Area)}.
+   *
+   * @param data the encoded area
+   * @return the area
+   * @throws IllegalArgumentException if the data is not an encoded area
+   */
+  public static Area decode(byte[] data) {
+    Input in = new Input(data);
+    int version = (int) in.readVarint();
+    if (version != VERSION) {
+      throw new IllegalArgumentException("Unknown area format version " + version);
+    }
+
+    // Area always iterates its path with the non-zero rule
+    Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO);
+    double[] coords = new double[6];
+    int type;
+    while ((type = in.readByte()) != END) {
+      for (int i = 0; i < coordinateCount(type); i++) {
+        coords[i] = in.readCoordinate(i % 2);
+      }
+      switch (type) {
+        case PathIterator.SEG_MOVETO:
+          path.moveTo(coords[0], coords[1]);
+          break;
+        case PathIterator.SEG_LINETO:
+          path.lineTo(coords[0], coords[1]);
+          break;
+        case PathIterator.SEG_QUADTO:
+          path.quadTo(coords[0], coords[1], coords[2], coords[3]);
+          break;
+        case PathIterator.SEG_CUBICTO:
+          path.curveTo(coords[0], coords[1], coords[2], coords[3], coords[4], coords[5]);
+          break;
+        case PathIterator.SEG_CLOSE:
+          path.closePath();
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown segment type " + type);
+      }
+    }
+    return new Area(path);
+  }
+
+  /**
+   * Replaces the areas among the parameters of a remote call by their packed form. Exposed area
+   * meta data holding an {@link net.rptools.maptool.model.ExposureMask} is left as it is.
+   *
+   * @param parameters the parameters of the call
+   * @return the parameters to send
+   */
+  public static Object[] packParameters(Object... parameters) {
+    Object[] packed = parameters;
+    for (int i = 0; i < parameters.length; i++) {
+      Object value = parameters[i];
+      if (value instanceof Area
+          || value instanceof ExposedAreaMetaData
+              && ((ExposedAreaMetaData) value).getExposureMask() == null) {
+        if (packed == parameters) {
+          packed = parameters.clone();
+        }
+        packed[i] = new Packed(value);
+      }
+    }
+    return packed;
+  }
+
+  /**
+   * Reverts {@link #packParameters(Object...)} on the parameters of a received call.
+   *
+   * @param parameters the parameters received
+   * @return the parameters with the areas unpacked
+   */
+  public static Object[] unpackParameters(Object... parameters) {
+    if (parameters == null) {
+      return null;
+    }
+    Object[] unpacked = parameters;
+    for (int i = 0; i < parameters.length; i++) {
+      if (parameters[i] instanceof Packed) {
+        if (unpacked == parameters) {
+          unpacked = parameters.clone();
+        }
+        unpacked[i] = ((Packed) parameters[i]).unpack();
+      }
+    }
+    return unpacked;
+  }
+
+  private static int coordinateCount(int type) {
+    switch (type) {
+      case PathIterator.SEG_MOVETO:
+      case PathIterator.SEG_LINETO:
+        return 2;
+      case PathIterator.SEG_QUADTO:
+        return 4;
+      case PathIterator.SEG_CUBICTO:
+        return 6;
+      default:
+        return 0;
+    }
+  }
+
+  /** The encoded form of an area, or of the area of an {@link ExposedAreaMetaData}. */
+  public static class Packed implements Serializable {
+    private byte[] data;
+    private boolean exposedAreaMetaData;
+
+    /** For the serializers. */
+    private Packed() {}
+
+    private Packed(Object value) {
+      if (value instanceof ExposedAreaMetaData) {
+        data = encode(((ExposedAreaMetaData) value).getExposedAreaHistory());
+        exposedAreaMetaData = true;
+      } else {
+        data = encode((Area) value);
+      }
+    }
+
+    private Object unpack() {
+      Area area = decode(data);
+      return exposedAreaMetaData ? new ExposedAreaMetaData(area) : area;
+    }
+  }
+
+  private static class Output {
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final long[] previous = new long[2];
+
+    private void writeCoordinate(double value, int axis) {
+      long whole = (long) value;
+      if (Math.abs(whole) < MAX_WHOLE
+          && Double.doubleToRawLongBits(whole) == Double.doubleToRawLongBits(value)) {
+        long delta = whole - previous[axis];
+        previous[axis] = whole;
+        writeVarint((((delta << 1) ^ (delta >> 63)) << 2) | TAG_DELTA);
+      } else if (Double.doubleToRawLongBits((float) value) == Double.doubleToRawLongBits(value)) {
+        writeVarint(TAG_FLOAT);
+        int bits = Float.floatToRawIntBits((float) value);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+          buffer.write(bits >>> shift);
+        }
+      } else {
+        writeVarint(TAG_DOUBLE);
+        long bits = Double.doubleToRawLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+          buffer.write((int) (bits >>> shift));
+        }
+      }
+    }
+
+    private void writeVarint(long value) {
+      while ((value & ~0x7FL) != 0) {
+        buffer.write((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      buffer.write((int) value);
+    }
+  }
+
+  private static class Input {
+    private final ByteBuffer buffer;
+    private final long[] previous = new long[2];
+
+    private Input(byte[] data) {
+      buffer = ByteBuffer.wrap(data);
+    }
+
+    private int readByte() {
+      if (!buffer.hasRemaining()) {
+        throw new IllegalArgumentException("Truncated area data");
+      }
+      return buffer.get() & 0xFF;
+    }
+
+    private double readCoordinate(int axis) {
+      long value = readVarint();
+      switch ((int) (value & 3)) {
+        case TAG_DELTA:
+          long zigzag = value >>> 2;
+          previous[axis] += (zigzag >>> 1) ^ -(zigzag & 1);
+          return previous[axis];
+        case TAG_FLOAT:
+          return Float.intBitsToFloat((int) readBits(4));
+        case TAG_DOUBLE:
+          return Double.longBitsToDouble(readBits(8));
+        default:
+          throw new IllegalArgumentException("Unknown coordinate tag " + (value & 3));
+      }
+    }
+
+    private long readBits(int bytes) {
+      long bits = 0;
+      for (int i = 0; i < bytes; i++) {
+        bits = (bits << 8) | readByte();
+      }
+      return bits;
+    }
+
+    private long readVarint() {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IllegalArgumentException("Malformed varint");
+    }
+  }
+}
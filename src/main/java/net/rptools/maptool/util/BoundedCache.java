@@ -0,0 +1,265 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.function.ToLongFunction;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A thread safe map with a memory budget. Every value is given a weight, usually its approximate
+ * size in bytes, and the least recently used entries are evicted once the total weight goes over
+ * the budget.
+ *
+ * <p>Entries the owner can't reload are protected from eviction by the <code>evictable</code>
+ * predicate; they still count against the budget. The predicate may be slow, for example when it
+ * looks at the file system, so it is asked when an entry is put, outside the lock, and the answer
+ * is kept with the entry. Call {@link #updateEvictable()} when the answers may have changed.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class BoundedCache<K, V> {
+  private static final Logger log = LogManager.getLogger(BoundedCache.class);
+
+  private final String name;
+  private final ToLongFunction<V> weigher;
+  private final BiPredicate<K, V> evictable;
+
+  /** Access ordered, so the first entry is the least recently used one. */
+  private final LinkedHashMap<K, V> map = new LinkedHashMap<K, V>(16, 0.75f, true);
+
+  /** The weight and evictability of each entry when it was added. */
+  private final Map<K, EntryInfo<V>> infoMap = new HashMap<K, EntryInfo<V>>();
+
+  private long maxWeight;
+  private long weight;
+
+  private long hitCount;
+  private long missCount;
+  private long evictionCount;
+
+  /**
+   * @param name the name of the cache, used in the logs
+   * @param maxWeight the memory budget
+   * @param weigher returns the weight of a value
+   * @param evictable returns false for entries that must not be evicted
+   */
+  public BoundedCache(
+      String name, long maxWeight, ToLongFunction<V> weigher, BiPredicate<K, V> evictable) {
+    this.name = name;
+    this.maxWeight = maxWeight;
+    this.weigher = weigher;
+    this.evictable = evictable;
+  }
+
+  /**
+   * Return the value for the key and mark it as recently used. Counts as a hit or a miss.
+   *
+   * @param key the key
+   * @return the value, or null if it isn't in the cache
+   */
+  public synchronized V get(K key) {
+    V value = map.get(key);
+    if (value != null) {
+      hitCount++;
+    } else {
+      missCount++;
+    }
+    return value;
+  }
+
+  public synchronized boolean containsKey(K key) {
+    return map.containsKey(key);
+  }
+
+  /**
+   * Add or replace the value for the key, then evict entries until the cache fits in its budget.
+   * The new entry is evicted last.
+   *
+   * @param key the key
+   * @param value the value
+   * @return the previous value, or null if there was none
+   */
+  public V put(K key, V value) {
+    long w = Math.max(0, weigher.applyAsLong(value));
+    boolean canEvict = evictable.test(key, value);
+    synchronized (this) {
+      V previous = remove(key);
+      map.put(key, value);
+      infoMap.put(key, new EntryInfo<V>(value, w, canEvict));
+      weight += w;
+      evict(key);
+      return previous;
+    }
+  }
+
+  /**
+   * Ask the <code>evictable</code> predicate again about every entry, then evict entries if the
+   * cache doesn't fit in its budget. The predicate is asked outside the lock.
+   */
+  public void updateEvictable() {
+    Map<K, EntryInfo<V>> entries;
+    synchronized (this) {
+      entries = new HashMap<K, EntryInfo<V>>(infoMap);
+    }
+    Map<K, Boolean> answers = new HashMap<K, Boolean>();
+    for (Map.Entry<K, EntryInfo<V>> entry : entries.entrySet()) {
+      answers.put(entry.getKey(), evictable.test(entry.getKey(), entry.getValue().value));
+    }
+    synchronized (this) {
+      for (Map.Entry<K, Boolean> answer : answers.entrySet()) {
+        EntryInfo<V> info = infoMap.get(answer.getKey());
+        // Entries replaced in the meantime were asked about when they were put
+        if (info == entries.get(answer.getKey())) {
+          info.evictable = answer.getValue();
+        }
+      }
+      evict(null);
+    }
+  }
+
+  /**
+   * Remove the value for the key.
+   *
+   * @param key the key
+   * @return the removed value, or null if there was none
+   */
+  public synchronized V remove(K key) {
+    V value = map.remove(key);
+    EntryInfo<V> info = infoMap.remove(key);
+    if (info != null) {
+      weight -= info.weight;
+    }
+    return value;
+  }
+
+  /** Remove all entries. The statistics are kept. */
+  public synchronized void clear() {
+    map.clear();
+    infoMap.clear();
+    weight = 0;
+  }
+
+  /** @return a copy of the keys, least recently used first */
+  public synchronized List<K> keys() {
+    return new ArrayList<K>(map.keySet());
+  }
+
+  public synchronized int size() {
+    return map.size();
+  }
+
+  /** @return the total weight of the entries */
+  public synchronized long getWeight() {
+    return weight;
+  }
+
+  /** @return the memory budget */
+  public synchronized long getMaxWeight() {
+    return maxWeight;
+  }
+
+  /**
+   * Change the memory budget, evicting entries if the cache no longer fits.
+   *
+   * @param maxWeight the new budget
+   */
+  public synchronized void setMaxWeight(long maxWeight) {
+    this.maxWeight = maxWeight;
+    evict(null);
+  }
+
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /** Reset the hit, miss and eviction counters. */
+  public synchronized void resetStatistics() {
+    hitCount = 0;
+    missCount = 0;
+    evictionCount = 0;
+  }
+
+  /**
+   * Evict the least recently used entries until the cache fits in its budget.
+   *
+   * @param keep a key that must not be evicted, may be null
+   */
+  private void evict(K keep) {
+    if (weight <= maxWeight) {
+      return;
+    }
+    Iterator<Map.Entry<K, V>> it = map.entrySet().iterator();
+    while (weight > maxWeight && it.hasNext()) {
+      K key = it.next().getKey();
+      EntryInfo<V> info = infoMap.get(key);
+      if ((keep != null && keep.equals(key)) || !info.evictable) {
+        continue;
+      }
+      it.remove();
+      infoMap.remove(key);
+      weight -= info.weight;
+      evictionCount++;
+      if (log.isDebugEnabled()) {
+        log.debug(name + ": evicted " + key);
+      }
+    }
+    if (weight > maxWeight && log.isDebugEnabled()) {
+      log.debug(name + ": over budget, nothing left to evict. " + this);
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "%s: %d entries, %s/%s, %d hits, %d misses, %d evictions",
+        name,
+        map.size(),
+        FileUtil.byteCountToDisplaySize(weight),
+        FileUtil.byteCountToDisplaySize(maxWeight),
+        hitCount,
+        missCount,
+        evictionCount);
+  }
+
+  /** What the cache knows about an entry besides its place in the LRU order. */
+  private static final class EntryInfo<V> {
+    private final V value;
+    private final long weight;
+    private boolean evictable;
+
+    private EntryInfo(V value, long weight, boolean evictable) {
+      this.value = value;
+      this.weight = weight;
+      this.evictable = evictable;
+    }
+  }
+}
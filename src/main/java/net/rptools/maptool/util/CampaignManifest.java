@@ -0,0 +1,181 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import net.rptools.lib.MD5Key;
+
+/**
+ * The index of the assets in a campaign file. For each asset it holds the description that older
+ * files kept in a separate XML entry per asset, along with the entry of the asset data, so an asset
+ * can be read straight from its entry without parsing anything else in the file.
+ *
+ * <p>The manifest is written in a fixed binary layout: a magic number and a version, then one
+ * record per asset.
+ */
+public class CampaignManifest {
+  /** The entry of the manifest in the campaign file. */
+  public static final String PATH = "manifest.bin";
+
+  private static final int MAGIC = 0x4d544d46; // MTMF
+  private static final int VERSION = 1;
+
+  private final Map<MD5Key, AssetEntry> assets = new LinkedHashMap<MD5Key, AssetEntry>();
+
+  /** Where to find an asset in the campaign file, and how to describe it. */
+  public static class AssetEntry {
+    private final MD5Key id;
+    private final String name;
+    private final String extension;
+    private final String type;
+    private final String path;
+    private final long size;
+
+    /**
+     * @param id the MD5 sum of the asset data
+     * @param name the name of the asset
+     * @param extension the extension of the asset data
+     * @param type the type of the asset
+     * @param path the entry holding the asset data
+     * @param size the size of the asset data
+     */
+    public AssetEntry(
+        MD5Key id, String name, String extension, String type, String path, long size) {
+      this.id = id;
+      this.name = name;
+      this.extension = extension;
+      this.type = type;
+      this.path = path;
+      this.size = size;
+    }
+
+    public MD5Key getId() {
+      return id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getExtension() {
+      return extension;
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    public String getPath() {
+      return path;
+    }
+
+    public long getSize() {
+      return size;
+    }
+  }
+
+  /**
+   * Add an asset, replacing any entry for the same id.
+   *
+   * @param entry the asset
+   */
+  public void addAsset(AssetEntry entry) {
+    assets.put(entry.getId(), entry);
+  }
+
+  /**
+   * @param id the asset id
+   * @return the entry of the asset, or null if the asset isn't in the campaign file
+   */
+  public AssetEntry getAsset(MD5Key id) {
+    return assets.get(id);
+  }
+
+  /** @return the entries of all the assets, in the order they were added */
+  public Collection<AssetEntry> getAssets() {
+    return Collections.unmodifiableCollection(assets.values());
+  }
+
+  /**
+   * Write the manifest.
+   *
+   * @param out the stream to write to; it isn't closed
+   * @throws IOException if writing fails
+   */
+  public void write(OutputStream out) throws IOException {
+    DataOutputStream dos = new DataOutputStream(out);
+    dos.writeInt(MAGIC);
+    dos.writeInt(VERSION);
+    dos.writeInt(assets.size());
+    for (AssetEntry entry : assets.values()) {
+      dos.writeUTF(entry.getId().toString());
+      writeString(dos, entry.getName());
+      writeString(dos, entry.getExtension());
+      writeString(dos, entry.getType());
+      dos.writeUTF(entry.getPath());
+      dos.writeLong(entry.getSize());
+    }
+    dos.flush();
+  }
+
+  /**
+   * Read a manifest written by {@link #write(OutputStream)}.
+   *
+   * @param in the stream to read from; it isn't closed
+   * @return the manifest
+   * @throws IOException if the stream can't be read or doesn't hold a manifest
+   */
+  public static CampaignManifest read(InputStream in) throws IOException {
+    DataInputStream dis = new DataInputStream(in);
+    if (dis.readInt() != MAGIC) {
+      throw new IOException("Not a campaign manifest");
+    }
+    int version = dis.readInt();
+    if (version > VERSION) {
+      throw new IOException("Unsupported campaign manifest version " + version);
+    }
+    CampaignManifest manifest = new CampaignManifest();
+    int count = dis.readInt();
+    for (int i = 0; i < count; i++) {
+      MD5Key id = new MD5Key(dis.readUTF());
+      String name = readString(dis);
+      String extension = readString(dis);
+      String type = readString(dis);
+      String path = dis.readUTF();
+      long size = dis.readLong();
+      manifest.addAsset(new AssetEntry(id, name, extension, type, path, size));
+    }
+    return manifest;
+  }
+
+  private static void writeString(DataOutputStream dos, String s) throws IOException {
+    dos.writeBoolean(s != null);
+    if (s != null) {
+      dos.writeUTF(s);
+    }
+  }
+
+  private static String readString(DataInputStream dis) throws IOException {
+    return dis.readBoolean() ? dis.readUTF() : null;
+  }
+}
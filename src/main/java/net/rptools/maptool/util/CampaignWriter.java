@@ -0,0 +1,299 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import com.thoughtworks.xstream.XStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import net.rptools.lib.FileUtil;
+import net.rptools.lib.MD5Key;
+import net.rptools.lib.io.PackedFile;
+import net.rptools.maptool.model.Asset;
+import net.rptools.maptool.model.AssetManager;
+import net.rptools.maptool.model.Campaign;
+import net.rptools.maptool.util.converter.AreaConverter;
+import org.apache.commons.compress.archivers.zip.ParallelScatterZipCreator;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes a campaign file in a single pass, straight into the zip. Each object is streamed into its
+ * own entry, in binary form for paths ending with {@link PackedFile#BINARY_EXTENSION}, so only one
+ * zone is being serialized at a time and it is never held in memory as a whole.
+ *
+ * <p>Assets are described in the {@link CampaignManifest} and their data is written in one entry
+ * per asset. Data that is already compressed, such as PNG and JPEG images, is stored as it is; the
+ * rest is deflated in parallel on a worker pool while the objects are written. Asset entries are
+ * named after the MD5 sum of their data, so an asset found in the manifest of the previous version
+ * of the file can't have changed; its entry is copied over raw.
+ *
+ * <p>The files written can be read by {@link PackedFile}. The {@link Campaign} zones are left out
+ * of the campaign entry; they are expected to be written as separate entries.
+ */
+public class CampaignWriter implements AutoCloseable {
+  private static final Logger log = LogManager.getLogger(CampaignWriter.class);
+
+  private final XStream xstream = FileUtil.getConfiguredXStream();
+  private final ZipArchiveOutputStream zout;
+
+  /** The previous version of the campaign file, or null. */
+  private ZipFile previous;
+
+  /** The assets of the previous file, or null if it has no manifest. */
+  private CampaignManifest previousManifest;
+
+  /** The assets written so far. */
+  private final CampaignManifest manifest = new CampaignManifest();
+
+  private final ExecutorService executor;
+  private final ParallelScatterZipCreator assetCreator;
+
+  /** Limits the number of assets held in memory waiting for a worker. */
+  private final Semaphore queuedAssets;
+
+  private boolean finished;
+  private int copiedAssets;
+  private int storedAssets;
+  private int compressedAssets;
+
+  /**
+   * @param file the file to write
+   * @param previousFile the previous version of the campaign, to copy unchanged assets from; may
+   *     be null or not exist
+   * @throws IOException if the file can't be created
+   */
+  public CampaignWriter(File file, File previousFile) throws IOException {
+    xstream.processAnnotations(Asset.class);
+    xstream.omitField(Campaign.class, "zones");
+    // Only this format is new enough for the compact areas, token and map files keep the old ones
+    xstream.registerConverter(
+        new AreaConverter(xstream.getMapper(), xstream.getReflectionProvider(), true));
+
+    zout = new ZipArchiveOutputStream(file);
+    zout.setLevel(Deflater.DEFAULT_COMPRESSION);
+
+    if (previousFile != null && previousFile.exists()) {
+      try {
+        previous = new ZipFile(previousFile);
+        ZipArchiveEntry entry = previous.getEntry(CampaignManifest.PATH);
+        if (entry != null) {
+          try (InputStream is = previous.getInputStream(entry)) {
+            previousManifest = CampaignManifest.read(is);
+          }
+        }
+      } catch (IOException ioe) {
+        // Not fatal, everything will just be written again
+        log.warn("Could not read previous campaign file " + previousFile, ioe);
+        previousManifest = null;
+      }
+    }
+
+    int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    executor =
+        Executors.newFixedThreadPool(
+            threads,
+            r -> {
+              Thread t = new Thread(r, "CampaignWriter");
+              t.setDaemon(true);
+              return t;
+            });
+    assetCreator = new ParallelScatterZipCreator(executor);
+    queuedAssets = new Semaphore(threads * 2);
+  }
+
+  /**
+   * Serialize the object into a new entry, in binary form if the path ends with {@link
+   * PackedFile#BINARY_EXTENSION}, as XML otherwise.
+   *
+   * @param path the path of the entry in the zip
+   * @param obj the object to write
+   * @throws IOException if writing fails
+   */
+  public void putObject(String path, Object obj) throws IOException {
+    ZipArchiveEntry entry = new ZipArchiveEntry(path);
+    entry.setMethod(ZipEntry.DEFLATED);
+    zout.putArchiveEntry(entry);
+    if (PackedFile.isBinary(path)) {
+      PackedFile.toBinary(xstream, obj, new CloseShieldOutputStream(zout));
+      zout.closeArchiveEntry();
+      return;
+    }
+    Writer writer =
+        new BufferedWriter(
+            new OutputStreamWriter(new CloseShieldOutputStream(zout), StandardCharsets.UTF_8));
+    xstream.toXML(obj, writer);
+    writer.write(System.lineSeparator()); // Same as PackedFile
+    writer.flush();
+    zout.closeArchiveEntry();
+  }
+
+  /**
+   * Copy an entry from the previous file as it is, without inflating it.
+   *
+   * @param path the path of the entry
+   * @return false if there is no such entry in the previous file
+   * @throws IOException if writing fails
+   */
+  public boolean copyFromPrevious(String path) throws IOException {
+    ZipArchiveEntry entry = previous != null ? previous.getEntry(path) : null;
+    if (entry == null) {
+      return false;
+    }
+    try (InputStream is = previous.getRawInputStream(entry)) {
+      zout.addRawArchiveEntry(entry, is);
+    }
+    return true;
+  }
+
+  /**
+   * Add the asset to the manifest and write its data. Unchanged assets are copied from the previous
+   * file, data that is already compressed is stored right away, and the rest is queued for the
+   * worker pool.
+   *
+   * @param assetId the MD5 sum of the asset
+   * @return false if the asset could not be found
+   * @throws IOException if writing fails
+   */
+  public boolean putAsset(MD5Key assetId) throws IOException {
+    CampaignManifest.AssetEntry previousEntry =
+        previousManifest != null ? previousManifest.getAsset(assetId) : null;
+    if (previousEntry != null && copyFromPrevious(previousEntry.getPath())) {
+      manifest.addAsset(previousEntry);
+      copiedAssets++;
+      return true;
+    }
+
+    try {
+      queuedAssets.acquire();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while saving assets", ie);
+    }
+    AtomicBoolean released = new AtomicBoolean();
+    boolean queued = false;
+    try {
+      Asset asset = AssetManager.getAsset(assetId);
+      if (asset == null) {
+        return false;
+      }
+      String extension = asset.getImageExtension();
+      String path = PersistenceUtil.ASSET_DIR + assetId + "." + extension;
+      byte[] data = asset.getImage();
+      manifest.addAsset(
+          new CampaignManifest.AssetEntry(
+              assetId, asset.getName(), extension, asset.getType(), path, data.length));
+
+      ZipArchiveEntry entry = new ZipArchiveEntry(path);
+      if (PackedFile.isCompressedFormat(path)) {
+        // Deflating it again would only cost time
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        entry.setCrc(crc.getValue());
+        zout.putArchiveEntry(entry);
+        zout.write(data);
+        zout.closeArchiveEntry();
+        storedAssets++;
+        return true;
+      }
+      entry.setMethod(ZipEntry.DEFLATED);
+      assetCreator.addArchiveEntry(
+          entry,
+          () ->
+              new ByteArrayInputStream(data) {
+                @Override
+                public void close() throws IOException {
+                  super.close();
+                  if (released.compareAndSet(false, true)) {
+                    queuedAssets.release();
+                  }
+                }
+              });
+      queued = true;
+      compressedAssets++;
+      return true;
+    } finally {
+      if (!queued && released.compareAndSet(false, true)) {
+        queuedAssets.release();
+      }
+    }
+  }
+
+  /**
+   * Write the manifest, wait for the workers and write the queued asset data, then the zip
+   * directory.
+   *
+   * @throws IOException if writing fails
+   */
+  public void finish() throws IOException {
+    ZipArchiveEntry entry = new ZipArchiveEntry(CampaignManifest.PATH);
+    entry.setMethod(ZipEntry.DEFLATED);
+    zout.putArchiveEntry(entry);
+    manifest.write(zout);
+    zout.closeArchiveEntry();
+
+    try {
+      assetCreator.writeTo(zout);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while saving assets", ie);
+    } catch (ExecutionException ee) {
+      throw new IOException("Could not compress asset", ee.getCause());
+    }
+    zout.finish();
+    finished = true;
+    log.debug(
+        "Campaign assets: "
+            + copiedAssets
+            + " copied, "
+            + storedAssets
+            + " stored, "
+            + compressedAssets
+            + " compressed");
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (!finished) {
+      executor.shutdownNow();
+    }
+    try {
+      zout.close();
+    } finally {
+      if (previous != null) {
+        previous.close();
+      }
+    }
+  }
+}
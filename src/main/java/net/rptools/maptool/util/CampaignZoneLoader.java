@@ -0,0 +1,227 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import javax.swing.SwingUtilities;
+import net.rptools.lib.io.PackedFile;
+import net.rptools.maptool.client.AppState;
+import net.rptools.maptool.client.MapTool;
+import net.rptools.maptool.client.functions.UserDefinedMacroFunctions;
+import net.rptools.maptool.client.ui.zone.ZoneRendererFactory;
+import net.rptools.maptool.model.AssetManager;
+import net.rptools.maptool.model.Campaign;
+import net.rptools.maptool.model.Zone;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Reads the zones of a lazily loaded campaign in the background, after the current zone has been
+ * shown. Each zone is added to the campaign on the EDT as it is read, the same way a zone arriving
+ * from the server is. Once all the zones are in, the lib: token functions are loaded and the
+ * remaining campaign assets are pulled into the asset cache, so the campaign no longer depends on
+ * the file.
+ *
+ * <p>Saving waits for the loader, see {@link #awaitCurrent()}, so a save never misses a zone and
+ * never replaces the file while assets are still to be read from it. Autosave stays paused until
+ * the loader is done. If a zone can't be read the campaign is marked incomplete, see {@link
+ * #isIncomplete()}, and can't be saved until a campaign is loaded again; saving it would drop the
+ * missing zones from the user's file.
+ */
+public class CampaignZoneLoader {
+  private static final Logger log = LogManager.getLogger(CampaignZoneLoader.class);
+
+  /** The loader of the current campaign, if it is still running. */
+  private static volatile CampaignZoneLoader current;
+
+  /** The campaign whose zones could not all be read, if it is still the current one. */
+  private static volatile Campaign incomplete;
+
+  private final File campaignFile;
+  private final String campaignVersion;
+  private final Campaign campaign;
+  private final List<String> zonePaths;
+  private final CampaignManifest manifest;
+  private final CountDownLatch done = new CountDownLatch(1);
+  private volatile boolean cancelled;
+
+  /**
+   * @param campaignFile the file to read the zones from
+   * @param campaignVersion the campaign version of the file
+   * @param campaign the campaign to add the zones to
+   * @param zonePaths the entries of the zones still to read, in the order to read them
+   * @param manifest the asset manifest of the file, or null if it has none
+   */
+  CampaignZoneLoader(
+      File campaignFile,
+      String campaignVersion,
+      Campaign campaign,
+      List<String> zonePaths,
+      CampaignManifest manifest) {
+    this.campaignFile = campaignFile;
+    this.campaignVersion = campaignVersion;
+    this.campaign = campaign;
+    this.zonePaths = new ArrayList<String>(zonePaths);
+    this.manifest = manifest;
+  }
+
+  /**
+   * Start reading the zones. Call this once the campaign has been installed with {@link
+   * MapTool#setCampaign(Campaign, net.rptools.maptool.model.GUID, boolean)}; any loader still
+   * running for a previous campaign is cancelled.
+   */
+  public void start() {
+    cancelCurrent();
+    current = this;
+    Thread thread = new Thread(this::run, "CampaignZoneLoader");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+  /**
+   * Stop the loader of the current campaign, if any. Zones already added stay in the campaign. Off
+   * the EDT this waits for the loader to stop; on the EDT it doesn't, the loader checks the flag
+   * before adding each zone.
+   */
+  public static void cancelCurrent() {
+    CampaignZoneLoader loader = current;
+    if (loader != null) {
+      loader.cancelled = true;
+      if (!SwingUtilities.isEventDispatchThread()) {
+        loader.await();
+      }
+    }
+  }
+
+  /**
+   * Wait until the loader of the current campaign, if any, has added all its zones and read the
+   * campaign assets. Not to be called on the EDT, which the loader needs to add the zones; callers
+   * there check {@link #isLoading()} first.
+   *
+   * @throws IllegalStateException if called on the EDT while the zones are still being read
+   */
+  public static void awaitCurrent() {
+    CampaignZoneLoader loader = current;
+    if (loader != null) {
+      loader.await();
+    }
+  }
+
+  /** @return true if the zones of the current campaign are still being read */
+  public static boolean isLoading() {
+    CampaignZoneLoader loader = current;
+    return loader != null && loader.done.getCount() > 0;
+  }
+
+  /**
+   * @return true if some zones of the current campaign could not be read, so saving it would lose
+   *     them
+   */
+  public static boolean isIncomplete() {
+    Campaign campaign = incomplete;
+    return campaign != null && campaign == MapTool.getCampaign();
+  }
+
+  private void await() {
+    if (done.getCount() == 0) {
+      return;
+    }
+    if (SwingUtilities.isEventDispatchThread()) {
+      // The loader is waiting for the EDT to add its next zone, it would never finish
+      throw new IllegalStateException("Waiting for the zones of " + campaignFile + " on the EDT");
+    }
+    try {
+      done.await();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run() {
+    try (PackedFile pakFile = new PackedFile(campaignFile)) {
+      pakFile.setModelVersionManager(PersistenceUtil.campaignVersionManager);
+      try {
+        loadZones(pakFile);
+      } catch (Throwable t) {
+        // The campaign is only partly there, saving it would drop the zones that are missing
+        incomplete = campaign;
+        MapTool.showError("msg.error.campaignIncomplete", t);
+      }
+      if (!cancelled) {
+        // Last, the assets nobody asked for yet, while the file is still where it was loaded from
+        AssetManager.loadPendingAssets(
+            key -> PersistenceUtil.readAsset(key, pakFile, campaignVersion, manifest));
+      }
+    } catch (Throwable t) {
+      // Whatever is left is read from the file when it is needed
+      log.error("Could not read the assets of " + campaignFile, t);
+    } finally {
+      done.countDown();
+      if (current == this) {
+        current = null;
+      }
+      if (!cancelled) {
+        SwingUtilities.invokeLater(
+            () -> {
+              AppState.setIsLoading(false);
+              if (!isIncomplete()) {
+                MapTool.getAutoSaveManager().restart();
+              }
+            });
+      }
+    }
+  }
+
+  private void loadZones(PackedFile pakFile) throws Exception {
+    long start = System.currentTimeMillis();
+    for (String path : zonePaths) {
+      if (cancelled || MapTool.getCampaign() != campaign) {
+        cancelled = true;
+        log.debug("Campaign replaced, stopped loading zones of " + campaignFile);
+        return;
+      }
+      Zone zone = (Zone) pakFile.getFileObject(path, campaignVersion);
+      // Into the model before the next zone is read, so a save waiting on us sees it
+      SwingUtilities.invokeAndWait(() -> addZone(zone));
+    }
+    SwingUtilities.invokeLater(
+        () -> {
+          if (MapTool.getCampaign() == campaign) {
+            UserDefinedMacroFunctions.getInstance().loadCampaignLibFunctions();
+          }
+        });
+    log.debug(
+        "Loaded "
+            + zonePaths.size()
+            + " zones in the background in "
+            + (System.currentTimeMillis() - start)
+            + " ms");
+  }
+
+  private void addZone(Zone zone) {
+    if (cancelled || MapTool.getCampaign() != campaign) {
+      return;
+    }
+    zone.optimize();
+    campaign.putZone(zone);
+    MapTool.serverCommand().putZone(zone);
+    MapTool.getFrame().addZoneRenderer(ZoneRendererFactory.newRenderer(zone));
+    MapTool.getEventDispatcher().fireEvent(MapTool.ZoneEvent.Added, campaign, null, zone);
+  }
+}
@@ -16,9 +16,9 @@
 
 import java.awt.Image;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import java.awt.image.ImageObserver;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -26,8 +26,10 @@
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.UnaryOperator;
 import net.rptools.lib.MD5Key;
 import net.rptools.lib.image.ImageUtil;
+import net.rptools.maptool.client.AppPreferences;
 import net.rptools.maptool.model.Asset;
 import net.rptools.maptool.model.AssetAvailableListener;
 import net.rptools.maptool.model.AssetManager;
@@ -47,10 +49,25 @@
 public class ImageManager {
   private static final Logger log = LogManager.getLogger(ImageManager.class);
 
-  /** Cache of images loaded for assets. */
-  private static final Map<MD5Key, BufferedImage> imageMap = new HashMap<MD5Key, BufferedImage>();
+  /**
+   * Cache of images loaded for assets. Evicted images are decoded again from the asset the next
+   * time they are asked for. The placeholders of images being loaded are never evicted.
+   */
+  private static final BoundedCache<MD5Key, BufferedImage> imageMap =
+      new BoundedCache<MD5Key, BufferedImage>(
+          "Image cache",
+          AppPreferences.getImageCacheSize() * 1024L * 1024L,
+          ImageManager::getImageSize,
+          (id, image) -> image != TRANSFERING_IMAGE);
 
-  private static final Map<MD5Key, byte[]> textureMap = new HashMap<MD5Key, byte[]>();
+  /**
+   * Reduced, flipped and otherwise derived copies of the images, for drawing them zoomed out. It
+   * gets half the budget of the image cache.
+   */
+  private static final MipmapCache mipmapCache =
+      new MipmapCache(
+          AppPreferences.getImageCacheSize() * 1024L * 1024L / 2,
+          Executors.newSingleThreadExecutor());
 
   /**
    * The unknown image, a "?" is used for all situations where the image will eventually appear e.g.
@@ -102,7 +119,75 @@ public class ImageManager {
    * loading.
    */
   public static void flush() {
+    log.info(getCacheStatistics());
+    log.info(getMipmapCacheStatistics());
     imageMap.clear();
+    mipmapCache.clear();
+  }
+
+  /**
+   * Change the memory budget of the image cache.
+   *
+   * @param bytes the budget, in bytes
+   */
+  public static void setCacheSize(long bytes) {
+    imageMap.setMaxWeight(bytes);
+    mipmapCache.setMaxBytes(bytes / 2);
+  }
+
+  /** @return the size and the hit, miss and eviction counts of the image cache */
+  public static String getCacheStatistics() {
+    return imageMap.toString();
+  }
+
+  /** @return the size and the hit, miss and eviction counts of the mipmap cache */
+  public static String getMipmapCacheStatistics() {
+    return mipmapCache.getStatistics();
+  }
+
+  /**
+   * Returns the loaded image of an asset reduced for drawing at the given scale, and optionally
+   * derived from that. See {@link MipmapCache#getImage(MD5Key, BufferedImage, double, Object,
+   * UnaryOperator, Runnable)}.
+   *
+   * @param assetId the asset of the image
+   * @param image the image returned by {@link #getImage(MD5Key, ImageObserver...)}
+   * @param scale the size on screen divided by the size of the image
+   * @param variant identifies the derived image, or null for the reduced image itself
+   * @param derive makes the derived image from a reduced image
+   * @param onReady called from the background once a better reduced image is available
+   * @return the image to draw
+   */
+  public static BufferedImage getMipmap(
+      MD5Key assetId,
+      BufferedImage image,
+      double scale,
+      Object variant,
+      UnaryOperator<BufferedImage> derive,
+      Runnable onReady) {
+    if (assetId == null || image == TRANSFERING_IMAGE || image == BROKEN_IMAGE) {
+      // The placeholders are small and shared by many assets, so they aren't cached
+      return variant == null ? image : derive.apply(image);
+    }
+    return mipmapCache.getImage(assetId, image, scale, variant, derive, onReady);
+  }
+
+  /**
+   * Return the approximate memory used by the pixels of an image. The shared placeholder images
+   * don't count.
+   *
+   * @param image the image
+   * @return the size in bytes
+   */
+  private static long getImageSize(BufferedImage image) {
+    if (image == TRANSFERING_IMAGE || image == BROKEN_IMAGE) {
+      return 0;
+    }
+    DataBuffer buffer = image.getRaster().getDataBuffer();
+    return (long) buffer.getSize()
+        * buffer.getNumBanks()
+        * DataBuffer.getDataTypeSize(buffer.getDataType())
+        / 8;
   }
 
   /**
@@ -121,9 +206,10 @@ public static BufferedImage getImageAndWait(MD5Key assetId) {
    */
   public static void flush(Set<MD5Key> exceptionSet) {
     synchronized (imageLoaderMutex) {
-      for (MD5Key id : new HashSet<MD5Key>(imageMap.keySet())) {
+      for (MD5Key id : imageMap.keys()) {
         if (!exceptionSet.contains(id)) {
           imageMap.remove(id);
+          mipmapCache.flush(id);
         }
       }
     }
@@ -233,7 +319,7 @@ public static void flushImage(Asset asset) {
   public static void flushImage(MD5Key assetId) {
     // LATER: investigate how this effects images that are already in progress
     imageMap.remove(assetId);
-    textureMap.remove(assetId);
+    mipmapCache.flush(assetId);
   }
 
   /**
@@ -36,6 +36,7 @@
 import net.rptools.maptool.client.AppUtil;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.swing.MemoryStatusBar;
+import net.rptools.maptool.model.AssetManager;
 import net.sbbi.upnp.devices.UPNPRootDevice;
 import net.sbbi.upnp.impls.InternetGatewayDevice;
 import net.sbbi.upnp.messages.UPNPResponseException;
@@ -69,6 +70,10 @@ public JsonObject getSysInfoJSON() {
         "max mem avail", format.format(Runtime.getRuntime().maxMemory() / (1024 * 1024)));
     mt.addProperty(
         "max mem used", format.format(MemoryStatusBar.getInstance().getLargestMemoryUsed()));
+    mt.addProperty("asset cache", AssetManager.getCacheStatistics());
+    mt.addProperty("image cache", ImageManager.getCacheStatistics());
+    mt.addProperty("mipmap cache", ImageManager.getMipmapCacheStatistics());
+    mt.addProperty("server commands", MapTool.getServerCommandStatistics());
     info.add("maptool", mt);
 
     // java
@@ -110,6 +115,10 @@ private void getMapToolInfo(Properties p) {
         "Max mem used...: "
             + FileUtils.byteCountToDisplaySize(
                 MemoryStatusBar.getInstance().getLargestMemoryUsed()));
+    appendInfo(AssetManager.getCacheStatistics());
+    appendInfo(ImageManager.getCacheStatistics());
+    appendInfo(ImageManager.getMipmapCacheStatistics());
+    appendInfo(MapTool.getServerCommandStatistics());
     for (String prop : p.stringPropertyNames()) {
       if (prop.startsWith("MAPTOOL_")) {
         appendInfo("Custom Property: -D" + prop + "=" + p.getProperty(prop));
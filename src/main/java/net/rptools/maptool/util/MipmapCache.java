@@ -0,0 +1,265 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.UnaryOperator;
+import net.rptools.lib.MD5Key;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Reduced copies of asset images for drawing them zoomed out. Level <i>n</i> of an image is the
+ * image halved <i>n</i> times, and an image drawn at a given scale uses the smallest level still
+ * larger than what is drawn, so the graphics pipeline never has to resample more than twice the
+ * pixels it puts on screen.
+ *
+ * <p>Levels are made by a background executor; until a level is ready the nearest finer one is
+ * returned and the caller is told when to draw again. Derived images, such as flipped or
+ * translucent copies, are cached per level next to the levels themselves, and everything shares
+ * one memory budget.
+ */
+public class MipmapCache {
+  private static final Logger log = LogManager.getLogger(MipmapCache.class);
+
+  /** Levels aren't made below this size, in pixels. */
+  private static final int MIN_SIZE = 16;
+
+  private final BoundedCache<Key, BufferedImage> cache;
+  private final Executor executor;
+
+  /** The levels being made. */
+  private final Set<Key> pending = ConcurrentHashMap.newKeySet();
+
+  /**
+   * @param maxBytes the memory budget
+   * @param executor runs the making of the levels
+   */
+  public MipmapCache(long maxBytes, Executor executor) {
+    this.cache =
+        new BoundedCache<Key, BufferedImage>(
+            "Mipmap cache", maxBytes, MipmapCache::getImageSize, (key, image) -> true);
+    this.executor = executor;
+  }
+
+  /**
+   * Returns the level to use for an image drawn at the given scale, that is the number of times it
+   * can be halved and still be at least as large as drawn.
+   *
+   * @param width the width of the image
+   * @param height the height of the image
+   * @param scale the size on screen divided by the size of the image
+   * @return the level
+   */
+  public static int getLevel(int width, int height, double scale) {
+    int level = 0;
+    while (scale > 0 && scale * 2 <= 1 && Math.min(width, height) / 2 >= MIN_SIZE) {
+      scale *= 2;
+      width /= 2;
+      height /= 2;
+      level++;
+    }
+    return level;
+  }
+
+  /**
+   * Returns the image to draw at the given scale. When the level for the scale isn't ready yet, it
+   * is made in the background and the nearest finer level is returned instead.
+   *
+   * @param id the asset of the image
+   * @param source the full size image of the asset
+   * @param scale the size on screen divided by the size of the image
+   * @param onReady called from the background once a better level is available, may be null
+   * @return the image to draw
+   */
+  public BufferedImage getImage(MD5Key id, BufferedImage source, double scale, Runnable onReady) {
+    return getImage(id, source, scale, null, null, onReady);
+  }
+
+  /**
+   * Returns a derived image to draw at the given scale. The derived image is made from the level
+   * returned by {@link #getImage(MD5Key, BufferedImage, double, Runnable)} and cached along with
+   * it.
+   *
+   * @param id the asset of the image
+   * @param source the full size image of the asset
+   * @param scale the size on screen divided by the size of the image
+   * @param variant identifies the derived image; must implement equals and hashCode. If null the
+   *     level itself is returned
+   * @param derive makes the derived image from a level
+   * @param onReady called from the background once a better level is available, may be null
+   * @return the image to draw
+   */
+  public BufferedImage getImage(
+      MD5Key id,
+      BufferedImage source,
+      double scale,
+      Object variant,
+      UnaryOperator<BufferedImage> derive,
+      Runnable onReady) {
+    int wanted = getLevel(source.getWidth(), source.getHeight(), scale);
+    int level = 0;
+    BufferedImage image = source;
+    for (int l = wanted; l > 0; l--) {
+      BufferedImage cached = cache.get(new Key(id, l, null));
+      if (cached != null) {
+        level = l;
+        image = cached;
+        break;
+      }
+    }
+    if (level < wanted) {
+      requestLevel(id, source, wanted, onReady);
+    }
+    if (variant == null) {
+      return image;
+    }
+    Key key = new Key(id, level, variant);
+    BufferedImage derived = cache.get(key);
+    if (derived == null) {
+      derived = derive.apply(image);
+      cache.put(key, derived);
+    }
+    return derived;
+  }
+
+  /**
+   * Removes the levels and derived images of an asset.
+   *
+   * @param id the asset
+   */
+  public void flush(MD5Key id) {
+    for (Key key : cache.keys()) {
+      if (key.id.equals(id)) {
+        cache.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Changes the memory budget, evicting old entries if needed.
+   *
+   * @param maxBytes the budget
+   */
+  public void setMaxBytes(long maxBytes) {
+    cache.setMaxWeight(maxBytes);
+  }
+
+  /** Removes everything. */
+  public void clear() {
+    cache.clear();
+  }
+
+  /** @return the size and the hit, miss and eviction counts of the cache */
+  public String getStatistics() {
+    return cache.toString();
+  }
+
+  private void requestLevel(MD5Key id, BufferedImage source, int level, Runnable onReady) {
+    Key key = new Key(id, level, null);
+    if (!pending.add(key)) {
+      return;
+    }
+    executor.execute(
+        () -> {
+          try {
+            // Start from the finest level already made
+            BufferedImage image = source;
+            int from = 0;
+            for (int l = level - 1; l > 0; l--) {
+              BufferedImage cached = cache.get(new Key(id, l, null));
+              if (cached != null) {
+                image = cached;
+                from = l;
+                break;
+              }
+            }
+            for (int l = from + 1; l <= level; l++) {
+              image = halve(image);
+              cache.put(new Key(id, l, null), image);
+            }
+          } catch (RuntimeException e) {
+            log.error("Could not make level " + level + " of " + id, e);
+            return;
+          } finally {
+            pending.remove(key);
+          }
+          if (onReady != null) {
+            onReady.run();
+          }
+        });
+  }
+
+  /**
+   * Halves the image with bilinear filtering, which averages each 2x2 block of pixels.
+   *
+   * @param image the image to halve
+   * @return the halved image
+   */
+  static BufferedImage halve(BufferedImage image) {
+    int width = Math.max(1, image.getWidth() / 2);
+    int height = Math.max(1, image.getHeight() / 2);
+    BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = result.createGraphics();
+    g.setRenderingHint(
+        RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+    g.drawImage(image, 0, 0, width, height, null);
+    g.dispose();
+    return result;
+  }
+
+  private static long getImageSize(BufferedImage image) {
+    return (long) image.getWidth() * image.getHeight() * 4;
+  }
+
+  /** A level of an asset image, or an image derived from it. */
+  private static final class Key {
+    private final MD5Key id;
+    private final int level;
+    private final Object variant;
+
+    private Key(MD5Key id, int level, Object variant) {
+      this.id = id;
+      this.level = level;
+      this.variant = variant;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return level == other.level && id.equals(other.id) && Objects.equals(variant, other.variant);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(id, level, variant);
+    }
+
+    @Override
+    public String toString() {
+      return id + "/" + level + (variant != null ? "/" + variant : "");
+    }
+  }
+}
@@ -32,6 +32,7 @@
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -47,6 +48,7 @@
 import net.rptools.lib.io.PackedFile;
 import net.rptools.lib.swing.SwingUtil;
 import net.rptools.maptool.client.AppConstants;
+import net.rptools.maptool.client.AppPreferences;
 import net.rptools.maptool.client.AppUtil;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.ui.Scale;
@@ -77,10 +79,23 @@ public class PersistenceUtil {
 
   public static final String PROP_VERSION = "version"; // $NON-NLS-1$
   public static final String PROP_CAMPAIGN_VERSION = "campaignVersion"; // $NON-NLS-1$
-  private static final String ASSET_DIR = "assets/"; // $NON-NLS-1$
+  static final String ASSET_DIR = "assets/"; // $NON-NLS-1$
+  static final String ZONE_DIR = "zones/"; // $NON-NLS-1$
+  /** The list of zone entries, in campaign order. Absent from files with zones in content.xml */
+  public static final String PROP_ZONES = "zones"; // $NON-NLS-1$
   public static final String HERO_LAB = "herolab"; // $NON-NLS-1$
 
-  private static final String CAMPAIGN_VERSION = "1.4.1";
+  private static final String CAMPAIGN_VERSION = "1.8.0";
+
+  /**
+   * The first campaign version with the zones and assets in their own entries. Older versions of
+   * MapTool can't read it, so it is only written by autosave and, once the user has turned on the
+   * new campaign format in the preferences, by a normal save.
+   */
+  static final String SPLIT_LAYOUT_VERSION = "1.7.0";
+
+  /** The campaign version written with all the zones in content.xml, as before the split layout */
+  private static final String LEGACY_LAYOUT_VERSION = "1.4.1";
 
   // Please add a single note regarding why the campaign version number has been updated:
   // 1.3.70 ownerOnly added to model.Light (not backward compatible)
@@ -91,8 +106,12 @@ public class PersistenceUtil {
   // how to implement?)
   // 1.4.0 Added lumens to LightSource class, old versions will not load unless saved as b89
   // compatible
+  // 1.7.0 Zones are saved in their own entries under zones/ instead of in content.xml; export
+  // to an older version to get the single content.xml layout
+  // 1.8.0 The campaign and zones are saved in binary form (content.bin, zones/*.bin) and the
+  // assets are described in manifest.bin instead of an XML entry each
 
-  private static final ModelVersionManager campaignVersionManager = new ModelVersionManager();
+  static final ModelVersionManager campaignVersionManager = new ModelVersionManager();
   private static final ModelVersionManager assetnameVersionManager = new ModelVersionManager();
   private static final ModelVersionManager tokenVersionManager = new ModelVersionManager();
 
@@ -159,6 +178,8 @@ public static class PersistedCampaign {
     public GUID currentZoneId;
     public Scale currentView;
     public String mapToolVersion;
+    /** Reads the other zones after the current one is shown; null if all zones are loaded. */
+    public transient CampaignZoneLoader zoneLoader;
   }
 
   public static void saveMap(Zone z, File mapFile) throws IOException {
@@ -251,8 +272,67 @@ private static String fixupZoneName(String n) {
     return n;
   }
 
+  /**
+   * Check if saving over the file would upgrade it to the current layout, which older versions of
+   * MapTool can't read.
+   *
+   * @param campaignFile the campaign file
+   * @return true if the file exists and was saved in the layout from before {@link
+   *     #SPLIT_LAYOUT_VERSION}
+   */
+  public static boolean isOlderLayout(File campaignFile) {
+    if (!campaignFile.exists()) {
+      return false;
+    }
+    try (PackedFile pakFile = new PackedFile(campaignFile)) {
+      String campaignVersion = (String) pakFile.getProperty(PROP_CAMPAIGN_VERSION);
+      return pakFile.getProperty(PROP_ZONES) == null
+          && ModelVersionManager.isBefore(campaignVersion, SPLIT_LAYOUT_VERSION);
+    } catch (IOException | RuntimeException e) {
+      // Not a campaign we can read, so nothing that would be upgraded
+      log.debug("Could not read the version of " + campaignFile, e);
+      return false;
+    }
+  }
+
+  /**
+   * Save the campaign in the format chosen in the preferences, see {@link
+   * AppPreferences#getNewCampaignFormat()}, or export it to an older version.
+   *
+   * @param campaign the campaign to save
+   * @param campaignFile the file to save to
+   * @param campaignVersion the campaign version to export to, or null for the current one
+   * @throws IOException if the campaign can't be written, or is missing zones that failed to load
+   */
   public static void saveCampaign(Campaign campaign, File campaignFile, String campaignVersion)
       throws IOException {
+    saveCampaign(
+        campaign,
+        campaignFile,
+        campaignVersion,
+        AppPreferences.getNewCampaignFormat(),
+        Collections.<GUID>emptySet());
+  }
+
+  /**
+   * Save the campaign.
+   *
+   * @param campaign the campaign to save
+   * @param campaignFile the file to save to
+   * @param campaignVersion the campaign version to export to, or null for the current one
+   * @param newFormat true to write the zones in their own binary entries, which older versions of
+   *     MapTool can't open; false to write them all in content.xml. Ignored for an export
+   * @param unchangedZones zones that are the same as in the current version of the file; their
+   *     entries are copied from it instead of being written again. Only used with the new format
+   * @throws IOException if the campaign can't be written, or is missing zones that failed to load
+   */
+  public static void saveCampaign(
+      Campaign campaign,
+      File campaignFile,
+      String campaignVersion,
+      boolean newFormat,
+      Set<GUID> unchangedZones)
+      throws IOException {
     CodeTimer saveTimer; // FJE Previously this was 'private static' -- why?
     saveTimer = new CodeTimer("CampaignSave");
     saveTimer.setThreshold(5);
@@ -265,6 +345,116 @@ public static void saveCampaign(Campaign campaign, File campaignFile, String cam
     File tmpFile = new File(tmpDir.getAbsolutePath(), campaignFile.getName());
     if (tmpFile.exists()) tmpFile.delete();
 
+    // A lazily loaded campaign isn't complete until all of its zones are in
+    CampaignZoneLoader.awaitCurrent();
+    if (CampaignZoneLoader.isIncomplete()) {
+      // Writing it would drop the zones that could not be read from the user's file
+      throw new IOException("Some zones of the campaign could not be loaded, not saving it");
+    }
+
+    boolean saved;
+    if (campaignVersion == null && newFormat) {
+      // The normal save, one streaming pass
+      saved = writeCampaign(campaign, tmpFile, campaignFile, unchangedZones, saveTimer);
+    } else {
+      // The legacy layout, or an export to an older version
+      saved = exportCampaign(campaign, tmpFile, campaignVersion, saveTimer);
+    }
+    if (!saved) {
+      return;
+    }
+    finishSave(campaignFile, tmpFile, tmpDir, saveTimer);
+  }
+
+  /**
+   * Write the campaign to the file with every zone and asset in its own entry. Assets, and the
+   * unchanged zones, that are in the previous file are copied over without being written again.
+   *
+   * @return false if the save failed and the user has been told so
+   */
+  private static boolean writeCampaign(
+      Campaign campaign,
+      File tmpFile,
+      File previousFile,
+      Set<GUID> unchangedZones,
+      CodeTimer saveTimer)
+      throws IOException {
+    PersistedCampaign persistedCampaign = new PersistedCampaign();
+    persistedCampaign.campaign = campaign;
+
+    // Keep track of the current view
+    ZoneRenderer currentZoneRenderer = MapTool.getFrame().getCurrentZoneRenderer();
+    if (currentZoneRenderer != null) {
+      persistedCampaign.currentZoneId = currentZoneRenderer.getZone().getId();
+      persistedCampaign.currentView = currentZoneRenderer.getZoneScale();
+    }
+
+    saveTimer.start("Collect all assets");
+    Set<MD5Key> allAssetIds = campaign.getAllAssetIds();
+    for (MD5Key key : allAssetIds) {
+      // Put in a placeholder; all we really care about is the MD5Key for now...
+      persistedCampaign.assetMap.put(key, null);
+    }
+    saveTimer.stop("Collect all assets");
+
+    try (CampaignWriter writer = new CampaignWriter(tmpFile, previousFile)) {
+      // Queue the assets first so the workers compress them while the zones are written
+      saveTimer.start("Save assets");
+      for (MD5Key assetId : allAssetIds) {
+        if (assetId != null && !writer.putAsset(assetId)) {
+          log.error("AssetId " + assetId + " not found while saving?!");
+        }
+      }
+      saveTimer.stop("Save assets");
+
+      saveTimer.start("Save zones");
+      List<String> zonePaths = new ArrayList<String>();
+      for (Zone zone : campaign.getZones()) {
+        String path = ZONE_DIR + zone.getId() + PackedFile.BINARY_EXTENSION;
+        if (!unchangedZones.contains(zone.getId()) || !writer.copyFromPrevious(path)) {
+          writer.putObject(path, zone);
+        }
+        zonePaths.add(path);
+      }
+      saveTimer.stop("Save zones");
+
+      saveTimer.start("Set content");
+      writer.putObject(PackedFile.BINARY_CONTENT_FILE, persistedCampaign); // Without the zones
+      Map<String, Object> properties = new HashMap<String, Object>();
+      properties.put(PROP_CAMPAIGN_VERSION, CAMPAIGN_VERSION);
+      properties.put(PROP_VERSION, MapTool.getVersion());
+      properties.put(PROP_ZONES, zonePaths);
+      writer.putObject(PackedFile.PROPERTY_FILE, properties);
+      saveTimer.stop("Set content");
+
+      saveTimer.start("Save");
+      writer.finish();
+      saveTimer.stop("Save");
+    } catch (OutOfMemoryError oom) {
+      tmpFile.delete(); // Delete the temporary file
+      if (log.isDebugEnabled()) {
+        log.debug(saveTimer);
+      }
+      MapTool.showError("msg.error.failedSaveCampaignOOM");
+      return false;
+    } catch (IOException ioe) {
+      tmpFile.delete();
+      throw ioe;
+    }
+    return true;
+  }
+
+  /**
+   * Write the campaign in the layout of an older version, with all the zones in content.xml. For an
+   * export, strip what that version can't read.
+   *
+   * @param campaignVersion the version to export to, or null for a save in the legacy layout
+   *
+   * @return false if the export failed and the user has been told so
+   */
+  private static boolean exportCampaign(
+      Campaign campaign, File tmpFile, String campaignVersion, CodeTimer saveTimer)
+      throws IOException {
     PackedFile pakFile = null;
     try {
       pakFile = new PackedFile(tmpFile);
@@ -302,7 +492,7 @@ public static void saveCampaign(Campaign campaign, File campaignFile, String cam
           pakFile = CampaignExport.stripContent(pakFile, persistedCampaign, campaignVersion);
         } else {
           pakFile.setContent(persistedCampaign);
-          pakFile.setProperty(PROP_CAMPAIGN_VERSION, CAMPAIGN_VERSION);
+          pakFile.setProperty(PROP_CAMPAIGN_VERSION, LEGACY_LAYOUT_VERSION);
           pakFile.setProperty(PROP_VERSION, MapTool.getVersion());
         }
 
@@ -326,7 +516,7 @@ public static void saveCampaign(Campaign campaign, File campaignFile, String cam
           log.debug(saveTimer);
         }
         MapTool.showError("msg.error.failedSaveCampaignOOM");
-        return;
+        return false;
       }
     } finally {
       saveTimer.start("Close");
@@ -337,6 +527,12 @@ public static void saveCampaign(Campaign campaign, File campaignFile, String cam
       saveTimer.stop("Close");
       pakFile = null;
     }
+    return true;
+  }
+
+  /** Replace the campaign file with the temporary file and update the thumbnail. */
+  private static void finishSave(
+      File campaignFile, File tmpFile, File tmpDir, CodeTimer saveTimer) throws IOException {
 
     /*
      * Copy to the new location. Not the fastest solution in the world if renameTo() fails, but worth the safety net it provides. Jamz: So, renameTo() is causing more issues than it is worth. It
@@ -408,8 +604,27 @@ public static File getCampaignThumbnailFile(String fileName) {
   }
 
   public static PersistedCampaign loadCampaign(File campaignFile) throws IOException {
+    return loadCampaign(campaignFile, false);
+  }
+
+  /**
+   * Load a campaign. When <code>lazy</code> is set and the file has its zones in separate entries,
+   * only the current zone is read; the others are left to the {@link PersistedCampaign#zoneLoader}
+   * and the assets are read from the file the first time they are needed.
+   *
+   * @param campaignFile the file to read
+   * @param lazy true to only read the current zone now
+   * @return the campaign, or null if it could not be read
+   * @throws IOException if the file can't be read
+   */
+  public static PersistedCampaign loadCampaign(File campaignFile, boolean lazy)
+      throws IOException {
     PersistedCampaign persistedCampaign = null;
 
+    // Anything still pending belongs to the campaign being replaced
+    CampaignZoneLoader.cancelCurrent();
+    AssetManager.clearPendingAssets();
+
     // Try the new way first
     PackedFile pakFile = null;
     try {
@@ -431,10 +646,34 @@ public static PersistedCampaign loadCampaign(File campaignFile) throws IOExcepti
         MapTool.showError("PersistenceUtil.error.campaignVersion", ce);
       }
       if (persistedCampaign != null) {
+        // Since 1.7.0 the zones are in their own entries
+        @SuppressWarnings("unchecked")
+        List<String> zonePaths = (List<String>) pakFile.getProperty(PROP_ZONES);
+        // Since 1.8.0 the assets are described in the manifest
+        CampaignManifest manifest = readManifest(pakFile);
+        if (zonePaths != null && lazy && !zonePaths.isEmpty()) {
+          loadCurrentZone(persistedCampaign, zonePaths, pakFile, campaignVersion);
+          persistedCampaign.zoneLoader =
+              new CampaignZoneLoader(
+                  campaignFile, campaignVersion, persistedCampaign.campaign, zonePaths, manifest);
+
+          String version = campaignVersion;
+          AssetManager.setPendingAssets(
+              persistedCampaign.assetMap.keySet(),
+              key -> readAsset(key, campaignFile, version, manifest));
+          return persistedCampaign;
+        }
+        if (zonePaths != null) {
+          for (String path : zonePaths) {
+            Zone zone = (Zone) pakFile.getFileObject(path, campaignVersion);
+            persistedCampaign.campaign.putZone(zone);
+          }
+        }
+
         // Now load up any images that we need
         // Note that the values are all placeholders
         Set<MD5Key> allAssetIds = persistedCampaign.assetMap.keySet();
-        loadAssets(allAssetIds, pakFile);
+        loadAssets(allAssetIds, pakFile, manifest);
         for (Zone zone : persistedCampaign.campaign.getZones()) {
           zone.optimize();
         }
@@ -473,6 +712,26 @@ public static PersistedCampaign loadCampaign(File campaignFile) throws IOExcepti
     return persistedCampaign;
   }
 
+  /**
+   * Read the zone that was current when the campaign was saved, or the first one, and remove it
+   * from the list of zones still to read.
+   */
+  private static void loadCurrentZone(
+      PersistedCampaign persistedCampaign,
+      List<String> zonePaths,
+      PackedFile pakFile,
+      String campaignVersion)
+      throws IOException {
+    // The extension depends on the campaign version
+    String prefix = ZONE_DIR + persistedCampaign.currentZoneId + ".";
+    String path =
+        zonePaths.stream().filter(p -> p.startsWith(prefix)).findFirst().orElse(zonePaths.get(0));
+    zonePaths.remove(path);
+    Zone zone = (Zone) pakFile.getFileObject(path, campaignVersion);
+    zone.optimize();
+    persistedCampaign.campaign.putZone(zone);
+  }
+
   public static PersistedCampaign loadLegacyCampaign(File campaignFile) {
     HessianInput his = null;
     PersistedCampaign persistedCampaign = null;
@@ -612,9 +871,26 @@ public static Token loadToken(URL url) throws IOException {
 
   private static void loadAssets(Collection<MD5Key> assetIds, PackedFile pakFile)
       throws IOException {
-    // Special handling of assets: XML file to describe the Asset, but binary file for the image
-    // data
-    pakFile.getXStream().processAnnotations(Asset.class);
+    loadAssets(assetIds, pakFile, null);
+  }
+
+  /**
+   * Read the assets that aren't already available from the file.
+   *
+   * @param assetIds the assets to read
+   * @param pakFile the file
+   * @param manifest the manifest of the file, or null if the file describes each asset in an XML
+   *     entry
+   * @throws IOException if the file can't be read
+   */
+  private static void loadAssets(
+      Collection<MD5Key> assetIds, PackedFile pakFile, CampaignManifest manifest)
+      throws IOException {
+    if (manifest == null) {
+      // Special handling of assets: XML file to describe the Asset, but binary file for the image
+      // data
+      pakFile.getXStream().processAnnotations(Asset.class);
+    }
 
     String campaignVersion = (String) pakFile.getProperty(PROP_CAMPAIGN_VERSION);
     String progVersion = (String) pakFile.getProperty(PROP_VERSION);
@@ -627,51 +903,13 @@ private static void loadAssets(Collection<MD5Key> assetIds, PackedFile pakFile)
       if (key == null) continue;
 
       if (!AssetManager.hasAsset(key)) {
-        String pathname = ASSET_DIR + key;
-        Asset asset = null;
-        if (fixRequired) {
-          try (InputStream is = pakFile.getFileAsInputStream(pathname)) {
-            asset = new Asset(key.toString(), IOUtils.toByteArray(is)); // Ugly bug fix :(
-          } catch (FileNotFoundException fnf) {
-            // Doesn't need to be reported, since that's handled below.
-          } catch (Exception e) {
-            log.error("Could not load asset from 1.3.b64 file in compatibility mode", e);
-          }
-        } else {
-          try {
-            asset = (Asset) pakFile.getFileObject(pathname); // XML deserialization
-          } catch (Exception e) {
-            // Do nothing. The asset will be 'null' and it'll be handled below.
-            log.info("Exception while handling asset '" + pathname + "'", e);
-          }
-        }
-        if (asset == null) { // Referenced asset not included in PackedFile??
-          log.error("Referenced asset '" + pathname + "' not found while loading?!");
+        Asset asset =
+            manifest != null
+                ? readAsset(key, pakFile, manifest)
+                : readAsset(key, pakFile, campaignVersion, fixRequired);
+        if (asset == null) {
           continue;
         }
-        // If the asset was marked as "broken" then ignore it completely. The end
-        // result is that MT will attempt to load it from a repository again, as normal.
-        if ("broken".equals(asset.getName())) {
-          log.warn("Reference to 'broken' asset '" + pathname + "' not restored.");
-          ImageManager.flushImage(asset);
-          continue;
-        }
-        // pre 1.3b52 campaign files stored the image data directly in the asset serialization.
-        // New XStreamConverter creates empty byte[] for image.
-        if (asset.getImage() == null || asset.getImage().length < 4) {
-          String ext = asset.getImageExtension();
-          pathname = pathname + "." + (StringUtil.isEmpty(ext) ? "dat" : ext);
-          pathname = assetnameVersionManager.transform(pathname, campaignVersion);
-          try (InputStream is = pakFile.getFileAsInputStream(pathname)) {
-            asset.setImage(IOUtils.toByteArray(is));
-          } catch (FileNotFoundException fnf) {
-            log.error("Image data for '" + pathname + "' not found?!", fnf);
-            continue;
-          } catch (Exception e) {
-            log.error("While reading image data for '" + pathname + "'", e);
-            continue;
-          }
-        }
         AssetManager.putAsset(asset);
         addToServer.add(asset);
       }
@@ -696,6 +934,123 @@ private static void loadAssets(Collection<MD5Key> assetIds, PackedFile pakFile)
     }
   }
 
+  /**
+   * Read a single asset, its XML description and its data, from the file.
+   *
+   * @return the asset, or null if it is missing, broken or can't be read; the reason is logged
+   */
+  private static Asset readAsset(
+      MD5Key key, PackedFile pakFile, String campaignVersion, boolean fixRequired) {
+    String pathname = ASSET_DIR + key;
+    Asset asset = null;
+    if (fixRequired) {
+      try (InputStream is = pakFile.getFileAsInputStream(pathname)) {
+        asset = new Asset(key.toString(), IOUtils.toByteArray(is)); // Ugly bug fix :(
+      } catch (FileNotFoundException fnf) {
+        // Doesn't need to be reported, since that's handled below.
+      } catch (Exception e) {
+        log.error("Could not load asset from 1.3.b64 file in compatibility mode", e);
+      }
+    } else {
+      try {
+        asset = (Asset) pakFile.getFileObject(pathname); // XML deserialization
+      } catch (Exception e) {
+        // Do nothing. The asset will be 'null' and it'll be handled below.
+        log.info("Exception while handling asset '" + pathname + "'", e);
+      }
+    }
+    if (asset == null) { // Referenced asset not included in PackedFile??
+      log.error("Referenced asset '" + pathname + "' not found while loading?!");
+      return null;
+    }
+    // If the asset was marked as "broken" then ignore it completely. The end
+    // result is that MT will attempt to load it from a repository again, as normal.
+    if ("broken".equals(asset.getName())) {
+      log.warn("Reference to 'broken' asset '" + pathname + "' not restored.");
+      ImageManager.flushImage(asset);
+      return null;
+    }
+    // pre 1.3b52 campaign files stored the image data directly in the asset serialization.
+    // New XStreamConverter creates empty byte[] for image.
+    if (asset.getImage() == null || asset.getImage().length < 4) {
+      String ext = asset.getImageExtension();
+      pathname = pathname + "." + (StringUtil.isEmpty(ext) ? "dat" : ext);
+      pathname = assetnameVersionManager.transform(pathname, campaignVersion);
+      try (InputStream is = pakFile.getFileAsInputStream(pathname)) {
+        asset.setImage(IOUtils.toByteArray(is));
+      } catch (FileNotFoundException fnf) {
+        log.error("Image data for '" + pathname + "' not found?!", fnf);
+        return null;
+      } catch (Exception e) {
+        log.error("While reading image data for '" + pathname + "'", e);
+        return null;
+      }
+    }
+    return asset;
+  }
+
+  /**
+   * Read a single asset from the entry given by the manifest, with the description kept there.
+   *
+   * @return the asset, or null if it is missing or can't be read; the reason is logged
+   */
+  private static Asset readAsset(MD5Key key, PackedFile pakFile, CampaignManifest manifest) {
+    CampaignManifest.AssetEntry entry = manifest.getAsset(key);
+    if (entry == null) {
+      log.error("Referenced asset '" + key + "' not in the campaign manifest?!");
+      return null;
+    }
+    try (InputStream is = pakFile.getFileAsInputStream(entry.getPath())) {
+      byte[] data = IOUtils.toByteArray(is);
+      return new Asset(key, entry.getName(), entry.getExtension(), entry.getType(), data);
+    } catch (FileNotFoundException fnf) {
+      log.error("Image data for '" + entry.getPath() + "' not found?!", fnf);
+    } catch (IOException ioe) {
+      log.error("While reading image data for '" + entry.getPath() + "'", ioe);
+    }
+    return null;
+  }
+
+  /**
+   * Read a single asset from a campaign file that is no longer open. Used for the assets of a
+   * lazily loaded campaign.
+   */
+  private static Asset readAsset(
+      MD5Key key, File campaignFile, String campaignVersion, CampaignManifest manifest) {
+    try (PackedFile pakFile = new PackedFile(campaignFile)) {
+      return readAsset(key, pakFile, campaignVersion, manifest);
+    }
+  }
+
+  /**
+   * Read a single asset of a lazily loaded campaign, from the manifest if the file has one.
+   *
+   * @return the asset, or null if it is missing or can't be read; the reason is logged
+   */
+  static Asset readAsset(
+      MD5Key key, PackedFile pakFile, String campaignVersion, CampaignManifest manifest) {
+    if (manifest != null) {
+      return readAsset(key, pakFile, manifest);
+    }
+    pakFile.getXStream().processAnnotations(Asset.class);
+    return readAsset(key, pakFile, campaignVersion, false);
+  }
+
+  /**
+   * @param pakFile the campaign file
+   * @return the manifest of the file, or null if it has none
+   * @throws IOException if the manifest can't be read
+   */
+  private static CampaignManifest readManifest(PackedFile pakFile) throws IOException {
+    if (!pakFile.hasFile(CampaignManifest.PATH)) {
+      return null;
+    }
+    try (InputStream is =
+        new BufferedInputStream(pakFile.getFileAsInputStream(CampaignManifest.PATH))) {
+      return CampaignManifest.read(is);
+    }
+  }
+
   private static void saveAssets(Collection<MD5Key> assetIds, PackedFile pakFile)
       throws IOException {
     // Special handling of assets: XML file to describe the Asset, but binary file for the image
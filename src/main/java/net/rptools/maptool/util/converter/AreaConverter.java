@@ -0,0 +1,79 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util.converter;
+
+import com.thoughtworks.xstream.converters.ConversionException;
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.converters.reflection.ReflectionConverter;
+import com.thoughtworks.xstream.converters.reflection.ReflectionProvider;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.mapper.Mapper;
+import java.awt.geom.Area;
+import java.util.Base64;
+import net.rptools.maptool.util.AreaCodec;
+
+/**
+ * Reads {@link Area}s written either as the Base64 text of their {@link AreaCodec} form or, by
+ * older versions, field by field as the internal curve objects of the JDK. Only the XStream that
+ * writes campaigns in the new format writes the compact form; token and map files and the legacy
+ * campaign layout keep the field by field form older versions can read.
+ */
+public class AreaConverter implements Converter {
+  private static final String VERSION_ATTRIBUTE = "v";
+
+  private final Converter legacyConverter;
+  private final boolean compact;
+
+  /**
+   * @param mapper the mapper of the XStream
+   * @param reflectionProvider the reflection provider of the XStream
+   * @param compact true to write the {@link AreaCodec} form, false to write the areas field by
+   *     field
+   */
+  public AreaConverter(Mapper mapper, ReflectionProvider reflectionProvider, boolean compact) {
+    legacyConverter = new ReflectionConverter(mapper, reflectionProvider);
+    this.compact = compact;
+  }
+
+  @Override
+  public void marshal(Object value, HierarchicalStreamWriter writer, MarshallingContext context) {
+    if (!compact) {
+      legacyConverter.marshal(value, writer, context);
+      return;
+    }
+    writer.addAttribute(VERSION_ATTRIBUTE, Integer.toString(AreaCodec.VERSION));
+    writer.setValue(Base64.getEncoder().encodeToString(AreaCodec.encode((Area) value)));
+  }
+
+  @Override
+  public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+    if (reader.getAttribute(VERSION_ATTRIBUTE) == null) {
+      return legacyConverter.unmarshal(reader, context);
+    }
+    try {
+      return AreaCodec.decode(Base64.getDecoder().decode(reader.getValue().trim()));
+    } catch (IllegalArgumentException e) {
+      throw new ConversionException("Invalid area data", e);
+    }
+  }
+
+  @Override
+  public boolean canConvert(Class clazz) {
+    return Area.class.equals(clazz);
+  }
+}
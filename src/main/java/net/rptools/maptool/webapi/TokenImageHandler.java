@@ -19,123 +19,223 @@
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import net.rptools.lib.MD5Key;
 import net.rptools.maptool.model.Asset;
 import net.rptools.maptool.model.AssetManager;
 import net.rptools.maptool.model.Token;
 import net.rptools.maptool.util.ImageManager;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
+/**
+ * Serves the images of tokens to the web clients.
+ *
+ * <p>The paths are <code>image/&lt;token id&gt;</code>, <code>portrait/&lt;token id&gt;</code>,
+ * <code>portraitOrImage/&lt;token id&gt;</code> and <code>asset/&lt;md5 key&gt;</code>, each
+ * optionally followed by <code>/&lt;size&gt;</code> to get the image scaled down to fit that size.
+ * The ETag of a response is the key of the asset, so clients revalidate the token paths with a
+ * <code>304</code> answer, and can keep the asset paths, which never change, for good.
+ */
 public class TokenImageHandler extends AbstractHandler {
+
+  private static final Logger log = LogManager.getLogger(TokenImageHandler.class);
+
+  /** Cache control of the paths naming an asset, the content of which never changes. */
+  static final String CACHE_IMMUTABLE = "public, max-age=31536000, immutable";
+
+  /** Cache control of the paths naming a token, the image of which may change. */
+  static final String CACHE_REVALIDATE = "no-cache";
+
   @Override
   public void handle(
       String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
       throws IOException, ServletException {
 
     String args[] = target.replaceAll("^/", "").split("/");
+    if (args.length < 2) {
+      return;
+    }
+    log.debug("Image request: " + target);
+
+    int size = 0;
+    if (args.length > 2) {
+      try {
+        size = Integer.parseInt(args[2]);
+      } catch (NumberFormatException nfe) {
+        return;
+      }
+    }
 
-    for (String s : args) {
-      System.out.println("DEBUG: ARGS: " + s);
+    if ("asset".equalsIgnoreCase(args[0])) {
+      MD5Key assetId = new MD5Key(args[1]);
+      baseRequest.setHandled(sendAsset(request, response, assetId, size, CACHE_IMMUTABLE));
+      return;
     }
 
+    Token token = WebTokenInfo.getInstance().findTokenFromId(args[1]);
+    if (token == null) {
+      log.debug("Image request for unknown token " + args[1]);
+      return;
+    }
+
+    MD5Key assetId = null;
     if ("portrait".equalsIgnoreCase(args[0])) {
-      baseRequest.setHandled(sendPortrait(response, args[1]));
+      assetId = token.getPortraitImage();
     } else if ("image".equalsIgnoreCase(args[0])) {
-      baseRequest.setHandled(sendImage(response, args[1]));
+      assetId = token.getImageAssetId();
     } else if ("portraitOrImage".equalsIgnoreCase(args[0])) {
-      baseRequest.setHandled(sendPortraitOrImage(response, args[1]));
+      assetId = token.getPortraitImage();
+      if (assetId == null) {
+        assetId = token.getImageAssetId();
+      }
+    } else {
+      return;
     }
-
-    /*
-     * response.setContentType("text/html; charset=utf-8"); response.setStatus(HttpServletResponse.SC_OK);
-     *
-     * PrintWriter out = response.getWriter();
-     *
-     * baseRequest.setHandled(true);
-     */
+    baseRequest.setHandled(sendAsset(request, response, assetId, size, CACHE_REVALIDATE));
   }
 
-  private boolean sendImage(HttpServletResponse response, String tokenId) throws IOException {
-    System.out.println("DEBUG: Here (> 0) as well");
-    Token token = WebTokenInfo.getInstance().findTokenFromId(tokenId);
-    if (token == null) {
-      return false;
-      // FIXME: log this error
+  private boolean sendAsset(
+      HttpServletRequest request,
+      HttpServletResponse response,
+      MD5Key assetId,
+      int size,
+      String cacheControl)
+      throws IOException {
+    Asset asset = assetId != null ? AssetManager.getAsset(assetId) : null;
+    if (asset == null) {
+      sendBrokenImage(response);
+      return true;
     }
 
-    if (token.getImageAssetId() == null) {
-      response.setContentType("image/png");
-      ImageIO.write(ImageManager.BROKEN_IMAGE, "png", response.getOutputStream());
-      response.setStatus(HttpServletResponse.SC_OK);
-    } else {
-      Asset asset = AssetManager.getAsset(token.getImageAssetId());
-      byte[] image = asset.getImage();
-      response.setContentType("image/" + asset.getImageExtension());
-      response.setStatus(HttpServletResponse.SC_OK);
-
-      response.setContentLength(image.length);
-      response.getOutputStream().write(image);
+    byte[] image = null;
+    String contentType = "image/png";
+    String etag = null;
+    if (WebImageCache.normalizeSize(size) != 0) {
+      try {
+        image = WebImageCache.getInstance().getImage(assetId, asset.getImage(), size);
+        etag = "\"" + assetId + "-" + WebImageCache.normalizeSize(size) + "\"";
+      } catch (IOException ioe) {
+        log.debug("Could not resize " + assetId, ioe);
+      }
+    }
+    if (image == null) {
+      image = asset.getImage();
+      contentType = "image/" + asset.getImageExtension();
+      etag = "\"" + assetId + "\"";
     }
 
-    return true;
-  }
-
-  private boolean sendPortrait(HttpServletResponse response, String tokenId) throws IOException {
+    response.setHeader("ETag", etag);
+    response.setHeader("Cache-Control", cacheControl);
+    response.setHeader("Accept-Ranges", "bytes");
 
-    System.out.println("DEBUG: Here (> 0) as well");
-    Token token = WebTokenInfo.getInstance().findTokenFromId(tokenId);
-    if (token == null) {
-      return false;
-      // FIXME: log this error
+    if (etagMatches(request.getHeader("If-None-Match"), etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return true;
     }
 
-    if (token.getPortraitImage() == null) {
-      response.setContentType("image/png");
-      ImageIO.write(ImageManager.BROKEN_IMAGE, "png", response.getOutputStream());
-      response.setStatus(HttpServletResponse.SC_OK);
-    } else {
-      Asset asset = AssetManager.getAsset(token.getPortraitImage());
-      byte[] image = asset.getImage();
-      response.setContentType("image/" + asset.getImageExtension());
-      response.setStatus(HttpServletResponse.SC_OK);
-
-      response.setContentLength(image.length);
-      response.getOutputStream().write(image);
+    response.setContentType(contentType);
+
+    String range = request.getHeader("Range");
+    String ifRange = request.getHeader("If-Range");
+    if (range != null && (ifRange == null || ifRange.equals(etag))) {
+      long[] bounds = parseRange(range, image.length);
+      if (bounds == null) {
+        response.setHeader("Content-Range", "bytes */" + image.length);
+        response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        return true;
+      }
+      if (bounds.length == 2) {
+        int start = (int) bounds[0];
+        int length = (int) (bounds[1] - bounds[0] + 1);
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setHeader(
+            "Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + image.length);
+        response.setContentLength(length);
+        response.getOutputStream().write(image, start, length);
+        return true;
+      }
     }
 
+    response.setStatus(HttpServletResponse.SC_OK);
+    response.setContentLength(image.length);
+    response.getOutputStream().write(image);
     return true;
   }
 
-  private boolean sendPortraitOrImage(HttpServletResponse response, String tokenId)
-      throws IOException {
+  private void sendBrokenImage(HttpServletResponse response) throws IOException {
+    response.setContentType("image/png");
+    response.setHeader("Cache-Control", CACHE_REVALIDATE);
+    response.setStatus(HttpServletResponse.SC_OK);
+    ImageIO.write(ImageManager.BROKEN_IMAGE, "png", response.getOutputStream());
+  }
 
-    System.out.println("DEBUG: Here (> 0) as well");
-    Token token = WebTokenInfo.getInstance().findTokenFromId(tokenId);
-    if (token == null) {
+  /**
+   * Tells whether the value of an <code>If-None-Match</code> header matches the ETag. Weak
+   * validators match as well, as the comparison for <code>If-None-Match</code> is the weak one.
+   *
+   * @param ifNoneMatch the value of the header, may be null
+   * @param etag the quoted ETag of the response
+   * @return true if the client already has the response
+   */
+  static boolean etagMatches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
       return false;
-      // FIXME: log this error
     }
-
-    Asset asset = null;
-    if (token.getPortraitImage() != null) {
-      asset = AssetManager.getAsset(token.getPortraitImage());
-    } else if (token.getImageAssetId() != null) {
-      asset = AssetManager.getAsset(token.getImageAssetId());
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+      if (tag.startsWith("W/")) {
+        tag = tag.substring(2);
+      }
+      if (tag.equals("*") || tag.equals(etag)) {
+        return true;
+      }
     }
+    return false;
+  }
 
-    if (asset != null) {
-      byte[] image = asset.getImage();
-      response.setContentType("image/" + asset.getImageExtension());
-      response.setStatus(HttpServletResponse.SC_OK);
-
-      response.setContentLength(image.length);
-      response.getOutputStream().write(image);
-    } else {
-      response.setContentType("image/png");
-      ImageIO.write(ImageManager.BROKEN_IMAGE, "png", response.getOutputStream());
-      response.setStatus(HttpServletResponse.SC_OK);
+  /**
+   * Parses a <code>Range</code> header. Only single byte ranges are served as partial content.
+   *
+   * @param range the value of the header
+   * @param length the length of the content
+   * @return the first and last byte of the range, an empty array if the whole content should be
+   *     sent, or null if the range can't be satisfied
+   */
+  static long[] parseRange(String range, long length) {
+    range = range.trim();
+    if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+      return new long[0];
+    }
+    String spec = range.substring("bytes=".length()).trim();
+    int dash = spec.indexOf('-');
+    if (dash < 0) {
+      return new long[0];
+    }
+    try {
+      String first = spec.substring(0, dash).trim();
+      String last = spec.substring(dash + 1).trim();
+      long start;
+      long end;
+      if (first.isEmpty()) {
+        // The last n bytes
+        long suffix = Long.parseLong(last);
+        if (suffix <= 0) {
+          return null;
+        }
+        start = Math.max(0, length - suffix);
+        end = length - 1;
+      } else {
+        start = Long.parseLong(first);
+        end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+      }
+      if (start >= length || start > end) {
+        return null;
+      }
+      return new long[] {start, end};
+    } catch (NumberFormatException nfe) {
+      return new long[0];
     }
-
-    return true;
   }
 }
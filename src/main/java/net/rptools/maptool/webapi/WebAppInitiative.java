@@ -121,6 +121,9 @@ private JsonObject getInitiativeDetails() {
           tokJSon.addProperty("initiative", token.getState());
         }
         tokJSon.addProperty("tokenIndex", index);
+        if (token.getToken().getImageAssetId() != null) {
+          tokJSon.addProperty("imageAsset", token.getToken().getImageAssetId().toString());
+        }
         /*
          * if (AppUtil.playerOwns(token.getToken())) { tokJSon.put("playerOwns", "true"); } else { tokJSon.put("playerOwns", "false"); }
          */
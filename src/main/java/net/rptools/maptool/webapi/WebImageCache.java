@@ -0,0 +1,233 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.webapi;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.imageio.ImageIO;
+import net.rptools.lib.MD5Key;
+import net.rptools.lib.image.ImageUtil;
+import net.rptools.maptool.client.AppUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Resized copies of asset images for the web clients, kept in a directory of bounded size. The
+ * requested size is rounded up to a power of two so a handful of files covers every page layout,
+ * and the least recently used files are deleted when the directory grows over its limit.
+ */
+public class WebImageCache {
+
+  private static final Logger log = LogManager.getLogger(WebImageCache.class);
+
+  /** The smallest size of a resized image. */
+  public static final int MIN_SIZE = 32;
+
+  /** The largest size of a resized image, larger requests get the original image. */
+  public static final int MAX_SIZE = 1024;
+
+  /** The default limit on the size of the cache directory. */
+  public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+  private static final String SUFFIX = ".png";
+
+  private final File cacheDir;
+  private final long maxBytes;
+
+  /** The files of the cache and their length, least recently used first. */
+  private final LinkedHashMap<String, Long> fileMap =
+      new LinkedHashMap<String, Long>(16, .75f, true);
+
+  /** The names of the sizes for which the original image is already small enough. */
+  private final Set<String> originalFits = new HashSet<String>();
+
+  private long totalBytes;
+
+  private static class Holder {
+    private static final WebImageCache instance =
+        new WebImageCache(AppUtil.getAppHome("webthumbs"), DEFAULT_MAX_BYTES);
+  }
+
+  public static WebImageCache getInstance() {
+    return Holder.instance;
+  }
+
+  /**
+   * @param cacheDir the directory to keep the images in
+   * @param maxBytes the limit on the total size of the images
+   */
+  WebImageCache(File cacheDir, long maxBytes) {
+    this.cacheDir = cacheDir;
+    this.maxBytes = maxBytes;
+
+    File[] files = cacheDir.listFiles((dir, name) -> name.endsWith(SUFFIX));
+    if (files != null) {
+      // Oldest first, so the access order of the map starts out as the order of last use
+      Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+      for (File file : files) {
+        fileMap.put(file.getName(), file.length());
+        totalBytes += file.length();
+      }
+      trim();
+    }
+  }
+
+  /**
+   * Rounds the requested size up to the size of the image that is kept.
+   *
+   * @param size the requested width and height
+   * @return the size of the resized image, or 0 if the original should be used
+   */
+  public static int normalizeSize(int size) {
+    if (size <= 0 || size > MAX_SIZE) {
+      return 0;
+    }
+    int normalized = MIN_SIZE;
+    while (normalized < size) {
+      normalized <<= 1;
+    }
+    return normalized;
+  }
+
+  /**
+   * Returns the image scaled down to fit in a square of the given size, as PNG.
+   *
+   * @param id the id of the asset holding the image
+   * @param image the bytes of the original image
+   * @param size the size, see {@link #normalizeSize(int)}
+   * @return the resized image, or null if the original image should be used
+   * @throws IOException if the original image can't be read
+   */
+  public byte[] getImage(MD5Key id, byte[] image, int size) throws IOException {
+    size = normalizeSize(size);
+    if (size == 0) {
+      return null;
+    }
+    String name = id + "-" + size + SUFFIX;
+
+    synchronized (this) {
+      if (originalFits.contains(name)) {
+        return null;
+      }
+      if (fileMap.get(name) != null) {
+        File file = new File(cacheDir, name);
+        try {
+          byte[] bytes = Files.readAllBytes(file.toPath());
+          file.setLastModified(System.currentTimeMillis());
+          return bytes;
+        } catch (IOException ioe) {
+          log.debug("Could not read cached image " + name, ioe);
+          totalBytes -= fileMap.remove(name);
+        }
+      }
+    }
+
+    BufferedImage source = ImageIO.read(new ByteArrayInputStream(image));
+    if (source == null || Math.max(source.getWidth(), source.getHeight()) <= size) {
+      synchronized (this) {
+        originalFits.add(name);
+      }
+      return null;
+    }
+    byte[] bytes = ImageUtil.imageToBytes(scale(source, size), "png");
+    store(name, bytes);
+    return bytes;
+  }
+
+  /** Removes every image from the cache. */
+  public synchronized void clear() {
+    for (String name : fileMap.keySet()) {
+      new File(cacheDir, name).delete();
+    }
+    fileMap.clear();
+    originalFits.clear();
+    totalBytes = 0;
+  }
+
+  /** @return the total size of the images in the cache */
+  public synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  private synchronized void store(String name, byte[] bytes) {
+    if (bytes.length > maxBytes) {
+      return;
+    }
+    File file = new File(cacheDir, name);
+    try {
+      File tmpFile = File.createTempFile(name, ".tmp", cacheDir);
+      Files.write(tmpFile.toPath(), bytes);
+      Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException ioe) {
+      log.warn("Could not cache image " + name, ioe);
+      return;
+    }
+    Long old = fileMap.put(name, (long) bytes.length);
+    totalBytes += bytes.length - (old != null ? old : 0);
+    trim();
+  }
+
+  private void trim() {
+    Iterator<Map.Entry<String, Long>> iter = fileMap.entrySet().iterator();
+    while (totalBytes > maxBytes && iter.hasNext()) {
+      Map.Entry<String, Long> entry = iter.next();
+      new File(cacheDir, entry.getKey()).delete();
+      totalBytes -= entry.getValue();
+      iter.remove();
+    }
+  }
+
+  /** Scales the image down in halving steps, which keeps bilinear filtering from aliasing. */
+  private static BufferedImage scale(BufferedImage source, int size) {
+    double ratio = (double) size / Math.max(source.getWidth(), source.getHeight());
+    int width = Math.max(1, (int) Math.round(source.getWidth() * ratio));
+    int height = Math.max(1, (int) Math.round(source.getHeight() * ratio));
+
+    BufferedImage current = source;
+    while (current.getWidth() / 2 >= width && current.getHeight() / 2 >= height) {
+      current = resize(current, current.getWidth() / 2, current.getHeight() / 2);
+    }
+    if (current.getWidth() != width || current.getHeight() != height) {
+      current = resize(current, width, height);
+    }
+    return current;
+  }
+
+  private static BufferedImage resize(BufferedImage image, int width, int height) {
+    BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = resized.createGraphics();
+    try {
+      g.setRenderingHint(
+          RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.drawImage(image, 0, 0, width, height, null);
+    } finally {
+      g.dispose();
+    }
+    return resized;
+  }
+}
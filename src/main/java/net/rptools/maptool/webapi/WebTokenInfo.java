@@ -18,16 +18,19 @@
 import com.google.gson.JsonObject;
 import java.awt.*;
 import java.util.*;
-import java.util.List;
 import net.rptools.lib.AppEvent;
 import net.rptools.lib.AppEventListener;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.functions.json.JSONMacroFunctions;
 import net.rptools.maptool.client.ui.zone.ZoneRenderer;
 import net.rptools.maptool.model.*;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 public class WebTokenInfo {
 
+  private static final Logger log = LogManager.getLogger(WebTokenInfo.class);
+
   private static final WebTokenInfo instance = new WebTokenInfo();
 
   private final AppEventListener appEventListener;
@@ -57,13 +60,20 @@ private void addTokenChangeListeners() {
             new ModelChangeListener() {
               @Override
               public void modelChanged(ModelChangeEvent event) {
-                System.out.println("DEBUG: Event " + event.eventType);
-                if (event.eventType == Zone.Event.TOKEN_CHANGED) {
-                  tokenChanged((Token) event.getArg());
-                } else if (event.eventType == Zone.Event.TOKEN_ADDED) {
-                  tokenAdded((Token) event.getArg());
-                } else if (event.eventType == Zone.Event.TOKEN_REMOVED) {
-                  tokenRemoved((Token) event.getArg());
+                log.debug("Event " + event.eventType);
+                // Tokens put together come as a list
+                Collection<?> tokens =
+                    event.getArg() instanceof Collection
+                        ? (Collection<?>) event.getArg()
+                        : Collections.singletonList(event.getArg());
+                for (Object token : tokens) {
+                  if (event.eventType == Zone.Event.TOKEN_CHANGED) {
+                    tokenChanged((Token) token);
+                  } else if (event.eventType == Zone.Event.TOKEN_ADDED) {
+                    tokenAdded((Token) token);
+                  } else if (event.eventType == Zone.Event.TOKEN_REMOVED) {
+                    tokenRemoved((Token) token);
+                  }
                 }
               }
             });
@@ -104,38 +114,29 @@ public static WebTokenInfo getInstance() {
   }
 
   public Token findTokenFromId(String tokenId) {
-    System.out.println("DEBUG: tokenId = " + tokenId);
-    final GUID id = new GUID(tokenId);
-
-    final List<Token> tokenList = new ArrayList<>();
-
-    List<ZoneRenderer> zrenderers = MapTool.getFrame().getZoneRenderers();
-    for (ZoneRenderer zr : zrenderers) {
-      tokenList.addAll(
-          zr.getZone()
-              .getTokensFiltered(
-                  new Zone.Filter() {
-                    public boolean matchToken(Token t) {
-                      return t.getId().equals(id);
-                    }
-                  }));
-
-      if (tokenList.size() > 0) {
-        break;
-      }
+    log.debug("tokenId = " + tokenId);
+    final GUID id;
+    try {
+      id = new GUID(tokenId);
+    } catch (RuntimeException e) {
+      // Comes straight from a URL or a web socket message
+      log.debug("Invalid token id " + tokenId);
+      return null;
     }
 
-    if (tokenList.size() > 0) {
-      return tokenList.get(0);
-    } else {
-      return null;
+    // The zones index their tokens on the id
+    for (ZoneRenderer zr : MapTool.getFrame().getZoneRenderers()) {
+      Token token = zr.getZone().getToken(id);
+      if (token != null) {
+        return token;
+      }
     }
+    return null;
   }
 
   private Zone findZoneTokenIsOn(Token token) {
-    List<ZoneRenderer> zrenderers = MapTool.getFrame().getZoneRenderers();
-    for (ZoneRenderer zr : zrenderers) {
-      if (zr.getZone().getTokens().contains(token)) {
+    for (ZoneRenderer zr : MapTool.getFrame().getZoneRenderers()) {
+      if (zr.getZone().getToken(token.getId()) == token) {
         return zr.getZone();
       }
     }
@@ -169,7 +170,7 @@ void sendTokenProperties(MTWebSocket mtws, String inResponseTo, JsonObject data)
     Token token = findTokenFromId(tokenId);
 
     if (token == null) {
-      System.out.println("DEBUG: sendTokenInfo(): Unable to find token " + tokenId);
+      log.debug("sendTokenInfo(): Unable to find token " + tokenId);
       return;
       // FIXME: log this error
     }
@@ -208,7 +209,7 @@ void sendTokenRegisterdProperties(MTWebSocket mtws, String inResponseTo, JsonObj
     Token token = findTokenFromId(tokenId);
 
     if (token == null) {
-      System.out.println("DEBUG: sendTokenInfo(): Unable to find token " + tokenId);
+      log.debug("sendTokenInfo(): Unable to find token " + tokenId);
       return;
       // FIXME: log this error
     }
@@ -222,6 +223,12 @@ void sendTokenRegisterdProperties(MTWebSocket mtws, String inResponseTo, JsonObj
     if (token.getNotes() != null) {
       jobj.addProperty("notes", token.getNotes());
     }
+    if (token.getImageAssetId() != null) {
+      jobj.addProperty("imageAsset", token.getImageAssetId().toString());
+    }
+    if (token.getPortraitImage() != null) {
+      jobj.addProperty("portraitAsset", token.getPortraitImage().toString());
+    }
 
     JsonObject jprop = new JsonObject();
 
@@ -282,13 +289,13 @@ void processMacro(JsonObject data) {
   void processSetProperties(JsonObject data) {
     final String tokenId = data.get("tokenId").getAsString();
     final Token token = findTokenFromId(tokenId);
-    final Zone zone = findZoneTokenIsOn(token);
 
     if (token == null) {
-      System.out.println("DEBUG: sendTokenInfo(): Unable to find token " + tokenId);
+      log.debug("sendTokenInfo(): Unable to find token " + tokenId);
       return;
       // FIXME: log this error
     }
+    final Zone zone = findZoneTokenIsOn(token);
 
     final JsonObject props = data.get("properties").getAsJsonObject();
     EventQueue.invokeLater(
@@ -69,6 +69,9 @@ $(document).ready(function() {
                 'initDivClass': initDivClass,
                 'tokenIndex': entries[i].tokenIndex,
                 'tokenId': entries[i].id,
+                'tokenImageURL': entries[i].imageAsset
+                    ? MapTool.assetURL(entries[i].imageAsset, 128)
+                    : MapTool.tokenImageURL(entries[i].id, 128),
                 'tokenOwnerClass': ownerClass
             };
 
@@ -299,13 +299,33 @@ var MapTool = new (function() {
 
     }
 
+    ////////////////////////////////////////////////////////////////////////////
+    //
+    // Gets the url of the size suffix of the image urls. Images are scaled
+    // down on the server to fit in a square of that size.
+    //
+    ////////////////////////////////////////////////////////////////////////////
+    var sizeSuffix = function(size) {
+        return size ? '/' + size : '';
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    //
+    // Gets the url for retrieving an asset. The content of an asset never
+    // changes so the browser keeps it without asking again.
+    //
+    ////////////////////////////////////////////////////////////////////////////
+    this.assetURL = function(assetId, size) {
+        return '/token/asset/' + assetId + sizeSuffix(size);
+    }
+
     ////////////////////////////////////////////////////////////////////////////
     //
     // Gets the url for retrieving the image of the token.
     //
     ////////////////////////////////////////////////////////////////////////////
-    this.tokenImageURL = function(tokenId) {
-        return '/token/image/' + tokenId;
+    this.tokenImageURL = function(tokenId, size) {
+        return '/token/image/' + tokenId + sizeSuffix(size);
     }
 
     ////////////////////////////////////////////////////////////////////////////
@@ -313,8 +333,8 @@ var MapTool = new (function() {
     // Gets the url for retrieving the portrait of the token.
     //
     ////////////////////////////////////////////////////////////////////////////
-    this.tokenPortraitURL = function(tokenId) {
-        return '/token/portrait/' + tokenId;
+    this.tokenPortraitURL = function(tokenId, size) {
+        return '/token/portrait/' + tokenId + sizeSuffix(size);
     }
 
 
@@ -324,8 +344,8 @@ var MapTool = new (function() {
     // not defined of the token.
     //
     ////////////////////////////////////////////////////////////////////////////
-    this.tokenPortraitOrImageURL = function(tokenId) {
-        return '/token/portraitOrImage/' + tokenId;
+    this.tokenPortraitOrImageURL = function(tokenId, size) {
+        return '/token/portraitOrImage/' + tokenId + sizeSuffix(size);
     }
 
 
@@ -21,9 +21,13 @@ $(document).ready(function() {
 
         var source = $('#sheet-portrait').html();
         var template = Handlebars.compile(source);
+        var portraitAsset = data.portraitAsset || data.imageAsset;
         var vals = {
             tokenId: data.tokenId,
             tokenName: data.name,
+            portraitURL: portraitAsset
+                ? MapTool.assetURL(portraitAsset, 256)
+                : MapTool.tokenPortraitOrImageURL(data.tokenId, 256),
             sheetProperties: []
         };
 
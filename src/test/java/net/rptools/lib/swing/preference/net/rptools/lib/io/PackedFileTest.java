@@ -20,6 +20,10 @@
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import net.rptools.lib.io.PackedFile;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
@@ -53,4 +57,48 @@ public void saveWithOneResource(@TempDir File tempDir) throws IOException {
       assertEquals(test_content, s);
     }
   }
+
+  @Test
+  public void compressedFormatsAreStored(@TempDir File tempDir) throws IOException {
+    File f = new File(tempDir, PACKED_TEST_FILE);
+    byte[] data = new byte[1000];
+    try (PackedFile pf = new PackedFile(f)) {
+      pf.putFile("image.png", data);
+      pf.putFile(A_PATH_TXT, data);
+      pf.save();
+    }
+
+    try (ZipFile zip = new ZipFile(f)) {
+      assertEquals(ZipEntry.STORED, zip.getEntry("image.png").getMethod());
+      assertEquals(ZipEntry.DEFLATED, zip.getEntry(A_PATH_TXT).getMethod());
+    }
+
+    // Saving again copies the entries from the original file
+    try (PackedFile pf = new PackedFile(f)) {
+      pf.putFile("other.jpg", data);
+      pf.save();
+    }
+    try (ZipFile zip = new ZipFile(f)) {
+      assertEquals(ZipEntry.STORED, zip.getEntry("image.png").getMethod());
+      assertEquals(ZipEntry.STORED, zip.getEntry("other.jpg").getMethod());
+      assertEquals(1000, zip.getEntry("image.png").getSize());
+    }
+  }
+
+  @Test
+  public void binaryObjectRoundTrip(@TempDir File tempDir) throws IOException {
+    File f = new File(tempDir, PACKED_TEST_FILE);
+    Map<String, Object> content = new HashMap<>();
+    content.put("name", "a <name> & \"quotes\"");
+    content.put("count", 42);
+    try (PackedFile pf = new PackedFile(f)) {
+      pf.putFile(PackedFile.BINARY_CONTENT_FILE, content);
+      pf.save();
+    }
+
+    try (PackedFile loaded = new PackedFile(f)) {
+      assertEquals(content, loaded.getContent());
+      assertEquals(content, loaded.getFileObject(PackedFile.BINARY_CONTENT_FILE));
+    }
+  }
 }
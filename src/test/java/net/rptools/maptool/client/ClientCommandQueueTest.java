@@ -0,0 +1,100 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import net.rptools.maptool.client.ClientCommand.COMMAND;
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.Label;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class ClientCommandQueueTest {
+  private final List<Runnable> tasks = new ArrayList<Runnable>();
+  private final List<List<ClientCommandQueue.Command>> batches =
+      new ArrayList<List<ClientCommandQueue.Command>>();
+  private final ClientCommandQueue queue = new ClientCommandQueue(batches::add, tasks::add);
+
+  @Test
+  @DisplayName("Commands received before a batch runs are applied together, in order.")
+  void testBatching() {
+    GUID zoneId = new GUID();
+    queue.add(COMMAND.removeToken, new Object[] {zoneId, new GUID()});
+    queue.add(COMMAND.putToken, new Object[] {zoneId, new Token()});
+    queue.add(COMMAND.message, new Object[] {"hello"});
+    assertEquals(1, tasks.size(), "one task for the whole burst");
+    assertEquals(3, queue.getDepth());
+
+    tasks.remove(0).run();
+    assertEquals(1, batches.size());
+    List<ClientCommandQueue.Command> batch = batches.get(0);
+    assertEquals(COMMAND.removeToken, batch.get(0).getCommand());
+    assertEquals(COMMAND.putToken, batch.get(1).getCommand());
+    assertEquals(COMMAND.message, batch.get(2).getCommand());
+    assertEquals(0, queue.getDepth());
+    assertTrue(tasks.isEmpty());
+
+    queue.add(COMMAND.message, new Object[] {"again"});
+    assertEquals(1, tasks.size(), "a new burst gets a new task");
+  }
+
+  @Test
+  @DisplayName("A full token supersedes the pending updates of that token only.")
+  void testSupersede() {
+    GUID zoneId = new GUID();
+    Token token = new Token();
+    Token other = new Token();
+    Label label = new Label("Door");
+    queue.add(COMMAND.putToken, new Object[] {zoneId, token});
+    queue.add(COMMAND.putToken, new Object[] {zoneId, other});
+    queue.add(
+        COMMAND.updateTokenDelta,
+        new Object[] {zoneId, new TokenDelta(token.getId(), new HashMap<String, Object>())});
+    queue.add(COMMAND.putLabel, new Object[] {zoneId, label});
+    queue.add(COMMAND.putLabel, new Object[] {zoneId, label});
+    Token latest = new Token(token, true);
+    queue.add(COMMAND.putToken, new Object[] {zoneId, latest});
+    assertEquals(3, queue.getDepth());
+
+    tasks.remove(0).run();
+    List<ClientCommandQueue.Command> batch = batches.get(0);
+    assertEquals(3, batch.size());
+    assertSame(other, batch.get(0).getParameters()[1]);
+    assertEquals(COMMAND.putLabel, batch.get(1).getCommand());
+    assertSame(latest, batch.get(2).getParameters()[1]);
+    assertTrue(queue.toString().contains("3 superseded"));
+  }
+
+  @Test
+  @DisplayName("Long bursts are split so that the EDT can paint in between.")
+  void testMaxBatch() {
+    for (int i = 0; i < ClientCommandQueue.MAX_BATCH + 10; i++) {
+      queue.add(COMMAND.message, new Object[] {"line " + i});
+    }
+    assertEquals(1, tasks.size());
+    tasks.remove(0).run();
+    assertEquals(ClientCommandQueue.MAX_BATCH, batches.get(0).size());
+    assertEquals(1, tasks.size(), "the rest is scheduled");
+    tasks.remove(0).run();
+    assertEquals(10, batches.get(1).size());
+    assertTrue(tasks.isEmpty());
+  }
+}
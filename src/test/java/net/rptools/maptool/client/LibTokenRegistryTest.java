@@ -0,0 +1,104 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class LibTokenRegistryTest {
+
+  private static Token createToken(String name) {
+    Token token = new Token();
+    token.setName(name);
+    return token;
+  }
+
+  @Test
+  @DisplayName("Lib tokens are found by name across zones and follow token events.")
+  void testLookup() {
+    List<Zone> zones = new ArrayList<Zone>();
+    Zone first = new Zone();
+    Zone second = new Zone();
+    zones.add(first);
+    LibTokenRegistry registry = new LibTokenRegistry(() -> zones);
+
+    Token lib = createToken("Lib:Test");
+    first.putToken(lib);
+    first.putToken(createToken("Goblin"));
+
+    List<LibTokenRegistry.LibToken> found = registry.getLibTokens("lib:test");
+    assertEquals(1, found.size());
+    assertSame(lib, found.get(0).getToken());
+    assertSame(first, found.get(0).getZone());
+    assertEquals(1, registry.getAllLibTokens().size());
+
+    // A duplicate on a new zone
+    zones.add(second);
+    second.putToken(createToken("lib:test"));
+    assertEquals(2, registry.getLibTokens("LIB:TEST").size());
+
+    // Renamed through the zone
+    lib.setName("lib:Other");
+    first.putToken(lib);
+    assertEquals(1, registry.getLibTokens("lib:test").size());
+    assertSame(lib, registry.getLibTokens("lib:other").get(0).getToken());
+
+    // Removed
+    first.removeToken(lib.getId());
+    assertTrue(registry.getLibTokens("lib:other").isEmpty());
+
+    // Zone removed
+    zones.remove(second);
+    assertTrue(registry.getLibTokens("lib:test").isEmpty());
+  }
+
+  @Test
+  @DisplayName("A token renamed without an event is noticed on lookup.")
+  void testSilentRename() {
+    Zone zone = new Zone();
+    List<Zone> zones = List.of(zone);
+    LibTokenRegistry registry = new LibTokenRegistry(() -> zones);
+
+    Token lib = createToken("lib:Test");
+    zone.putToken(lib);
+    assertEquals(1, registry.getLibTokens("lib:test").size());
+
+    lib.setName("Not a lib");
+    assertTrue(registry.getLibTokens("lib:test").isEmpty());
+  }
+
+  @Test
+  @DisplayName("A token renamed to a lib token without an event is found on lookup.")
+  void testSilentRenameToLib() {
+    Zone zone = new Zone();
+    List<Zone> zones = List.of(zone);
+    LibTokenRegistry registry = new LibTokenRegistry(() -> zones);
+
+    Token token = createToken("Goblin");
+    zone.putToken(token);
+    assertTrue(registry.getLibTokens("lib:test").isEmpty());
+
+    token.setName("lib:Test");
+    List<LibTokenRegistry.LibToken> found = registry.getLibTokens("lib:test");
+    assertEquals(1, found.size());
+    assertSame(token, found.get(0).getToken());
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class MacroCacheTest {
+
+  @Test
+  @DisplayName("Hits and misses are counted.")
+  void testStatistics() {
+    MacroCache<String> cache = new MacroCache<String>();
+    assertNull(cache.get("[r: 1d6]"));
+    cache.put("[r: 1d6]", "compiled");
+    assertEquals("compiled", cache.get("[r: 1d6]"));
+    assertEquals("compiled", cache.get("[r: 1d6]"));
+    assertEquals(2, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+
+    cache.invalidate("[r: 1d6]");
+    assertNull(cache.get("[r: 1d6]"));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  @DisplayName("The least recently used text is evicted when the cache is full.")
+  void testEviction() {
+    MacroCache<Integer> cache = new MacroCache<Integer>(10);
+    cache.put("aaaa", 1);
+    cache.put("bbbb", 2);
+    cache.get("aaaa");
+    cache.put("cccc", 3);
+    assertEquals(Integer.valueOf(1), cache.get("aaaa"));
+    assertNull(cache.get("bbbb"));
+    assertEquals(Integer.valueOf(3), cache.get("cccc"));
+
+    // Too long to ever fit
+    cache.put("dddddddddddd", 4);
+    assertNull(cache.get("dddddddddddd"));
+    assertEquals(2, cache.size());
+  }
+}
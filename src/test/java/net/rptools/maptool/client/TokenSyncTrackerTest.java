@@ -0,0 +1,134 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TokenSyncTrackerTest {
+
+  @Test
+  @DisplayName("Only the changed fields are in the delta, and applying it catches up a copy.")
+  void testDiffAndApply() {
+    TokenSyncTracker tracker = new TokenSyncTracker();
+    GUID zoneId = new GUID();
+    Token token = new Token();
+    token.setName("Orc");
+    token.setGMNotes("Has the key");
+    Token copy = new Token(token, true);
+
+    assertNull(tracker.diff(zoneId, token), "first send is the whole token");
+
+    token.setX(100);
+    token.setName("Orc chief");
+    TokenDelta delta = tracker.diff(zoneId, token);
+    assertNotNull(delta);
+    assertTrue(delta.getFields().containsKey("x"));
+    assertTrue(delta.getFields().containsKey("name"));
+    assertFalse(delta.getFields().containsKey("gmNotes"));
+    assertFalse(delta.getFields().containsKey("y"));
+
+    delta.applyTo(copy);
+    assertEquals(100, copy.getX());
+    assertEquals("Orc chief", copy.getName());
+    assertEquals("Has the key", copy.getGMNotes());
+
+    assertTrue(tracker.diff(zoneId, token).isEmpty(), "nothing changed since the last diff");
+  }
+
+  @Test
+  @DisplayName("A delta that doesn't follow the known version is refused.")
+  void testVersions() {
+    TokenSyncTracker tracker = new TokenSyncTracker();
+    GUID zoneId = new GUID();
+    Token token = new Token();
+    tracker.tokenSynced(zoneId, token);
+
+    TokenDelta first = new TokenDelta(token.getId(), new HashMap<>());
+    first.setVersions(4, 5);
+    assertTrue(tracker.accept(zoneId, first), "any version is fine after a full token");
+
+    TokenDelta skipped = new TokenDelta(token.getId(), new HashMap<>());
+    skipped.setVersions(6, 7);
+    assertFalse(tracker.accept(zoneId, skipped));
+
+    // Forgotten after the miss, so the next one starts over
+    assertNull(tracker.diff(zoneId, token));
+  }
+
+  @Test
+  @DisplayName("A change from another client doesn't undo one of ours the server has yet to apply.")
+  void testUnacknowledged() {
+    TokenSyncTracker tracker = new TokenSyncTracker();
+    GUID zoneId = new GUID();
+    Token token = new Token();
+    tracker.tokenSynced(zoneId, token, 3L);
+
+    token.setName("Mine");
+    assertFalse(tracker.diff(zoneId, token).isEmpty());
+
+    // Relayed by the server before it got ours
+    TokenDelta theirs = new TokenDelta(token.getId(), Map.of("name", "Theirs", "x", 50));
+    theirs.setVersions(3, 4);
+    assertTrue(tracker.accept(zoneId, theirs));
+    tracker.apply(theirs, token);
+    assertEquals("Mine", token.getName(), "the server applies ours last");
+    assertEquals(50, token.getX());
+
+    assertTrue(tracker.acknowledged(TokenDelta.acknowledge(token.getId(), 4, 5)));
+    TokenDelta later = new TokenDelta(token.getId(), Map.of("name", "Theirs"));
+    later.setVersions(5, 6);
+    assertTrue(tracker.accept(zoneId, later));
+    tracker.apply(later, token);
+    assertEquals("Theirs", token.getName());
+
+    TokenDelta skipped = TokenDelta.acknowledge(token.getId(), 7, 8);
+    assertFalse(tracker.acknowledged(skipped), "an acknowledgement is checked like a delta");
+  }
+
+  @Test
+  @DisplayName("A synced token moved to another map is sent whole and stays tracked there.")
+  void testMoveToAnotherZone() {
+    TokenSyncTracker tracker = new TokenSyncTracker();
+    GUID fromZone = new GUID();
+    GUID toZone = new GUID();
+    Token token = new Token();
+    tracker.tokenSynced(fromZone, token, 3L);
+    token.setName("Moved");
+    assertFalse(tracker.diff(fromZone, token).isEmpty());
+
+    // As moveTokenMap does it: put in the new zone, then removed from the old one
+    token.setX(100);
+    assertNull(tracker.diff(toZone, token), "the new zone doesn't have the token yet");
+    tracker.forget(fromZone, token.getId());
+    token.setX(200);
+    TokenDelta delta = tracker.diff(toZone, token);
+    assertNotNull(delta, "still tracked in the new zone");
+    assertEquals(Map.of("x", 200), delta.getFields());
+
+    // A delta relayed for the old zone doesn't apply to the token in the new one
+    TokenDelta old = new TokenDelta(token.getId(), Map.of("name", "Old"));
+    old.setVersions(4, 5);
+    assertFalse(tracker.accept(fromZone, old));
+    assertNull(tracker.diff(toZone, token));
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.rptools.maptool.model.Campaign;
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.Zone;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class ZoneCacheTest {
+
+  @Test
+  @DisplayName("Only zones with an unchanged stamp and no local change are restored.")
+  void testRestore() {
+    ZoneCache cache = new ZoneCache();
+    Zone kept = new Zone();
+    Zone restamped = new Zone();
+    Zone changed = new Zone();
+    cache.put(kept, "s:1:1");
+    cache.put(restamped, "s:2:1");
+    cache.put(changed, "s:3:1");
+    changed.setName("Changed");
+    GUID added = new GUID();
+
+    Map<GUID, String> stamps = new LinkedHashMap<GUID, String>();
+    stamps.put(kept.getId(), "s:1:1");
+    stamps.put(restamped.getId(), "s:2:2");
+    stamps.put(changed.getId(), "s:3:1");
+    stamps.put(added, "s:4:1");
+
+    Campaign campaign = new Campaign();
+    List<GUID> missing = cache.restore(campaign, stamps);
+    assertEquals(List.of(restamped.getId(), changed.getId(), added), missing);
+    assertSame(kept, campaign.getZone(kept.getId()));
+    assertEquals(1, campaign.getZones().size());
+
+    // The stale entries are gone, even if the stamps come back
+    stamps.put(restamped.getId(), "s:2:1");
+    assertEquals(3, cache.restore(new Campaign(), stamps).size());
+  }
+
+  @Test
+  @DisplayName("A new server session invalidates everything.")
+  void testNewSession() {
+    ZoneCache cache = new ZoneCache();
+    Zone zone = new Zone();
+    cache.put(zone, "s:1:1");
+    Map<GUID, String> stamps = new LinkedHashMap<GUID, String>();
+    stamps.put(zone.getId(), "t:1:1");
+    assertEquals(List.of(zone.getId()), cache.restore(new Campaign(), stamps));
+
+    cache.put(zone, "t:1:1");
+    cache.remove(zone.getId());
+    assertEquals(List.of(zone.getId()), cache.restore(new Campaign(), stamps));
+  }
+
+  @Test
+  @DisplayName("Loading another campaign forgets the zones that aren't in it.")
+  void testRetain() {
+    ZoneCache cache = new ZoneCache();
+    Zone kept = new Zone();
+    Zone dropped = new Zone();
+    cache.put(kept, "s:1:1");
+    cache.put(dropped, "s:2:1");
+
+    Campaign campaign = new Campaign();
+    campaign.putZone(kept);
+    campaign.putZone(new Zone(dropped, true)); // A local copy isn't the zone the stamp is for
+    cache.retain(campaign);
+
+    Map<GUID, String> stamps = new LinkedHashMap<GUID, String>();
+    stamps.put(kept.getId(), "s:1:1");
+    stamps.put(dropped.getId(), "s:2:1");
+    assertEquals(List.of(dropped.getId()), cache.restore(new Campaign(), stamps));
+
+    cache.retain(null);
+    assertEquals(List.of(kept.getId(), dropped.getId()), cache.restore(new Campaign(), stamps));
+  }
+}
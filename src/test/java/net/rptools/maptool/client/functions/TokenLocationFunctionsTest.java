@@ -0,0 +1,102 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.functions;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import net.rptools.maptool.client.ui.zone.ZoneRenderer;
+import net.rptools.maptool.model.Grid;
+import net.rptools.maptool.model.HexGridHorizontal;
+import net.rptools.maptool.model.HexGridVertical;
+import net.rptools.maptool.model.SquareGrid;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenFootprint;
+import net.rptools.maptool.model.Zone;
+import net.rptools.parser.ParserException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TokenLocationFunctionsTest {
+
+  /**
+   * Creates tokens of every footprint of the grid at random places on a new zone. The tokens look
+   * up their zone through the frame, so they are spies that return a renderer of the zone.
+   */
+  private static List<Token> createTokens(Grid grid, long seed) {
+    Zone zone = new Zone();
+    zone.setGrid(grid);
+    grid.setSize(50);
+    ZoneRenderer renderer = mock(ZoneRenderer.class);
+    when(renderer.getZone()).thenReturn(zone);
+
+    Random random = new Random(seed);
+    List<Token> tokens = new ArrayList<Token>();
+    for (TokenFootprint footprint : grid.getFootprints()) {
+      for (int i = 0; i < 3; i++) {
+        Token token = new Token();
+        token.setFootprint(grid, footprint);
+        token.setX(random.nextInt(2000) - 1000);
+        token.setY(random.nextInt(2000) - 1000);
+        zone.putToken(token);
+
+        Token spy = spy(token);
+        doReturn(renderer).when(spy).getZoneRenderer();
+        tokens.add(spy);
+      }
+    }
+    return tokens;
+  }
+
+  private static void assertSameAsPairwise(List<Token> tokens, List<String> metrics)
+      throws ParserException {
+    TokenLocationFunctions functions = TokenLocationFunctions.getInstance();
+    List<Token> sources = tokens.subList(0, tokens.size() / 2);
+    for (String metric : metrics) {
+      for (boolean units : new boolean[] {false, true}) {
+        double[][] distances = functions.getDistances(sources, tokens, units, metric);
+        for (int i = 0; i < sources.size(); i++) {
+          for (int j = 0; j < tokens.size(); j++) {
+            assertEquals(
+                functions.getDistance(sources.get(i), tokens.get(j), units, metric),
+                distances[i][j],
+                metric + " " + units + " " + i + "," + j);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("getDistances matches getDistance on a square grid for every metric.")
+  void testSquareGrid() throws ParserException {
+    assertSameAsPairwise(
+        createTokens(new SquareGrid(false, false), 17),
+        Arrays.asList("ONE_TWO_ONE", "ONE_ONE_ONE", "MANHATTAN", "NO_DIAGONALS", "NO_GRID"));
+  }
+
+  @Test
+  @DisplayName("getDistances matches getDistance on hex grids.")
+  void testHexGrids() throws ParserException {
+    // Hex grids ignore the metric, apart from measuring between centers
+    List<String> metrics = Arrays.asList("ONE_TWO_ONE", "NO_GRID");
+    assertSameAsPairwise(createTokens(new HexGridHorizontal(), 23), metrics);
+    assertSameAsPairwise(createTokens(new HexGridVertical(), 29), metrics);
+  }
+}
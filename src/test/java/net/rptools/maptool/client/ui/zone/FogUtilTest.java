@@ -0,0 +1,89 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.PathIterator;
+import java.util.Random;
+import net.rptools.maptool.client.ui.zone.vbl.AreaTree;
+import net.rptools.maptool.client.ui.zone.vbl.VisibilityEngine;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class FogUtilTest {
+  private static final int TOP_SIZE = 20000;
+
+  @Test
+  @DisplayName("Sweep engine matches the area engine on the test topology.")
+  void testSweepMatchesArea() {
+    AreaTree tree = new AreaTree(FogUtil.createTestTopology(TOP_SIZE));
+    Area vision = new Area(new Rectangle(-1500, -1500, 3000, 3000));
+
+    Random random = new Random(4242);
+    for (int i = 0; i < 5; i++) {
+      int x = TOP_SIZE / 2 - 150 + random.nextInt(300);
+      int y = TOP_SIZE / 2 - 150 + random.nextInt(300);
+      Area expected =
+          VisibilityEngine.Type.AREA.getEngine().calculateVisibility(x, y, vision, tree);
+      Area actual = VisibilityEngine.Type.SWEEP.getEngine().calculateVisibility(x, y, vision, tree);
+
+      Area difference = new Area(expected);
+      difference.exclusiveOr(actual);
+      assertTrue(area(difference) < 10, "Difference at " + x + "," + y);
+    }
+  }
+
+  @Test
+  @DisplayName("Both engines return null inside the VBL.")
+  void testOriginInsideTopology() {
+    AreaTree tree = new AreaTree(new Area(new Rectangle(0, 0, 100, 100)));
+    Area vision = new Area(new Rectangle(-500, -500, 1000, 1000));
+    for (VisibilityEngine.Type type : VisibilityEngine.Type.values()) {
+      assertNull(type.getEngine().calculateVisibility(50, 50, vision, tree), type.name());
+    }
+  }
+
+  /** Shoelace area of a flattened shape. Every subpath counts positive. */
+  private static double area(Area shape) {
+    double total = 0;
+    double sub = 0;
+    double[] c = new double[6];
+    double startX = 0, startY = 0, lastX = 0, lastY = 0;
+    for (PathIterator it = shape.getPathIterator(null, 0.5); !it.isDone(); it.next()) {
+      switch (it.currentSegment(c)) {
+        case PathIterator.SEG_MOVETO:
+          total += Math.abs(sub) / 2;
+          sub = 0;
+          startX = lastX = c[0];
+          startY = lastY = c[1];
+          break;
+        case PathIterator.SEG_LINETO:
+          sub += lastX * c[1] - c[0] * lastY;
+          lastX = c[0];
+          lastY = c[1];
+          break;
+        case PathIterator.SEG_CLOSE:
+          sub += lastX * startY - startX * lastY;
+          lastX = startX;
+          lastY = startY;
+          break;
+      }
+    }
+    return total + Math.abs(sub) / 2;
+  }
+}
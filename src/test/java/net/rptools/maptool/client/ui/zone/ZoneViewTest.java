@@ -0,0 +1,93 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import net.rptools.maptool.model.SquareGrid;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.model.Zone.TopologyMode;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class ZoneViewTest {
+
+  private static Zone createZone() {
+    Zone zone = new Zone();
+    SquareGrid grid = new SquareGrid(false, false);
+    zone.setGrid(grid);
+    grid.setSize(50);
+    // 50 units at 5 units per cell of 50 pixels, so tokens see 500 pixels around them
+    zone.setTokenVisionDistance(50);
+    zone.setVisionType(Zone.VisionType.DAY);
+    return zone;
+  }
+
+  private static Token createToken(Zone zone, int x, int y) {
+    Token token = new Token();
+    token.setHasSight(true);
+    token.setX(x);
+    token.setY(y);
+    zone.putToken(token);
+    return token;
+  }
+
+  @Test
+  @DisplayName("VBL changes only drop the vision of the tokens that can see them.")
+  void testTopologyChange() {
+    Zone zone = createZone();
+    Token near = createToken(zone, 0, 0);
+    Token far = createToken(zone, 5000, 0);
+    ZoneView view = new ZoneView(zone);
+
+    Area nearVision = view.getVisibleArea(near);
+    Area farVision = view.getVisibleArea(far);
+    assertTrue(nearVision.contains(400, 25));
+
+    Area wall = new Area(new Rectangle(200, -100, 20, 250));
+    zone.addTopology(wall, TopologyMode.VBL);
+    assertSame(farVision, view.getVisibleArea(far));
+    Area blocked = view.getVisibleArea(near);
+    assertNotSame(nearVision, blocked);
+    assertFalse(blocked.contains(400, 25));
+
+    zone.removeTopology(wall, TopologyMode.VBL);
+    assertSame(farVision, view.getVisibleArea(far));
+    assertTrue(view.getVisibleArea(near).contains(400, 25));
+  }
+
+  @Test
+  @DisplayName("Moving a token only drops its own vision when lights are off.")
+  void testTokenMove() {
+    Zone zone = createZone();
+    Token moved = createToken(zone, 0, 0);
+    Token other = createToken(zone, 5000, 0);
+    ZoneView view = new ZoneView(zone);
+
+    Area movedVision = view.getVisibleArea(moved);
+    Area otherVision = view.getVisibleArea(other);
+
+    moved.setX(1000);
+    zone.putToken(moved);
+    assertSame(otherVision, view.getVisibleArea(other));
+    Area newVision = view.getVisibleArea(moved);
+    assertNotSame(movedVision, newVision);
+    assertTrue(newVision.contains(1400, 25));
+    assertFalse(newVision.contains(0, 25));
+  }
+}
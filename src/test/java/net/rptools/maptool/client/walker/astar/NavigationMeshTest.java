@@ -0,0 +1,94 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import net.rptools.maptool.model.CellPoint;
+import net.rptools.maptool.model.SquareGrid;
+import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.model.Zone.TopologyMode;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class NavigationMeshTest {
+
+  private static Zone createZone() {
+    Zone zone = new Zone();
+    SquareGrid grid = new SquareGrid(false, false);
+    zone.setGrid(grid);
+    grid.setSize(50);
+    return zone;
+  }
+
+  private static boolean isBlocked(NavigationMesh mesh, int x1, int y1, int x2, int y2) {
+    return mesh.isBlocked(new CellPoint(x1, y1), new CellPoint(x2, y2));
+  }
+
+  @Test
+  @DisplayName("Moves through a wall are blocked and only tested once.")
+  void testBlockedMoves() {
+    Zone zone = createZone();
+    zone.addTopology(new Area(new Rectangle(100, 0, 10, 1000)), TopologyMode.MBL);
+    NavigationMesh mesh = NavigationMesh.getMesh(zone);
+    mesh.update(zone.getGrid(), null, zone.getTopologyTerrain(), null);
+
+    assertTrue(mesh.hasTopology());
+    assertTrue(isBlocked(mesh, 1, 0, 2, 0));
+    assertTrue(isBlocked(mesh, 1, 1, 2, 0));
+    assertFalse(isBlocked(mesh, 0, 0, 1, 0));
+    assertFalse(isBlocked(mesh, 1, 0, 1, 1));
+
+    int testCount = mesh.getTestCount();
+    assertTrue(isBlocked(mesh, 1, 0, 2, 0));
+    assertFalse(isBlocked(mesh, 1, 0, 1, 1));
+    mesh.update(zone.getGrid(), null, zone.getTopologyTerrain(), null);
+    assertTrue(isBlocked(mesh, 1, 0, 2, 0));
+    assertEquals(testCount, mesh.getTestCount());
+  }
+
+  @Test
+  @DisplayName("Changing the topology only forgets the moves near the change.")
+  void testIncrementalUpdate() {
+    Zone zone = createZone();
+    zone.addTopology(new Area(new Rectangle(100, 0, 10, 1000)), TopologyMode.MBL);
+    zone.addTopology(new Area(new Rectangle(2000, 0, 10, 1000)), TopologyMode.MBL);
+    NavigationMesh mesh = NavigationMesh.getMesh(zone);
+    mesh.update(zone.getGrid(), null, zone.getTopologyTerrain(), null);
+
+    assertTrue(isBlocked(mesh, 1, 0, 2, 0));
+    assertTrue(isBlocked(mesh, 39, 0, 40, 0));
+    assertFalse(isBlocked(mesh, 4, 0, 5, 0));
+
+    zone.addTopology(new Area(new Rectangle(250, 0, 10, 1000)), TopologyMode.MBL);
+    mesh.update(zone.getGrid(), null, zone.getTopologyTerrain(), null);
+    int testCount = mesh.getTestCount();
+
+    assertTrue(isBlocked(mesh, 4, 0, 5, 0));
+    assertEquals(testCount + 1, mesh.getTestCount());
+    assertTrue(isBlocked(mesh, 1, 0, 2, 0));
+    assertTrue(isBlocked(mesh, 39, 0, 40, 0));
+    assertEquals(testCount + 1, mesh.getTestCount());
+
+    // The moving token's own VBL never blocks it
+    Area topology = new Area(new Rectangle(600, 0, 10, 1000));
+    mesh.update(zone.getGrid(), topology, zone.getTopologyTerrain(), null);
+    assertTrue(isBlocked(mesh, 11, 0, 12, 0));
+    mesh.update(zone.getGrid(), topology, zone.getTopologyTerrain(), new Area(topology));
+    assertFalse(isBlocked(mesh, 11, 0, 12, 0));
+  }
+}
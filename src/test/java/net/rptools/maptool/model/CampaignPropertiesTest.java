@@ -0,0 +1,56 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class CampaignPropertiesTest {
+
+  @Test
+  @DisplayName("Token properties are found by name and follow changes to the property lists.")
+  void testTokenPropertyIndex() {
+    CampaignProperties properties = new CampaignProperties();
+    Map<String, List<TokenProperty>> typeMap = new HashMap<String, List<TokenProperty>>();
+    List<TokenProperty> list = new ArrayList<TokenProperty>();
+    list.add(new TokenProperty("Strength", "Str"));
+    list.add(new TokenProperty("HP"));
+    typeMap.put("Basic", list);
+    properties.setTokenTypeMap(typeMap);
+
+    assertSame(list.get(0), properties.getTokenProperty("Basic", "strength"));
+    assertSame(list.get(1), properties.getTokenProperty("Basic", "HP"));
+    assertNull(properties.getTokenProperty("Basic", "Dexterity"));
+    assertNull(properties.getTokenProperty("Other", "HP"));
+
+    // Added to the same list
+    TokenProperty dex = new TokenProperty("Dexterity", "Dex");
+    list.add(dex);
+    assertSame(dex, properties.getTokenProperty("Basic", "DEXTERITY"));
+
+    // List replaced
+    List<TokenProperty> newList = new ArrayList<TokenProperty>();
+    newList.add(new TokenProperty("Wisdom"));
+    typeMap.put("Basic", newList);
+    assertNull(properties.getTokenProperty("Basic", "Strength"));
+    assertSame(newList.get(0), properties.getTokenProperty("Basic", "wisdom"));
+  }
+}
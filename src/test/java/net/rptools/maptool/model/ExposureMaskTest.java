@@ -0,0 +1,132 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Random;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class ExposureMaskTest {
+  private static final int RESOLUTION = 25;
+
+  /**
+   * Checks every sample around the bounds against the center of the sample in the area, skipping
+   * the centers right on an edge where flattening the curves may go either way.
+   */
+  private static void assertSamples(Area expected, ExposureMask mask) {
+    Rectangle bounds = expected.getBounds();
+    bounds.grow(RESOLUTION * 2, RESOLUTION * 2);
+    Area exported = mask.toArea();
+    for (int y = Math.floorDiv(bounds.y, RESOLUTION); y * RESOLUTION < bounds.getMaxY(); y++) {
+      for (int x = Math.floorDiv(bounds.x, RESOLUTION); x * RESOLUTION < bounds.getMaxX(); x++) {
+        double cx = (x + 0.5) * RESOLUTION;
+        double cy = (y + 0.5) * RESOLUTION;
+        Rectangle2D center = new Rectangle2D.Double(cx - 0.5, cy - 0.5, 1, 1);
+        if (expected.intersects(center) && !expected.contains(center)) {
+          continue;
+        }
+        boolean exposed = expected.contains(cx, cy);
+        assertEquals(exposed, mask.contains(cx, cy), "sample " + x + "," + y);
+        assertEquals(exposed, exported.contains(cx, cy), "exported sample " + x + "," + y);
+      }
+    }
+  }
+
+  private static Area randomArea(Random random) {
+    Area area = new Area();
+    for (int i = 0; i < 10; i++) {
+      Polygon polygon = new Polygon();
+      for (int j = 0; j < 5; j++) {
+        polygon.addPoint(random.nextInt(3000) - 1500, random.nextInt(3000) - 1500);
+      }
+      area.add(new Area(polygon));
+      area.add(
+          new Area(
+              new Ellipse2D.Double(
+                  random.nextInt(3000) - 1500, random.nextInt(3000) - 1500, 300, 200)));
+    }
+    return area;
+  }
+
+  @Test
+  @DisplayName("Exposing and hiding shapes matches the area model at the sample centers.")
+  void testAddSubtract() {
+    Random random = new Random(3);
+    Area expected = new Area();
+    ExposureMask mask = new ExposureMask(RESOLUTION);
+    for (int i = 0; i < 5; i++) {
+      Area added = randomArea(random);
+      expected.add(added);
+      mask.add(added);
+      assertSamples(expected, mask);
+    }
+    Area hidden = new Area(new Rectangle(-700, -900, 1234, 987));
+    expected.subtract(hidden);
+    mask.subtract(hidden);
+    assertSamples(expected, mask);
+
+    mask.clear();
+    assertTrue(mask.isEmpty());
+    assertTrue(mask.toArea().isEmpty());
+  }
+
+  @Test
+  @DisplayName("Masks are combined tile by tile.")
+  void testAddMask() {
+    Random random = new Random(5);
+    Area first = randomArea(random);
+    Area second = randomArea(random);
+    ExposureMask mask = new ExposureMask(RESOLUTION);
+    mask.add(first);
+    ExposureMask other = new ExposureMask(RESOLUTION);
+    other.add(second);
+
+    ExposureMask combined = new ExposureMask(mask);
+    combined.add(other);
+    Area expected = new Area(first);
+    expected.add(second);
+    assertSamples(expected, combined);
+    // The copy is independent of the original
+    assertSamples(first, mask);
+  }
+
+  @Test
+  @DisplayName("Rectangle and shape tests see the exposed samples.")
+  void testIntersects() {
+    ExposureMask mask = new ExposureMask(RESOLUTION);
+    mask.add(new Rectangle(100, 100, 50, 50));
+    assertTrue(mask.intersects(new Rectangle(140, 140, 100, 100)));
+    assertTrue(mask.intersects(new Rectangle(149, 149, 1, 1)));
+    assertFalse(mask.intersects(new Rectangle(150, 100, 100, 100)));
+    assertFalse(mask.intersects(new Rectangle(100, 100, 0, 0)));
+    assertTrue(mask.intersects(new Area(new Rectangle(120, 120, 100, 100))));
+    assertFalse(mask.intersects(new Area(new Rectangle(150, 150, 100, 100))));
+
+    // Samples in tiles at negative coordinates and across tile boundaries
+    mask.add(new Rectangle(-2000, -30, 4000, 60));
+    assertTrue(mask.contains(-1990, 0));
+    assertTrue(mask.contains(1990, -20));
+    assertFalse(mask.contains(0, -40));
+    mask.subtract(new Rectangle(-2000, -30, 4000, 60));
+    assertEquals(1, mask.getTileCount());
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.GeneralPath;
+import java.util.Random;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class GridOutlineTest {
+  private static final int SIZE = 50;
+
+  @Test
+  @DisplayName("Shared edges cancel, leaving the outline of the cells.")
+  void testBlock() {
+    GridOutline outline = new GridOutline();
+    for (int y = 0; y < 3; y++) {
+      for (int x = 0; x < 3; x++) {
+        outline.add(new Rectangle(x * SIZE, y * SIZE, SIZE, SIZE), null);
+      }
+    }
+    assertEquals(12, outline.getEdgeCount());
+    Area area = outline.toArea();
+    assertTrue(area.isRectangular());
+    assertEquals(new Rectangle(0, 0, 3 * SIZE, 3 * SIZE), area.getBounds());
+  }
+
+  @Test
+  @DisplayName("The outline of random cells matches adding up their areas.")
+  void testRandomCells() {
+    Random random = new Random(7);
+    for (int run = 0; run < 20; run++) {
+      GridOutline outline = new GridOutline();
+      Area expected = new Area();
+      for (int i = 0; i < 60; i++) {
+        // Cells touching at corners and enclosing holes are both likely on a 10x10 board
+        Rectangle cell =
+            new Rectangle(random.nextInt(10) * SIZE, random.nextInt(10) * SIZE, SIZE, SIZE);
+        outline.add(cell, null);
+        expected.add(new Area(cell));
+      }
+      assertTrue(expected.equals(outline.toArea()), "run " + run);
+    }
+  }
+
+  @Test
+  @DisplayName("Overlapping and opposite wound polygons are combined.")
+  void testOverlaps() {
+    GeneralPath reversed = new GeneralPath();
+    reversed.moveTo(20, 20);
+    reversed.lineTo(20, 120);
+    reversed.lineTo(120, 120);
+    reversed.lineTo(120, 20);
+    reversed.closePath();
+
+    GridOutline outline = new GridOutline();
+    outline.add(new Rectangle(0, 0, 100, 100), null);
+    outline.add(reversed, null);
+    outline.add(new Rectangle(0, 0, 10, 10), AffineTransform.getTranslateInstance(200, 0));
+
+    Area expected = new Area(new Rectangle(0, 0, 100, 100));
+    expected.add(new Area(reversed));
+    expected.add(new Area(new Rectangle(200, 0, 10, 10)));
+    assertTrue(expected.equals(outline.toArea()));
+  }
+}
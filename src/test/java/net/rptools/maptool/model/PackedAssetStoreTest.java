@@ -0,0 +1,156 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import net.rptools.lib.MD5Key;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PackedAssetStoreTest {
+
+  @TempDir File dir;
+
+  private static List<Asset> createAssets(int count) {
+    Random random = new Random(7);
+    List<Asset> assets = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      byte[] data = new byte[random.nextInt(5000) + 1];
+      random.nextBytes(data);
+      assets.add(new Asset("asset" + i, data));
+    }
+    return assets;
+  }
+
+  @Test
+  @DisplayName("Assets can be read back after reopening the store.")
+  void testPutAndReopen() throws IOException {
+    List<Asset> assets = createAssets(50);
+    PackedAssetStore store = new PackedAssetStore(dir);
+    for (Asset asset : assets) {
+      store.put(asset);
+    }
+    store.close();
+
+    store = new PackedAssetStore(dir);
+    assertEquals(assets.size(), store.size());
+    for (Asset asset : assets) {
+      Asset read = store.get(asset.getId());
+      assertEquals(asset.getName(), read.getName());
+      assertArrayEquals(asset.getImage(), read.getImage());
+      ByteBuffer data = store.getData(asset.getId());
+      assertTrue(data.isReadOnly());
+      assertEquals(asset.getImage().length, data.remaining());
+    }
+    store.close();
+  }
+
+  @Test
+  @DisplayName("Compaction keeps the live assets and drops the removed ones.")
+  void testRemoveAndCompact() throws IOException {
+    List<Asset> assets = createAssets(40);
+    PackedAssetStore store = new PackedAssetStore(dir);
+    for (Asset asset : assets) {
+      store.put(asset);
+    }
+    for (int i = 0; i < 20; i++) {
+      store.remove(assets.get(i).getId());
+    }
+    store.flush();
+    assertTrue(store.getLiveBytes() < store.getTotalBytes());
+
+    store.compact();
+    assertEquals(store.getLiveBytes(), store.getTotalBytes());
+    assertEquals(20, store.size());
+    for (int i = 0; i < assets.size(); i++) {
+      assertEquals(i >= 20, store.contains(assets.get(i).getId()));
+    }
+    store.close();
+
+    store = new PackedAssetStore(dir);
+    assertEquals(20, store.size());
+    assertArrayEquals(assets.get(30).getImage(), store.get(assets.get(30).getId()).getImage());
+    store.close();
+  }
+
+  @Test
+  @DisplayName("Corrupted assets are found and a partial record is cut off.")
+  void testVerifyAndRecovery() throws IOException {
+    List<Asset> assets = createAssets(10);
+    PackedAssetStore store = new PackedAssetStore(dir);
+    for (Asset asset : assets) {
+      store.put(asset);
+    }
+    store.close();
+
+    File segment = new File(dir, "segment-00000.pack");
+    long length = segment.length();
+    try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+      // Flip the last byte of the last asset, then append half a record
+      raf.seek(length - 1);
+      int last = raf.read();
+      raf.seek(length - 1);
+      raf.write(last ^ 0xFF);
+      raf.write(new byte[] {0x4D, 0x54, 0x41});
+    }
+
+    store = new PackedAssetStore(dir);
+    assertEquals(length, segment.length());
+    List<MD5Key> corrupted = store.verify();
+    assertEquals(1, corrupted.size());
+    assertFalse(store.contains(corrupted.get(0)));
+    assertEquals(9, store.size());
+    store.close();
+  }
+
+  @Test
+  @DisplayName("Records missing from the index are recovered from any segment.")
+  void testRecoveryAcrossSegments() throws IOException {
+    List<Asset> assets = createAssets(3);
+    PackedAssetStore store = new PackedAssetStore(dir);
+    store.put(assets.get(0));
+    store.put(assets.get(1));
+    store.flush();
+    store.remove(assets.get(1).getId());
+    store.close();
+
+    // A record written to the first segment just before moving on to a new one
+    File other = new File(dir, "other");
+    PackedAssetStore otherStore = new PackedAssetStore(other);
+    otherStore.put(assets.get(2));
+    otherStore.close();
+    byte[] record = Files.readAllBytes(new File(other, "segment-00000.pack").toPath());
+    Files.write(new File(dir, "segment-00000.pack").toPath(), record, StandardOpenOption.APPEND);
+    assertTrue(new File(dir, "segment-00001.pack").createNewFile());
+
+    store = new PackedAssetStore(dir);
+    assertTrue(store.contains(assets.get(0).getId()));
+    // Removed records stay removed
+    assertFalse(store.contains(assets.get(1).getId()));
+    assertArrayEquals(assets.get(2).getImage(), store.get(assets.get(2).getId()).getImage());
+    store.close();
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TokenIndexTest {
+  private static final String[] TYPES = {"Basic", "Monster", "Vehicle"};
+  private static final String[] PLAYERS = {"Alice", "Bob", "Carol"};
+
+  private static Zone randomZone(Random random) {
+    Zone zone = new Zone();
+    for (int i = 0; i < 300; i++) {
+      Token token = new Token();
+      token.setLayer(Zone.Layer.values()[random.nextInt(Zone.Layer.values().length)]);
+      token.setPropertyType(TYPES[random.nextInt(TYPES.length)]);
+      token.setType(random.nextBoolean() ? Token.Type.PC : Token.Type.NPC);
+      token.setZOrder(random.nextInt(20));
+      if (random.nextInt(4) == 0) {
+        token.addOwner(PLAYERS[random.nextInt(PLAYERS.length)]);
+      }
+      switch (random.nextInt(4)) {
+        case 0:
+          token.setState("Dead", Boolean.TRUE);
+          break;
+        case 1:
+          token.setState("Dead", Boolean.FALSE);
+          break;
+        case 2:
+          token.setState("Dead", BigDecimal.ZERO);
+          break;
+        default:
+          break;
+      }
+      zone.putToken(token);
+    }
+    return zone;
+  }
+
+  private static List<Token> scan(Zone zone, Predicate<Token> filter) {
+    List<Token> result = new ArrayList<>();
+    for (Token token : zone.getAllTokens()) {
+      if (filter.test(token)) {
+        result.add(token);
+      }
+    }
+    return result;
+  }
+
+  @Test
+  @DisplayName("Indexed queries match a scan, in the same order.")
+  void testMatchesScan() {
+    Zone zone = randomZone(new Random(7));
+    TokenIndex.Key token = TokenIndex.Key.layer(Zone.Layer.TOKEN);
+    TokenIndex.Key gm = TokenIndex.Key.layer(Zone.Layer.GM);
+
+    assertEquals(
+        scan(zone, t -> t.getLayer() == Zone.Layer.TOKEN || t.getLayer() == Zone.Layer.GM),
+        zone.getTokensIndexed(List.of(Set.of(token, gm))));
+    assertEquals(
+        scan(
+            zone,
+            t ->
+                t.getLayer() == Zone.Layer.TOKEN
+                    && t.getType() == Token.Type.PC
+                    && "Monster".equals(t.getPropertyType())),
+        zone.getTokensIndexed(
+            List.of(
+                Set.of(token),
+                Set.of(TokenIndex.Key.type(Token.Type.PC)),
+                Set.of(TokenIndex.Key.propertyType("Monster")))));
+    assertEquals(
+        scan(zone, t -> Boolean.TRUE.equals(t.getState("Dead"))),
+        zone.getTokensIndexed(List.of(Set.of(TokenIndex.Key.state("Dead")))));
+    assertEquals(
+        scan(zone, t -> t.isOwner("Alice")),
+        zone.getTokensIndexed(
+            List.of(Set.of(TokenIndex.Key.owner("Alice"), TokenIndex.Key.ownedByAll()))));
+    assertEquals(zone.getAllTokens(), zone.getTokensIndexed(List.of()));
+  }
+
+  @Test
+  @DisplayName("The index follows the token events of the zone.")
+  void testEvents() {
+    Zone zone = randomZone(new Random(11));
+    TokenIndex.Key dead = TokenIndex.Key.state("Dead");
+    List<Token> before = zone.getTokensIndexed(List.of(Set.of(dead)));
+
+    Token token = zone.getAllTokens().get(0);
+    token.setState("Dead", Boolean.TRUE);
+    zone.putToken(token);
+    List<Token> after = zone.getTokensIndexed(List.of(Set.of(dead)));
+    assertTrue(after.contains(token));
+    assertEquals(scan(zone, t -> Boolean.TRUE.equals(t.getState("Dead"))), after);
+
+    zone.removeToken(token.getId());
+    assertFalse(zone.getTokensIndexed(List.of(Set.of(dead))).contains(token));
+    before.remove(token);
+    assertEquals(before, zone.getTokensIndexed(List.of(Set.of(dead))));
+  }
+}
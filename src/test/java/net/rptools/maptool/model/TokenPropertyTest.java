@@ -0,0 +1,42 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.gson.JsonElement;
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.spi.json.GsonJsonProvider;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TokenPropertyTest {
+  @Test
+  @DisplayName("Editing a JSON property value that was read leaves the property unchanged.")
+  void testPathEditOnReadValue() {
+    Token token = new Token();
+    token.setProperty("Stats", "{\"hp\": {\"max\": 10, \"current\": 7}, \"ac\": 15}");
+
+    JsonElement read = (JsonElement) token.getEvaluatedProperty("Stats");
+    Configuration config = Configuration.builder().jsonProvider(new GsonJsonProvider()).build();
+    JsonPath.using(config).parse(read).delete("$.hp.current").set("$.ac", 3);
+
+    JsonElement again = (JsonElement) token.getEvaluatedProperty("Stats");
+    assertNotSame(read, again);
+    assertEquals(7, again.getAsJsonObject().getAsJsonObject("hp").get("current").getAsInt());
+    assertEquals(15, again.getAsJsonObject().get("ac").getAsInt());
+  }
+}
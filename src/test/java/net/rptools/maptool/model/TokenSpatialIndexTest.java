@@ -0,0 +1,150 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TokenSpatialIndexTest {
+
+  @Test
+  @DisplayName("Range query matches a linear scan.")
+  void testIntersectingMatchesScan() {
+    Random random = new Random(42);
+    TokenSpatialIndex index = new TokenSpatialIndex(100);
+    List<Token> tokens = new ArrayList<>();
+    List<Rectangle> bounds = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      Token token = new Token();
+      Rectangle r =
+          new Rectangle(
+              random.nextInt(4000) - 2000,
+              random.nextInt(4000) - 2000,
+              random.nextInt(300),
+              random.nextInt(300));
+      index.put(token, r);
+      tokens.add(token);
+      bounds.add(r);
+    }
+    // One huge token that goes in the oversized list
+    Token huge = new Token();
+    Rectangle hugeBounds = new Rectangle(-5000, -5000, 10000, 10000);
+    index.put(huge, hugeBounds);
+    tokens.add(huge);
+    bounds.add(hugeBounds);
+
+    for (int q = 0; q < 100; q++) {
+      Rectangle area =
+          new Rectangle(
+              random.nextInt(4000) - 2000,
+              random.nextInt(4000) - 2000,
+              random.nextInt(800) + 1,
+              random.nextInt(800) + 1);
+      Set<Token> expected = new HashSet<>();
+      for (int i = 0; i < tokens.size(); i++) {
+        Rectangle r = bounds.get(i);
+        if (r.isEmpty() ? area.contains(r.x, r.y) : r.intersects(area)) {
+          expected.add(tokens.get(i));
+        }
+      }
+      assertEquals(expected, new HashSet<>(index.getIntersecting(area)));
+    }
+  }
+
+  @Test
+  @DisplayName("Moving and removing tokens updates the buckets.")
+  void testMoveAndRemove() {
+    TokenSpatialIndex index = new TokenSpatialIndex(50);
+    Token token = new Token();
+    index.put(token, new Rectangle(0, 0, 50, 50));
+    assertEquals(1, index.getContaining(10, 10).size());
+
+    index.put(token, new Rectangle(1000, 1000, 50, 50));
+    assertTrue(index.getContaining(10, 10).isEmpty());
+    assertEquals(1, index.getContaining(1010, 1010).size());
+    assertEquals(1, index.size());
+
+    assertTrue(index.remove(token.getId()));
+    assertFalse(index.remove(token.getId()));
+    assertTrue(index.getIntersecting(new Rectangle(-10000, -10000, 20000, 20000)).isEmpty());
+    assertEquals(0, index.size());
+  }
+
+  private static Zone createZone() {
+    Zone zone = new Zone();
+    SquareGrid grid = new SquareGrid(false, false);
+    zone.setGrid(grid);
+    grid.setSize(50);
+    return zone;
+  }
+
+  @Test
+  @DisplayName("Zone queries return the tokens in z-order.")
+  void testZoneQueryOrder() {
+    Random random = new Random(7);
+    Zone zone = createZone();
+    for (int i = 0; i < 200; i++) {
+      Token token = new Token();
+      token.setX(random.nextInt(20) * 50);
+      token.setY(random.nextInt(20) * 50);
+      token.setZOrder(random.nextInt(50));
+      zone.putToken(token);
+    }
+
+    List<Token> result = zone.getTokensIntersecting(new Rectangle(200, 200, 400, 400), null);
+    assertFalse(result.isEmpty());
+    Set<Token> found = new HashSet<>(result);
+    List<Token> expected = new ArrayList<>();
+    for (Token token : zone.getAllTokens()) {
+      if (found.contains(token)) {
+        expected.add(token);
+      }
+    }
+    assertEquals(expected, result);
+    for (int i = 1; i < result.size(); i++) {
+      assertTrue(result.get(i - 1).getZOrder() <= result.get(i).getZOrder());
+    }
+  }
+
+  @Test
+  @DisplayName("Zone queries find a token moved with its setters at its new place.")
+  void testZoneQueryAfterSetters() {
+    Zone zone = createZone();
+    Token token = new Token();
+    zone.putToken(token);
+    assertEquals(List.of(token), zone.getTokensAt(new ZonePoint(10, 10), null));
+
+    token.setX(1000);
+    token.setY(1000);
+    assertTrue(zone.getTokensAt(new ZonePoint(10, 10), null).isEmpty());
+    assertEquals(List.of(token), zone.getTokensAt(new ZonePoint(1010, 1010), null));
+
+    // The instance it was replaced with stays where it is
+    Token copy = new Token(token, true);
+    zone.putToken(copy);
+    token.setX(0);
+    token.setY(0);
+    assertEquals(List.of(copy), zone.getTokensAt(new ZonePoint(1010, 1010), null));
+    assertTrue(zone.getTokensAt(new ZonePoint(10, 10), null).isEmpty());
+  }
+}
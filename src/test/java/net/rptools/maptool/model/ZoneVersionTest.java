@@ -0,0 +1,68 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class ZoneVersionTest {
+  @Test
+  @DisplayName("Putting a changed token back in its zone changes the version of the zone.")
+  void testTokenChange() {
+    Zone zone = new Zone();
+    Token token = new Token();
+    zone.putToken(token);
+
+    long version = zone.getVersion();
+    token.setX(100);
+    zone.putToken(token);
+    assertTrue(zone.getVersion() > version);
+
+    version = zone.getVersion();
+    token.setProperty("HP", "7");
+    zone.tokenChanged(token);
+    assertTrue(zone.getVersion() > version);
+
+    version = zone.getVersion();
+    List<Token> tokens = new ArrayList<Token>();
+    tokens.add(new Token(token, true)); // A fresh instance, as received from the server
+    zone.putTokens(tokens);
+    assertTrue(zone.getVersion() > version);
+
+    version = zone.getVersion();
+    zone.removeToken(token.getId());
+    assertTrue(zone.getVersion() > version);
+  }
+
+  @Test
+  @DisplayName("Changing the initiative list changes the version of its zone.")
+  void testInitiativeChange() {
+    Zone zone = new Zone();
+    InitiativeList list = zone.getInitiativeList();
+    list.setZone(null); // So that it doesn't tell a server about the changes
+
+    long version = zone.getVersion();
+    list.setRound(3);
+    assertTrue(zone.getVersion() > version);
+
+    version = zone.getVersion();
+    zone.setInitiativeList(new InitiativeList(null));
+    assertTrue(zone.getVersion() > version, "a new list doesn't lose the changes to the old one");
+  }
+}
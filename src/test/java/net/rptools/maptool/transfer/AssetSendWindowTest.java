@@ -0,0 +1,86 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.transfer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class AssetSendWindowTest {
+
+  @Test
+  @DisplayName("The window closes when full and the chunk size follows the latency.")
+  void testWindow() {
+    AssetSendWindow window = new AssetSendWindow();
+    int size = window.getChunkSize();
+    assertEquals(AssetSendWindow.MIN_CHUNK_SIZE, size);
+
+    for (int i = 0; i < AssetSendWindow.WINDOW_CHUNKS; i++) {
+      assertTrue(window.canSend(0));
+      assertEquals(i, window.chunkSent(size, 0));
+    }
+    assertFalse(window.canSend(0));
+
+    // Fast acknowledgement, bigger chunks
+    window.chunkAcknowledged(0, 10);
+    assertTrue(window.canSend(10));
+    assertEquals(size * 2, window.getChunkSize());
+
+    // Slow acknowledgement, smaller chunks
+    window.chunkAcknowledged(1, AssetSendWindow.TARGET_LATENCY * 5);
+    assertEquals(size, window.getChunkSize());
+    assertEquals(2L * size, window.getInFlightBytes());
+
+    // A lost acknowledgement is made up for by the next one
+    window.chunkAcknowledged(3, AssetSendWindow.TARGET_LATENCY * 5);
+    assertEquals(0, window.getInFlightBytes());
+  }
+
+  @Test
+  @DisplayName("Lost acknowledgements don't stop the transfer, and late ones are ignored.")
+  void testTimeout() {
+    AssetSendWindow window = new AssetSendWindow();
+    int size = window.getChunkSize();
+    for (int i = 0; i < AssetSendWindow.WINDOW_CHUNKS; i++) {
+      window.chunkSent(size, 0);
+    }
+    assertFalse(window.canSend(AssetSendWindow.ACK_TIMEOUT));
+    assertTrue(window.canSend(AssetSendWindow.ACK_TIMEOUT + 1));
+    assertEquals(0, window.getInFlightBytes());
+
+    // The late acknowledgements don't retire the chunks sent after the timeout
+    long now = AssetSendWindow.ACK_TIMEOUT + 2;
+    long sequence = window.chunkSent(size, now);
+    window.chunkAcknowledged(0, now);
+    window.chunkAcknowledged(AssetSendWindow.WINDOW_CHUNKS - 1, now);
+    assertEquals(size, window.getInFlightBytes());
+    assertEquals(size, window.getChunkSize());
+
+    window.chunkAcknowledged(sequence, now);
+    assertEquals(0, window.getInFlightBytes());
+  }
+
+  @Test
+  @DisplayName("A client that doesn't acknowledge chunks isn't waited for.")
+  void testUnacknowledged() {
+    AssetSendWindow window = new AssetSendWindow(false);
+    for (int i = 0; i < AssetSendWindow.WINDOW_CHUNKS * 2; i++) {
+      assertTrue(window.canSend(0));
+      window.chunkSent(window.getChunkSize(), 0);
+    }
+    assertEquals(0, window.getInFlightBytes());
+  }
+}
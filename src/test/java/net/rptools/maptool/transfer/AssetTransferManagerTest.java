@@ -20,6 +20,10 @@
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
@@ -76,6 +80,28 @@ void testBasicTransfer() throws Exception {
     consumer.getFilename().delete();
   }
 
+  @Test
+  @DisplayName("Newest and prioritized producers are sent first.")
+  void testPriority() throws Exception {
+    AssetTransferManager manager = new AssetTransferManager();
+    manager.addProducer(new AssetProducer("one", "one", ByteBuffer.wrap(new byte[20])));
+    manager.addProducer(new AssetProducer("two", "two", ByteBuffer.wrap(new byte[20])));
+    manager.addProducer(new AssetProducer("three", "three", ByteBuffer.wrap(new byte[20])));
+
+    // Half of the newest one, then the oldest one jumps the queue
+    assertEquals("three", manager.nextChunk(10).getId());
+    assertTrue(manager.prioritize(Collections.singleton("one")));
+    assertFalse(manager.prioritize(Collections.singleton("four")));
+
+    List<Object> order = new ArrayList<Object>();
+    AssetChunk chunk;
+    while ((chunk = manager.nextChunk(10)) != null) {
+      order.add(chunk.getId());
+    }
+    assertEquals(List.of("one", "one", "three", "two", "two"), order);
+    assertFalse(manager.hasProducers());
+  }
+
   @Test
   @DisplayName("Test Create Temporary File.")
   File createTempFile(byte[] data) throws IOException {
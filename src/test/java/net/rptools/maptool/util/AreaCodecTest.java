@@ -0,0 +1,171 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.PathIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import net.rptools.maptool.model.ExposedAreaMetaData;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class AreaCodecTest {
+
+  /** @return the segments of the path of the area, the type followed by the coordinates */
+  private static List<String> segments(Area area) {
+    List<String> segments = new ArrayList<String>();
+    double[] coords = new double[6];
+    for (PathIterator iter = area.getPathIterator(null); !iter.isDone(); iter.next()) {
+      int type = iter.currentSegment(coords);
+      segments.add(type + " " + Arrays.toString(coords));
+      Arrays.fill(coords, 0);
+    }
+    return segments;
+  }
+
+  private static void assertRoundTrip(Area area) {
+    Area decoded = AreaCodec.decode(AreaCodec.encode(area));
+    assertEquals(segments(area), segments(decoded));
+  }
+
+  /** Area rebuilds its curves from the path, which may move crossings by rounding errors. */
+  private static void assertSameShape(Area area) {
+    Area decoded = AreaCodec.decode(AreaCodec.encode(area));
+    Area difference = new Area(area);
+    difference.exclusiveOr(decoded);
+    assertTrue(surface(difference) < 1e-3);
+  }
+
+  /** The summed surface of the sub paths of the area, which is tiny for slivers. */
+  private static double surface(Area area) {
+    double total = 0;
+    double sum = 0;
+    double[] coords = new double[6];
+    double startX = 0, startY = 0, lastX = 0, lastY = 0;
+    for (PathIterator it = area.getPathIterator(null, 0.01); !it.isDone(); it.next()) {
+      switch (it.currentSegment(coords)) {
+        case PathIterator.SEG_MOVETO:
+          startX = lastX = coords[0];
+          startY = lastY = coords[1];
+          sum = 0;
+          break;
+        case PathIterator.SEG_LINETO:
+          sum += lastX * coords[1] - coords[0] * lastY;
+          lastX = coords[0];
+          lastY = coords[1];
+          break;
+        case PathIterator.SEG_CLOSE:
+          sum += lastX * startY - startX * lastY;
+          total += Math.abs(sum) / 2;
+          break;
+      }
+    }
+    return total;
+  }
+
+  @Test
+  @DisplayName("Areas decode to the same path.")
+  void testRoundTrip() {
+    assertRoundTrip(new Area());
+    assertRoundTrip(new Area(new Rectangle(-50, 20, 300, 7)));
+    assertRoundTrip(new Area(new Ellipse2D.Double(10.25, -3.1, 99.9, 40)));
+
+    Random random = new Random(7);
+    Area walls = new Area();
+    for (int i = 0; i < 300; i++) {
+      walls.add(
+          new Area(
+              new Rectangle(
+                  random.nextInt(5000), random.nextInt(5000), random.nextInt(400) + 5, 8)));
+    }
+    assertRoundTrip(walls);
+  }
+
+  @Test
+  @DisplayName("Curved areas decode to the same shape.")
+  void testSameShape() {
+    Random random = new Random(7);
+    Area fog = new Area();
+    for (int i = 0; i < 50; i++) {
+      fog.add(new Area(new Ellipse2D.Double(random.nextInt(5000), random.nextInt(5000), 600, 600)));
+    }
+    assertSameShape(fog);
+
+    Area topology = new Area();
+    for (int i = 0; i < 200; i++) {
+      Polygon polygon = new Polygon();
+      for (int j = 0; j < 5; j++) {
+        polygon.addPoint(random.nextInt(20000) - 10000, random.nextInt(20000) - 10000);
+      }
+      topology.add(new Area(polygon));
+      topology.subtract(
+          new Area(
+              new Ellipse2D.Double(
+                  random.nextDouble() * 10000, random.nextDouble() * 10000, 300, 300)));
+    }
+    assertSameShape(topology);
+  }
+
+  @Test
+  @DisplayName("Whole coordinates take less room than doubles.")
+  void testCompact() {
+    Area area = new Area();
+    for (int i = 0; i < 100; i++) {
+      area.add(new Area(new Rectangle(i * 100, i * 50, 50, 25)));
+    }
+    // 400 points of two doubles each
+    assertTrue(AreaCodec.encode(area).length < 400 * 16 / 2);
+  }
+
+  @Test
+  @DisplayName("Areas among call parameters are packed and unpacked.")
+  void testParameters() {
+    Area area = new Area(new Rectangle(1, 2, 3, 4));
+    ExposedAreaMetaData meta = new ExposedAreaMetaData(area);
+    Object[] parameters = {"zone", area, meta, 5};
+
+    Object[] packed = AreaCodec.packParameters(parameters);
+    assertNotSame(parameters, packed);
+    assertSame(area, parameters[1]);
+    assertTrue(packed[1] instanceof AreaCodec.Packed);
+    assertTrue(packed[2] instanceof AreaCodec.Packed);
+
+    Object[] unpacked = AreaCodec.unpackParameters(packed);
+    assertEquals("zone", unpacked[0]);
+    assertTrue(area.equals((Area) unpacked[1]));
+    assertTrue(area.equals(((ExposedAreaMetaData) unpacked[2]).getExposedAreaHistory()));
+    assertEquals(5, unpacked[3]);
+
+    Object[] plain = {"zone", 5};
+    assertSame(plain, AreaCodec.packParameters(plain));
+    assertSame(plain, AreaCodec.unpackParameters(plain));
+  }
+
+  @Test
+  @DisplayName("Unknown versions are rejected.")
+  void testVersion() {
+    byte[] data = AreaCodec.encode(new Area(new Rectangle(0, 0, 1, 1)));
+    data[0] = 99;
+    assertThrows(IllegalArgumentException.class, () -> AreaCodec.decode(data));
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class BoundedCacheTest {
+
+  private static BoundedCache<String, byte[]> newCache(long maxWeight) {
+    return new BoundedCache<String, byte[]>(
+        "test", maxWeight, value -> value.length, (key, value) -> !key.startsWith("pinned"));
+  }
+
+  @Test
+  @DisplayName("Least recently used entries are evicted first.")
+  void testLruEviction() {
+    BoundedCache<String, byte[]> cache = newCache(300);
+    cache.put("a", new byte[100]);
+    cache.put("b", new byte[100]);
+    cache.put("c", new byte[100]);
+    assertNotNull(cache.get("a")); // b is now the least recently used
+
+    cache.put("d", new byte[100]);
+    assertFalse(cache.containsKey("b"));
+    assertEquals(Arrays.asList("c", "a", "d"), cache.keys());
+    assertEquals(300, cache.getWeight());
+    assertEquals(1, cache.getEvictionCount());
+  }
+
+  @Test
+  @DisplayName("Pinned entries are skipped but still count against the budget.")
+  void testPinnedEntries() {
+    BoundedCache<String, byte[]> cache = newCache(250);
+    cache.put("pinned", new byte[200]);
+    cache.put("a", new byte[100]);
+    // Only the new entry could go, and it is never evicted by its own put
+    assertEquals(300, cache.getWeight());
+
+    cache.put("b", new byte[10]);
+    assertFalse(cache.containsKey("a"));
+    assertTrue(cache.containsKey("pinned"));
+    assertEquals(210, cache.getWeight());
+  }
+
+  @Test
+  @DisplayName("Weights, statistics and budget changes are tracked.")
+  void testAccounting() {
+    BoundedCache<String, byte[]> cache = newCache(1000);
+    cache.put("a", new byte[100]);
+    cache.put("a", new byte[50]);
+    assertEquals(50, cache.getWeight());
+    assertEquals(1, cache.size());
+
+    assertNotNull(cache.get("a"));
+    assertNull(cache.get("b"));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+
+    cache.put("b", new byte[200]);
+    cache.setMaxWeight(200);
+    assertEquals(Arrays.asList("b"), cache.keys());
+
+    assertNotNull(cache.remove("b"));
+    assertEquals(0, cache.getWeight());
+
+    cache.resetStatistics();
+    assertEquals(0, cache.getHitCount() + cache.getMissCount() + cache.getEvictionCount());
+  }
+
+  @Test
+  @DisplayName("Evictability is asked outside the lock and kept until updated.")
+  void testEvictableOutsideLock() {
+    Set<String> pinned = new HashSet<String>();
+    pinned.add("a");
+    boolean[] locked = new boolean[1];
+    AtomicReference<BoundedCache<String, byte[]>> holder = new AtomicReference<>();
+    holder.set(
+        new BoundedCache<String, byte[]>(
+            "test",
+            150,
+            value -> value.length,
+            (key, value) -> {
+              locked[0] |= Thread.holdsLock(holder.get());
+              return !pinned.contains(key);
+            }));
+    BoundedCache<String, byte[]> cache = holder.get();
+    cache.put("a", new byte[100]);
+    cache.put("b", new byte[100]);
+    assertTrue(cache.containsKey("a"));
+    assertEquals(200, cache.getWeight());
+
+    // The answer given at put time is kept until asked again
+    pinned.clear();
+    cache.put("c", new byte[10]);
+    assertEquals(Arrays.asList("a", "c"), cache.keys());
+    cache.setMaxWeight(50);
+    assertEquals(Arrays.asList("a"), cache.keys());
+    cache.updateEvictable();
+    assertFalse(cache.containsKey("a"));
+    assertEquals(0, cache.getWeight());
+    assertFalse(locked[0]);
+  }
+}
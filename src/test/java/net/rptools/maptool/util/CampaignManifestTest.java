@@ -0,0 +1,72 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import net.rptools.lib.MD5Key;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class CampaignManifestTest {
+
+  @Test
+  @DisplayName("The asset entries survive a write and read, in order.")
+  void testRoundTrip() throws IOException {
+    CampaignManifest manifest = new CampaignManifest();
+    List<MD5Key> ids = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      MD5Key id = new MD5Key(new byte[] {(byte) i});
+      ids.add(id);
+      manifest.addAsset(
+          new CampaignManifest.AssetEntry(
+              id,
+              i == 3 ? null : "Asset " + i,
+              i % 2 == 0 ? "png" : "data",
+              "image",
+              "assets/" + id + ".png",
+              i * 1000L));
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    manifest.write(out);
+
+    CampaignManifest read = CampaignManifest.read(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(20, read.getAssets().size());
+    int i = 0;
+    for (CampaignManifest.AssetEntry entry : read.getAssets()) {
+      assertEquals(ids.get(i), entry.getId());
+      assertEquals(i == 3 ? null : "Asset " + i, entry.getName());
+      assertEquals(i % 2 == 0 ? "png" : "data", entry.getExtension());
+      assertEquals("image", entry.getType());
+      assertEquals("assets/" + ids.get(i) + ".png", entry.getPath());
+      assertEquals(i * 1000L, entry.getSize());
+      i++;
+    }
+    assertNotNull(read.getAsset(ids.get(7)));
+    assertNull(read.getAsset(new MD5Key(new byte[] {99})));
+  }
+
+  @Test
+  @DisplayName("Other data is rejected.")
+  void testNotAManifest() {
+    byte[] xml = "<map></map>".getBytes();
+    assertThrows(IOException.class, () -> CampaignManifest.read(new ByteArrayInputStream(xml)));
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import net.rptools.lib.MD5Key;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class MipmapCacheTest {
+  private static final MD5Key ID = new MD5Key(new byte[] {1, 2, 3});
+
+  @Test
+  @DisplayName("The level is the last halving still as large as the drawn image.")
+  void testGetLevel() {
+    assertEquals(0, MipmapCache.getLevel(1024, 1024, 2.0));
+    assertEquals(0, MipmapCache.getLevel(1024, 1024, 0.6));
+    assertEquals(1, MipmapCache.getLevel(1024, 1024, 0.5));
+    assertEquals(3, MipmapCache.getLevel(1024, 1024, 0.1));
+    // Small images are not reduced further
+    assertEquals(1, MipmapCache.getLevel(40, 1000, 0.01));
+  }
+
+  @Test
+  @DisplayName("Levels are made in the background, then used.")
+  void testBackgroundLevels() {
+    List<Runnable> tasks = new ArrayList<>();
+    MipmapCache cache = new MipmapCache(64 * 1024 * 1024, tasks::add);
+    BufferedImage source = new BufferedImage(512, 256, BufferedImage.TYPE_INT_ARGB);
+    int[] ready = new int[1];
+
+    // Nothing made yet, so the full image is used and one task is queued
+    assertSame(source, cache.getImage(ID, source, 0.2, () -> ready[0]++));
+    assertSame(source, cache.getImage(ID, source, 0.2, () -> ready[0]++));
+    assertEquals(1, tasks.size());
+
+    tasks.remove(0).run();
+    assertEquals(1, ready[0]);
+    BufferedImage level = cache.getImage(ID, source, 0.2, null);
+    assertEquals(128, level.getWidth());
+    assertEquals(64, level.getHeight());
+    assertTrue(tasks.isEmpty());
+
+    // The intermediate levels were kept
+    assertEquals(256, cache.getImage(ID, source, 0.5, null).getWidth());
+    assertTrue(tasks.isEmpty());
+  }
+
+  @Test
+  @DisplayName("Derived images are cached per level.")
+  void testVariants() {
+    List<Runnable> tasks = new ArrayList<>();
+    MipmapCache cache = new MipmapCache(64 * 1024 * 1024, tasks::add);
+    BufferedImage source = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
+    int[] derived = new int[1];
+
+    BufferedImage first =
+        cache.getImage(ID, source, 0.25, "flip", image -> copy(image, derived), null);
+    assertEquals(256, first.getWidth());
+    BufferedImage again =
+        cache.getImage(ID, source, 0.25, "flip", image -> copy(image, derived), null);
+    assertSame(first, again);
+    assertEquals(1, derived[0]);
+
+    tasks.remove(0).run();
+    BufferedImage second =
+        cache.getImage(ID, source, 0.25, "flip", image -> copy(image, derived), null);
+    assertEquals(64, second.getWidth());
+    assertEquals(2, derived[0]);
+
+    cache.flush(ID);
+    cache.getImage(ID, source, 0.25, "flip", image -> copy(image, derived), null);
+    assertEquals(3, derived[0]);
+  }
+
+  @Test
+  @DisplayName("Old entries are evicted once over budget.")
+  void testBudget() {
+    MipmapCache cache = new MipmapCache(300 * 1024, Runnable::run);
+    for (int i = 0; i < 10; i++) {
+      MD5Key id = new MD5Key(new byte[] {(byte) i});
+      BufferedImage source = new BufferedImage(512, 512, BufferedImage.TYPE_INT_ARGB);
+      // Levels 1 and 2 take 256K + 64K
+      cache.getImage(id, source, 0.25, null);
+    }
+    assertTrue(cache.getStatistics().contains("evictions"));
+    MD5Key last = new MD5Key(new byte[] {9});
+    BufferedImage source = new BufferedImage(512, 512, BufferedImage.TYPE_INT_ARGB);
+    assertEquals(128, cache.getImage(last, source, 0.25, null).getWidth());
+  }
+
+  private static BufferedImage copy(BufferedImage image, int[] counter) {
+    counter[0]++;
+    return new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+  }
+}
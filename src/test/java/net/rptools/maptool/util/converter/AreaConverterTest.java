@@ -0,0 +1,60 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util.converter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.thoughtworks.xstream.XStream;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import net.rptools.lib.FileUtil;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class AreaConverterTest {
+  /** Area only overrides equals(Area), it compares the shapes */
+  private static final Area AREA = new Area(new Rectangle(10, 20, 30, 40));
+
+  @Test
+  @DisplayName("The shared XStream writes areas field by field and reads both forms.")
+  void testConfiguredXStream() {
+    XStream xstream = FileUtil.getConfiguredXStream();
+    String xml = xstream.toXML(AREA);
+    assertFalse(xml.contains(" v=\""), "token and map files keep the form older versions read");
+    assertTrue(AREA.equals((Area) xstream.fromXML(xml)));
+
+    String compact = compactXStream().toXML(AREA);
+    assertTrue(AREA.equals((Area) xstream.fromXML(compact)));
+  }
+
+  @Test
+  @DisplayName("The campaign XStream writes the compact form and reads both forms.")
+  void testCompactXStream() {
+    XStream xstream = compactXStream();
+    String xml = xstream.toXML(AREA);
+    assertTrue(xml.contains(" v=\""));
+    assertTrue(AREA.equals((Area) xstream.fromXML(xml)));
+
+    String legacy = FileUtil.getConfiguredXStream().toXML(AREA);
+    assertTrue(AREA.equals((Area) xstream.fromXML(legacy)));
+  }
+
+  private static XStream compactXStream() {
+    XStream xstream = FileUtil.getConfiguredXStream();
+    xstream.registerConverter(
+        new AreaConverter(xstream.getMapper(), xstream.getReflectionProvider(), true));
+    return xstream;
+  }
+}
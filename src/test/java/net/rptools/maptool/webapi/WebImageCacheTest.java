@@ -0,0 +1,83 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.webapi;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import javax.imageio.ImageIO;
+import net.rptools.lib.MD5Key;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class WebImageCacheTest {
+
+  private static byte[] createImage(int width, int height) throws IOException {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", out);
+    return out.toByteArray();
+  }
+
+  @Test
+  @DisplayName("Sizes are rounded up to a power of two.")
+  void testNormalizeSize() {
+    assertEquals(0, WebImageCache.normalizeSize(0));
+    assertEquals(WebImageCache.MIN_SIZE, WebImageCache.normalizeSize(1));
+    assertEquals(64, WebImageCache.normalizeSize(64));
+    assertEquals(128, WebImageCache.normalizeSize(65));
+    assertEquals(WebImageCache.MAX_SIZE, WebImageCache.normalizeSize(WebImageCache.MAX_SIZE));
+    assertEquals(0, WebImageCache.normalizeSize(WebImageCache.MAX_SIZE + 1));
+  }
+
+  @Test
+  @DisplayName("Images are scaled down, kept on disk and evicted over the limit.")
+  void testResizeAndEvict() throws IOException {
+    File dir = Files.createTempDirectory("webthumbs").toFile();
+    byte[] original = createImage(400, 200);
+    MD5Key id = new MD5Key(original);
+
+    WebImageCache cache = new WebImageCache(dir, 1024 * 1024);
+    byte[] thumbnail = cache.getImage(id, original, 100);
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(thumbnail));
+    assertEquals(128, image.getWidth());
+    assertEquals(64, image.getHeight());
+
+    // Small enough already
+    assertNull(cache.getImage(id, original, 512));
+    assertNull(cache.getImage(id, original, 0));
+
+    // Found again by a new cache on the same directory
+    WebImageCache reopened = new WebImageCache(dir, 1024 * 1024);
+    assertEquals(thumbnail.length, reopened.getTotalBytes());
+    assertArrayEquals(thumbnail, reopened.getImage(id, original, 128));
+
+    // Only room for one image
+    WebImageCache small = new WebImageCache(dir, thumbnail.length);
+    small.getImage(id, original, 32);
+    assertTrue(small.getTotalBytes() <= thumbnail.length);
+    assertEquals(1, dir.listFiles().length);
+
+    small.clear();
+    assertEquals(0, small.getTotalBytes());
+    assertEquals(0, dir.listFiles().length);
+    dir.delete();
+  }
+}